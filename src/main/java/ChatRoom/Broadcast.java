@@ -0,0 +1,158 @@
+package ChatRoom;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Handle on a message being sent to every member.
+ *
+ * The message is sent to all members at the same time, so a slow or disconnected member
+ * doesn't delay everyone else. Once every member received the message, failed or timed out,
+ * the broadcast is done, and it tells who received the message and how long it took.
+ *
+ * @author Abdullah
+ */
+public class Broadcast {
+
+    private final Message message;
+    private final long start = System.nanoTime();
+    private final List<Member> members = new ArrayList<>();
+    private final List<CompletableFuture<Void>> results = new ArrayList<>();
+    private final CompletableFuture<Broadcast> done = new CompletableFuture<>();
+    private volatile long end = -1;
+
+    protected Broadcast(Message message) {
+        this.message = message;
+    }
+
+    /**
+     * Add the result of sending the message to a member.
+     * Must be called before complete().
+     *
+     * @param member Member the message is sent to
+     * @param result Completed when the member received the message
+     */
+    protected void add(Member member, CompletableFuture<Void> result) {
+        members.add(member);
+        results.add(result);
+    }
+
+    /**
+     * Mark the broadcast as done once every result is known.
+     *
+     * @return This broadcast
+     */
+    protected Broadcast complete() {
+        CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).whenComplete((v, e) -> {
+            end = System.nanoTime();
+            done.complete(this);
+        });
+        return this;
+    }
+
+    /**
+     * Get the message being sent.
+     *
+     * @return Message
+     */
+    public Message getMessage() { return message; }
+
+    /**
+     * Get every member the message is sent to.
+     *
+     * @return Members, in the order of the members list when the message was sent
+     */
+    public List<Member> getMembers() { return Collections.unmodifiableList(members); }
+
+    /**
+     * Check if the result is known for every member.
+     *
+     * @return True if the broadcast is done
+     */
+    public boolean isDone() { return done.isDone(); }
+
+    /**
+     * Wait until the broadcast is done.
+     *
+     * @param timeout Maximum time to wait
+     * @param unit Unit of the timeout
+     * @return True if the broadcast is done, false if the time ran out
+     * @throws InterruptedException
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        try {
+            done.get(timeout, unit);
+            return true;
+        } catch(TimeoutException e) {
+            return false;
+        } catch(ExecutionException e) {
+            return true; // Never completed exceptionally
+        }
+    }
+
+    /**
+     * Get a future completed when the broadcast is done, e.g. to run code afterwards.
+     *
+     * @return Future completed with this broadcast
+     */
+    public CompletableFuture<Broadcast> whenDone() { return done; }
+
+    /**
+     * Get the members who received the message so far.
+     *
+     * @return List of members
+     */
+    public List<Member> getDelivered() {
+        List<Member> delivered = new ArrayList<>();
+        for(int i = 0; i < members.size(); i++) {
+            CompletableFuture<Void> result = results.get(i);
+            if(result.isDone() && !result.isCompletedExceptionally()) delivered.add(members.get(i));
+        }
+        return delivered;
+    }
+
+    /**
+     * Get the members the message could not be sent to so far, and the reason.
+     *
+     * @return Failed members, with the error
+     */
+    public Map<Member, Throwable> getFailures() {
+        Map<Member, Throwable> failures = new LinkedHashMap<>();
+        for(int i = 0; i < members.size(); i++) {
+            CompletableFuture<Void> result = results.get(i);
+            if(!result.isCompletedExceptionally()) continue;
+            try {
+                result.join();
+            } catch(CompletionException e) {
+                failures.put(members.get(i), e.getCause());
+            } catch(RuntimeException e) {
+                failures.put(members.get(i), e);
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Get the time between sending the message and knowing the result for every member.
+     *
+     * @param unit Unit of the result
+     * @return Latency of the fan-out, or -1 if the broadcast is not done
+     */
+    public long getLatency(TimeUnit unit) {
+        long e = end;
+        return e < 0? -1 : unit.convert(e - start, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return "Broadcast{delivered=" + getDelivered().size() + "/" + members.size() + ", failed=" + getFailures().size() + ", latency=" + getLatency(TimeUnit.MILLISECONDS) + "ms}";
+    }
+}
@@ -1,15 +1,26 @@
 package ChatRoom;
 
+import ChatRoomGUI.HeadlessGUI;
 import ChatRoomGUI.MainGUI;
+import java.awt.GraphicsEnvironment;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Class responsible for creating a new client for a member.
@@ -23,20 +34,44 @@ import java.util.List;
  */
 public class Client {
     
+    protected static final int SENDER_THREADS = 0; // No limit: one thread per member being written to, so slow members don't hold up the others
+    protected static final int DIGEST_MISMATCHES = 2; // Heartbeats in a row with another view of the members before asking for it
+    protected static final int RESERVATION = 30000; // ms the coordinator keeps the username of a member joining through another member
+    
     protected final Member me; // This member's details
-    protected boolean online = false; // Set to true when member connected to netowrk
+    protected volatile boolean online = false; // Set to true when member connected to netowrk
     
     private final ClientGUI gui;
     private final boolean showGUI; // Whether GUI should be visible or not
     private final ServerThread server; // Server
-    private final List<Member> members = Collections.synchronizedList(new ArrayList<>());; // List of members
-    private final List<Member> unreachableMembers = Collections.synchronizedList(new ArrayList<>());
-    private CoordinatorThread coordinatorThread = null;
-    private boolean nextCoordinator = false; // Check if this member is the next coordinator
+    private final ConnectionManager connections = new ConnectionManager(); // Connections to other members
+    private final ExecutionStrategy execution = ExecutionStrategy.fromProperty(); // Platform or virtual threads
+    private final ExecutorService sender; // Runs the sending of messages
+    private final ExecutorService control; // Runs joins, catch-ups and probes, which can wait for another member, away from the sending of messages
+    private final ScheduledExecutorService timer; // Runs timeouts
+    private final Dissemination dissemination; // How messages reach everyone
+    private final MemberTable members = new MemberTable(); // Other members, ordered by ID
+    private final Membership membership; // Epoch of the members and recent changes to them
+    private final AtomicBoolean catchingUp = new AtomicBoolean(false); // Set while asking another member for missed changes
+    private final BlockingQueue<Member> unreachableMembers = new LinkedBlockingQueue<>(); // Taken by the coordinator thread
+    private final CountDownLatch connected = new CountDownLatch(1); // Released once online
+    private final FailureDetector detector = new FailureDetector(FailureDetector.THRESHOLD, FailureDetector.HEARTBEAT_INTERVAL);
+    private final SwimProtocol swim; // Null unless members probe each other instead of sending heartbeats
+    private final CoordinatorLease lease = new CoordinatorLease(CoordinatorLease.LEASE, CoordinatorLease.STEP);
+    private final IdAllocator ids = new IdAllocator(this); // IDs for members joining through this client
+    private final StateTransfer transfer = new StateTransfer(this); // Messages sent before joining, for new members and this client
+    private final AtomicLong nextSeq = new AtomicLong(); // Sequence number of the next message sent, part of its ID
+    private final SeenSet seen = new SeenSet(); // IDs of the messages received, by sender
+    private final AtomicLong duplicates = new AtomicLong(); // Messages received more than once
+    private final ReliableDelivery reliable = newReliableDelivery(); // Frames sent to each member until acknowledged
+    private final Map<Integer, Integer> digestMismatches = new ConcurrentHashMap<>(); // Heartbeats in a row with another view of the members, by sender
+    private volatile CoordinatorThread coordinatorThread = null;
+    private boolean nextCoordinator = false; // Check if this member is one of the successors of the coordinator
     private int newestMemberID = -1;
-    private int oldestMemberID = -1; // Oldest member that is NOT a coordinator (i.e. next coordinator)
+    private int oldestMemberID = -1; // Oldest member that is NOT a coordinator, first of its successors (see CoordinatorLease.rank())
+    private long trainedVersion = -1; // Version of the members the compression dictionary was built from
     
-    private final ArrayList<Message> allMessages = new ArrayList<>();
+    private final History history; // Messages shown in the chat
     
     /**
      * Creates a single client.
@@ -52,9 +87,14 @@ public class Client {
     public Client(Member me, boolean showGUI, String existingMemberAddress, int existingMemberPort) throws PortNotAvailbleException, UnknownMemberException, InvalidUsernameException {
         this.me = me;
         this.showGUI = showGUI;
-        gui = new MainGUI(me.getUsername());
+        membership = new Membership(me, members, Membership.MAX_DELTAS);
+        gui = GraphicsEnvironment.isHeadless()? new HeadlessGUI() : new MainGUI(me.getUsername()); // No display available, e.g. running on a server
         gui.setVisibility(showGUI);
         
+        // Show the messages from the last time this member was online, if any
+        history = History.Mode.fromProperty().create(me);
+        for(Message message: history.snapshot()) gui.addMessage(message, message.getUsername().equals(me.getUsername()));
+        
         // Disable input until connected to server
         gui.getMessageInput().setEnabled(false);
         gui.getSendButton().setEnabled(false);
@@ -93,7 +133,17 @@ public class Client {
         });
         
         // Start the server
-        server = new ServerThread(this);
+        sender = execution.newExecutor("Sender-" + me.getPort(), SENDER_THREADS);
+        control = execution.newExecutor("Control-" + me.getPort(), 0);
+        timer = ExecutionStrategy.newScheduler("Timer-" + me.getPort());
+        dissemination = newDissemination();
+        swim = FailureDetector.Mode.fromProperty() == FailureDetector.Mode.SWIM? new SwimProtocol(this) : null;
+        try {
+            server = new ServerThread(this);
+        } catch(PortNotAvailbleException e) {
+            history.close();
+            throw e;
+        }
         server.start(); // Start server
         
         /**
@@ -111,61 +161,93 @@ public class Client {
             coordinatorThread.start();
         } else {
             try {
-                for(Member m: sendRequest(existingMemberAddress, existingMemberPort)) members.add(m);
+                membership.load(sendRequest(existingMemberAddress, existingMemberPort));
                 postMessage(new Message(me.getUsername(), "Connected!", MessageType.SYSTEM));
             } catch(ClassNotFoundException e) {
                 System.out.println("Received invalid response.");
             }
         }
         online = true;
+        lease.renew(); // Give the coordinator a full lease to show up
+        connected.countDown();
+        if(swim != null) swim.start();
+        timer.scheduleAtFixedRate(this::sendHeartbeats, 0, FailureDetector.HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
         
         // Connected, enable input
         gui.getMessageInput().setEnabled(true);
         gui.getSendButton().setEnabled(true);
         
         updateMembersList();
+        
+        // Get the messages sent before joining, while the user can already chat
+        transfer.fetch(existingMemberAddress, existingMemberPort);
+    }
+    
+    /**
+     * Method to create the frames sent to each member until acknowledged, e.g. losing some in tests.
+     * Called while this client is being created.
+     * 
+     * @return Reliable delivery of this client
+     */
+    protected ReliableDelivery newReliableDelivery() {
+        return new ReliableDelivery(this);
+    }
+    
+    /**
+     * Method to create how messages from this client reach every member, set by "chatroom.dissemination".
+     * Called while this client is being created.
+     * 
+     * @return Dissemination of this client
+     */
+    protected Dissemination newDissemination() {
+        return Dissemination.Mode.fromProperty().create(this);
     }
     
     /**
      * Method to retrieve the full list of members.
+     * Use snapshot() to go through the members without seeing changes made meanwhile.
      * 
-     * @return List of members.
+     * @return Table of members, ordered by ID.
      */
-    protected synchronized List<Member> getMembers() {
-        System.out.println("getMembers()");
+    protected MemberTable getMembers() {
         return members;
     }
     
+    /**
+     * Method to get the versioned view of the members, e.g. to check that members agree on it.
+     * 
+     * @return Membership of this client
+     */
+    protected Membership getMembership() {
+        return membership;
+    }
+    
     /**
      * Method to send a request to be added to an existing network.
      * 
      * @param address Host of another member
      * @param port Port of the other member
-     * @return List of all members in the network
+     * @return Full view of the members in the network, including this member
      * @throws ChatRoom.UnknownMemberException
      * @throws java.lang.ClassNotFoundException
      */
-    private List<Member> sendRequest(String address, int port) throws UnknownMemberException, ClassNotFoundException, InvalidUsernameException {
+    private MembershipView sendRequest(String address, int port) throws UnknownMemberException, ClassNotFoundException, InvalidUsernameException {
         System.out.println("sendRequest(" + address + ", " + port + ")");
         try {
             postMessage(new Message(me.getUsername(), "Sending request...", MessageType.SYSTEM));
             Socket conn = new Socket(address, port);
-            ObjectOutputStream out = new ObjectOutputStream(conn.getOutputStream());
-            out.writeObject(me);
-            out.flush();
-            ObjectInputStream in = new ObjectInputStream(conn.getInputStream());
-            List<Member> m = (List<Member>) in.readObject();
+            Frames.write(conn.getOutputStream(), me);
+            MembershipView view = (MembershipView) Frames.read(new DataInputStream(conn.getInputStream()));
             conn.close();
             
-            // Check if username is unique
-            if(m.isEmpty()) throw new InvalidUsernameException("Username must be unique.");
-            
-            // Find the highest ID
-            newestMemberID = m.get(m.size()-1).getID();
+            // The member contacted gave this member its ID. Not in the view if the username is NOT unique.
+            Member self = null;
+            for(Member m: view.getMembers()) if(m.getUsername().equals(me.getUsername())) self = m;
+            if(self == null) throw new InvalidUsernameException("Username must be unique.");
             
-            me.setID(++newestMemberID);
+            me.setID(self.getID());
             
-            return m;
+            return view;
         } catch (IOException e) {
             throw new UnknownMemberException("Member at " + address + "does not exist.");
         }
@@ -175,52 +257,71 @@ public class Client {
      * Method to handle incoming connection requests from new members trying to join the network.
      * 
      * @param newMember Member trying to join.
-     * @param conn Connection to the member.
+     * @return Full view to be sent back to the new member, including them. Empty if the request is denied.
      */
-    protected void incomingRequest(Member newMember, Socket conn) {
-        System.out.println("incomingRequest(" + newMember + ", " + conn + ")");
-        try {
-            ObjectOutputStream out = new ObjectOutputStream(conn.getOutputStream());
-            
-            ArrayList<Member> everyone = new ArrayList<>();
-            everyone.add(me);
-
-            boolean usernameUnique = !newMember.getUsername().equals(me.getUsername()); // New user's username MUST BE UNIQUE
-            
-            // If the username is unique
-            while(usernameUnique) {
-                for(Member m: getMembers()) {
-                    usernameUnique = !m.getUsername().equals(newMember.getUsername());
-                    everyone.add(m);
-                }
-                everyone.sort((m1, m2) -> { return m1.getID() - m2.getID(); }); // Sort list
+    protected MembershipView incomingRequest(Member newMember) {
+        System.out.println("incomingRequest(" + newMember + ")");
 
-                // Notify everyone of this new member
-                globalAddMember(newMember);
-                break;
-            }
-            if(!usernameUnique) everyone.clear(); // Empty list means username is NOT unique
+        MembershipView denied = MembershipView.full(membership.getEpoch(), new ArrayList<>(), 0); // Empty view means the join is denied
+        // New user's username MUST BE UNIQUE, and stays reserved until the new member is added
+        if(newMember.getUsername().equalsIgnoreCase(me.getUsername()) || !getMembers().reserve(newMember.getUsername())) return denied;
 
-            out.writeObject(everyone);
-            out.flush();
-            conn.close();
-        } catch(IOException e) {}
+        // Notify everyone of this new member
+        try {
+            globalAddMember(newMember);
+        } catch(IOException e) {
+            System.out.println("Could not add " + newMember + ": " + e);
+            return denied;
+        } finally {
+            getMembers().release(newMember.getUsername());
+        }
+        transfer.offer(newMember); // Messages for the new member to fetch once online
+        return membership.full();
     }
     
     /**
      * Method to inform existing members about a new member.
      * 
      * @param newMember Details of the new member
+     * @throws IOException If no ID could be given to the new member, or another member joined with the same username meanwhile
      */
-    protected void globalAddMember(Member newMember) {
+    protected void globalAddMember(Member newMember) throws IOException {
         System.out.println("globalAddMember(" + newMember + ")");
-        newMember.setID(++newestMemberID); // Assign new ID to the member
-        sendCommand("newMember:"+newMember.getUsername()+":"+newestMemberID+":"+newMember.getAddress()+":"+newMember.getPort()); // FORMAT => username:id:address:port
-        getMembers().add(newMember);
+        newMember.setID(ids.allocate(newMember.getUsername())); // Assign new ID to the member, from the range of this member
+        if(getMembers().byUsername(newMember.getUsername()) != null) throw new IOException("Username taken by a member who joined meanwhile");
+        sendDelta(membership.change(MembershipDelta.Type.JOIN, newMember.getID(), newMember));
         updateMembersList();
         postMessage(new Message(me.getUsername(), "New member \"" + newMember.getUsername() + "\" joined the chat!", MessageType.SYSTEM));
     }
     
+    /**
+     * Method to hand out IDs for new members, when this client is the coordinator.
+     * The IDs are sent to everyone, so the next coordinator doesn't hand them out again.
+     * The username of the member joining is reserved until it is added, or for RESERVATION,
+     * so no other member can join with it meanwhile through another member.
+     * 
+     * @param request Member asking, how many IDs it wants, and the username of the member joining
+     * @return IDs handed out, or an empty range if this client is not the coordinator or the username is taken
+     */
+    protected IdRange grantIds(IdRequest request) {
+        System.out.println("grantIds(" + request + ")");
+        if(!me.isCoordinator() || request.getCount() < 0) return IdRange.refused(IdRange.Status.NOT_COORDINATOR);
+        // Joins accepted by this client reserved the username already (see incomingRequest())
+        if(request.getRequester() != me.getID() && (request.getUsername().equalsIgnoreCase(me.getUsername())
+                || !getMembers().reserve(request.getUsername(), RESERVATION))) return IdRange.refused(IdRange.Status.TAKEN);
+        if(request.getCount() == 0) return new IdRange(0, 0);
+        MembershipDelta delta = membership.lease(request.getCount());
+        sendDelta(delta);
+        return new IdRange(delta.getID() - request.getCount(), delta.getID());
+    }
+    
+    /**
+     * Method to get the IDs given by this client to new members.
+     * 
+     * @return ID allocator of this client
+     */
+    protected IdAllocator getIds() { return ids; }
+    
     /**
      * Method to inform the network about a member leaving the group.
      * 
@@ -229,15 +330,176 @@ public class Client {
      */
     protected void globalRemoveMember(int id, String userName) {
         System.out.println("globalRemoveMember(" + id + ", " + userName + ")");
-        for(Member m: getMembers()) {
-            if(m.getID() == id) {
-                getMembers().remove(m);
-                postMessage(new Message(me.getUsername(), "Member " + userName + " left.", MessageType.SYSTEM));
-                updateMembersList();
+        boolean known = getMembers().byId(id) != null;
+        sendDelta(membership.change(MembershipDelta.Type.LEAVE, id, null));
+        forget(id);
+        if(known) {
+            postMessage(new Message(me.getUsername(), "Member " + userName + " left.", MessageType.SYSTEM));
+            updateMembersList();
+        }
+    }
+    
+    /**
+     * Method to inform the network that this member is the new coordinator.
+     */
+    protected void globalNewCoordinator() {
+        System.out.println("globalNewCoordinator()");
+        lease.renew(); // Held until the members stop acking its heartbeats
+        sendDelta(membership.change(MembershipDelta.Type.COORDINATOR, me.getID(), null));
+    }
+    
+    /**
+     * Send a change of the members to all members in the network.
+     * A new member is not sent its own JOIN, it receives the full view instead.
+     * 
+     * @param delta Change made by this member
+     * @return Handle to check which members received the change
+     */
+    protected Broadcast sendDelta(MembershipDelta delta) {
+        System.out.println("sendDelta(" + delta + ")");
+        List<Member> others = new ArrayList<>(getMembers().snapshot());
+        if(delta.getType() == MembershipDelta.Type.JOIN) others.removeIf(m -> m.getID() == delta.getID());
+        return new MessagingThread(this, null).send(delta, others);
+    }
+    
+    /**
+     * Method to apply a change of the members made by another member.
+     * If changes before it were missed, they are asked to the author of the change.
+     * 
+     * @param delta Change received
+     */
+    protected void applyDelta(MembershipDelta delta) {
+        Member before = getMembers().byId(delta.getID());
+        Membership.Outcome outcome = membership.apply(delta);
+        if(outcome == Membership.Outcome.IGNORED) return;
+        
+        switch(delta.getType()) {
+            case JOIN:
+                if(before == null && getMembers().byId(delta.getID()) != null) {
+                    postMessage(new Message(me.getUsername(), "New member \"" + delta.getMember().getUsername() + "\" joined the chat!", MessageType.SYSTEM));
+                }
                 break;
-            }
+            case LEAVE:
+                detector.remove(delta.getID());
+                server.getHeartbeats().remove(delta.getID());
+                seen.forget(delta.getID());
+                reliable.forget(delta.getID());
+                if(before != null) {
+                    connections.evict(delta.getID());
+                    postMessage(new Message(me.getUsername(), "Member " + before.getUsername() + " left.", MessageType.SYSTEM));
+                }
+                break;
+            case COORDINATOR:
+                lease.renew(); // The new coordinator starts with a full lease
+                if(before != null) postMessage(new Message(me.getUsername(), before.getUsername() + " is the new coordinator!", MessageType.SYSTEM));
+                break;
+            case IDS:
+                break;
+        }
+        if(delta.getType() != MembershipDelta.Type.IDS) updateMembersList();
+        
+        if(outcome == Membership.Outcome.BEHIND) catchUp(delta.getOrigin());
+    }
+    
+    /**
+     * Method to ask for the changes of the members this client missed.
+     * Runs on the control executor, asking the author of the last change, or the coordinator if it can't answer.
+     * 
+     * @param origin ID of the member who made the last change
+     */
+    private void catchUp(int origin) {
+        if(!catchingUp.compareAndSet(false, true)) return; // Already asking
+        try {
+            control.execute(() -> {
+                try {
+                    List<Member> candidates = new ArrayList<>();
+                    if(getMembers().byId(origin) != null) candidates.add(getMembers().byId(origin));
+                    if(!getMembers().isEmpty()) candidates.add(getMembers().get(0)); // Coordinator
+                    for(Member m: candidates) {
+                        try (Socket conn = new Socket(m.getAddress(), m.getPort())) {
+                            Frames.write(conn.getOutputStream(), new ViewRequest(me.getID(), membership.getCatchUpEpoch()));
+                            applyView((MembershipView)Frames.read(new DataInputStream(conn.getInputStream())));
+                            return;
+                        } catch(IOException | ClassNotFoundException e) {
+                            System.out.println("Could not catch up with " + m + ": " + e);
+                        }
+                    }
+                } finally {
+                    catchingUp.set(false);
+                }
+            });
+        } catch(RejectedExecutionException e) {
+            catchingUp.set(false); // Client terminated
+        }
+    }
+    
+    /**
+     * Method to compare the members known by another member, from the digest in its heartbeat, with
+     * the members known by this client. If they still differ at the next heartbeat, i.e. not only
+     * because a change is on its way, the members of the other member are asked for and merged,
+     * and the members it knows have left are removed.
+     * 
+     * @param from Member who sent the heartbeat
+     * @param digest Digest of the members it knows
+     */
+    protected void compareDigest(Member from, long digest) {
+        if(digest == membership.getDigest()) {
+            digestMismatches.remove(from.getID());
+            return;
+        }
+        if(digestMismatches.merge(from.getID(), 1, Integer::sum) < DIGEST_MISMATCHES) return;
+        digestMismatches.remove(from.getID());
+        if(!catchingUp.compareAndSet(false, true)) return; // Already asking
+        try {
+            control.execute(() -> {
+                try (Socket conn = new Socket(from.getAddress(), from.getPort())) {
+                    Frames.write(conn.getOutputStream(), new ViewRequest(me.getID(), ViewRequest.FULL));
+                    MembershipView view = (MembershipView)Frames.read(new DataInputStream(conn.getInputStream()));
+                    List<Member> added = membership.merge(view);
+                    for(Member m: added) postMessage(new Message(me.getUsername(), "New member \"" + m.getUsername() + "\" joined the chat!", MessageType.SYSTEM));
+                    for(Member m: membership.prune(view)) {
+                        forget(m.getID());
+                        postMessage(new Message(me.getUsername(), "Member " + m.getUsername() + " left.", MessageType.SYSTEM));
+                    }
+                    updateMembersList();
+                } catch(IOException | ClassNotFoundException e) {
+                    System.out.println("Could not compare members with " + from + ": " + e);
+                } finally {
+                    catchingUp.set(false);
+                }
+            });
+        } catch(RejectedExecutionException e) {
+            catchingUp.set(false); // Client terminated
+        }
+    }
+    
+    /**
+     * Method to drop what this client keeps about a member who is gone.
+     * 
+     * @param id ID of the member
+     */
+    private void forget(int id) {
+        connections.evict(id);
+        detector.remove(id);
+        server.getHeartbeats().remove(id);
+        seen.forget(id);
+        reliable.forget(id);
+    }
+    
+    /**
+     * Method to apply the view sent back by another member when catching up.
+     * 
+     * @param view Changes missed, or every member if this client was too far behind
+     */
+    private void applyView(MembershipView view) {
+        System.out.println("applyView(" + view + ")");
+        if(view.isFull()) {
+            for(Member m: membership.load(view)) forget(m.getID());
+            updateMembersList();
+        } else {
+            for(MembershipDelta delta: view.getDeltas()) applyDelta(delta);
+            membership.caughtUp(view.getEpoch());
         }
-        sendCommand("removeMember:"+id);
     }
     
     /**
@@ -251,26 +513,50 @@ public class Client {
     }
     
     /**
-     * Send a command to all members in the network.
+     * Send a message to all members in the list.
+     * 
+     * @param message Message to be sent
+     * @return Handle to check which members received the message
+     */
+    protected Broadcast sendMessage(Message message) {
+        if(!message.hasId()) message = message.withId(me.getID(), nextSeq.getAndIncrement());
+        seen.add(message.getOrigin(), message.getSeq()); // Not shown again if passed back by another member
+        Broadcast broadcast = dissemination.send(message);
+        if(message.getMessageType() == MessageType.MESSAGE) postMessage(message);
+        return broadcast;
+    }
+    
+    /**
+     * Method to check if a message received was not received before, e.g. sent again after a
+     * lost connection, or by two members passing it on. Messages without an ID are always new.
      * 
-     * @param command
+     * @param message Message received
+     * @return False if the message was already received
      */
-    protected void sendCommand(String command) {
-        System.out.println("sendCommand(" + command + ")");
-        sendMessage(new Message(me.getUsername(), command, MessageType.COMMAND));
+    protected boolean firstReceived(Message message) {
+        if(!message.hasId() || seen.add(message.getOrigin(), message.getSeq())) return true;
+        duplicates.incrementAndGet();
+        return false;
     }
     
     /**
-     * Send a String to all members in the list.
+     * Method to check if a message was received before, without counting it as received, e.g. to
+     * decide whether to pass it on. Messages without an ID are always new.
      * 
-     * @param string Message to be sent
-     * @param isCommand Set to true if this is command
+     * @param message Message received
+     * @return True if the message was already received
      */
-    private void sendMessage(Message message) {
-        new MessagingThread(this, message);
-        if(message.getMessageType() == MessageType.MESSAGE) postMessage(message);
+    protected boolean receivedBefore(Message message) {
+        return message.hasId() && seen.contains(message.getOrigin(), message.getSeq());
     }
     
+    /**
+     * Method to get the number of messages dropped because they were already received.
+     * 
+     * @return Duplicates dropped so far
+     */
+    protected long getDuplicates() { return duplicates.get(); }
+    
     /**
      * Method to add messages to the chat area
      * 
@@ -278,7 +564,7 @@ public class Client {
      */
     protected void postMessage(Message message) {
         System.out.println("postMessage(" + message + ")");
-        if(!showGUI) allMessages.add(message); // Store messages into ArrayList if GUI is hidden.
+        history.append(message);
         gui.addMessage(message, message.getUsername().equals(me.getUsername()));
     }
     
@@ -293,46 +579,163 @@ public class Client {
         oldestMemberID = me.getID();
         newestMemberID = me.getID();
         
-        for(Member member: getMembers()) {
+        for(Member member: getMembers().snapshot()) {
             if(member.getID() > newestMemberID) newestMemberID = member.getID(); // Find the highest ID
             else if(member.getID() < oldestMemberID && !member.isCoordinator()) oldestMemberID = member.getID(); // Find the lowest ID
             gui.addMember(member);
         }
         
-        // Check if this member is the next coordinator
-        if(me.getID() == oldestMemberID && !me.isCoordinator() && !nextCoordinator) {
+        // Check if this member is one of the successors of the coordinator
+        if(CoordinatorLease.rank(me.getID(), getMembers().snapshot()) >= 0 && !me.isCoordinator() && !nextCoordinator) {
             coordinatorThread = new CoordinatorThread(this);
             coordinatorThread.start();
             nextCoordinator = true;
         }
         
+        // Usernames and addresses of the members are part of the compression dictionary, rebuilt when they change
+        MemberTable.Snapshot snapshot = members.snapshot();
+        if(connections.getCompressor() != null && snapshot.getVersion() != trainedVersion) {
+            List<Member> everyone = new ArrayList<>();
+            everyone.add(me);
+            everyone.addAll(snapshot);
+            connections.getCompressor().train(everyone);
+            trainedVersion = snapshot.getVersion();
+        }
+        
         System.out.println("Me: " + me.getID() + ", oldest: " + oldestMemberID + ", newest: " + newestMemberID);
         gui.refreshMembersList();
     }
     
     /**
-     * Method to get the list of all members this client is having trouble to connect to.
+     * Method to show the other members this client is still there.
+     * The coordinator sends a heartbeat to every member, renewing its lease, the other members only to
+     * the coordinator. With SWIM, the other members don't send any, they are probed instead.
+     */
+    private void sendHeartbeats() {
+        MemberTable.Snapshot others = getMembers().snapshot();
+        if(others.isEmpty()) return;
+        try {
+            HeartbeatChannel heartbeats = server.getHeartbeats();
+            if(me.isCoordinator()) for(Member m: others) heartbeats.ping(m);
+            else if(swim == null) heartbeats.ping(others.get(0));
+        } catch(IOException e) {
+            System.out.println("Could not send heartbeats: " + e);
+        }
+    }
+    
+    /**
+     * Method to get how likely it is that each member is gone, from the heartbeats received.
+     * 
+     * @return Failure detector of this client
+     */
+    protected FailureDetector getFailureDetector() { return detector; }
+    
+    /**
+     * Method to get the UDP endpoint sending and receiving heartbeats, e.g. to see round trip times.
+     * 
+     * @return Heartbeat channel of this client's server
+     */
+    protected HeartbeatChannel getHeartbeats() { return server.getHeartbeats(); }
+    
+    /**
+     * Method to get the SWIM protocol run by this client, with -Dchatroom.liveness=SWIM.
+     * 
+     * @return SWIM protocol, or null if members send heartbeats instead
+     */
+    protected SwimProtocol getSwim() { return swim; }
+    
+    /**
+     * Method to get the lease of the coordinator, renewed by its heartbeats.
+     * 
+     * @return Lease as seen by this client
+     */
+    protected CoordinatorLease getLease() { return lease; }
+    
+    /**
+     * Method to get the kind of threads used by this client.
+     * 
+     * @return Execution strategy of this client
+     */
+    protected ExecutionStrategy getExecution() { return execution; }
+    
+    /**
+     * Method to get the connections used to send messages to other members.
      * 
-     * @return List of unreachable members
+     * @return Connection manager of this client
      */
-    protected synchronized List<Member> getUnreachableMembers() {
+    protected ConnectionManager getConnections() { return connections; }
+    
+    /**
+     * Method to get how messages from this client reach every member.
+     * 
+     * @return Dissemination of this client
+     */
+    protected Dissemination getDissemination() { return dissemination; }
+    
+    /**
+     * Method to get the executor sending messages to other members.
+     * 
+     * @return Sender executor of this client
+     */
+    protected ExecutorService getSender() { return sender; }
+    
+    /**
+     * Method to get the executor running joins, catch-ups and probes, so a slow member doesn't hold up the sending of messages.
+     * 
+     * @return Control executor of this client
+     */
+    protected ExecutorService getControl() { return control; }
+    
+    /**
+     * Method to get the scheduler running the timeouts of this client.
+     * 
+     * @return Timer of this client
+     */
+    protected ScheduledExecutorService getTimer() { return timer; }
+    
+    /**
+     * Method to get the members reported as unreachable, waiting to be checked by the coordinator.
+     * 
+     * @return Queue of unreachable members
+     */
+    protected BlockingQueue<Member> getUnreachableMembers() {
         return unreachableMembers;
     }
     
+    /**
+     * Method to wait until this client is connected to the network.
+     * 
+     * @throws InterruptedException If interrupted while waiting
+     */
+    protected void awaitOnline() throws InterruptedException {
+        connected.await();
+    }
+    
+    /**
+     * Method to get the thread checking the coordinator, or the members if this client is the coordinator.
+     * 
+     * @return Coordinator thread, or null if this client is neither the coordinator nor the next one
+     */
+    protected CoordinatorThread getCoordinatorThread() { return coordinatorThread; }
+    
     /**
      * Method to handle a member this client is having trouble connecting to.
      * 
      * @param m Member having issues to connect with.
      */
-    protected synchronized void unreachableMember(Member m) {
+    protected void unreachableMember(Member m) {
         System.out.println("unreachableMember(" + m + ")");
+        if(swim != null) return; // Probes will find out if the member is really gone
         if(me.isCoordinator()) unreachableMembers.add(m);
         else {
-            Member coordinator = members.get(0);
-            try (Socket conn = new Socket(coordinator.getAddress(), coordinator.getPort())) {
-                ObjectOutputStream out = new ObjectOutputStream(conn.getOutputStream());
-                out.writeObject(new Message(me.getUsername(), "unreachable:" + m.getID(), MessageType.COMMAND));
-                out.flush();
+            Member coordinator;
+            try {
+                coordinator = members.get(0);
+            } catch(IndexOutOfBoundsException e) {
+                return; // Everyone else left
+            }
+            try {
+                connections.send(coordinator, new Unreachable(me.getID(), m.getID()));
             } catch (IOException e) {
                 System.out.println("error connecting to the coordinator: " + e);
             }
@@ -340,9 +743,33 @@ public class Client {
     }
     
     /**
-     * Method to get all messages if GUI is hidden.
+     * Method to get all messages shown in the chat, oldest first.
+     * With the RING history, only the most recent messages are kept.
+     * 
+     * @return Read-only snapshot of the history
+     */
+    public List<Message> getAllMessages() { return history.snapshot(); }
+    
+    /**
+     * Method to get the messages kept by this client, e.g. to check how much space they take.
+     * 
+     * @return History of this client
+     */
+    public History getHistory() { return history; }
+    
+    /**
+     * Method to get the messages sent to new members, and received when this client joined.
+     * 
+     * @return State transfer of this client
+     */
+    protected StateTransfer getTransfer() { return transfer; }
+    
+    /**
+     * Method to get the frames sent to each member until they are acknowledged.
+     * 
+     * @return Reliable delivery of this client
      */
-    public ArrayList<Message> getAllMessages() { return allMessages; }
+    protected ReliableDelivery getReliable() { return reliable; }
     
     /**
      * Method to terminate application.
@@ -350,7 +777,14 @@ public class Client {
     public void quit() {
         System.out.println("Preparing to terminate application");
         server.stopThread();
+        sender.shutdown();
+        control.shutdown();
+        if(swim != null) swim.stop();
+        timer.shutdownNow();
+        dissemination.close();
+        connections.closeAll();
         if(coordinatorThread != null) coordinatorThread.stopThread();
+        history.close();
         gui.terminate();
     }
 }
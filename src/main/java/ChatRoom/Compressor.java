@@ -0,0 +1,128 @@
+package ChatRoom;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Optional compression of the frames sent by a client, enabled with -Dchatroom.compression=DEFLATE.
+ *
+ * Frames are small (a chat message is often under 100 bytes), too small for deflate to find
+ * anything to reuse within a single frame. Instead, every frame is compressed against a
+ * dictionary holding what frames usually contain: system messages, common
+ * words, and the username, ID, address and port of every member of the room, encoded the way
+ * they are sent when a member joins. Most of a frame then becomes a reference into the dictionary.
+ *
+ * The dictionary is rebuilt when the members change. Connections only go one way, so the
+ * dictionary is announced by the sender: it is written when a connection is opened, and the
+ * receiver keeps it for the frames that follow (see Decompressor). A connection keeps using the
+ * dictionary it announced, the rebuilt one is picked up by connections opened later.
+ * Frames smaller than MIN_SIZE, or that don't get smaller, are sent as they are.
+ *
+ * A compressed payload is made of the DEFLATE format byte, the dictionary ID, the length of
+ * the original payload and the raw deflate stream.
+ *
+ * @author Abdullah
+ */
+class Compressor {
+
+    protected static final boolean ENABLED = "DEFLATE".equalsIgnoreCase(System.getProperty("chatroom.compression", "OFF"));
+    protected static final int MIN_SIZE = Integer.getInteger("chatroom.compression.min", 32); // Payload bytes
+    protected static final int MAX_DICTIONARY_SIZE = 32 * 1024 - 262; // Deflate can't look further back
+
+    // Text found in most frames, the most frequent last since deflate prefers close matches
+    private static final String PRIMER =
+            "the you and that have for not with this but what how are was just can will all " +
+            "know think good yes no ok okay thanks thank please sorry sure maybe now today tomorrow " +
+            "hello hi hey everyone guys lol :) :D :( ? ! ... " +
+            "Share your ADDRESS:PORT with other members: Sending request...Connected! " +
+            " is the new coordinator!Member  left.New member \" joined the chat!localhost";
+
+    private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>(); // Idle deflaters, so connections compress at the same time
+    private volatile Dictionary dictionary = build(Arrays.asList());
+
+    /**
+     * Get the dictionary new frames are compressed with.
+     *
+     * @return Current dictionary
+     */
+    public Dictionary getDictionary() { return dictionary; }
+
+    /**
+     * Rebuild the dictionary from the members of the room, called when they change.
+     * The dictionary is only replaced if it changed.
+     *
+     * @param members Members of the room, including this member
+     */
+    public synchronized void train(Collection<Member> members) {
+        Dictionary trained = build(members);
+        if(!trained.equals(dictionary)) dictionary = trained;
+    }
+
+    /**
+     * Build a dictionary for a room.
+     *
+     * @param members Members of the room
+     * @return Dictionary made of the primer and the details of each member
+     */
+    protected static Dictionary build(Collection<Member> members) {
+        WireCodec.Output out = new WireCodec.Output();
+        byte[] primer = PRIMER.getBytes(StandardCharsets.UTF_8);
+        out.write(primer, 0, primer.length);
+        for(Member m: members) {
+            byte[] quoted = ("\"" + m.getUsername() + "\"").getBytes(StandardCharsets.UTF_8);
+            out.write(quoted, 0, quoted.length);
+            WireCodec.encode(m, out);
+        }
+
+        // Keep the end: the newest members are more likely to be mentioned
+        ByteBuffer all = out.toByteBuffer();
+        int from = Math.max(0, all.limit() - MAX_DICTIONARY_SIZE);
+        byte[] bytes = Arrays.copyOfRange(all.array(), from, all.limit());
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return new Dictionary((int)crc.getValue(), bytes);
+    }
+
+    /**
+     * Compress a frame with a dictionary.
+     *
+     * @param frame Encoded frame, ready to be read
+     * @param dictionary Dictionary already announced to the receiver
+     * @return Compressed frame, or the same frame if compressing it is not worth it
+     */
+    public ByteBuffer compress(ByteBuffer frame, Dictionary dictionary) {
+        int length = frame.remaining() - Frames.HEADER_SIZE;
+        if(length < MIN_SIZE) return frame;
+
+        Deflater deflater = deflaters.poll();
+        if(deflater == null) deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true); // Raw deflate, the frame has its own header
+        try {
+            byte[] deflated = new byte[length];
+            deflater.reset();
+            deflater.setDictionary(dictionary.getBytes());
+            deflater.setInput(frame.array(), frame.arrayOffset() + frame.position() + Frames.HEADER_SIZE, length);
+            deflater.finish();
+            int size = deflater.deflate(deflated, 0, length);
+            if(!deflater.finished()) return frame; // Would not get smaller
+
+            WireCodec.Output out = new WireCodec.Output();
+            out.write(new byte[Frames.HEADER_SIZE], 0, Frames.HEADER_SIZE);
+            out.write(WireCodec.DEFLATE);
+            out.writeVarint(dictionary.getID() & 0xFFFFFFFFL);
+            out.writeVarint(length);
+            out.write(deflated, 0, size);
+            if(out.size() >= frame.remaining()) return frame;
+            ByteBuffer result = out.toByteBuffer();
+            result.putInt(0, result.limit() - Frames.HEADER_SIZE);
+            return result;
+        } finally {
+            deflaters.offer(deflater);
+        }
+    }
+}
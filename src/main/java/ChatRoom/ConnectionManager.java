@@ -0,0 +1,135 @@
+package ChatRoom;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps one reusable connection for each member this client sends messages to.
+ *
+ * Previously a new connection was opened (and closed) for every member on every message.
+ * Now a connection is opened the first time a member is contacted, and kept until
+ * the member leaves the chat.
+ * 
+ * When compression is enabled, all connections share the same Compressor, so its dictionary
+ * is only rebuilt once when the members change. Each connection compresses its own frames.
+ *
+ * @author Abdullah
+ */
+class ConnectionManager {
+
+    private final ConcurrentHashMap<Integer, PeerConnection> connections = new ConcurrentHashMap<>();
+    private final Compressor compressor;
+    private volatile boolean open = true;
+
+    public ConnectionManager() {
+        this(Compressor.ENABLED? new Compressor() : null);
+    }
+
+    /**
+     * Create a connection manager, choosing whether frames are compressed.
+     *
+     * @param compressor Compressor shared by all connections, or null to send frames as they are
+     */
+    public ConnectionManager(Compressor compressor) {
+        this.compressor = compressor;
+    }
+
+    /**
+     * Get the compressor used by the connections.
+     *
+     * @return Compressor, or null if frames are sent as they are
+     */
+    public Compressor getCompressor() { return compressor; }
+
+    /**
+     * Get the connection to a member, creating it if needed.
+     *
+     * @param member Member to connect to
+     * @return Connection to the member
+     */
+    public PeerConnection get(Member member) {
+        PeerConnection conn = connections.get(member.getID());
+        // Member with the same ID but different address (should not happen, but be safe)
+        if(conn != null && (conn.getMember().getPort() != member.getPort() || !conn.getMember().getAddress().equals(member.getAddress()))) {
+            evict(member.getID());
+            conn = null;
+        }
+        if(conn == null) conn = connections.computeIfAbsent(member.getID(), id -> new PeerConnection(member, compressor));
+        return conn;
+    }
+
+    /**
+     * Send an object to a member.
+     *
+     * @param member Member to send to
+     * @param obj Object to be sent
+     * @throws IOException If the member could not be reached
+     */
+    public void send(Member member, Object obj) throws IOException {
+        send(member, Frames.encode(obj));
+    }
+
+    /**
+     * Send an already encoded frame to a member.
+     * Useful when the same frame is sent to many members.
+     *
+     * @param member Member to send to
+     * @param frame Encoded frame
+     * @throws IOException If the member could not be reached
+     */
+    public void send(Member member, ByteBuffer frame) throws IOException {
+        if(!open) throw new IOException("Client terminated");
+        get(member).send(frame);
+    }
+
+    /**
+     * Queue an already encoded frame to be sent to a member, without waiting for it.
+     * Frames queued for the same member are sent in order.
+     *
+     * @param member Member to send to
+     * @param frame Encoded frame
+     * @param executor Executor writing the frames
+     * @return Completed when the frame is written, or exceptionally if the member could not be reached
+     */
+    public CompletableFuture<Void> sendAsync(Member member, ByteBuffer frame, Executor executor) {
+        if(!open) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IOException("Client terminated"));
+            return failed;
+        }
+        return get(member).sendAsync(frame, executor);
+    }
+
+    /**
+     * Abort the connection to a member, e.g. when a write takes too long.
+     * The connection is kept, and opened again for the next frame.
+     *
+     * @param id ID of the member
+     */
+    public void abort(int id) {
+        PeerConnection conn = connections.get(id);
+        if(conn != null) conn.abort();
+    }
+
+    /**
+     * Close and forget the connection to a member, e.g. when the member leaves.
+     *
+     * @param id ID of the member
+     */
+    public void evict(int id) {
+        PeerConnection conn = connections.remove(id);
+        if(conn != null) conn.terminate();
+    }
+
+    /**
+     * Close all connections.
+     */
+    public void closeAll() {
+        open = false;
+        for(PeerConnection conn: connections.values()) conn.terminate();
+        connections.clear();
+    }
+}
@@ -0,0 +1,99 @@
+package ChatRoom;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time-bounded lease on the coordinator role.
+ *
+ * Only the single next coordinator used to watch the coordinator, so if both were gone, nobody
+ * took over, and how long it took depended on the failure detector. Now the coordinator holds a
+ * lease of LEASE ms, renewed by every heartbeat it sends to the members (see HeartbeatChannel).
+ * The first SUCCESSORS members by ID, after the coordinator, form a chain of successors, and
+ * each of them watches the lease:
+ *      - Successor 0 takes over as soon as the lease expires.
+ *      - Successor r takes over STEP ms later than successor r - 1, unless a new coordinator
+ *        renewed the lease meanwhile. The successors before it are then considered gone, and
+ *        removed, so the coordinator is still the member with the lowest ID.
+ * A new coordinator is therefore in place at most LEASE + (SUCCESSORS - 1) * STEP ms after the
+ * last heartbeat of the previous one, as long as one of the successors is still there.
+ *
+ * The coordinator renews its own side of the lease with the acks of its heartbeats: a coordinator
+ * cut off from every member lets its lease expire, and stops removing members, since it is more
+ * likely to be the one who is gone.
+ *
+ * @author Abdullah
+ */
+class CoordinatorLease {
+
+    protected static final long LEASE = Long.getLong("chatroom.coordinator.lease", 2000); // ms
+    protected static final int SUCCESSORS = Integer.getInteger("chatroom.coordinator.successors", 3); // Members ready to take over
+    protected static final long STEP = Long.getLong("chatroom.coordinator.step", 1000); // ms between two successors taking over
+
+    private final long leaseNanos;
+    private final long stepNanos;
+    private volatile long renewed = System.nanoTime(); // When the lease was last renewed
+
+    /**
+     * Create a lease, starting now.
+     *
+     * @param lease Time the lease lasts without being renewed, in ms
+     * @param step Time between two successors taking over, in ms
+     */
+    public CoordinatorLease(long lease, long step) {
+        this.leaseNanos = TimeUnit.MILLISECONDS.toNanos(lease);
+        this.stepNanos = TimeUnit.MILLISECONDS.toNanos(step);
+    }
+
+    /**
+     * Renew the lease, e.g. when a heartbeat from the coordinator arrives.
+     */
+    public void renew() { renew(System.nanoTime()); }
+
+    protected void renew(long now) {
+        renewed = now;
+    }
+
+    /**
+     * Check if the lease is still held by the coordinator.
+     *
+     * @return True if it was renewed less than LEASE ago
+     */
+    public boolean isHeld() { return !isExpired(0, System.nanoTime()); }
+
+    /**
+     * Check if a successor should take over.
+     *
+     * @param rank Position of the successor in the chain, 0 for the first
+     * @return True if the lease expired, plus the time given to the successors before it
+     */
+    public boolean isExpired(int rank) { return isExpired(rank, System.nanoTime()); }
+
+    protected boolean isExpired(int rank, long now) {
+        return now - renewed > leaseNanos + rank * stepNanos;
+    }
+
+    /**
+     * Get the time since the lease was last renewed.
+     *
+     * @return Time in ms
+     */
+    public long sinceRenewal() { return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - renewed); }
+
+    /**
+     * Get the position of a member in the chain of successors.
+     *
+     * @param id ID of the member
+     * @param members Other members, ordered by ID
+     * @return Position, 0 for the next coordinator, or -1 if the member is not one of the first SUCCESSORS
+     */
+    public static int rank(int id, MemberTable.Snapshot members) {
+        int rank = 0;
+        for(Member m: members) {
+            if(rank == SUCCESSORS) return -1;
+            if(m.isCoordinator()) continue;
+            if(m.getID() > id) return rank;
+            rank++;
+        }
+        return rank < SUCCESSORS? rank : -1;
+    }
+}
@@ -1,93 +1,143 @@
 package ChatRoom;
 
-import java.io.IOException;
-import java.net.BindException;
-import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 
 /**
  * Thread to take care of coordinator's duties:
  *      - Check if members are online
  *      - Inform others about offline members
+ * or, on the successors of the coordinator, to take its role once its lease expired (see CoordinatorLease).
+ *
+ * The thread used to spin without pause, checking the list of unreachable members (or whether
+ * the client was online yet) over and over, which kept a core busy for as long as the member was
+ * the coordinator. It now sleeps until there is something to do:
+ *      - Members reported as unreachable are put in a blocking queue, the thread waits on it.
+ *      - The successors wait for the client to be online (see Client.awaitOnline()).
+ *      - Checks run on a scheduled executor: suspects as soon as they are reported, the members
+ *        every heartbeat interval, and the lease of the coordinator every CHECK_INTERVAL.
+ *
+ * Whether a member is gone is decided by the failure detector of the client, from the heartbeats
+ * it stopped sending, rather than by a single failed connection (see FailureDetector). A member
+ * reported by another member is only removed once the coordinator suspects it as well, and only
+ * while the coordinator holds its lease.
+ *
+ * With -Dchatroom.liveness=SWIM, every member finds gone members on its own (see SwimProtocol),
+ * so the coordinator has nothing to watch, and only keeps renewing its lease.
  *
  * @author Abdullah
  */
 public class CoordinatorThread extends Thread {
     
+    protected static final long CHECK_INTERVAL = FailureDetector.HEARTBEAT_INTERVAL / 5; // ms between checks of the lease
+    
     private volatile boolean run = true;
     
     private final Client client;
+    private final ScheduledExecutorService probes; // Checks the members
+    private final Set<Integer> probing = ConcurrentHashMap.newKeySet(); // IDs of suspects being checked, reported once
+    private final CountDownLatch promoted = new CountDownLatch(1); // Released when this member took over
     
     public CoordinatorThread(Client client) {
         this.client = client;
+        probes = ExecutionStrategy.newScheduler("Probe-" + client.me.getPort());
     }
     
     /**
-     * Thread to continuously check for members' status.
+     * Wait for something to do: the coordinator leaving, or members being reported as unreachable.
      */
     @Override
     public void run() {
-        int currentMemberID = -1;
-        String currentMemberUsername = "";
         System.out.println("Coordinator thread started");
-        while(run) {
+        try {
             // Two options. This member is either:
             //      - Coordinator
-            //      - Next coordinator
-            
-            // If this is the coordinator
-            if(client.me.isCoordinator()) {
-                client.postMessage(new Message(client.me.getUsername(), "You are now the coordinator " + client.me.getUsername() + "!", MessageType.SYSTEM));
-                while(run) {
-                    synchronized(client.getUnreachableMembers()) {
-                        try {
-                            // Try to connect to each unreachable member to make sure they're online
-                            for(Member m: client.getUnreachableMembers()) {
-                                currentMemberID = m.getID();
-                                currentMemberUsername = m.getUsername();
-                                client.getUnreachableMembers().remove(m);
-                                System.out.println(currentMemberID + " might be unreachable, testing from coordinatorThread");
-                                Socket s = new Socket(m.getAddress(), m.getPort());
-                                s.close();
-                            }
-                        } catch (IOException e) {
-                            System.out.println(e + " - removing member");
-                            client.globalRemoveMember(currentMemberID, currentMemberUsername);
-                        }
-                    }
-                }
-            } else {
-                // I'm the next coordinator
-                Member currentCoordinator = client.getMembers().get(0);
-                
+            //      - One of its successors
+            if(!client.me.isCoordinator()) {
                 // When this member is the second member, it might happen that
                 // the 1st member (i.e. coordinator) is still sending the list
                 // of members. Wait until member received the full list.
-                while(!client.online) {}
-                
-                // Continuously check if coordinator is online
-                while(run) {
-                    try {
-                        Socket conn = new Socket(currentCoordinator.getAddress(), currentCoordinator.getPort());
-                        conn.close();
-                    } catch(BindException e) {
-                        // java.net.BindException: Address already in use: connect
-                        // Can be ignored
-                    } catch(IOException e) {
-                        // Coordinator left, take his role
-                        client.me.setCoordinator();
-                        client.globalRemoveMember(currentCoordinator.getID(), currentCoordinator.getUsername());
-                        client.sendCommand("newCoordinator:" + client.me.getID());
-                        break;
-                    } finally {
-                        try {
-                            sleep(1000);
-                        } catch(InterruptedException e) {
-                            System.out.println("Error sleeping");
-                        }
-                    }
-                }
+                client.awaitOnline();
+                watchLease();
+                promoted.await();
+            }
+            
+            client.postMessage(new Message(client.me.getUsername(), "You are now the coordinator " + client.me.getUsername() + "!", MessageType.SYSTEM));
+            if(client.getSwim() != null) return; // Every member watches the others
+            watchMembers();
+            while(run) {
+                Member m = client.getUnreachableMembers().take();
+                if(probing.add(m.getID())) probes.execute(() -> checkSuspect(m));
+            }
+        } catch(InterruptedException | RejectedExecutionException e) {
+            // Stopped
+        } finally {
+            probes.shutdownNow();
+        }
+    }
+    
+    /**
+     * Check the lease of the coordinator regularly, and take its role once the lease expired,
+     * leaving time to the successors before this member.
+     */
+    private void watchLease() {
+        CoordinatorLease lease = client.getLease();
+        ScheduledFuture<?>[] watch = new ScheduledFuture<?>[1];
+        watch[0] = probes.scheduleWithFixedDelay(() -> {
+            if(!run) return;
+            MemberTable.Snapshot members = client.getMembers().snapshot();
+            int rank = CoordinatorLease.rank(client.me.getID(), members);
+            if(rank < 0 || !lease.isExpired(rank)) return;
+            
+            // Coordinator left, take his role
+            System.out.println("Coordinator lease not renewed for " + lease.sinceRenewal() + "ms, taking over as successor " + rank);
+            watch[0].cancel(false);
+            client.me.setCoordinator();
+            for(Member m: members) {
+                if(m.getID() > client.me.getID()) break;
+                client.globalRemoveMember(m.getID(), m.getUsername()); // The coordinator, and the successors who didn't take over
+            }
+            client.globalNewCoordinator();
+            promoted.countDown();
+        }, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Check the members regularly, and report the ones suspected of being gone.
+     */
+    private void watchMembers() {
+        FailureDetector detector = client.getFailureDetector();
+        probes.scheduleWithFixedDelay(() -> {
+            for(Member m: client.getMembers().snapshot()) {
+                detector.expect(m.getID()); // e.g. new members, or members who sent heartbeats to the previous coordinator
+                if(run && detector.isSuspected(m.getID()) && client.getLease().isHeld()) client.unreachableMember(m);
+            }
+        }, FailureDetector.HEARTBEAT_INTERVAL, FailureDetector.HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Remove a member reported as unreachable if the coordinator suspects it as well.
+     * Members who are only slow to receive messages keep sending heartbeats, so they are not removed.
+     * 
+     * @param m Member reported
+     */
+    private void checkSuspect(Member m) {
+        try {
+            FailureDetector detector = client.getFailureDetector();
+            detector.expect(m.getID());
+            System.out.println(m.getID() + " might be unreachable, phi = " + detector.phi(m.getID()));
+            if(run && detector.isSuspected(m.getID()) && client.getLease().isHeld() && client.getMembers().byId(m.getID()) != null) {
+                System.out.println(m + " is unreachable - removing member");
+                client.globalRemoveMember(m.getID(), m.getUsername());
             }
+        } finally {
+            probing.remove(m.getID());
         }
     }
     
@@ -96,5 +146,7 @@ public class CoordinatorThread extends Thread {
      */
     protected void stopThread() {
         run = false;
+        interrupt();
+        probes.shutdownNow();
     }
 }
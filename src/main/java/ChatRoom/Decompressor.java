@@ -0,0 +1,75 @@
+package ChatRoom;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Restores the frames compressed by a Compressor, for one connection.
+ *
+ * The member at the other end announces its dictionary on the connection before using it,
+ * so the dictionary is kept here for the frames that follow on the same connection.
+ *
+ * @author Abdullah
+ */
+class Decompressor {
+
+    private Dictionary dictionary = null;
+    private Inflater inflater = null; // Created with the first compressed frame
+
+    /**
+     * Use the dictionary announced by the other member for the next frames.
+     *
+     * @param dictionary Dictionary announced
+     */
+    public void setDictionary(Dictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Restore a compressed payload.
+     *
+     * @param payload Compressed payload, positioned just after the format byte
+     * @return The original payload, starting with its own format byte
+     * @throws IOException If the payload is invalid or the dictionary was not announced
+     */
+    public ByteBuffer inflate(ByteBuffer payload) throws IOException {
+        int id;
+        int length;
+        try {
+            id = (int)WireCodec.readVarint(payload);
+            length = Frames.checkLength((int)WireCodec.readVarint(payload));
+        } catch(BufferUnderflowException e) {
+            throw new IOException("Payload too short");
+        }
+        if(dictionary == null || dictionary.getID() != id) throw new IOException("Unknown dictionary: " + id);
+
+        if(inflater == null) inflater = new Inflater(true);
+        inflater.reset();
+        inflater.setDictionary(dictionary.getBytes());
+        inflater.setInput(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+        byte[] original = new byte[length];
+        int inflated = 0;
+        try {
+            while(inflated < length) {
+                int n = inflater.inflate(original, inflated, length - inflated);
+                if(n == 0 && (inflater.finished() || inflater.needsInput())) break;
+                inflated += n;
+            }
+        } catch(DataFormatException e) {
+            throw new IOException("Invalid compressed frame: " + e.getMessage());
+        }
+        if(inflated != length) throw new IOException("Compressed frame too short");
+        return ByteBuffer.wrap(original);
+    }
+
+    /**
+     * Release the inflater, once the connection is closed.
+     */
+    public void close() {
+        if(inflater != null) inflater.end();
+        inflater = null;
+    }
+}
@@ -0,0 +1,28 @@
+package ChatRoom;
+
+import java.io.Serializable;
+
+/**
+ * Tells a member which objects it sent reliably were received (see ReliableDelivery).
+ * The acknowledgement is cumulative: every sequence number below "next" was received.
+ *
+ * @author Abdullah
+ */
+class Delivered implements Serializable {
+
+    private final int receiver; // ID of the member who received the objects
+    private final long next; // Next sequence number expected
+
+    public Delivered(int receiver, long next) {
+        this.receiver = receiver;
+        this.next = next;
+    }
+
+    public int getReceiver() { return receiver; }
+    public long getNext() { return next; }
+
+    @Override
+    public String toString() {
+        return "Delivered{receiver: " + receiver + ", next: " + next + "}";
+    }
+}
@@ -0,0 +1,37 @@
+package ChatRoom;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Bytes a member compresses its frames against, sent to the other member at the start of a
+ * connection so both ends use the same dictionary (see Compressor).
+ *
+ * @author Abdullah
+ */
+class Dictionary implements Serializable {
+
+    private final int id; // Checksum of the bytes, written in every compressed frame
+    private final byte[] bytes;
+
+    public Dictionary(int id, byte[] bytes) {
+        this.id = id;
+        this.bytes = bytes;
+    }
+
+    public int getID() { return id; }
+    public byte[] getBytes() { return bytes; }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Dictionary && ((Dictionary)o).id == id && Arrays.equals(((Dictionary)o).bytes, bytes);
+    }
+
+    @Override
+    public int hashCode() { return id; }
+
+    @Override
+    public String toString() {
+        return "Dictionary{id=" + id + ", size=" + bytes.length + "}";
+    }
+}
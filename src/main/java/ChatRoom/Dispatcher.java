@@ -0,0 +1,153 @@
+package ChatRoom;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Decides what to do with each object received from another member.
+ *
+ * Used by the server, whichever way it reads from its connections.
+ *
+ * Every type of object has its handler in a table, looked up by the class of the object.
+ * Commands used to be chat messages of type COMMAND, like "newMember:username:id:address:port",
+ * split on ":" and parsed on every member, which broke on IPv6 addresses. They are now objects of
+ * their own (MembershipDelta, Unreachable...) with a binary encoding (see WireCodec), so a new
+ * command only needs a class, its encoding and a line in the table.
+ *
+ * @author Abdullah
+ */
+class Dispatcher {
+
+    private final Client client;
+    private final Map<Class<?>, Function<Object, Object>> handlers = new HashMap<>();
+
+    public Dispatcher(Client c) {
+        this.client = c;
+
+        // Chat message
+        on(Message.class, this::message);
+
+        // Someone is trying to join the network, reply with every member. Getting its ID can mean
+        // asking the coordinator, so it is done away from the thread reading the connections
+        on(Member.class, member -> later(() -> client.incomingRequest(member)));
+
+        // Someone joined, left or became the coordinator
+        on(MembershipDelta.class, delta -> {
+            client.applyDelta(delta);
+            return null;
+        });
+
+        // New member wants the messages sent before it joined
+        on(HistoryRequest.class, request -> client.getTransfer().chunk(request));
+
+        // Member needs IDs for the members joining through it
+        on(IdRequest.class, client::grantIds);
+
+        // Member missed changes of the members, send them back
+        on(ViewRequest.class, request -> client.getMembership().since(request.getEpoch()));
+
+        // Member could not send to another member
+        on(Unreachable.class, this::unreachableMember);
+
+        // Member probing this member, or another member for someone else
+        on(SwimMessage.class, message -> {
+            if(client.getSwim() != null) client.getSwim().receive(message);
+            return null;
+        });
+
+        // Message passed on by another member
+        on(Envelope.class, envelope -> {
+            Message message = client.getDissemination().receive(envelope);
+            if(message != null) dispatch(message);
+            return null;
+        });
+
+        // Member missed multicast messages from this member
+        on(Nack.class, nack -> {
+            if(client.getDissemination() instanceof MulticastDissemination) ((MulticastDissemination)client.getDissemination()).repair(nack);
+            return null;
+        });
+
+        // Object sent reliably, handle it unless it was received before
+        on(Sequenced.class, sequenced -> {
+            client.getReliable().receive(sequenced, this::dispatch);
+            return null;
+        });
+
+        // Member received objects sent reliably by this member
+        on(Delivered.class, ack -> {
+            client.getReliable().acknowledged(ack);
+            return null;
+        });
+
+        // Many messages sent together, handle them in order
+        on(Frames.Batch.class, batch -> {
+            for(Object o: batch.getObjects()) dispatch(o);
+            return null;
+        });
+    }
+
+    private <T> void on(Class<T> type, Function<T, Object> handler) {
+        handlers.put(type, obj -> handler.apply(type.cast(obj)));
+    }
+
+    /**
+     * Method to handle one object received from another member.
+     *
+     * @param obj Object received
+     * @return Reply to be sent back on the same connection, or null if there is nothing to reply.
+     *         Once a reply is sent the connection is closed. Replies that take long to work out
+     *         are a CompletableFuture completed with the reply, or with null if there is none.
+     */
+    public Object dispatch(Object obj) {
+        Function<Object, Object> handler = handlers.get(obj.getClass());
+        if(handler == null) {
+            System.out.println("unexpected object " + obj.getClass().getSimpleName() + " " + obj);
+            return null;
+        }
+        return handler.apply(obj);
+    }
+
+    /**
+     * Method to work out a reply on the control executor, so the server keeps reading other connections
+     * and messages keep being sent meanwhile.
+     *
+     * @param reply Works out the reply
+     * @return Completed with the reply, or null if the client terminated
+     */
+    private Object later(Supplier<Object> reply) {
+        try {
+            return CompletableFuture.supplyAsync(reply, client.getControl());
+        } catch(RejectedExecutionException e) {
+            return null; // Client terminated
+        }
+    }
+
+    /**
+     * Method to show a chat message.
+     *
+     * @param message Message received
+     */
+    private Object message(Message message) {
+        if(!client.firstReceived(message)) return null; // Same ID as a message already shown
+        if(message.getMessageType() == MessageType.COMMAND) System.out.println("Unknown command: " + message.getContent()); // Commands are no longer sent as text
+        else client.postMessage(message);
+        client.updateMembersList();
+        return null;
+    }
+
+    /**
+     * Method to get the details of an unreachable member.
+     *
+     * @param report Member who could not be reached
+     */
+    private Object unreachableMember(Unreachable report) {
+        Member m = client.getMembers().byId(report.getID());
+        if(m != null) client.getUnreachableMembers().add(m);
+        return null;
+    }
+}
@@ -0,0 +1,82 @@
+package ChatRoom;
+
+import java.io.IOException;
+
+/**
+ * Decides how a message reaches every member of the chat.
+ *
+ *      - MESH: the author sends the message to every member (see MessagingThread).
+ *      - GOSSIP: the author sends the message to a few random members, who pass it on
+ *                to a few more, and so on (see GossipDissemination).
+ *      - TREE: the message travels down a tree of members, built from the list of members
+ *              ordered by ID (see TreeDissemination).
+ *      - MULTICAST: the message is sent once to an IP multicast group, for members on the
+ *                   same LAN (see MulticastDissemination).
+ *
+ * Every member of a chat should use the same mode.
+ *
+ * @author Abdullah
+ */
+interface Dissemination {
+
+    public enum Mode {
+        MESH,
+        GOSSIP,
+        TREE,
+        MULTICAST;
+
+        /**
+         * Get the mode set by the "chatroom.dissemination" system property (mesh by default).
+         *
+         * @return Selected mode
+         */
+        public static Mode fromProperty() {
+            return Mode.valueOf(System.getProperty("chatroom.dissemination", MESH.name()).toUpperCase());
+        }
+
+        /**
+         * Create the dissemination of a client for this mode.
+         *
+         * @param c Client sending the messages
+         * @return New dissemination
+         */
+        public Dissemination create(Client c) {
+            switch(this) {
+                case GOSSIP:
+                    return new GossipDissemination(c);
+                case TREE:
+                    return new TreeDissemination(c);
+                case MULTICAST:
+                    try {
+                        return new MulticastDissemination(c);
+                    } catch(IOException e) {
+                        System.out.println("Could not join multicast group, sending messages over TCP: " + e);
+                        return new MeshDissemination(c);
+                    }
+                default:
+                    return new MeshDissemination(c);
+            }
+        }
+    }
+
+    /**
+     * Send a message written by this member.
+     *
+     * @param message Message to be sent
+     * @return Handle to check which members the message was sent to directly
+     */
+    public Broadcast send(Message message);
+
+    /**
+     * Handle a message passed on by another member, and pass it on if needed.
+     *
+     * @param envelope Envelope received
+     * @return Message to be handled by this member, or null if it was already received
+     */
+    public Message receive(Envelope envelope);
+
+    /**
+     * Release what this dissemination uses, when the client terminates.
+     */
+    public default void close() {}
+}
@@ -0,0 +1,43 @@
+package ChatRoom;
+
+import java.io.Serializable;
+
+/**
+ * A message passed on from member to member, instead of being sent by its author to everyone.
+ *
+ * The ID of the member who wrote the message and a sequence number, counted by that member,
+ * identify the message, so each member handles it only once however many times it is received.
+ *
+ * @author Abdullah
+ */
+class Envelope implements Serializable {
+
+    private final int origin; // ID of the member who sent the message first
+    private final long seq; // Sequence number of the message, for the origin
+    private final int hops; // How many more times the message can be passed on
+    private final Message message;
+
+    public Envelope(int origin, long seq, int hops, Message message) {
+        this.origin = origin;
+        this.seq = seq;
+        this.hops = hops;
+        this.message = message;
+    }
+
+    public int getOrigin() { return origin; }
+    public long getSeq() { return seq; }
+    public int getHops() { return hops; }
+    public Message getMessage() { return message; }
+
+    /**
+     * Get the same envelope, to be passed on once more.
+     *
+     * @return Copy of this envelope with one hop less
+     */
+    public Envelope nextHop() { return new Envelope(origin, seq, hops - 1, message); }
+
+    @Override
+    public String toString() {
+        return "Envelope{origin=" + origin + ", seq=" + seq + ", hops=" + hops + ", message=" + message + "}";
+    }
+}
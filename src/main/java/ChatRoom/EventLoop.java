@@ -0,0 +1,209 @@
+package ChatRoom;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Thread reading frames from many connections at once, used by the server in SELECTOR mode.
+ *
+ * Instead of one blocked thread per connection, all connections given to this loop are
+ * registered with a single selector and only read when data is available.
+ *
+ * @author Abdullah
+ */
+class EventLoop extends Thread {
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    private volatile boolean run = true;
+
+    private final Dispatcher dispatcher;
+    private final Selector selector;
+    private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>(); // Accepted, not yet registered
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>(); // Replies worked out on other threads, to be sent by the loop
+
+    public EventLoop(Dispatcher dispatcher, String name) throws IOException {
+        super(name);
+        this.dispatcher = dispatcher;
+        this.selector = Selector.open();
+        setDaemon(true);
+    }
+
+    /**
+     * Add a new connection to this loop.
+     * Registration must happen on the loop's own thread, so the selector is woken up.
+     *
+     * @param conn Accepted connection
+     */
+    public void register(SocketChannel conn) {
+        pending.add(conn);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while(run) {
+            try {
+                selector.select();
+                registerPending();
+                for(Runnable task; (task = tasks.poll()) != null;) task.run();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while(keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if(key.isReadable()) read(key);
+                        else if(key.isWritable()) write(key);
+                    } catch(IOException | CancelledKeyException e) {
+                        close(key); // Connection went wrong.
+                    }
+                }
+            } catch(IOException e) {
+                System.out.println("Event loop error: " + e);
+            }
+        }
+
+        // Connections are kept open by other members, close them so they know this member left.
+        for(SelectionKey key: selector.keys()) close(key);
+        for(SocketChannel conn: pending) {
+            try {
+                conn.close();
+            } catch(IOException e) {}
+        }
+        try {
+            selector.close();
+        } catch(IOException e) {}
+    }
+
+    private void registerPending() {
+        SocketChannel conn;
+        while((conn = pending.poll()) != null) {
+            try {
+                conn.configureBlocking(false);
+                conn.register(selector, SelectionKey.OP_READ, new Connection());
+            } catch(IOException e) {
+                try {
+                    conn.close();
+                } catch(IOException ex) {}
+            }
+        }
+    }
+
+    /**
+     * Read whatever is available and handle every complete frame.
+     */
+    private void read(SelectionKey key) throws IOException {
+        SocketChannel conn = (SocketChannel)key.channel();
+        Connection state = (Connection)key.attachment();
+
+        if(conn.read(state.in) < 0) {
+            close(key); // Closed by the other member, or someone is pinging.
+            return;
+        }
+
+        ByteBuffer in = state.in;
+        in.flip();
+        while(in.remaining() >= Frames.HEADER_SIZE) {
+            int length = Frames.checkLength(in.getInt(in.position()));
+            if(in.remaining() < Frames.HEADER_SIZE + length) {
+                // Frame not complete yet, make sure it will fit in the buffer
+                if(in.capacity() < Frames.HEADER_SIZE + length) {
+                    ByteBuffer bigger = ByteBuffer.allocate(Frames.HEADER_SIZE + length);
+                    bigger.put(in);
+                    state.in = bigger;
+                    return;
+                }
+                break;
+            }
+
+            Object obj;
+            try {
+                obj = Frames.decode(in.array(), in.arrayOffset() + in.position() + Frames.HEADER_SIZE, length, state.decompressor);
+            } catch(ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+            in.position(in.position() + Frames.HEADER_SIZE + length);
+
+            if(obj instanceof Dictionary) { // Used to compress the next frames on this connection
+                state.decompressor.setDictionary((Dictionary)obj);
+                continue;
+            }
+
+            Object reply = dispatcher.dispatch(obj);
+            if(reply instanceof CompletableFuture) {
+                // Worked out on another thread: stop reading, and send it from the loop once ready
+                key.interestOps(0);
+                ((CompletableFuture<?>)reply).whenComplete((r, e) -> {
+                    tasks.add(() -> {
+                        try {
+                            if(r == null) close(key);
+                            else answer(key, r);
+                        } catch(IOException | CancelledKeyException ex) {
+                            close(key);
+                        }
+                    });
+                    selector.wakeup();
+                });
+                return;
+            }
+            if(reply != null) {
+                answer(key, reply);
+                return;
+            }
+        }
+        in.compact();
+    }
+
+    /**
+     * Start sending the reply to a request. The connection is closed once the request is answered.
+     */
+    private void answer(SelectionKey key, Object reply) throws IOException {
+        Connection state = (Connection)key.attachment();
+        state.out = Frames.encode(reply);
+        key.interestOps(SelectionKey.OP_WRITE);
+        write(key);
+    }
+
+    /**
+     * Write the pending reply, and close the connection once it is fully sent.
+     */
+    private void write(SelectionKey key) throws IOException {
+        Connection state = (Connection)key.attachment();
+        ((SocketChannel)key.channel()).write(state.out);
+        if(!state.out.hasRemaining()) close(key);
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        if(key.attachment() != null) ((Connection)key.attachment()).decompressor.close();
+        try {
+            key.channel().close();
+        } catch(IOException e) {}
+    }
+
+    /**
+     * Method to terminate this loop and close its connections.
+     */
+    protected void stopLoop() {
+        run = false;
+        selector.wakeup();
+    }
+
+    /**
+     * State kept for each connection.
+     */
+    private static class Connection {
+        ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER_SIZE); // Bytes read but not yet handled
+        ByteBuffer out = null; // Reply waiting to be written
+        final Decompressor decompressor = new Decompressor();
+    }
+}
@@ -0,0 +1,102 @@
+package ChatRoom;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides which kind of threads run the server handlers and the sending of messages.
+ *
+ *      - PLATFORM: normal threads, available on every Java version.
+ *      - VIRTUAL: virtual threads (Java 21+). Each task gets its own cheap thread, so the
+ *                 simple blocking code can be kept even with thousands of connections.
+ *
+ * Virtual threads are looked up at runtime so the application still builds and runs on Java 8,
+ * where VIRTUAL falls back to PLATFORM.
+ *
+ * @author Abdullah
+ */
+public enum ExecutionStrategy {
+    PLATFORM,
+    VIRTUAL;
+
+    private static final Method NEW_VIRTUAL_EXECUTOR = findVirtualExecutor();
+
+    /**
+     * Get the strategy set by the "chatroom.threads" system property (platform by default).
+     *
+     * @return Selected strategy
+     */
+    public static ExecutionStrategy fromProperty() {
+        return ExecutionStrategy.valueOf(System.getProperty("chatroom.threads", PLATFORM.name()).toUpperCase());
+    }
+
+    /**
+     * Check if this JVM supports virtual threads.
+     *
+     * @return True if virtual threads can be used
+     */
+    public static boolean virtualThreadsAvailable() { return NEW_VIRTUAL_EXECUTOR != null; }
+
+    /**
+     * Create an executor to run tasks with this strategy.
+     *
+     * @param name Name given to the threads, useful when debugging
+     * @param maxThreads Maximum number of platform threads, or 0 for no limit. Ignored by virtual threads.
+     * @return New executor
+     */
+    public ExecutorService newExecutor(String name, int maxThreads) {
+        if(this == VIRTUAL && virtualThreadsAvailable()) {
+            try {
+                return (ExecutorService)NEW_VIRTUAL_EXECUTOR.invoke(null);
+            } catch(ReflectiveOperationException e) {
+                System.out.println("Could not create virtual threads, using platform threads: " + e);
+            }
+        }
+
+        ThreadFactory factory = daemonThreads(name);
+        if(maxThreads <= 0) return Executors.newCachedThreadPool(factory);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), factory);
+        pool.allowCoreThreadTimeOut(true); // Idle threads don't stay around
+        return pool;
+    }
+
+    /**
+     * Create a single platform thread to run delayed tasks, such as timeouts.
+     * Delayed tasks must be short, anything slow should be handed to another executor.
+     *
+     * @param name Name given to the thread
+     * @return New scheduler
+     */
+    public static ScheduledExecutorService newScheduler(String name) {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, daemonThreads(name));
+        scheduler.setRemoveOnCancelPolicy(true); // Most timeouts are cancelled, don't keep them around
+        return scheduler;
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return task -> {
+            Thread t = new Thread(task, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    private static Method findVirtualExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            ((ExecutorService)m.invoke(null)).shutdown(); // Preview versions throw here unless enabled
+            return m;
+        } catch(ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
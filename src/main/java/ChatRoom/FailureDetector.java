@@ -0,0 +1,188 @@
+package ChatRoom;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Phi accrual failure detector: tells how likely it is that a member is gone.
+ *
+ * A member used to be declared gone after a single failed connection or send, which took a
+ * second to notice and was wrong whenever the member was only slow. Members now send each other
+ * a heartbeat every HEARTBEAT_INTERVAL, as a UDP datagram (see HeartbeatChannel): every member to
+ * the coordinator, and the coordinator to every member. For each member, the detector keeps the
+ * time between its last WINDOW heartbeats, and computes phi, the suspicion that the member is
+ * gone given how long ago its last heartbeat arrived: phi = -log10(probability that a heartbeat
+ * arrives this late). A phi of 1 means a 10% chance of being wrong when declaring the member
+ * gone, 8 means 0.000001%.
+ *
+ * A member is considered gone once its phi goes over THRESHOLD. Heartbeats arriving irregularly,
+ * e.g. on a busy network, spread the distribution, so the member is given more time.
+ *
+ * @author Abdullah
+ */
+class FailureDetector {
+
+    /**
+     * How members find out that other members are gone.
+     */
+    public enum Mode {
+        HEARTBEAT, // Heartbeats to and from the coordinator, who decides alone (this class)
+        SWIM; // Every member probes one other member per period (see SwimProtocol)
+
+        /**
+         * Get the mode set by the "chatroom.liveness" system property (heartbeat by default).
+         *
+         * @return Selected mode
+         */
+        public static Mode fromProperty() {
+            return Mode.valueOf(System.getProperty("chatroom.liveness", HEARTBEAT.name()).toUpperCase());
+        }
+    }
+
+    protected static final long HEARTBEAT_INTERVAL = Long.getLong("chatroom.heartbeat.interval", 500); // ms
+    protected static final double THRESHOLD = Double.parseDouble(System.getProperty("chatroom.phi.threshold", "8"));
+    protected static final int WINDOW = 100; // Intervals kept per member
+    protected static final long MIN_STD_DEVIATION = 200; // ms, so perfectly regular heartbeats don't make phi jump
+    protected static final long ACCEPTABLE_PAUSE = Long.getLong("chatroom.heartbeat.pause", 500); // ms, e.g. garbage collection
+
+    private final double threshold;
+    private final long intervalNanos;
+    private final Map<Integer, Arrivals> members = new ConcurrentHashMap<>();
+
+    /**
+     * Create a detector.
+     *
+     * @param threshold Phi over which a member is considered gone
+     * @param interval Expected time between heartbeats, in ms
+     */
+    public FailureDetector(double threshold, long interval) {
+        this.threshold = threshold;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(interval);
+    }
+
+    /**
+     * Record a heartbeat received from a member.
+     *
+     * @param id ID of the member
+     */
+    public void heartbeat(int id) { heartbeat(id, System.nanoTime()); }
+
+    protected void heartbeat(int id, long now) {
+        members.computeIfAbsent(id, i -> new Arrivals(intervalNanos)).add(now);
+    }
+
+    /**
+     * Start expecting heartbeats from a member, so it becomes suspected if none arrive.
+     * Does nothing if heartbeats were already received from it.
+     *
+     * @param id ID of the member
+     */
+    public void expect(int id) {
+        long now = System.nanoTime();
+        members.computeIfAbsent(id, i -> {
+            Arrivals arrivals = new Arrivals(intervalNanos);
+            arrivals.add(now);
+            return arrivals;
+        });
+    }
+
+    /**
+     * Forget a member, e.g. when it leaves.
+     *
+     * @param id ID of the member
+     */
+    public void remove(int id) { members.remove(id); }
+
+    /**
+     * Get the suspicion that a member is gone.
+     *
+     * @param id ID of the member
+     * @return Phi, 0 if no heartbeat is expected from this member
+     */
+    public double phi(int id) { return phi(id, System.nanoTime()); }
+
+    protected double phi(int id, long now) {
+        Arrivals arrivals = members.get(id);
+        return arrivals == null? 0 : arrivals.phi(now);
+    }
+
+    /**
+     * Check if heartbeats are expected from a member.
+     *
+     * @param id ID of the member
+     * @return True if a heartbeat was received or expected from this member
+     */
+    public boolean isMonitored(int id) { return members.containsKey(id); }
+
+    /**
+     * Check if a member is considered gone.
+     *
+     * @param id ID of the member
+     * @return True if its phi is over the threshold
+     */
+    public boolean isSuspected(int id) { return phi(id) > threshold; }
+
+    /**
+     * Get the suspicion of every member heartbeats are expected from, e.g. to monitor them.
+     *
+     * @return Phi of each member, by ID
+     */
+    public Map<Integer, Double> getPhis() {
+        long now = System.nanoTime();
+        Map<Integer, Double> phis = new TreeMap<>();
+        for(Map.Entry<Integer, Arrivals> entry: members.entrySet()) phis.put(entry.getKey(), entry.getValue().phi(now));
+        return phis;
+    }
+
+    /**
+     * Times between the last heartbeats of a member.
+     */
+    private static final class Arrivals {
+
+        private final long[] intervals = new long[WINDOW]; // ns, ring buffer
+        private int count = 0;
+        private int next = 0;
+        private double sum = 0;
+        private double sumOfSquares = 0;
+        private boolean heard = false; // Whether a heartbeat arrived yet
+        private long last; // System.nanoTime() of the last heartbeat, which can be negative
+
+        private Arrivals(long expected) {
+            // Start as if heartbeats arrived as expected, with some variation
+            record(expected - expected / 4);
+            record(expected + expected / 4);
+        }
+
+        private synchronized void add(long now) {
+            if(heard) record(now - last);
+            last = now;
+            heard = true;
+        }
+
+        private void record(long interval) {
+            if(count == WINDOW) {
+                sum -= intervals[next];
+                sumOfSquares -= (double)intervals[next] * intervals[next];
+            } else count++;
+            intervals[next] = interval;
+            next = (next + 1) % WINDOW;
+            sum += interval;
+            sumOfSquares += (double)interval * interval;
+        }
+
+        private synchronized double phi(long now) {
+            if(!heard) return 0;
+            double mean = sum / count + TimeUnit.MILLISECONDS.toNanos(ACCEPTABLE_PAUSE);
+            double variance = sumOfSquares / count - (sum / count) * (sum / count);
+            double deviation = Math.max(Math.sqrt(Math.max(variance, 0)), TimeUnit.MILLISECONDS.toNanos(MIN_STD_DEVIATION));
+
+            // Probability of a heartbeat arriving later than now, with a logistic approximation of the normal distribution
+            double y = (now - last - mean) / deviation;
+            double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+            double p = y > 0? e / (1 + e) : 1 - 1 / (1 + e);
+            return -Math.log10(Math.max(p, Double.MIN_NORMAL));
+        }
+    }
+}
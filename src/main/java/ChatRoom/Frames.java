@@ -0,0 +1,244 @@
+package ChatRoom;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Helper methods to send objects over a connection as frames.
+ *
+ * Every frame is made of a 4 bytes length followed by the payload. Since the length
+ * is known in advance, many objects can be sent one after the other over the same
+ * connection, and the receiver always knows where an object ends and the next begins.
+ * 
+ * The payload starts with a format byte: objects known by WireCodec are sent in its compact
+ * binary format, anything else (or everything, with -Dchatroom.codec=JAVA) with Java serialization.
+ * Both formats are always accepted, so members using different settings can still talk.
+ * 
+ * Several frames queued for the same member can be sent together as one batch frame, and a frame
+ * sent reliably is wrapped with its sequence number the same way.
+ * 
+ * Frames sent over a member's connection can also be compressed (see Compressor). They can only
+ * be decoded with the Decompressor of the connection they arrived on.
+ *
+ * @author Abdullah
+ */
+final class Frames {
+
+    protected static final int HEADER_SIZE = 4; // Length of the payload, as an int
+    protected static final int MAX_FRAME_SIZE = 16 * 1024 * 1024; // Anything bigger is treated as a corrupted connection
+    
+    private static final boolean BINARY = !"JAVA".equalsIgnoreCase(System.getProperty("chatroom.codec"));
+
+    private Frames() {}
+
+    /**
+     * Encode an object into a frame ready to be written to a connection.
+     *
+     * @param obj Object to be sent
+     * @return Buffer containing header and payload, ready to be read.
+     * @throws IOException
+     */
+    protected static ByteBuffer encode(Object obj) throws IOException {
+        return encode(obj, BINARY);
+    }
+    
+    /**
+     * Encode an object into a frame, choosing the format.
+     *
+     * @param obj Object to be sent
+     * @param binary Whether the binary format should be used when possible
+     * @return Buffer containing header and payload, ready to be read.
+     * @throws IOException
+     */
+    protected static ByteBuffer encode(Object obj, boolean binary) throws IOException {
+        WireCodec.Output bytes = new WireCodec.Output();
+        bytes.write(new byte[HEADER_SIZE]); // Reserve space for the header
+        if(binary && WireCodec.supports(obj)) WireCodec.encode(obj, bytes);
+        else {
+            bytes.write(WireCodec.JAVA);
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(obj);
+            }
+        }
+        ByteBuffer frame = bytes.toByteBuffer();
+        frame.putInt(0, frame.limit() - HEADER_SIZE);
+        return frame;
+    }
+
+    /**
+     * Decode the payload of a frame.
+     *
+     * @param payload Payload, without the header
+     * @param offset Start of the payload in the array
+     * @param length Length of the payload
+     * @return The object that was sent, or a Batch if many objects were sent together
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    protected static Object decode(byte[] payload, int offset, int length) throws IOException, ClassNotFoundException {
+        return decode(ByteBuffer.wrap(payload, offset, length), null);
+    }
+
+    /**
+     * Decode the payload of a frame received on a connection, which might be compressed.
+     *
+     * @param payload Payload, without the header
+     * @param offset Start of the payload in the array
+     * @param length Length of the payload
+     * @param decompressor Decompressor of the connection
+     * @return The object that was sent, or a Batch if many objects were sent together
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    protected static Object decode(byte[] payload, int offset, int length, Decompressor decompressor) throws IOException, ClassNotFoundException {
+        return decode(ByteBuffer.wrap(payload, offset, length), decompressor);
+    }
+
+    /**
+     * Decode a payload held in a buffer, from its position to its limit.
+     *
+     * @param payload Payload, without the header
+     * @return The object that was sent, or a Batch if many objects were sent together
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    protected static Object decode(ByteBuffer payload) throws IOException, ClassNotFoundException {
+        return decode(payload, null);
+    }
+
+    /**
+     * Decode a payload held in a buffer, from its position to its limit.
+     *
+     * @param payload Payload, without the header
+     * @param decompressor Decompressor of the connection, or null if compressed payloads are not expected
+     * @return The object that was sent, or a Batch if many objects were sent together
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    protected static Object decode(ByteBuffer payload, Decompressor decompressor) throws IOException, ClassNotFoundException {
+        if(!payload.hasRemaining()) throw new IOException("Empty frame");
+        byte format = payload.get();
+        switch(format) {
+            case WireCodec.BINARY_V1:
+                return WireCodec.decode(payload);
+            case WireCodec.JAVA:
+                try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining()))) {
+                    return in.readObject();
+                }
+            case WireCodec.DEFLATE:
+                if(decompressor == null) throw new IOException("Unexpected compressed frame");
+                return decode(decompressor.inflate(payload), null); // Compressed payloads are never compressed again
+            default:
+                throw new IOException("Unknown frame format: " + format);
+        }
+    }
+
+    /**
+     * Encode many frames into a single frame, so they are written and read at once.
+     *
+     * @param frames Encoded frames, ready to be read
+     * @return Buffer containing header and payload, ready to be read.
+     */
+    protected static ByteBuffer batch(List<ByteBuffer> frames) {
+        WireCodec.Output bytes = new WireCodec.Output();
+        bytes.write(new byte[HEADER_SIZE], 0, HEADER_SIZE);
+        WireCodec.encodeBatch(frames, bytes);
+        ByteBuffer frame = bytes.toByteBuffer();
+        frame.putInt(0, frame.limit() - HEADER_SIZE);
+        return frame;
+    }
+
+    /**
+     * Wrap a frame with the sequence number it is sent to one member with (see ReliableDelivery),
+     * without decoding it. The same frame can be wrapped for many members.
+     *
+     * @param sender ID of the member sending it
+     * @param seq Sequence number for the member it is sent to
+     * @param base Every sequence number below it was acknowledged by that member
+     * @param frame Encoded frame, ready to be read
+     * @return Buffer containing header and payload, ready to be read.
+     */
+    protected static ByteBuffer sequence(int sender, long seq, long base, ByteBuffer frame) {
+        WireCodec.Output bytes = new WireCodec.Output();
+        bytes.write(new byte[HEADER_SIZE], 0, HEADER_SIZE);
+        WireCodec.encodeSequenced(sender, seq, base, frame, bytes);
+        ByteBuffer sequenced = bytes.toByteBuffer();
+        sequenced.putInt(0, sequenced.limit() - HEADER_SIZE);
+        return sequenced;
+    }
+
+    /**
+     * Write an object as a single frame.
+     *
+     * @param out Stream to write to
+     * @param obj Object to be sent
+     * @throws IOException
+     */
+    protected static void write(OutputStream out, Object obj) throws IOException {
+        ByteBuffer frame = encode(obj);
+        out.write(frame.array(), 0, frame.limit());
+        out.flush();
+    }
+
+    /**
+     * Read the next frame from a stream.
+     *
+     * @param in Stream to read from
+     * @return The object that was sent
+     * @throws java.io.EOFException If the connection was closed before a new frame started
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    protected static Object read(DataInputStream in) throws IOException, ClassNotFoundException {
+        return read(in, null);
+    }
+
+    /**
+     * Read the next frame from a connection, which might be compressed.
+     *
+     * @param in Stream to read from
+     * @param decompressor Decompressor of the connection
+     * @return The object that was sent
+     * @throws java.io.EOFException If the connection was closed before a new frame started
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    protected static Object read(DataInputStream in, Decompressor decompressor) throws IOException, ClassNotFoundException {
+        int length = checkLength(in.readInt());
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return decode(payload, 0, length, decompressor);
+    }
+
+    /**
+     * Make sure the length read from a header makes sense.
+     *
+     * @param length Length read from the header
+     * @return The same length
+     * @throws IOException If the length is invalid
+     */
+    protected static int checkLength(int length) throws IOException {
+        if(length < 0 || length > MAX_FRAME_SIZE) throw new IOException("Invalid frame length: " + length);
+        return length;
+    }
+
+    /**
+     * Objects received in a single frame, in the order they were sent.
+     */
+    protected static final class Batch {
+
+        private final List<Object> objects;
+
+        protected Batch(List<Object> objects) {
+            this.objects = objects;
+        }
+
+        public List<Object> getObjects() { return objects; }
+    }
+}
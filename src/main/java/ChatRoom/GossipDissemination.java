@@ -0,0 +1,108 @@
+package ChatRoom;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The author of a message sends it to a few random members only (the fan-out), and each
+ * member receiving it for the first time passes it on to a few more random members, until
+ * the message has been passed on a limited number of times (the hops).
+ *
+ * The author no longer sends one copy per member: the work is shared by everyone, and a
+ * message reaches the whole chat after a number of hops growing with the logarithm of its size.
+ * Members may receive the same message more than once, duplicates are recognised by the ID of
+ * the message (see Client.firstReceived()).
+ *
+ * Delivery is very likely but not guaranteed, so commands (which keep the members list the
+ * same for everyone) are still sent by the author to every member.
+ *
+ * By default the fan-out and the hops grow with the number of members, they can be fixed with
+ * the "chatroom.gossip.fanout" and "chatroom.gossip.hops" system properties.
+ *
+ * @author Abdullah
+ */
+class GossipDissemination implements Dissemination {
+
+    protected static final int FANOUT = Integer.getInteger("chatroom.gossip.fanout", 0); // 0 = based on the number of members
+    protected static final int HOPS = Integer.getInteger("chatroom.gossip.hops", 0); // 0 = based on the number of members
+
+    private final Client c;
+    private final MeshDissemination mesh;
+    private final AtomicLong nextSeq = new AtomicLong();
+
+    public GossipDissemination(Client c) {
+        this.c = c;
+        this.mesh = new MeshDissemination(c);
+    }
+
+    @Override
+    public Broadcast send(Message message) {
+        if(message.getMessageType() == MessageType.COMMAND) return mesh.send(message);
+
+        List<Member> members = members();
+        int size = members.size() + 1;
+        Envelope envelope = new Envelope(c.me.getID(), nextSeq.getAndIncrement(), hops(size), message);
+        return new MessagingThread(c, message).send(envelope, pickTargets(members, fanout(size), -1, ThreadLocalRandom.current()));
+    }
+
+    @Override
+    public Message receive(Envelope envelope) {
+        if(c.receivedBefore(envelope.getMessage())) return null; // Already received from someone else
+        if(envelope.getHops() > 1) {
+            List<Member> members = members();
+            List<Member> targets = pickTargets(members, fanout(members.size() + 1), envelope.getOrigin(), ThreadLocalRandom.current());
+            new MessagingThread(c, envelope.getMessage()).send(envelope.nextHop(), targets);
+        }
+        return envelope.getMessage();
+    }
+
+    private List<Member> members() {
+        return c.getMembers().snapshot();
+    }
+
+    /**
+     * Get the number of members a message is passed on to.
+     * Each member passes a message on only once, so a member misses it with a probability of
+     * about e^-fanout: the fan-out must grow with the logarithm of the number of members.
+     *
+     * @param members Number of members in the chat
+     * @return Fan-out
+     */
+    protected static int fanout(int members) {
+        if(FANOUT > 0) return FANOUT;
+        return (int)Math.ceil(Math.log(Math.max(members, 2))) + 2;
+    }
+
+    /**
+     * Get the number of times a message can be passed on.
+     *
+     * @param members Number of members in the chat
+     * @return Hops
+     */
+    protected static int hops(int members) {
+        if(HOPS > 0) return HOPS;
+        int fanout = fanout(members);
+        return (int)Math.ceil(Math.log(Math.max(members, 2)) / Math.log(fanout)) + 2;
+    }
+
+    /**
+     * Pick random members to pass a message on to.
+     *
+     * @param members Members to choose from
+     * @param fanout Number of members to pick
+     * @param exclude ID of a member not to pick (e.g. the author), or -1
+     * @param random Source of randomness
+     * @return Picked members
+     */
+    protected static List<Member> pickTargets(List<Member> members, int fanout, int exclude, Random random) {
+        List<Member> candidates = new ArrayList<>(members.size());
+        for(Member m: members) if(m.getID() != exclude) candidates.add(m);
+        if(candidates.size() <= fanout) return candidates;
+        for(int i = 0; i < fanout; i++) Collections.swap(candidates, i, i + random.nextInt(candidates.size() - i)); // Partial shuffle
+        return new ArrayList<>(candidates.subList(0, fanout));
+    }
+}
@@ -0,0 +1,202 @@
+package ChatRoom;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * UDP endpoint of a server, for heartbeats.
+ *
+ * Heartbeats used to be frames sent over the TCP connections used for messages, so every
+ * heartbeat to a member without an open connection took an accept and a handler thread on its
+ * side, and queued behind the messages being sent to it. Each server now also listens on the
+ * same port number in UDP, and heartbeats are sent there as tiny datagrams of fixed size:
+ *
+ *      kind (1 byte) | sender ID (4) | sequence number (4) | sender's clock when sent (8)
+ *          | digest of the members known by the sender (8)
+ *
+ * A PING counts as a heartbeat from its sender (see FailureDetector), renews the lease of the
+ * coordinator if it comes from it (see CoordinatorLease), and is answered with an ACK carrying
+ * back its sequence number and clock. The clock is only read by the member who sent the PING, so
+ * the round trip time is measured without the clocks of both members having to agree. Losing a
+ * datagram now and then is fine: the failure detector expects heartbeats to be late or missing
+ * sometimes.
+ *
+ * With the digest, members whose views of the members differ find out within a heartbeat (see
+ * Client.compareDigest()).
+ *
+ * @author Abdullah
+ */
+class HeartbeatChannel {
+
+    protected static final int SIZE = 25; // Bytes in every datagram
+    protected static final double RTT_WEIGHT = 0.125; // Weight of a new sample in the smoothed round trip time, as TCP does
+
+    private static final byte PING = 1;
+    private static final byte ACK = 2;
+
+    private final Client client;
+    private final DatagramChannel channel;
+    private final Thread receiver;
+    private volatile boolean run = true;
+
+    private final AtomicInteger nextSeq = new AtomicInteger();
+    private final Map<Integer, Rtt> rtts = new ConcurrentHashMap<>(); // Round trip times, by member ID
+    private final AtomicLong pingsSent = new AtomicLong();
+    private final AtomicLong acksReceived = new AtomicLong();
+    private final AtomicLong invalid = new AtomicLong(); // Datagrams ignored
+
+    /**
+     * Open the UDP endpoint on the same port as the server.
+     *
+     * @param client Client receiving the heartbeats
+     * @throws IOException If the port is already used in UDP
+     */
+    public HeartbeatChannel(Client client) throws IOException {
+        this.client = client;
+        channel = DatagramChannel.open();
+        try {
+            channel.bind(new InetSocketAddress(client.me.getPort()));
+        } catch(IOException e) {
+            channel.close();
+            throw e;
+        }
+        receiver = new Thread(this::receiveDatagrams, "Heartbeat-" + client.me.getPort());
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    /**
+     * Send a heartbeat to a member.
+     *
+     * @param to Member to send it to
+     * @throws IOException If the datagram could not be sent
+     */
+    public void ping(Member to) throws IOException {
+        ByteBuffer datagram = datagram(PING, client.me.getID(), nextSeq.incrementAndGet(), System.nanoTime());
+        channel.send(datagram, new InetSocketAddress(to.getAddress(), to.getPort()));
+        pingsSent.incrementAndGet();
+    }
+
+    /**
+     * Read datagrams until the server stops.
+     */
+    private void receiveDatagrams() {
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE + 1); // One more byte, to notice longer datagrams
+        while(run) {
+            try {
+                buffer.clear();
+                SocketAddress from = channel.receive(buffer);
+                buffer.flip();
+                if(buffer.remaining() != SIZE) {
+                    invalid.incrementAndGet();
+                    continue;
+                }
+                byte kind = buffer.get();
+                int id = buffer.getInt();
+                int seq = buffer.getInt();
+                long sent = buffer.getLong();
+                long digest = buffer.getLong();
+                Member sender = client.getMembers().byId(id);
+                if(sender == null) { // Not a member, or another application
+                    invalid.incrementAndGet();
+                    continue;
+                }
+                if(kind == PING) {
+                    client.getFailureDetector().heartbeat(id);
+                    if(sender.isCoordinator()) client.getLease().renew();
+                    channel.send(datagram(ACK, client.me.getID(), seq, sent), from);
+                    client.compareDigest(sender, digest);
+                } else if(kind == ACK) {
+                    acksReceived.incrementAndGet();
+                    if(client.me.isCoordinator()) client.getLease().renew(); // Still reaching the members
+                    rtts.computeIfAbsent(id, i -> new Rtt()).sample(System.nanoTime() - sent);
+                    client.compareDigest(sender, digest);
+                } else invalid.incrementAndGet();
+            } catch(IOException e) {
+                if(run) System.out.println("Could not handle heartbeat: " + e);
+            }
+        }
+    }
+
+    private ByteBuffer datagram(byte kind, int from, int seq, long time) {
+        ByteBuffer datagram = ByteBuffer.allocate(SIZE);
+        datagram.put(kind).putInt(from).putInt(seq).putLong(time).putLong(client.getMembership().getDigest());
+        datagram.flip();
+        return datagram;
+    }
+
+    /**
+     * Forget the round trip time of a member, e.g. when it leaves.
+     *
+     * @param id ID of the member
+     */
+    public void remove(int id) { rtts.remove(id); }
+
+    /**
+     * Get the smoothed round trip time to a member, from the acks of its heartbeats.
+     *
+     * @param id ID of the member
+     * @return Round trip time in ms, or -1 if no ack was received from it yet
+     */
+    public double getRtt(int id) {
+        Rtt rtt = rtts.get(id);
+        return rtt == null? -1 : rtt.smoothed();
+    }
+
+    /**
+     * Get the smoothed round trip time to each member, e.g. to show it.
+     *
+     * @return Round trip time in ms, by member ID
+     */
+    public Map<Integer, Double> getRtts() {
+        Map<Integer, Double> result = new TreeMap<>();
+        for(Map.Entry<Integer, Rtt> e: rtts.entrySet()) result.put(e.getKey(), e.getValue().smoothed());
+        return result;
+    }
+
+    /**
+     * Get the datagrams handled so far.
+     *
+     * @return Pings sent, acks received and invalid datagrams ignored
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new TreeMap<>();
+        stats.put("pingsSent", pingsSent.get());
+        stats.put("acksReceived", acksReceived.get());
+        stats.put("invalid", invalid.get());
+        return stats;
+    }
+
+    /**
+     * Stop receiving heartbeats, when the server stops.
+     */
+    public void close() {
+        run = false;
+        try {
+            channel.close();
+        } catch(IOException e) {}
+    }
+
+    /**
+     * Smoothed round trip time to one member.
+     */
+    private static final class Rtt {
+        private double smoothed = -1; // ms
+
+        private synchronized void sample(long nanos) {
+            double ms = nanos / (double)TimeUnit.MILLISECONDS.toNanos(1);
+            smoothed = smoothed < 0? ms : smoothed + RTT_WEIGHT * (ms - smoothed);
+        }
+
+        private synchronized double smoothed() { return smoothed; }
+    }
+}
@@ -0,0 +1,115 @@
+package ChatRoom;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the messages shown in the chat.
+ *
+ *      - RING: only the most recent messages are kept on the heap, within a number of messages
+ *              and a number of bytes. Which messages make room for new ones is decided by an
+ *              eviction policy (see HistoryRing). They are lost when the client quits.
+ *      - LOG: every message is kept, in memory-mapped files (see MessageLog), and shown again
+ *             when the member starts with the same username and port.
+ *
+ * @author Abdullah
+ */
+interface History {
+
+    public enum Mode {
+        RING,
+        LOG;
+
+        /**
+         * Get the mode set by the "chatroom.history" system property (ring by default).
+         *
+         * @return Selected mode
+         */
+        public static Mode fromProperty() {
+            return Mode.valueOf(System.getProperty("chatroom.history", RING.name()).toUpperCase());
+        }
+
+        /**
+         * Create the history of a member for this mode.
+         *
+         * @param me Owner of the history
+         * @return New history
+         */
+        public History create(Member me) {
+            switch(this) {
+                case LOG:
+                    return MessageLog.open(me);
+                default:
+                    return new HistoryRing(HistoryRing.MAX_MESSAGES, HistoryRing.MAX_BYTES, HistoryRing.Eviction.fromProperty());
+            }
+        }
+    }
+
+    /**
+     * Add a message after the others.
+     *
+     * @param message Message to be added
+     */
+    public void append(Message message);
+
+    /**
+     * Get the messages currently kept, oldest first.
+     * The list doesn't change when messages are added or evicted later, so it can be read by any thread.
+     *
+     * @return Read-only list of messages
+     */
+    public List<Message> snapshot();
+
+    /**
+     * Get the size of the history and what was evicted so far.
+     *
+     * @return Current statistics
+     */
+    public Stats getStats();
+
+    /**
+     * Release what this history uses, when the client terminates.
+     */
+    public default void close() {}
+
+    /**
+     * Size of a history and what was evicted from it, to choose its limits.
+     */
+    public static final class Stats {
+
+        private final int messages; // Messages kept
+        private final long bytes; // Bytes used by the messages kept
+        private final int maxMessages; // -1 if unbounded
+        private final long maxBytes; // -1 if unbounded
+        private final long appended; // Messages added since the history was created
+        private final long[] evicted; // Messages evicted, for each MessageType
+        private final long evictedBytes;
+
+        public Stats(int messages, long bytes, int maxMessages, long maxBytes, long appended, long[] evicted, long evictedBytes) {
+            this.messages = messages;
+            this.bytes = bytes;
+            this.maxMessages = maxMessages;
+            this.maxBytes = maxBytes;
+            this.appended = appended;
+            this.evicted = evicted.clone();
+            this.evictedBytes = evictedBytes;
+        }
+
+        public int getMessages() { return messages; }
+        public long getBytes() { return bytes; }
+        public int getMaxMessages() { return maxMessages; }
+        public long getMaxBytes() { return maxBytes; }
+        public long getAppended() { return appended; }
+        public long getEvicted() { return Arrays.stream(evicted).sum(); }
+        public long getEvicted(MessageType type) { return evicted[type.ordinal()]; }
+        public long getEvictedBytes() { return evictedBytes; }
+
+        @Override
+        public String toString() {
+            StringBuilder byType = new StringBuilder();
+            for(MessageType type: MessageType.values()) byType.append(byType.length() == 0? "" : ", ").append(type).append("=").append(getEvicted(type));
+            return "Stats{messages=" + messages + "/" + maxMessages + ", bytes=" + bytes + "/" + maxBytes + ", appended=" + appended
+                    + ", evicted=" + getEvicted() + " (" + byType + "), evictedBytes=" + evictedBytes + "}";
+        }
+    }
+}
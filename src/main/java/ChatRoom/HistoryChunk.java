@@ -0,0 +1,33 @@
+package ChatRoom;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Part of the messages sent before a member joined, in answer to a HistoryRequest.
+ * Empty, with a total of 0, if the member asked kept nothing for the new member.
+ *
+ * @author Abdullah
+ */
+class HistoryChunk implements Serializable {
+
+    private final int next; // Position of the message after the last one in this chunk
+    private final int total; // Messages kept for the new member, including ones not sent (e.g. system messages)
+    private final List<Message> messages;
+
+    public HistoryChunk(int next, int total, List<Message> messages) {
+        this.next = next;
+        this.total = total;
+        this.messages = messages;
+    }
+
+    public int getNext() { return next; }
+    public int getTotal() { return total; }
+    public List<Message> getMessages() { return messages; }
+    public boolean isLast() { return next >= total; }
+
+    @Override
+    public String toString() {
+        return "HistoryChunk{next: " + next + ", total: " + total + ", messages: " + messages.size() + "}";
+    }
+}
@@ -0,0 +1,28 @@
+package ChatRoom;
+
+import java.io.Serializable;
+
+/**
+ * Asks the member a new member joined through for the next part of the messages sent before
+ * it joined (see StateTransfer). Answered with a HistoryChunk.
+ *
+ * @author Abdullah
+ */
+class HistoryRequest implements Serializable {
+
+    private final int requester; // ID of the new member
+    private final int offset; // Position of the first message wanted, 0 being the oldest sent
+
+    public HistoryRequest(int requester, int offset) {
+        this.requester = requester;
+        this.offset = offset;
+    }
+
+    public int getRequester() { return requester; }
+    public int getOffset() { return offset; }
+
+    @Override
+    public String toString() {
+        return "HistoryRequest{requester: " + requester + ", offset: " + offset + "}";
+    }
+}
@@ -0,0 +1,348 @@
+package ChatRoom;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+/**
+ * History keeping only the most recent messages on the heap, enabled with -Dchatroom.history=RING.
+ *
+ * The history is bounded by a number of messages and by an estimate of the bytes they take on
+ * the heap. When a new message goes over either limit, messages are evicted until it fits.
+ * The eviction policy decides which ones:
+ *      - OLDEST: the oldest message.
+ *      - PER_USER: the oldest message of the user with the most messages, so a chatty
+ *                  member can't push everybody else out of the history.
+ *      - SYSTEM_FIRST: the oldest SYSTEM message ("X joined the chat!"), then the oldest message.
+ *
+ * Messages are kept in chunks of CHUNK_SIZE. A chunk is never changed once other threads can
+ * see it: adding or evicting a message creates a new chunk, sharing the array of the old one
+ * where possible. The list of chunks is replaced the same way, so a snapshot is just the current
+ * list of chunks, taken without locking or copying messages.
+ *
+ * Evicting a message that is not the oldest leaves a smaller chunk behind. It is merged with a
+ * neighbour when both fit in one chunk, so there are never more than about twice as many chunks
+ * as needed, and the list of chunks copied on every change stays short.
+ *
+ * @author Abdullah
+ */
+class HistoryRing implements History {
+
+    protected static final int MAX_MESSAGES = Integer.getInteger("chatroom.history.messages", 10_000);
+    protected static final long MAX_BYTES = Long.getLong("chatroom.history.bytes", 8 * 1024 * 1024);
+    protected static final int CHUNK_SIZE = 64;
+
+    /**
+     * Decides which message is evicted to make room for new ones.
+     */
+    public interface EvictionPolicy {
+
+        /**
+         * Choose the message to evict.
+         *
+         * @param history History that is over its limits, never empty
+         * @return Position of the message to evict, 0 being the oldest
+         */
+        public int victim(HistoryRing history);
+    }
+
+    /**
+     * Eviction policies that can be chosen with the "chatroom.history.eviction" system property.
+     */
+    public enum Eviction implements EvictionPolicy {
+        OLDEST {
+            @Override
+            public int victim(HistoryRing history) { return 0; }
+        },
+        PER_USER {
+            @Override
+            public int victim(HistoryRing history) {
+                String user = history.busiestUser();
+                return history.indexOf(m -> m.getUsername().equals(user));
+            }
+        },
+        SYSTEM_FIRST {
+            @Override
+            public int victim(HistoryRing history) {
+                if(history.count(MessageType.SYSTEM) == 0) return 0;
+                return history.indexOf(m -> m.getMessageType() == MessageType.SYSTEM);
+            }
+        };
+
+        /**
+         * Get the policy set by the "chatroom.history.eviction" system property (oldest first by default).
+         *
+         * @return Selected policy
+         */
+        public static Eviction fromProperty() {
+            return Eviction.valueOf(System.getProperty("chatroom.history.eviction", OLDEST.name()).toUpperCase());
+        }
+    }
+
+    private final int maxMessages;
+    private final long maxBytes;
+    private final EvictionPolicy policy;
+
+    private volatile Chunk[] chunks = new Chunk[0]; // Oldest first, empty until the first message, replaced on every change
+
+    // Only used while holding the lock
+    private int size = 0;
+    private long bytes = 0;
+    private final Map<String, Integer> perUser = new HashMap<>();
+    private final int[] perType = new int[MessageType.values().length];
+    private long appended = 0;
+    private final long[] evicted = new long[MessageType.values().length];
+    private long evictedBytes = 0;
+
+    /**
+     * Create an empty history.
+     *
+     * @param maxMessages Most messages kept
+     * @param maxBytes Most bytes kept, as estimated by footprint()
+     * @param policy Decides which messages are evicted
+     */
+    public HistoryRing(int maxMessages, long maxBytes, EvictionPolicy policy) {
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.policy = policy;
+    }
+
+    /**
+     * Estimate the bytes a message takes on the heap: the message, its two strings and their characters.
+     *
+     * @param message Message to be measured
+     * @return Estimated bytes
+     */
+    protected static long footprint(Message message) {
+        return 32 + 2 * 40 + 2L * (message.getUsername().length() + message.getContent().length());
+    }
+
+    @Override
+    public synchronized void append(Message message) {
+        Chunk[] current = chunks;
+        Chunk last = current.length == 0? null : current[current.length - 1];
+        Chunk[] next;
+        if(last != null && last.to < CHUNK_SIZE) {
+            // Nobody can see past last.to, so the slot can be filled in the shared array
+            last.items[last.to] = message;
+            next = current.clone();
+            next[next.length - 1] = new Chunk(last.items, last.from, last.to + 1);
+        } else {
+            Message[] items = new Message[CHUNK_SIZE];
+            items[0] = message;
+            next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = new Chunk(items, 0, 1);
+        }
+        chunks = next;
+        size++;
+
+        bytes += footprint(message);
+        perUser.merge(message.getUsername(), 1, Integer::sum);
+        perType[message.getMessageType().ordinal()]++;
+        appended++;
+
+        while(size > 0 && (size > maxMessages || bytes > maxBytes)) evict(policy.victim(this));
+    }
+
+    /**
+     * Remove a message.
+     *
+     * @param position Position of the message, 0 being the oldest
+     */
+    private void evict(int position) {
+        Chunk[] current = chunks;
+        int k = 0;
+        while(position >= current[k].size()) position -= current[k++].size();
+        Chunk chunk = current[k];
+        Message message = chunk.items[chunk.from + position];
+
+        Chunk replaced;
+        if(position == 0 && k == 0) {
+            // Slots before "from" are never written again. The evicted message stays in the array until
+            // the whole chunk is evicted, so this is only done for the first chunk.
+            replaced = new Chunk(chunk.items, chunk.from + 1, chunk.to);
+        } else {
+            // The end of the array might still be filled by append(), so copy it
+            Message[] items = new Message[CHUNK_SIZE];
+            int n = 0;
+            for(int i = chunk.from; i < chunk.to; i++) if(i != chunk.from + position) items[n++] = chunk.items[i];
+            replaced = new Chunk(items, 0, n);
+        }
+
+        Chunk[] next;
+        if(replaced.size() == 0) {
+            next = new Chunk[current.length - 1];
+            System.arraycopy(current, 0, next, 0, k);
+            System.arraycopy(current, k + 1, next, k, current.length - k - 1);
+        } else if(k > 0 && current[k - 1].size() + replaced.size() <= CHUNK_SIZE) {
+            next = merge(current, k - 1, current[k - 1], replaced);
+        } else if(k + 1 < current.length && replaced.size() + current[k + 1].size() <= CHUNK_SIZE) {
+            next = merge(current, k, replaced, current[k + 1]);
+        } else {
+            next = current.clone();
+            next[k] = replaced;
+        }
+        chunks = next;
+        size--;
+
+        long footprint = footprint(message);
+        bytes -= footprint;
+        if(perUser.merge(message.getUsername(), -1, Integer::sum) == 0) perUser.remove(message.getUsername());
+        perType[message.getMessageType().ordinal()]--;
+        evicted[message.getMessageType().ordinal()]++;
+        evictedBytes += footprint;
+    }
+
+    /**
+     * Replace two neighbouring chunks with one holding the messages of both.
+     *
+     * @param current Chunks, oldest first
+     * @param k Position of the first chunk, the second one being next to it
+     * @param first Messages replacing the first chunk
+     * @param second Messages replacing the second chunk
+     * @return New chunks, with one chunk less
+     */
+    private static Chunk[] merge(Chunk[] current, int k, Chunk first, Chunk second) {
+        Message[] items = new Message[CHUNK_SIZE];
+        System.arraycopy(first.items, first.from, items, 0, first.size());
+        System.arraycopy(second.items, second.from, items, first.size(), second.size());
+        Chunk[] next = new Chunk[current.length - 1];
+        System.arraycopy(current, 0, next, 0, k);
+        next[k] = new Chunk(items, 0, first.size() + second.size());
+        System.arraycopy(current, k + 2, next, k + 1, current.length - k - 2);
+        return next;
+    }
+
+    /**
+     * Get the number of chunks the messages are kept in, e.g. to check small chunks are merged.
+     *
+     * @return Number of chunks
+     */
+    protected int chunkCount() { return chunks.length; }
+
+    /**
+     * Find the oldest message matching a condition. Meant for eviction policies.
+     *
+     * @param condition Condition to be met
+     * @return Position of the message, 0 being the oldest, or 0 if no message matches
+     */
+    protected int indexOf(Predicate<Message> condition) {
+        int position = 0;
+        for(Chunk chunk: chunks) {
+            for(int i = chunk.from; i < chunk.to; i++, position++) if(condition.test(chunk.items[i])) return position;
+        }
+        return 0;
+    }
+
+    /**
+     * Get the number of messages of a type. Meant for eviction policies.
+     *
+     * @param type Type of message
+     * @return Number of messages of this type
+     */
+    protected synchronized int count(MessageType type) { return perType[type.ordinal()]; }
+
+    /**
+     * Get the user with the most messages. Meant for eviction policies.
+     *
+     * @return Username, or null if the history is empty
+     */
+    protected synchronized String busiestUser() {
+        String busiest = null;
+        int most = 0;
+        for(Map.Entry<String, Integer> entry: perUser.entrySet()) {
+            if(entry.getValue() > most) {
+                busiest = entry.getKey();
+                most = entry.getValue();
+            }
+        }
+        return busiest;
+    }
+
+    @Override
+    public List<Message> snapshot() {
+        return new Snapshot(chunks);
+    }
+
+    @Override
+    public synchronized Stats getStats() {
+        return new Stats(size, bytes, maxMessages, maxBytes, appended, evicted, evictedBytes);
+    }
+
+    /**
+     * Part of the messages, from "from" (included) to "to" (excluded) in the array.
+     * Slots in that range are never written again.
+     */
+    private static final class Chunk {
+        private final Message[] items;
+        private final int from;
+        private final int to;
+
+        private Chunk(Message[] items, int from, int to) {
+            this.items = items;
+            this.from = from;
+            this.to = to;
+        }
+
+        private int size() { return to - from; }
+    }
+
+    /**
+     * Messages kept at the time the snapshot was taken.
+     */
+    private static final class Snapshot extends AbstractList<Message> {
+
+        private final Chunk[] chunks;
+        private final int size;
+        private final int[] starts; // Position of the first message of each chunk
+
+        private Snapshot(Chunk[] chunks) {
+            this.chunks = chunks;
+            starts = new int[chunks.length];
+            int n = 0;
+            for(int k = 0; k < chunks.length; k++) {
+                starts[k] = n;
+                n += chunks[k].size();
+            }
+            this.size = n;
+        }
+
+        @Override
+        public Message get(int i) {
+            if(i < 0 || i >= size) throw new IndexOutOfBoundsException("Index: " + i + ", size: " + size);
+            int k = Arrays.binarySearch(starts, i);
+            if(k < 0) k = -k - 2; // Chunk starting before i
+            return chunks[k].items[chunks[k].from + i - starts[k]];
+        }
+
+        @Override
+        public int size() { return size; }
+
+        @Override
+        public Iterator<Message> iterator() {
+            return new Iterator<Message>() {
+                private int k = 0;
+                private int i = chunks.length == 0? 0 : chunks[0].from;
+
+                @Override
+                public boolean hasNext() {
+                    while(k < chunks.length && i >= chunks[k].to) {
+                        if(++k < chunks.length) i = chunks[k].from;
+                    }
+                    return k < chunks.length;
+                }
+
+                @Override
+                public Message next() {
+                    if(!hasNext()) throw new NoSuchElementException();
+                    return chunks[k].items[i++];
+                }
+            };
+        }
+    }
+}
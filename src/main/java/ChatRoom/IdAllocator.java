@@ -0,0 +1,144 @@
+package ChatRoom;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Gives IDs to the new members joining through this member.
+ *
+ * Every member used to give the next ID after the highest one it knew about, so two members
+ * accepting a join at the same time gave both new members the same ID. IDs are now handed out
+ * by the coordinator only, in ranges of RANGE IDs: a member accepting a join takes the next ID
+ * of its range, and only asks the coordinator for a new range once it is used up.
+ *
+ * The coordinator is still asked on every join, with the username of the new member: it reserves
+ * the username, so two members joining at once through different members can't both get it.
+ *
+ * By default, ranges hold RANGE IDs, so most joins are given an ID the member already holds, and
+ * the coordinator only sends a membership change for every RANGE joins. Members joining through
+ * different members get IDs out of order, so the successors of the coordinator are the members
+ * with the lowest IDs rather than the oldest ones (see CoordinatorLease). With ranges of a single
+ * ID, IDs follow the order members joined in.
+ *
+ * The coordinator sends every range it hands out to everyone as a membership change (see
+ * Membership.lease()), so a new coordinator never hands out IDs already given to a member.
+ * IDs left in the range of a member who leaves are never used.
+ *
+ * Asking the coordinator blocks until it answers, or for up to TIMEOUT to connect and TIMEOUT for
+ * the answer on each attempt, so joins are accepted on the control executor rather than on the
+ * threads reading connections or sending messages (see Dispatcher). The coordinator is asked
+ * without holding the lock, so joins through the same member are accepted in parallel.
+ *
+ * @author Abdullah
+ */
+class IdAllocator {
+
+    protected static final int RANGE = Integer.getInteger("chatroom.ids.range", 16); // IDs asked to the coordinator at once
+    protected static final int ATTEMPTS = 3; // Tries to reach the coordinator, which may be changing
+    protected static final int TIMEOUT = 2000; // ms to connect to the coordinator, and again for its answer
+
+    private final Client client;
+
+    // Only used while holding the lock
+    private int next = 0; // Next ID to give
+    private int end = 0; // Range used up when next reaches it
+    private long allocated = 0;
+    private long ranges = 0;
+
+    public IdAllocator(Client client) {
+        this.client = client;
+    }
+
+    /**
+     * Get an ID for a new member, once the coordinator reserved its username.
+     *
+     * @param userName Username of the new member
+     * @return ID never given to another member
+     * @throws IOException If the coordinator could not be reached, or the username is taken
+     */
+    public int allocate(String userName) throws IOException {
+        int id = -1;
+        synchronized(this) {
+            if(next < end) id = next++;
+        }
+        IdRange range;
+        try {
+            range = lease(id < 0? RANGE : 0, userName);
+        } catch(IOException e) {
+            if(id >= 0) giveBack(id);
+            throw e;
+        }
+        synchronized(this) {
+            allocated++;
+            if(range.isEmpty()) return id;
+            ranges++;
+            // Another join may have got a range meanwhile, keep whichever has more IDs left
+            if(range.getEnd() - range.getStart() - 1 > end - next) {
+                next = range.getStart() + 1;
+                end = range.getEnd();
+            }
+            return range.getStart();
+        }
+    }
+
+    /**
+     * Put back an ID that was not given after all, unless other IDs were taken since.
+     */
+    private synchronized void giveBack(int id) {
+        if(id == next - 1) next = id;
+    }
+
+    /**
+     * Ask the coordinator, or this member if it is the coordinator, for new IDs and to reserve a username.
+     */
+    private IdRange lease(int count, String userName) throws IOException {
+        IOException failure = new IOException("No coordinator");
+        IdRequest request = new IdRequest(client.me.getID(), count, userName);
+        for(int attempt = 0; attempt < ATTEMPTS; attempt++) {
+            IdRange range;
+            Member coordinator = client.me;
+            if(client.me.isCoordinator()) range = client.grantIds(request);
+            else {
+                if(client.getMembers().isEmpty()) break;
+                coordinator = client.getMembers().get(0);
+                try (Socket conn = new Socket()) {
+                    conn.connect(new InetSocketAddress(coordinator.getAddress(), coordinator.getPort()), TIMEOUT);
+                    conn.setSoTimeout(TIMEOUT);
+                    Frames.write(conn.getOutputStream(), request);
+                    range = (IdRange)Frames.read(new DataInputStream(conn.getInputStream()));
+                } catch(IOException | ClassNotFoundException | ClassCastException e) {
+                    failure = new IOException("Could not get IDs from " + coordinator + ": " + e);
+                    range = null;
+                }
+            }
+            if(range != null) {
+                if(range.getStatus() == IdRange.Status.TAKEN) throw new IOException("Username " + userName + " is taken");
+                if(range.getStatus() == IdRange.Status.GRANTED) return range;
+                failure = new IOException(coordinator + " is not the coordinator");
+            }
+            try {
+                Thread.sleep(CoordinatorThread.CHECK_INTERVAL); // Let the new coordinator be known
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * Get the IDs given so far, e.g. to check how often the coordinator is asked.
+     *
+     * @return IDs given and ranges received
+     */
+    public synchronized Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("allocated", allocated);
+        stats.put("ranges", ranges);
+        return stats;
+    }
+}
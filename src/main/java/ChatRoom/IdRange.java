@@ -0,0 +1,49 @@
+package ChatRoom;
+
+import java.io.Serializable;
+
+/**
+ * IDs handed out by the coordinator, in answer to an IdRequest.
+ * Empty if the member asked is not the coordinator, if the username asked for is taken, or if
+ * no IDs were asked for.
+ *
+ * @author Abdullah
+ */
+class IdRange implements Serializable {
+
+    public enum Status { GRANTED, TAKEN, NOT_COORDINATOR } // New statuses must be added at the end, see WireCodec
+
+    private final int start; // First ID
+    private final int end; // Last ID + 1
+    private final Status status;
+
+    public IdRange(int start, int end) {
+        this(start, end, Status.GRANTED);
+    }
+
+    public IdRange(int start, int end, Status status) {
+        this.start = start;
+        this.end = end;
+        this.status = status;
+    }
+
+    /**
+     * Create the answer of a member who refuses to hand out IDs.
+     *
+     * @param status Why the IDs are not handed out
+     * @return Empty range
+     */
+    public static IdRange refused(Status status) {
+        return new IdRange(0, 0, status);
+    }
+
+    public int getStart() { return start; }
+    public int getEnd() { return end; }
+    public Status getStatus() { return status; }
+    public boolean isEmpty() { return start >= end; }
+
+    @Override
+    public String toString() {
+        return "IdRange[" + start + ", " + end + ") " + status;
+    }
+}
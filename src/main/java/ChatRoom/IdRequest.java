@@ -0,0 +1,31 @@
+package ChatRoom;
+
+import java.io.Serializable;
+
+/**
+ * Sent to the coordinator by a member accepting a join (see IdAllocator), with the username of
+ * the new member so the coordinator can make sure no other member joins with it meanwhile.
+ *
+ * @author Abdullah
+ */
+class IdRequest implements Serializable {
+
+    private final int requester; // ID of the member asking
+    private final int count; // Number of IDs wanted, 0 if the member still has some
+    private final String userName; // Username of the member joining
+
+    public IdRequest(int requester, int count, String userName) {
+        this.requester = requester;
+        this.count = count;
+        this.userName = userName;
+    }
+
+    public int getRequester() { return requester; }
+    public int getCount() { return count; }
+    public String getUsername() { return userName; }
+
+    @Override
+    public String toString() {
+        return "IdRequest{requester=" + requester + ", count=" + count + ", userName=" + userName + "}";
+    }
+}
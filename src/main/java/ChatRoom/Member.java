@@ -58,6 +58,14 @@ public class Member implements Serializable {
         this.port = port;
     }
     
+    private Member(String userName, int id, String address, int port, boolean coordinator) {
+        this.userName = userName;
+        this.id = id;
+        this.address = address;
+        this.port = port;
+        this.coordinator = coordinator;
+    }
+    
     /**
      * Get the username
      * 
@@ -104,6 +112,16 @@ public class Member implements Serializable {
         coordinator = true;
     }
     
+    /**
+     * Get a copy of this member with coordinator status set, e.g. to replace it in a MemberTable,
+     * whose snapshots must not change.
+     * 
+     * @return New member, as the coordinator
+     */
+    public Member asCoordinator() {
+        return new Member(userName, id, address, port, true);
+    }
+    
     /**
      * Get coordinator status
      * 
@@ -130,7 +148,7 @@ public class Member implements Serializable {
     @Override
     public boolean equals(Object o) {
         if(this == o) return true;
-        if(o.getClass() == getClass()) {
+        if(o != null && o.getClass() == getClass()) {
             Member memberO = (Member)o;
             return memberO.id == id && memberO.userName.equalsIgnoreCase(userName) && memberO.address.equalsIgnoreCase(address) && port == port && isCoordinator() == coordinator;
         }
@@ -0,0 +1,268 @@
+package ChatRoom;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The members a client knows about, ordered by ID.
+ *
+ * Previously a synchronized ArrayList, searched from the start every time a member was looked up
+ * by ID, and locked by every thread copying it before sending a message. Now every change builds
+ * a new immutable Snapshot, with a version number, an index by ID (open addressing over an int
+ * array) and an index by username. Readers just take the current snapshot: they never wait for
+ * writers, and the snapshot doesn't change while they iterate it.
+ *
+ * Changes are rare (a member joins or leaves), so rebuilding the snapshot on each of them is cheap
+ * next to the lookups done for every message.
+ *
+ * Usernames are compared ignoring case, as Member.equals() does. A member accepting a join
+ * reserves the username until the new member is in the table, so two members joining at once
+ * through the same member can't get the same username. The coordinator reserves the usernames
+ * of members joining through other members for a while too (see Client.grantIds()).
+ *
+ * The table is also a List, reading the current snapshot, so it can be used like the old list.
+ *
+ * @author Abdullah
+ */
+class MemberTable extends AbstractList<Member> {
+
+    private volatile Snapshot current = new Snapshot(0, new Member[0]);
+    private final Map<String, Long> reserved = new HashMap<>(); // Usernames of members joining, by key(), to the time (ms) they are free again. Only used while holding the lock
+
+    /**
+     * Get the members as they are now. The snapshot never changes.
+     *
+     * @return Current snapshot
+     */
+    public Snapshot snapshot() { return current; }
+
+    /**
+     * Add a member, or replace the member with the same ID.
+     *
+     * @param member Member to be added
+     * @return Always true
+     */
+    @Override
+    public synchronized boolean add(Member member) {
+        Snapshot s = current;
+        Member[] members = s.members;
+        int position = s.position(member.getID());
+        Member[] next;
+        if(position >= 0) {
+            next = members.clone();
+            next[position] = member;
+        } else {
+            // Keep the members ordered by ID, new members usually go at the end
+            int insert = members.length;
+            while(insert > 0 && members[insert - 1].getID() > member.getID()) insert--;
+            next = new Member[members.length + 1];
+            System.arraycopy(members, 0, next, 0, insert);
+            next[insert] = member;
+            System.arraycopy(members, insert, next, insert + 1, members.length - insert);
+        }
+        current = new Snapshot(s.version + 1, next);
+        reserved.remove(key(member.getUsername())); // Taken by the member from now on
+        return true;
+    }
+
+    /**
+     * Remove the member with an ID.
+     *
+     * @param id ID of the member
+     * @return The member removed, or null if there was no member with this ID
+     */
+    public synchronized Member removeById(int id) {
+        Snapshot s = current;
+        int position = s.position(id);
+        if(position < 0) return null;
+        Member[] next = new Member[s.members.length - 1];
+        System.arraycopy(s.members, 0, next, 0, position);
+        System.arraycopy(s.members, position + 1, next, position, next.length - position);
+        current = new Snapshot(s.version + 1, next);
+        return s.members[position];
+    }
+
+    /**
+     * Replace every member, e.g. with the members received from another member.
+     *
+     * @param members New members, in any order
+     */
+    public synchronized void reset(Collection<Member> members) {
+        Member[] next = members.toArray(new Member[0]);
+        Arrays.sort(next, Comparator.comparingInt(Member::getID));
+        current = new Snapshot(current.version + 1, next);
+    }
+
+    /**
+     * Reserve the username of a member joining, if no other member has it.
+     *
+     * @param userName Username of the new member
+     * @return False if a member has it, or is joining with it
+     */
+    public synchronized boolean reserve(String userName) {
+        return reserve(userName, Long.MAX_VALUE);
+    }
+
+    /**
+     * Reserve the username of a member joining for some time, if no other member has it, e.g. at
+     * the coordinator, which is not told if the join fails.
+     *
+     * @param userName Username of the new member
+     * @param timeout Time (ms) after which the username is free again, unless the member was added
+     * @return False if a member has it, or is joining with it
+     */
+    public synchronized boolean reserve(String userName, long timeout) {
+        if(current.byUsername(userName) != null) return false;
+        long now = System.currentTimeMillis();
+        Long until = reserved.get(key(userName));
+        if(until != null && until > now) return false;
+        reserved.put(key(userName), timeout > Long.MAX_VALUE - now? Long.MAX_VALUE : now + timeout);
+        return true;
+    }
+
+    /**
+     * Release a username reserved for a member joining, once it was added or denied.
+     *
+     * @param userName Username of the new member
+     */
+    public synchronized void release(String userName) {
+        reserved.remove(key(userName));
+    }
+
+    /**
+     * Remove a member, if the member with the same ID is equal to it.
+     *
+     * @param o Member to be removed
+     * @return True if the member was removed
+     */
+    @Override
+    public synchronized boolean remove(Object o) {
+        if(!contains(o)) return false;
+        return removeById(((Member)o).getID()) != null;
+    }
+
+    /**
+     * Find a member by ID.
+     *
+     * @param id ID of the member
+     * @return The member, or null if unknown
+     */
+    public Member byId(int id) { return current.byId(id); }
+
+    /**
+     * Find a member by username, ignoring case.
+     *
+     * @param userName Username of the member
+     * @return The member, or null if unknown
+     */
+    public Member byUsername(String userName) { return current.byUsername(userName); }
+
+    /**
+     * Get the key of a username in the index: usernames differing only by case are the same.
+     */
+    private static String key(String userName) {
+        return userName.toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public boolean contains(Object o) { return current.contains(o); }
+
+    @Override
+    public Member get(int i) { return current.get(i); }
+
+    @Override
+    public int size() { return current.size(); }
+
+    @Override
+    public Iterator<Member> iterator() { return current.iterator(); }
+
+    /**
+     * The members at one point in time, ordered by ID.
+     */
+    public static final class Snapshot extends AbstractList<Member> {
+
+        private static final int EMPTY = Integer.MIN_VALUE; // Not a valid ID
+
+        private final long version; // Incremented on every change
+        private final Member[] members;
+        private final int[] keys; // Open addressing: IDs, EMPTY for free slots
+        private final int[] positions; // Position in members of the ID in the same slot
+        private final Map<String, Member> byUsername; // By key()
+
+        private Snapshot(long version, Member[] members) {
+            this.version = version;
+            this.members = members;
+            int capacity = Integer.highestOneBit(Math.max(4, members.length * 2 - 1)) << 1; // At most half full
+            keys = new int[capacity];
+            positions = new int[capacity];
+            Arrays.fill(keys, EMPTY);
+            Map<String, Member> usernames = new HashMap<>(members.length * 2);
+            for(int i = 0; i < members.length; i++) {
+                int slot = slot(members[i].getID());
+                while(keys[slot] != EMPTY) slot = (slot + 1) & (keys.length - 1);
+                keys[slot] = members[i].getID();
+                positions[slot] = i;
+                usernames.put(key(members[i].getUsername()), members[i]);
+            }
+            byUsername = Collections.unmodifiableMap(usernames);
+        }
+
+        private int slot(int id) {
+            int h = id * 0x9E3779B9; // Spread consecutive IDs
+            return (h ^ (h >>> 16)) & (keys.length - 1);
+        }
+
+        private int position(int id) {
+            for(int slot = slot(id); keys[slot] != EMPTY; slot = (slot + 1) & (keys.length - 1)) {
+                if(keys[slot] == id) return positions[slot];
+            }
+            return -1;
+        }
+
+        /**
+         * Get the version of the table this snapshot was taken at.
+         *
+         * @return Version, incremented on every change
+         */
+        public long getVersion() { return version; }
+
+        /**
+         * Find a member by ID.
+         *
+         * @param id ID of the member
+         * @return The member, or null if unknown
+         */
+        public Member byId(int id) {
+            int position = position(id);
+            return position < 0? null : members[position];
+        }
+
+        /**
+         * Find a member by username, ignoring case.
+         *
+         * @param userName Username of the member
+         * @return The member, or null if unknown
+         */
+        public Member byUsername(String userName) { return byUsername.get(key(userName)); }
+
+        @Override
+        public boolean contains(Object o) {
+            if(!(o instanceof Member)) return false;
+            Member found = byId(((Member)o).getID());
+            return found != null && found.equals(o);
+        }
+
+        @Override
+        public Member get(int i) { return members[i]; }
+
+        @Override
+        public int size() { return members.length; }
+    }
+}
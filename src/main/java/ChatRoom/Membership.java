@@ -0,0 +1,447 @@
+package ChatRoom;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Versioned view of the members of the chat.
+ *
+ * Every change to the members (a member joins, leaves, becomes the coordinator, or the coordinator
+ * hands out IDs for new members) is a
+ * MembershipDelta with an epoch, one more than the last epoch known by the member making the
+ * change. Deltas are sent to everyone, and each member keeps the most recent ones in a log.
+ *
+ * A member receiving a delta more than one epoch ahead of its own knows it missed changes, and
+ * asks the author for the changes since its epoch (see ViewRequest). Only those deltas are sent
+ * back, unless they are no longer in the log: a member too far behind gets the full list of members.
+ * New members always get the full list, with the epoch it was taken at.
+ *
+ * Changes made at the same time by two members can share an epoch. They are told apart by their
+ * author, and applying a delta twice changes nothing. But a member that applied one of them has
+ * reached the epoch, so the epoch alone can't tell it missed the other. Each change also carries
+ * the epoch of the previous change of its author: a member receiving a change whose previous
+ * change it never applied asks for the changes since the last change of that author it applied.
+ * A missed change the author never follows with another one is caught up by comparing digests
+ * (see below). getDigest() can be compared between members to check they have the same view.
+ *
+ * Joins accepted at the same time by two members can still be missed: a new member gets the
+ * view of the member it joined through, which may not have received the other join yet. Members
+ * compare digests in their heartbeats, and merge the view of a member whose digest stays
+ * different (see merge()). Full views also carry the members who left, so a LEAVE missed for
+ * good is caught up the same way (see prune()). Members who left are forgotten MAX_DELTAS epochs
+ * later: by then a JOIN of theirs is too old to be applied, and a member that far behind gets a
+ * full view anyway.
+ *
+ * Members in the table are never changed, since snapshots of it are read without locking: a
+ * member becoming the coordinator is replaced with a copy (see Member.asCoordinator()).
+ *
+ * @author Abdullah
+ */
+class Membership {
+
+    protected static final int MAX_DELTAS = Integer.getInteger("chatroom.membership.deltas", 256);
+
+    /**
+     * What applying a delta did.
+     */
+    public enum Outcome {
+        IGNORED, // Already applied, or too old to tell
+        APPLIED,
+        BEHIND // Applied, but changes before it were missed
+    }
+
+    private final Member me;
+    private final MemberTable members;
+    private final int maxDeltas;
+
+    // Only used while holding the lock
+    private long epoch = 0; // Every change up to this epoch was applied
+    private long truncated = 0; // Changes up to this epoch are no longer in the log
+    private final ArrayDeque<MembershipDelta> log = new ArrayDeque<>(); // Recent changes, in the order they were applied
+    private final Set<MembershipDelta> logged = new HashSet<>();
+    private final TreeSet<Long> ahead = new TreeSet<>(); // Epochs of changes applied while earlier ones are missing
+    private final Map<Integer, Long> left = new HashMap<>(); // Members who left, to the epoch they left at, so a late JOIN doesn't bring them back
+    private final Map<Integer, Long> authors = new HashMap<>(); // Epoch of the last change applied from each member who made one
+    private long missedFrom = Long.MAX_VALUE; // A change after this epoch was missed, found by the changes of its author
+    private int allocated = 0; // Every ID below it was handed out by a coordinator
+    private long digest = 0;
+    private long digestVersion = -1; // Version of the table the digest was computed at, -1 to compute it again
+    private boolean digestCoordinator = false; // Whether the owner was the coordinator then
+    private long merged = 0;
+    private long pruned = 0;
+    private long applied = 0;
+    private long ignored = 0;
+    private long gaps = 0;
+    private long fullViewsSent = 0;
+    private long deltaViewsSent = 0;
+    private long deltasSent = 0;
+
+    /**
+     * Create the view of a member, starting at epoch 0.
+     *
+     * @param me Owner of the view, never part of the table
+     * @param members Other members, changed by this view
+     * @param maxDeltas Most changes kept to catch up other members
+     */
+    public Membership(Member me, MemberTable members, int maxDeltas) {
+        this.me = me;
+        this.members = members;
+        this.maxDeltas = maxDeltas;
+    }
+
+    /**
+     * Make a change, to be sent to the other members.
+     *
+     * @param type Type of change
+     * @param id ID of the member changed
+     * @param member Details of the member for JOIN, null otherwise
+     * @return The change made
+     */
+    public synchronized MembershipDelta change(MembershipDelta.Type type, int id, Member member) {
+        long highest = ahead.isEmpty()? epoch : Math.max(epoch, ahead.last());
+        MembershipDelta delta = new MembershipDelta(highest + 1, me.getID(), authors.getOrDefault(me.getID(), 0L), type, id, member);
+        apply(delta);
+        return delta;
+    }
+
+    /**
+     * Apply a change made by another member.
+     *
+     * @param delta Change received
+     * @return What was done
+     */
+    public synchronized Outcome apply(MembershipDelta delta) {
+        if(logged.contains(delta) || delta.getEpoch() <= truncated) {
+            ignored++;
+            return Outcome.IGNORED;
+        }
+        switch(delta.getType()) {
+            case JOIN:
+                Member m = delta.getMember();
+                if(!left.containsKey(delta.getID()) && !isMe(m)) members.add(m);
+                allocated = Math.max(allocated, delta.getID() + 1);
+                break;
+            case LEAVE:
+                left.merge(delta.getID(), delta.getEpoch(), Math::max);
+                members.removeById(delta.getID());
+                authors.remove(delta.getID());
+                break;
+            case COORDINATOR:
+                setCoordinator(delta.getID());
+                break;
+            case IDS:
+                allocated = Math.max(allocated, delta.getID());
+                break;
+        }
+        log.addLast(delta);
+        logged.add(delta);
+        while(log.size() > maxDeltas) {
+            MembershipDelta oldest = log.removeFirst();
+            logged.remove(oldest);
+            truncated = Math.max(truncated, oldest.getEpoch());
+        }
+        applied++;
+
+        // The previous change of the same author never arrived, e.g. made at the same time as a change applied instead
+        Long last = authors.get(delta.getOrigin());
+        boolean missed = last != null && delta.getPrevious() > last;
+        if(missed) missedFrom = Math.min(missedFrom, last);
+        authors.merge(delta.getOrigin(), delta.getEpoch(), Math::max);
+
+        if(delta.getEpoch() == epoch + 1) {
+            epoch++;
+            while(ahead.remove(epoch + 1)) epoch++; // Changes received before this one
+        } else if(delta.getEpoch() > epoch) {
+            ahead.add(delta.getEpoch());
+            missed = true;
+        }
+        forgetLeft();
+        if(!missed) return Outcome.APPLIED;
+        gaps++;
+        return Outcome.BEHIND;
+    }
+
+    /**
+     * Get the epoch to ask the changes since when catching up.
+     *
+     * @return The epoch of this view, or an earlier one if a change made at the same time as another was missed
+     */
+    public synchronized long getCatchUpEpoch() {
+        return Math.min(epoch, missedFrom);
+    }
+
+    /**
+     * Mark every change up to an epoch as known, once they were received from another member.
+     *
+     * @param reached Epoch of the view received
+     */
+    public synchronized void caughtUp(long reached) {
+        if(reached >= missedFrom) missedFrom = Long.MAX_VALUE;
+        if(reached <= epoch) return;
+        epoch = reached;
+        ahead.headSet(epoch, true).clear();
+        while(ahead.remove(epoch + 1)) epoch++;
+        forgetLeft();
+    }
+
+    /**
+     * Replace every member with a full view received from another member.
+     *
+     * @param view Full view
+     * @return Members who are no longer part of the view
+     */
+    public synchronized List<Member> load(MembershipView view) {
+        // Changes made after the view was taken, e.g. received while joining, are applied again on top of it
+        List<MembershipDelta> later = new ArrayList<>();
+        for(MembershipDelta d: log) if(d.getEpoch() > view.getEpoch()) later.add(d);
+
+        for(int id: view.getLeft()) left.merge(id, view.getEpoch(), Math::max); // Left at the latest then
+        List<Member> others = new ArrayList<>();
+        for(Member m: view.getMembers()) if(!isMe(m)) others.add(m);
+        MemberTable.Snapshot previous = members.snapshot();
+        members.reset(others);
+
+        // Changes up to this epoch can't be told apart anymore
+        allocated = Math.max(allocated, view.getAllocated());
+        epoch = view.getEpoch();
+        truncated = view.getEpoch();
+        log.clear();
+        logged.clear();
+        ahead.clear();
+        authors.replaceAll((id, last) -> Math.max(last, view.getEpoch())); // Every change up to the view is in it
+        missedFrom = Long.MAX_VALUE;
+        for(MembershipDelta d: later) apply(d);
+        forgetLeft();
+
+        List<Member> removed = new ArrayList<>();
+        for(Member m: previous) if(members.byId(m.getID()) == null) removed.add(m);
+        return removed;
+    }
+
+    /**
+     * Get what another member needs to catch up from an epoch.
+     *
+     * @param since Every change up to this epoch is known by the other member
+     * @return The changes made since, or every member if some of them are no longer in the log
+     */
+    public synchronized MembershipView since(long since) {
+        if(since < truncated) {
+            fullViewsSent++;
+            return full();
+        }
+        List<MembershipDelta> deltas = new ArrayList<>();
+        for(MembershipDelta d: log) if(d.getEpoch() > since) deltas.add(d);
+        deltas.sort(Comparator.comparingLong(MembershipDelta::getEpoch)); // Stable, keeps the order they were applied in
+        deltaViewsSent++;
+        deltasSent += deltas.size();
+        return MembershipView.deltas(epoch, deltas);
+    }
+
+    /**
+     * Get every member, including the owner of this view.
+     *
+     * @return Full view, ordered by ID
+     */
+    public synchronized MembershipView full() {
+        List<Member> everyone = new ArrayList<>(members.snapshot());
+        everyone.add(me);
+        everyone.sort(Comparator.comparingInt(Member::getID));
+        List<Integer> gone = new ArrayList<>(left.keySet());
+        Collections.sort(gone);
+        return MembershipView.full(epoch, everyone, getAllocated(), gone);
+    }
+
+    /**
+     * Hand out the next IDs, on the coordinator, to be sent to the other members.
+     * They are above every ID used or handed out so far, including by previous coordinators.
+     *
+     * @param count Number of IDs
+     * @return The change made, handing out the IDs from its ID minus count, up to its ID (excluded)
+     */
+    public synchronized MembershipDelta lease(int count) {
+        return change(MembershipDelta.Type.IDS, getAllocated() + count, null);
+    }
+
+    /**
+     * Get the lowest ID that was never handed out.
+     *
+     * @return Next ID a coordinator can hand out
+     */
+    public synchronized int getAllocated() {
+        int highest = me.getID();
+        for(Member m: members.snapshot()) highest = Math.max(highest, m.getID());
+        for(int id: left.keySet()) highest = Math.max(highest, id);
+        return Math.max(allocated, highest + 1);
+    }
+
+    /**
+     * Get the epoch of this view.
+     *
+     * @return Every change up to this epoch was applied
+     */
+    public synchronized long getEpoch() { return epoch; }
+
+    /**
+     * Get a hash of the members and the coordinator, the same for members with the same view.
+     *
+     * @return Digest of the view
+     */
+    public synchronized long getDigest() {
+        long version = members.snapshot().getVersion();
+        if(version != digestVersion || digestCoordinator != me.isCoordinator()) { // Sent with every heartbeat, only computed after a change
+            MembershipView view = full();
+            digest = 17;
+            for(Member m: view.getMembers()) digest = 31 * digest + 2L * m.getID() + (m.isCoordinator()? 1 : 0);
+            digestVersion = version;
+            digestCoordinator = me.isCoordinator();
+        }
+        return digest;
+    }
+
+    /**
+     * Add the members of another member's full view that this view is missing.
+     * Members who left are not brought back, and members missing from the other view are kept:
+     * the other member gets them the same way, from this view.
+     * Only members with an ID handed out by a coordinator, as far as this view knows, are added,
+     * so a member wrongly added by one member doesn't spread to the others.
+     *
+     * @param view Full view of another member
+     * @return Members added
+     */
+    public synchronized List<Member> merge(MembershipView view) {
+        int handedOut = getAllocated();
+        List<Member> added = new ArrayList<>();
+        for(Member m: view.getMembers()) {
+            if(isMe(m)) continue;
+            Member known = members.byId(m.getID());
+            if(known == null && !left.containsKey(m.getID()) && m.getID() < handedOut) {
+                members.add(m);
+                added.add(m);
+            } else if(known != null && m.isCoordinator() && !known.isCoordinator()) {
+                setCoordinator(m.getID());
+            }
+        }
+        merged += added.size();
+        return added;
+    }
+
+    /**
+     * Remove the members another member's full view says have left, e.g. after missing a LEAVE.
+     * Without it, views that missed a LEAVE never match again, since merge() only adds members.
+     *
+     * @param view Full view of another member
+     * @return Members removed
+     */
+    public synchronized List<Member> prune(MembershipView view) {
+        List<Member> removed = new ArrayList<>();
+        for(int id: view.getLeft()) {
+            if(id == me.getID()) continue; // Removed by mistake, the coordinator finds out on its own
+            left.merge(id, epoch, Math::max); // Not known when it left, start counting from now
+            Member gone = members.removeById(id);
+            if(gone != null) removed.add(gone);
+        }
+        pruned += removed.size();
+        return removed;
+    }
+
+    /**
+     * Get how this view was kept up to date so far.
+     *
+     * @return Current statistics
+     */
+    public synchronized Stats getStats() {
+        return new Stats(epoch, members.size() + 1, log.size(), applied, ignored, gaps, fullViewsSent, deltaViewsSent, deltasSent, merged, pruned);
+    }
+
+    /**
+     * Mark a member as the coordinator. Other members are replaced with a copy, the snapshots
+     * already taken of the table keep the member as it was.
+     */
+    private void setCoordinator(int id) {
+        if(id == me.getID()) {
+            me.setCoordinator();
+            digestVersion = -1; // The table didn't change, but the digest did
+            return;
+        }
+        Member coordinator = members.byId(id);
+        if(coordinator != null && !coordinator.isCoordinator()) members.add(coordinator.asCoordinator());
+    }
+
+    /**
+     * Forget the members who left MAX_DELTAS epochs ago, so full views don't grow with every member
+     * who ever left. Their IDs are still never handed out again.
+     */
+    private void forgetLeft() {
+        Iterator<Map.Entry<Integer, Long>> it = left.entrySet().iterator();
+        while(it.hasNext()) {
+            Map.Entry<Integer, Long> gone = it.next();
+            if(gone.getValue() > epoch - maxDeltas) continue;
+            allocated = Math.max(allocated, gone.getKey() + 1);
+            it.remove();
+        }
+    }
+
+    private boolean isMe(Member m) {
+        // The ID of this member might not be known yet when it first hears about itself. Usernames are unique, so check those as well.
+        return m.getID() == me.getID() || m.getUsername().equals(me.getUsername());
+    }
+
+    /**
+     * How a view was kept up to date, to check how much is sent to catch up.
+     */
+    public static final class Stats {
+
+        private final long epoch;
+        private final int members; // Including the owner of the view
+        private final int logged; // Changes kept to catch up other members
+        private final long applied; // Changes applied
+        private final long ignored; // Changes received more than once, or too old
+        private final long gaps; // Changes received before earlier ones
+        private final long fullViewsSent; // Members too far behind, sent every member
+        private final long deltaViewsSent; // Members behind, sent only changes
+        private final long deltasSent; // Changes sent to members behind
+        private final long merged; // Members missed, added from the view of another member
+        private final long pruned; // Members who left without this view hearing it, removed from the view of another member
+
+        public Stats(long epoch, int members, int logged, long applied, long ignored, long gaps, long fullViewsSent, long deltaViewsSent, long deltasSent, long merged, long pruned) {
+            this.epoch = epoch;
+            this.members = members;
+            this.logged = logged;
+            this.applied = applied;
+            this.ignored = ignored;
+            this.gaps = gaps;
+            this.fullViewsSent = fullViewsSent;
+            this.deltaViewsSent = deltaViewsSent;
+            this.deltasSent = deltasSent;
+            this.merged = merged;
+            this.pruned = pruned;
+        }
+
+        public long getEpoch() { return epoch; }
+        public int getMembers() { return members; }
+        public int getLogged() { return logged; }
+        public long getApplied() { return applied; }
+        public long getIgnored() { return ignored; }
+        public long getGaps() { return gaps; }
+        public long getFullViewsSent() { return fullViewsSent; }
+        public long getDeltaViewsSent() { return deltaViewsSent; }
+        public long getDeltasSent() { return deltasSent; }
+        public long getMerged() { return merged; }
+        public long getPruned() { return pruned; }
+
+        @Override
+        public String toString() {
+            return "Stats{epoch=" + epoch + ", members=" + members + ", logged=" + logged + ", applied=" + applied + ", ignored=" + ignored
+                    + ", gaps=" + gaps + ", fullViewsSent=" + fullViewsSent + ", deltaViewsSent=" + deltaViewsSent + ", deltasSent=" + deltasSent + ", merged=" + merged + ", pruned=" + pruned + "}";
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package ChatRoom;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * One change to the members of the chat, sent to everyone by the member who made it.
+ *
+ * Each change carries the epoch of the membership it leads to (see Membership), so a member
+ * can tell whether it missed changes before this one, and the epoch of the previous change made
+ * by the same member, so a change made at the same time as another one, with the same epoch,
+ * can't be missed unnoticed.
+ *
+ * @author Abdullah
+ */
+class MembershipDelta implements Serializable {
+
+    public enum Type {
+        JOIN, // A member joined, "member" holds their details
+        LEAVE, // A member left or was removed by the coordinator
+        COORDINATOR, // A member became the coordinator
+        IDS // The coordinator handed out every ID below "id" (see IdAllocator)
+    }
+
+    private final long epoch; // Epoch of the membership after this change
+    private final int origin; // ID of the member who made the change
+    private final long previous; // Epoch of the previous change made by the same member, 0 for its first
+    private final Type type;
+    private final int id; // ID of the member changed
+    private final Member member; // Only for JOIN, null otherwise
+
+    public MembershipDelta(long epoch, int origin, Type type, int id, Member member) {
+        this(epoch, origin, 0, type, id, member);
+    }
+
+    public MembershipDelta(long epoch, int origin, long previous, Type type, int id, Member member) {
+        this.epoch = epoch;
+        this.origin = origin;
+        this.previous = previous;
+        this.type = type;
+        this.id = id;
+        this.member = member;
+    }
+
+    public long getEpoch() { return epoch; }
+    public int getOrigin() { return origin; }
+    public long getPrevious() { return previous; }
+    public Type getType() { return type; }
+    public int getID() { return id; }
+    public Member getMember() { return member; }
+
+    @Override
+    public boolean equals(Object o) {
+        if(!(o instanceof MembershipDelta)) return false;
+        MembershipDelta d = (MembershipDelta)o;
+        return epoch == d.epoch && origin == d.origin && type == d.type && id == d.id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(epoch, origin, type, id);
+    }
+
+    @Override
+    public String toString() {
+        return "MembershipDelta{epoch=" + epoch + ", origin=" + origin + ", previous=" + previous + ", " + type + " " + (member != null? member : id) + "}";
+    }
+}
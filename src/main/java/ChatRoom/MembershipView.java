@@ -0,0 +1,78 @@
+package ChatRoom;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Members of the chat as known by a member, sent to a member joining or catching up.
+ *
+ * Either a full snapshot of the members (new members, or members too far behind), or only
+ * the changes made since the epoch the requester knows about.
+ *
+ * @author Abdullah
+ */
+class MembershipView implements Serializable {
+
+    private final long epoch; // Every change up to this epoch is included
+    private final List<Member> members; // Every member ordered by ID, null if only the changes are sent
+    private final List<MembershipDelta> deltas; // Changes, oldest first, empty for a full snapshot
+    private final int allocated; // Full snapshot only: every ID below it was handed out
+    private final List<Integer> left; // Full snapshot only: IDs of the members who left, so a member who missed a LEAVE can catch up
+
+    private MembershipView(long epoch, List<Member> members, List<MembershipDelta> deltas, int allocated, List<Integer> left) {
+        this.epoch = epoch;
+        this.members = members;
+        this.deltas = deltas;
+        this.allocated = allocated;
+        this.left = left;
+    }
+
+    /**
+     * Create a full snapshot of the members.
+     *
+     * @param epoch Epoch of the snapshot
+     * @param members Every member, ordered by ID. Empty when a join is denied.
+     * @param allocated Every ID below it was handed out, even if not used yet
+     * @return Full view
+     */
+    public static MembershipView full(long epoch, List<Member> members, int allocated) {
+        return full(epoch, members, allocated, Collections.emptyList());
+    }
+
+    /**
+     * Create a full snapshot of the members, with the members who left.
+     *
+     * @param epoch Epoch of the snapshot
+     * @param members Every member, ordered by ID. Empty when a join is denied.
+     * @param allocated Every ID below it was handed out, even if not used yet
+     * @param left IDs of the members who left
+     * @return Full view
+     */
+    public static MembershipView full(long epoch, List<Member> members, int allocated, List<Integer> left) {
+        return new MembershipView(epoch, Collections.unmodifiableList(members), Collections.emptyList(), allocated, Collections.unmodifiableList(left));
+    }
+
+    /**
+     * Create a view holding only changes.
+     *
+     * @param epoch Epoch reached once the changes are applied
+     * @param deltas Changes, oldest first
+     * @return Partial view
+     */
+    public static MembershipView deltas(long epoch, List<MembershipDelta> deltas) {
+        return new MembershipView(epoch, null, Collections.unmodifiableList(deltas), 0, Collections.emptyList());
+    }
+
+    public long getEpoch() { return epoch; }
+    public boolean isFull() { return members != null; }
+    public List<Member> getMembers() { return members; }
+    public List<MembershipDelta> getDeltas() { return deltas; }
+    public int getAllocated() { return allocated; }
+    public List<Integer> getLeft() { return left; }
+
+    @Override
+    public String toString() {
+        return "MembershipView{epoch=" + epoch + ", " + (isFull()? "members=" + members : "deltas=" + deltas) + "}";
+    }
+}
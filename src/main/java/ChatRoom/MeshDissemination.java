@@ -0,0 +1,28 @@
+package ChatRoom;
+
+/**
+ * The author of a message sends it to every member.
+ *
+ * Fastest for small chats, but the author sends one copy per member, so the
+ * traffic of the whole chat grows with the square of the number of members.
+ *
+ * @author Abdullah
+ */
+class MeshDissemination implements Dissemination {
+
+    private final Client c;
+
+    public MeshDissemination(Client c) {
+        this.c = c;
+    }
+
+    @Override
+    public Broadcast send(Message message) {
+        return new MessagingThread(c, message).send();
+    }
+
+    @Override
+    public Message receive(Envelope envelope) {
+        return envelope.getMessage(); // Messages are never passed on, so never received twice
+    }
+}
@@ -1,60 +1,115 @@
 package ChatRoom;
 
 import java.io.Serializable;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.Objects;
 
 /**
  * A component to store details about a message.
  *
+ * Messages sent to other members carry an ID: the ID of the member who sent it and a sequence
+ * number counted by that member. Two messages with an ID are the same message if they have the
+ * same ID, however they arrived (sent again after a lost connection, passed on by different
+ * members...). Messages made by a member for itself only (e.g. system messages) have no ID.
+ *
  * @author iAbdu
  */
 public class Message implements Serializable {
     private final String userName;
     private final MessageType messageType;
     private final String content;
-    private final LocalDateTime timestamp;
+    private final long timestamp; // Milliseconds since epoch, so it can be sent as a single number
+    private final int origin; // ID of the member who sent it, -1 if it has no ID
+    private final long seq; // Counted by the member who sent it, from 0
     
     public Message(String userName, String content, MessageType messageType) {
+        this(userName, content, messageType, System.currentTimeMillis());
+    }
+    
+    /**
+     * Create a message that was sent at a given time, e.g. when received from another member.
+     * 
+     * @param userName Username of the sender
+     * @param content Content of the message
+     * @param messageType Type of message
+     * @param timestamp Milliseconds since epoch
+     */
+    protected Message(String userName, String content, MessageType messageType, long timestamp) {
+        this(userName, content, messageType, timestamp, -1, -1);
+    }
+    
+    /**
+     * Create a message with an ID, e.g. when received from another member.
+     * 
+     * @param userName Username of the sender
+     * @param content Content of the message
+     * @param messageType Type of message
+     * @param timestamp Milliseconds since epoch
+     * @param origin ID of the member who sent it, -1 for no ID
+     * @param seq Sequence number counted by that member
+     */
+    protected Message(String userName, String content, MessageType messageType, long timestamp, int origin, long seq) {
         this.userName = userName;
         this.content = content;
         this.messageType = messageType;
-        this.timestamp = LocalDateTime.now();
+        this.timestamp = timestamp;
+        this.origin = origin;
+        this.seq = seq;
+    }
+    
+    /**
+     * Get the same message with an ID, before sending it.
+     * 
+     * @param origin ID of the member sending it
+     * @param seq Next sequence number of that member
+     * @return Message with the ID
+     */
+    protected Message withId(int origin, long seq) {
+        return new Message(userName, content, messageType, timestamp, origin, seq);
     }
     
     public String getUsername() { return userName; }
     public MessageType getMessageType() { return messageType; }
     public String getContent() { return content; }
-    public LocalDateTime getTimestamp() { return timestamp; }
+    public LocalDateTime getTimestamp() { return LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault()); }
+    public long getTime() { return timestamp; }
+    public int getOrigin() { return origin; }
+    public long getSeq() { return seq; }
+    public boolean hasId() { return origin >= 0; }
     
     @Override
     public String toString() {
-        return "{username: " + userName + ", messageType: " + messageType + ", content: " + content + ", timestamp: " + timestamp + "}";
+        return "{username: " + userName + ", messageType: " + messageType + ", content: " + content + ", timestamp: " + getTimestamp() + "}";
     }
     
     /**
      * Override comparison criteria to check for differences between two members.
-     * Returns true if all fields are the same (case insensitive).
+     * Messages with an ID are the same if their IDs are. Others are the same if all fields are
+     * the same (case insensitive).
      * 
      * @param o The object to compare against.
      */
     @Override
     public boolean equals(Object o) {
         if(this == o) return true;
-        if(o.getClass() == getClass()) {
+        if(o != null && o.getClass() == getClass()) {
             Message msgO = (Message)o;
-            return msgO.userName.equalsIgnoreCase(userName) && msgO.messageType == messageType && msgO.content.equalsIgnoreCase(content) && msgO.timestamp.equals(timestamp);
+            if(hasId() || msgO.hasId()) return msgO.origin == origin && msgO.seq == seq;
+            return msgO.userName.equalsIgnoreCase(userName) && msgO.messageType == messageType && msgO.content.equalsIgnoreCase(content) && msgO.timestamp == timestamp;
         }
         else return false;
     }
 
     @Override
     public int hashCode() {
+        if(hasId()) return 31 * origin + Long.hashCode(seq);
         int hash = 7;
         hash = 19 * hash + Objects.hashCode(this.userName);
         hash = 19 * hash + Objects.hashCode(this.messageType);
         hash = 19 * hash + Objects.hashCode(this.content);
-        hash = 19 * hash + Objects.hashCode(this.timestamp);
+        hash = 19 * hash + Long.hashCode(this.timestamp);
         return hash;
     }
 }
@@ -0,0 +1,272 @@
+package ChatRoom;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Append-only log of the messages shown in the chat, kept in memory-mapped files instead of the heap.
+ *
+ * The log is split in segments of SEGMENT_SIZE bytes. Each message is appended to the last
+ * segment as a record: a 4 bytes length followed by the message in the binary format of
+ * WireCodec. When a record doesn't fit, a new segment is started. The length is written
+ * after the message, so a record cut short by a crash is never read back.
+ *
+ * The segments are kept in a folder for each member (username-port), under -Dchatroom.log.dir
+ * or ~/.chatroom by default, and the history is read back when the member starts again with the
+ * same username and port. Only if that folder can't be used are they kept in a temporary folder,
+ * deleted when the client quits.
+ *
+ * The only thing kept on the heap is where each record starts (8 bytes per message), so
+ * messages can be read by index. Messages are decoded straight from the mapped segments.
+ *
+ * @author Abdullah
+ */
+class MessageLog extends AbstractList<Message> implements History {
+
+    protected static final int SEGMENT_SIZE = Integer.getInteger("chatroom.log.segment", 1024 * 1024); // Bytes
+    protected static final int RECORD_HEADER = 4; // Length of the message, as an int
+    protected static final String DIR = System.getProperty("chatroom.log.dir", new File(System.getProperty("user.home"), ".chatroom").getPath());
+
+    private final File dir;
+    private final boolean temporary; // Deleted on close
+    private final List<MappedByteBuffer> segments = new ArrayList<>(); // Only changed while holding the lock
+    private volatile MappedByteBuffer[] readable = new MappedByteBuffer[0]; // Segments readers can use
+    private volatile long[] index = new long[1024]; // Segment number << 32 | start of the record, for each message
+    private volatile int size = 0;
+    private long bytes = 0; // Bytes used by the records, only used while holding the lock
+    private long appended = 0;
+
+    /**
+     * Open the log of a member, creating it if needed.
+     * Falls back to a temporary log if the folder in DIR can't be used.
+     *
+     * @param me Owner of the log
+     * @return Log of the member
+     */
+    public static MessageLog open(Member me) {
+        try {
+            return new MessageLog(new File(DIR, me.getUsername() + "-" + me.getPort()), false);
+        } catch(IOException e) {
+            System.out.println("Could not open message log in " + DIR + " (" + e + "), using a temporary one");
+        }
+        try {
+            return new MessageLog(Files.createTempDirectory("chatroom-").toFile(), true);
+        } catch(IOException e) {
+            throw new UncheckedIOException("Could not create message log", e);
+        }
+    }
+
+    /**
+     * Open a log, reading back the segments already in the folder.
+     *
+     * @param dir Folder holding the segments
+     * @param temporary Whether the folder should be deleted when the log is closed
+     * @throws IOException
+     */
+    public MessageLog(File dir, boolean temporary) throws IOException {
+        this.dir = dir;
+        this.temporary = temporary;
+        if(!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Could not create " + dir);
+
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".log"));
+        Arrays.sort(files); // Names are zero-padded, so they sort in order
+        for(File file: files) {
+            MappedByteBuffer segment = map(file, file.length());
+            recover(segment);
+            segments.add(segment);
+        }
+        readable = segments.toArray(new MappedByteBuffer[0]);
+    }
+
+    /**
+     * Find the records in a segment written before, and move its position after the last one.
+     */
+    private void recover(MappedByteBuffer segment) {
+        int segmentNo = segments.size();
+        while(segment.remaining() >= RECORD_HEADER) {
+            int length = segment.getInt(segment.position());
+            if(length <= 0 || length > segment.remaining() - RECORD_HEADER) break; // End of the records
+            addToIndex(segmentNo, segment.position());
+            bytes += RECORD_HEADER + length;
+            segment.position(segment.position() + RECORD_HEADER + length);
+        }
+    }
+
+    private static MappedByteBuffer map(File file, long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+        }
+    }
+
+    /**
+     * Append a message at the end of the log.
+     *
+     * @param message Message to be added
+     */
+    @Override
+    public synchronized void append(Message message) {
+        WireCodec.Output out = new WireCodec.Output();
+        WireCodec.encode(message, out);
+        ByteBuffer record = out.toByteBuffer();
+        int length = record.remaining();
+
+        MappedByteBuffer segment = segments.isEmpty()? null : segments.get(segments.size() - 1);
+        if(segment == null || segment.remaining() < RECORD_HEADER + length) {
+            try {
+                segment = roll(RECORD_HEADER + length);
+            } catch(IOException e) {
+                System.out.println("Could not add message to the log: " + e);
+                return;
+            }
+        }
+
+        int start = segment.position();
+        segment.position(start + RECORD_HEADER);
+        segment.put(record);
+        segment.putInt(start, length); // Written last, the record is complete
+        addToIndex(segments.size() - 1, start);
+        bytes += RECORD_HEADER + length;
+        appended++;
+    }
+
+    /**
+     * Start a new segment.
+     *
+     * @param minSize Size of the record that must fit in it
+     * @return The new segment
+     * @throws IOException
+     */
+    private MappedByteBuffer roll(int minSize) throws IOException {
+        File file = new File(dir, String.format("%010d.log", segments.size()));
+        MappedByteBuffer segment = map(file, Math.max(SEGMENT_SIZE, minSize));
+        segments.add(segment);
+        readable = segments.toArray(new MappedByteBuffer[0]);
+        return segment;
+    }
+
+    private void addToIndex(int segmentNo, int start) {
+        long[] idx = index;
+        if(size == idx.length) idx = Arrays.copyOf(idx, idx.length * 2);
+        idx[size] = (long)segmentNo << 32 | start;
+        index = idx;
+        size++; // Published last, so readers only see complete records
+    }
+
+    /**
+     * Read the message at a given position.
+     *
+     * @param i Position of the message, 0 being the oldest
+     * @return The message
+     */
+    @Override
+    public Message get(int i) {
+        int n = size;
+        if(i < 0 || i >= n) throw new IndexOutOfBoundsException("Index: " + i + ", size: " + n);
+        long position = index[i];
+        return read(readable[(int)(position >>> 32)], (int)position);
+    }
+
+    /**
+     * Read a record from a segment, without changing the segment's position.
+     */
+    private static Message read(MappedByteBuffer segment, int start) {
+        ByteBuffer record = segment.duplicate();
+        int length = record.getInt(start);
+        record.limit(start + RECORD_HEADER + length);
+        record.position(start + RECORD_HEADER);
+        try {
+            return (Message)Frames.decode(record.slice());
+        } catch(IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Corrupted message log: " + e);
+        }
+    }
+
+    /**
+     * Number of messages in the log.
+     *
+     * @return Number of messages
+     */
+    @Override
+    public int size() { return size; }
+
+    /**
+     * Read the messages in order, segment after segment.
+     * Messages added after the iterator is created are not included.
+     *
+     * @return Iterator over the messages
+     */
+    @Override
+    public Iterator<Message> iterator() {
+        final int n = size;
+        final MappedByteBuffer[] segs = readable;
+        return new Iterator<Message>() {
+            private int read = 0;
+            private int segmentNo = 0;
+            private int position = 0;
+
+            @Override
+            public boolean hasNext() { return read < n; }
+
+            @Override
+            public Message next() {
+                if(!hasNext()) throw new NoSuchElementException();
+                // An empty header or the end of the segment means the next record is in the next segment
+                while(segs[segmentNo].capacity() - position < RECORD_HEADER || segs[segmentNo].getInt(position) <= 0) {
+                    segmentNo++;
+                    position = 0;
+                }
+                Message message = read(segs[segmentNo], position);
+                position += RECORD_HEADER + segs[segmentNo].getInt(position);
+                read++;
+                return message;
+            }
+        };
+    }
+
+    /**
+     * Get the messages in the log, without the ones added later.
+     *
+     * @return Read-only list of messages
+     */
+    @Override
+    public List<Message> snapshot() {
+        return subList(0, size);
+    }
+
+    /**
+     * Get the size of the log. Nothing is ever evicted from it.
+     *
+     * @return Current statistics
+     */
+    @Override
+    public synchronized Stats getStats() {
+        return new Stats(size, bytes, -1, -1, appended, new long[MessageType.values().length], 0);
+    }
+
+    /**
+     * Close the log. A temporary log is deleted.
+     */
+    @Override
+    public synchronized void close() {
+        if(!temporary) {
+            for(MappedByteBuffer segment: segments) segment.force();
+            return;
+        }
+        File[] files = dir.listFiles();
+        if(files != null) for(File file: files) if(!file.delete()) file.deleteOnExit(); // Still mapped on some systems
+        if(!dir.delete()) dir.deleteOnExit();
+    }
+}
@@ -1,45 +1,114 @@
 package ChatRoom;
 
 import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
- * Thread to handle the sending of messages for a client.
- * 
+ * Task to handle the sending of messages for a client.
+ *
  * A separate thread was necessary to make the application feel responsive. Previously, when a member
  * tried to send a message to everyone, but some of the other members already disconnected, there
  * the application would hang once the "send" button was pressed, due to the Connection Timeout of sockets.
  *
+ * Messages are sent over the connections kept by the client's ConnectionManager, so
+ * sending a message only costs one write per member instead of a new connection.
+ *
+ * Members are no longer contacted one after the other: the message is queued on every
+ * member's connection at once, and each connection is written by the client's sender
+ * executor, which has a thread for every member being written to. A member that doesn't
+ * receive the message within SEND_TIMEOUT is reported as unreachable, without delaying the others.
+ *
+ * A message only counts as received once the member acknowledged it (see ReliableDelivery), and
+ * is sent again if the connection broke on the way.
+ *
  * @author Abdullah
  */
-public class MessagingThread extends Thread {
-    
+public class MessagingThread implements Runnable {
+
+    protected static final long SEND_TIMEOUT = 3000; // ms, per member
+
     private final Client c;
     private final Message message;
-    
+
     public MessagingThread(Client c, Message message) {
         this.c = c;
         this.message = message;
-        this.start();
     }
-    
+
     @Override
     public void run() {
-        synchronized(c.getMembers()) {
-            for(Member member: c.getMembers()) {
-                try {
-                    Socket conn = new Socket(member.getAddress(), member.getPort());
-                    conn.setSoTimeout(1);
-                    ObjectOutputStream out = new ObjectOutputStream(conn.getOutputStream());
-                    out.writeObject(message);
-                    out.flush();
-                    conn.close();
-                } catch (IOException e) {
-                    System.out.println("Asking coordinator to remove");
-                    c.unreachableMember(member);
-                }
-            }
+        send();
+    }
+
+    /**
+     * Send the message to every member, without waiting for it to be delivered.
+     *
+     * @return Handle to check the result for each member
+     */
+    public Broadcast send() {
+        // Members who join or leave while the message is being sent don't change the snapshot
+        return send(message, c.getMembers().snapshot());
+    }
+
+    /**
+     * Send the message, or an object carrying it, to some members only.
+     *
+     * @param payload Object to be sent, e.g. the message wrapped in an Envelope
+     * @param members Members to send to
+     * @return Handle to check the result for each member
+     */
+    protected Broadcast send(Object payload, List<Member> members) {
+        Broadcast broadcast = new Broadcast(message);
+        ByteBuffer frame;
+        try {
+            frame = Frames.encode(payload); // Same frame is sent to everyone
+        } catch(IOException e) {
+            System.out.println("Could not encode message: " + e);
+            return broadcast.complete();
+        }
+        for(Member member: members) {
+            CompletableFuture<Void> result = c.getReliable().send(member, frame);
+            timeout(member, result);
+            result.whenComplete((v, e) -> {
+                if(e != null) failed(member, e);
+            });
+            broadcast.add(member, result);
         }
+        return broadcast.complete();
+    }
+
+    /**
+     * Fail the sending to a member if it takes too long.
+     * The connection is aborted, since a write might be stuck on it.
+     */
+    private void timeout(Member member, CompletableFuture<Void> result) {
+        if(result.isDone()) return;
+        try {
+            ScheduledFuture<?> timeout = c.getTimer().schedule(() -> {
+                if(result.completeExceptionally(new TimeoutException("No answer after " + SEND_TIMEOUT + "ms"))) c.getConnections().abort(member.getID());
+            }, SEND_TIMEOUT, TimeUnit.MILLISECONDS);
+            result.whenComplete((v, e) -> timeout.cancel(false));
+        } catch(RejectedExecutionException e) {} // Client terminated, the send fails on its own
+    }
+
+    /**
+     * Report a member that could not be reached.
+     * Runs on the control executor, since asking the coordinator means sending another message.
+     */
+    private void failed(Member member, Throwable e) {
+        try {
+            c.getControl().execute(() -> {
+                if(c.getMembers().byId(member.getID()) == null) return; // Member left in the meantime
+                System.out.println("Could not send to " + member + " (" + e + "), asking coordinator to remove");
+                c.getConnections().evict(member.getID());
+                c.unreachableMember(member);
+            });
+        } catch(RejectedExecutionException ex) {} // Client terminated
     }
 }
@@ -0,0 +1,300 @@
+package ChatRoom;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chat messages are sent once to an IP multicast group, and the network delivers them to
+ * every member on the LAN, instead of the author sending one copy per member over TCP.
+ *
+ * Multicast datagrams can be lost or arrive out of order, so each message carries the author's
+ * ID and a sequence number (see Envelope). Members deliver messages from each author in order:
+ * when a sequence number is skipped, the following messages wait, and the member asks the author
+ * for the missing ones with a Nack sent over TCP. The author keeps its last HISTORY messages and
+ * sends them again over TCP. If the author doesn't answer after REPAIR_ATTEMPTS, the missing
+ * messages are given up on, so the rest of the chat is not blocked.
+ * A lost last message would only be noticed with the next one, so the last message is multicast
+ * once more after a short quiet period.
+ *
+ * Only chat messages use multicast: commands, and messages too big for one datagram, are still
+ * sent over TCP to every member. Members of other chats may use the same group, so datagrams are
+ * only accepted from members in the list, with the right port.
+ *
+ * The group, port and network interface are set with the "chatroom.multicast.group",
+ * "chatroom.multicast.port" and "chatroom.multicast.interface" system properties.
+ * Using "lo" as interface allows testing many members on a single machine.
+ *
+ * @author Abdullah
+ */
+class MulticastDissemination implements Dissemination {
+
+    protected static final String GROUP = System.getProperty("chatroom.multicast.group", "239.255.42.99");
+    protected static final int PORT = Integer.getInteger("chatroom.multicast.port", 4446);
+    protected static final String INTERFACE = System.getProperty("chatroom.multicast.interface"); // Default: first LAN interface supporting multicast
+    protected static final int MAX_DATAGRAM = 1400; // Bytes, fits in an Ethernet packet
+    protected static final int HISTORY = 1024; // Messages kept to answer Nacks
+    protected static final long REPAIR_TIMEOUT = 500; // ms to wait for missing messages before asking again
+    protected static final int REPAIR_ATTEMPTS = 3;
+    protected static final long QUIET_REPEAT = 200; // ms without new message before the last one is sent again
+
+    private final Client c;
+    private final MeshDissemination mesh;
+    private final Dispatcher dispatcher; // Shows the messages delivered in order, unless received another way already
+    private final DatagramChannel channel;
+    private final InetSocketAddress group;
+    private final Thread receiver;
+    private volatile boolean run = true;
+
+    private final AtomicLong nextSeq = new AtomicLong();
+    private final Envelope[] history = new Envelope[HISTORY]; // Sent messages, by sequence number
+    private ScheduledFuture<?> repeat = null; // Sending the last message again
+
+    private final Map<Integer, Stream> streams = new HashMap<>(); // Messages received, by author
+
+    public MulticastDissemination(Client c) throws IOException {
+        this.c = c;
+        this.mesh = new MeshDissemination(c);
+        this.dispatcher = new Dispatcher(c);
+        NetworkInterface ni = networkInterface();
+        InetAddress address = InetAddress.getByName(GROUP);
+        group = new InetSocketAddress(address, PORT);
+        channel = DatagramChannel.open(address.getAddress().length == 4? StandardProtocolFamily.INET : StandardProtocolFamily.INET6);
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true); // Many members can use the same port on one machine
+            channel.bind(new InetSocketAddress(PORT));
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, ni);
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true); // Members on this machine receive them as well
+            channel.join(address, ni);
+        } catch(IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        receiver = new Thread(this::receiveDatagrams, "Multicast-" + c.me.getPort());
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    @Override
+    public Broadcast send(Message message) {
+        if(message.getMessageType() == MessageType.COMMAND) return mesh.send(message);
+
+        Envelope envelope;
+        synchronized(history) { // Sequence numbers must be used in order
+            envelope = new Envelope(c.me.getID(), nextSeq.getAndIncrement(), 0, message);
+            history[(int)(envelope.getSeq() % HISTORY)] = envelope;
+        }
+        try {
+            ByteBuffer datagram = datagram(envelope);
+            if(datagram.remaining() <= MAX_DATAGRAM) {
+                channel.send(datagram, group);
+                repeatWhenQuiet(envelope);
+                return new Broadcast(message).complete(); // Nobody to wait for
+            }
+        } catch(IOException e) {
+            System.out.println("Could not multicast message, sending over TCP: " + e);
+        }
+        return new MessagingThread(c, message).send(envelope, c.getMembers().snapshot());
+    }
+
+    /**
+     * Handle a message received by multicast or sent again over TCP.
+     * Messages are added to the chat here, in order, so this always returns null.
+     */
+    @Override
+    public Message receive(Envelope envelope) {
+        if(envelope.getOrigin() == c.me.getID()) return null; // Own message, looped back
+        synchronized(streams) {
+            Stream stream = streams.get(envelope.getOrigin());
+            if(stream == null) streams.put(envelope.getOrigin(), stream = new Stream(envelope.getSeq())); // Messages sent before joining are not asked for
+            if(envelope.getSeq() < stream.next || stream.waiting.containsKey(envelope.getSeq())) return null; // Duplicate
+            stream.waiting.put(envelope.getSeq(), envelope);
+            deliver(envelope.getOrigin(), stream);
+        }
+        return null;
+    }
+
+    /**
+     * Add the messages of an author to the chat, as far as none is missing.
+     * Must be called while holding the streams lock.
+     */
+    private void deliver(int origin, Stream stream) {
+        while(!stream.waiting.isEmpty() && stream.waiting.firstKey() == stream.next) {
+            dispatcher.dispatch(stream.waiting.pollFirstEntry().getValue().getMessage());
+            stream.next++;
+        }
+        if(stream.waiting.isEmpty()) {
+            if(stream.repair != null) stream.repair.cancel(false);
+            stream.repair = null;
+            stream.attempts = 0;
+        } else if(stream.repair == null) repair(origin, stream);
+    }
+
+    /**
+     * Ask the author for the missing messages, and check again later.
+     * Must be called while holding the streams lock.
+     */
+    private void repair(int origin, Stream stream) {
+        Member author = member(origin);
+        if(author == null || stream.attempts >= REPAIR_ATTEMPTS) { // Give up on the missing messages
+            System.out.println("Could not get messages " + stream.next + " to " + (stream.waiting.firstKey() - 1) + " from member " + origin);
+            stream.next = stream.waiting.firstKey();
+            stream.repair = null;
+            stream.attempts = 0;
+            deliver(origin, stream);
+            return;
+        }
+        stream.attempts++;
+        try {
+            Nack nack = new Nack(c.me.getID(), origin, stream.next, stream.waiting.firstKey() - 1);
+            c.getConnections().sendAsync(author, Frames.encode(nack), c.getSender());
+            stream.repair = c.getTimer().schedule(() -> {
+                synchronized(streams) {
+                    if(streams.get(origin) != stream) return;
+                    stream.repair = null;
+                    if(!stream.waiting.isEmpty()) repair(origin, stream);
+                }
+            }, REPAIR_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch(IOException | RejectedExecutionException e) {} // Client terminated
+    }
+
+    /**
+     * Send messages missed by another member again, over TCP.
+     *
+     * @param nack Request from the member who missed the messages
+     */
+    protected void repair(Nack nack) {
+        Member requester = member(nack.getRequester());
+        if(requester == null || nack.getOrigin() != c.me.getID()) return;
+        List<Envelope> missing = new ArrayList<>();
+        synchronized(history) {
+            for(long seq = Math.max(nack.getFrom(), nack.getTo() - HISTORY + 1); seq <= nack.getTo(); seq++) {
+                Envelope envelope = history[(int)(seq % HISTORY)];
+                if(envelope != null && envelope.getSeq() == seq) missing.add(envelope);
+            }
+        }
+        // Frames to the same member are sent in order, and in batches
+        for(Envelope envelope: missing) new MessagingThread(c, envelope.getMessage()).send(envelope, Collections.singletonList(requester));
+    }
+
+    /**
+     * Multicast the last message once more if nothing else is sent for a while,
+     * so members who lost it notice.
+     */
+    private void repeatWhenQuiet(Envelope envelope) {
+        synchronized(history) {
+            if(repeat != null) repeat.cancel(false);
+            try {
+                repeat = c.getTimer().schedule(() -> {
+                    try {
+                        channel.send(datagram(envelope), group);
+                    } catch(IOException e) {}
+                }, QUIET_REPEAT, TimeUnit.MILLISECONDS);
+            } catch(RejectedExecutionException e) {} // Client terminated
+        }
+    }
+
+    /**
+     * Read datagrams until the client terminates.
+     */
+    private void receiveDatagrams() {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        while(run) {
+            try {
+                buffer.clear();
+                channel.receive(buffer);
+                buffer.flip();
+                received(buffer);
+            } catch(IOException | ClassNotFoundException | RuntimeException e) {
+                if(run) System.out.println("Invalid multicast datagram: " + e);
+            }
+        }
+    }
+
+    /**
+     * Handle a datagram received from the group. Tests override it to lose datagrams.
+     *
+     * @param datagram Author's port, then the payload of its frame
+     * @throws IOException If the datagram could not be decoded
+     * @throws ClassNotFoundException If the datagram could not be decoded
+     */
+    protected void received(ByteBuffer datagram) throws IOException, ClassNotFoundException {
+        int port = datagram.getInt();
+        Object obj = Frames.decode(datagram.slice());
+        if(!(obj instanceof Envelope)) return;
+        Envelope envelope = (Envelope)obj;
+        Member author = member(envelope.getOrigin());
+        if(author == null || author.getPort() != port) return; // Another chat using the same group
+        receive(envelope);
+    }
+
+    /**
+     * Encode a message for multicast: the author's port, then the payload of its frame.
+     */
+    private ByteBuffer datagram(Envelope envelope) throws IOException {
+        ByteBuffer frame = Frames.encode(envelope);
+        ByteBuffer datagram = ByteBuffer.allocate(4 + frame.remaining() - Frames.HEADER_SIZE);
+        datagram.putInt(c.me.getPort());
+        frame.position(Frames.HEADER_SIZE);
+        datagram.put(frame);
+        datagram.flip();
+        return datagram;
+    }
+
+    private Member member(int id) {
+        return c.getMembers().byId(id);
+    }
+
+    @Override
+    public void close() {
+        run = false;
+        try {
+            channel.close();
+        } catch(IOException e) {}
+    }
+
+    /**
+     * Find the network interface to use for multicast.
+     */
+    private static NetworkInterface networkInterface() throws SocketException {
+        if(INTERFACE != null) {
+            NetworkInterface ni = NetworkInterface.getByName(INTERFACE);
+            if(ni == null) throw new SocketException("Unknown network interface: " + INTERFACE);
+            return ni;
+        }
+        for(NetworkInterface ni: Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            if(ni.isUp() && ni.supportsMulticast() && !ni.isLoopback() && !ni.isVirtual()) return ni;
+        }
+        return NetworkInterface.getByName("lo");
+    }
+
+    /**
+     * Messages received from one author.
+     */
+    private static class Stream {
+        private long next; // Next sequence number to be added to the chat
+        private final TreeMap<Long, Envelope> waiting = new TreeMap<>(); // Received, but a previous one is missing
+        private ScheduledFuture<?> repair = null;
+        private int attempts = 0;
+
+        private Stream(long next) {
+            this.next = next;
+        }
+    }
+}
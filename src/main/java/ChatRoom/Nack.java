@@ -0,0 +1,34 @@
+package ChatRoom;
+
+import java.io.Serializable;
+
+/**
+ * Request sent by a member that missed some multicast messages, asking the author
+ * to send them again over TCP (see MulticastDissemination).
+ *
+ * @author Abdullah
+ */
+class Nack implements Serializable {
+
+    private final int requester; // ID of the member who missed the messages
+    private final int origin; // ID of the author of the messages
+    private final long from; // First sequence number missed
+    private final long to; // Last sequence number missed
+
+    public Nack(int requester, int origin, long from, long to) {
+        this.requester = requester;
+        this.origin = origin;
+        this.from = from;
+        this.to = to;
+    }
+
+    public int getRequester() { return requester; }
+    public int getOrigin() { return origin; }
+    public long getFrom() { return from; }
+    public long getTo() { return to; }
+
+    @Override
+    public String toString() {
+        return "Nack{requester=" + requester + ", origin=" + origin + ", from=" + from + ", to=" + to + "}";
+    }
+}
@@ -0,0 +1,300 @@
+package ChatRoom;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A long-lived connection used to send frames to one member.
+ *
+ * The connection is opened the first time something is sent, and then reused for
+ * every following frame. If the connection turns out to be broken, it is opened
+ * again once before giving up, unless it was broken on purpose with abort().
+ * 
+ * A lock is used instead of synchronized methods, so virtual threads blocked on
+ * the connection don't pin their carrier thread.
+ * 
+ * Frames can also be queued with sendAsync(): a single task drains the queue, so frames
+ * reach the member in the order they were queued, and the caller never waits for the network.
+ * 
+ * Frames that pile up in the queue while the previous write is in progress are sent together
+ * as one batch frame. When the member is idle a frame is written straight away; once frames
+ * start piling up, the task waits up to BATCH_WINDOW for more before writing the next batch.
+ * 
+ * With a Compressor, frames are compressed just before being written. The compressor's dictionary
+ * is written first on every new connection, and used for every frame sent on it: announcing the
+ * whole dictionary again on every membership change would cost more than it saves. A dictionary
+ * rebuilt since is only used once the connection is opened again.
+ *
+ * @author Abdullah
+ */
+class PeerConnection {
+
+    protected static final int CONNECT_TIMEOUT = 1000; // ms
+    protected static final long BATCH_WINDOW = Long.getLong("chatroom.batch.window", 2); // ms to wait for more frames, under pressure only
+    protected static final int BATCH_MAX_FRAMES = Integer.getInteger("chatroom.batch.frames", 64); // 1 disables batching
+    protected static final int BATCH_MAX_BYTES = Integer.getInteger("chatroom.batch.bytes", 64 * 1024);
+
+    private final Member member;
+    private final Compressor compressor; // Null if frames are sent as they are
+    private final ByteBuffer probe = ByteBuffer.allocate(1);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Queue<Pending> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private volatile SocketChannel channel = null;
+    private volatile SocketChannel aborted = null; // Last connection closed by abort(), its write is not tried again
+    private Dictionary announced = null; // Dictionary the member knows on the current connection, kept until it is closed
+    private volatile boolean terminated = false;
+    private boolean underPressure = false; // Previous batch had more than one frame, only used by the draining task
+
+    public PeerConnection(Member member) {
+        this(member, null);
+    }
+
+    public PeerConnection(Member member, Compressor compressor) {
+        this.member = member;
+        this.compressor = compressor;
+    }
+
+    /**
+     * Get the member this connection is sending to.
+     *
+     * @return Member at the other end of the connection
+     */
+    public Member getMember() { return member; }
+
+    /**
+     * Send an object to the member.
+     *
+     * @param obj Object to be sent
+     * @throws IOException If the member could not be reached
+     */
+    public void send(Object obj) throws IOException {
+        send(Frames.encode(obj));
+    }
+
+    /**
+     * Send a frame that was already encoded.
+     *
+     * @param frame Encoded frame, ready to be read
+     * @throws IOException If the member could not be reached
+     */
+    public void send(ByteBuffer frame) throws IOException {
+        lock.lock();
+        try {
+            if(terminated) throw new IOException("Connection closed");
+            SocketChannel used = null;
+            try {
+                connect();
+                used = channel;
+                writeFrame(frame);
+            } catch(IOException e) {
+                if(used != null && used == aborted) throw e; // The caller gave up on this write, don't send it anyway
+                // The member might have restarted or dropped the connection, try once with a new one
+                close();
+                connect();
+                writeFrame(frame);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queue a frame to be sent by the executor, without waiting for it to be written.
+     *
+     * @param frame Encoded frame, ready to be read
+     * @param executor Executor running the task that writes queued frames
+     * @return Completed when the frame is written, or exceptionally if it could not be
+     */
+    public CompletableFuture<Void> sendAsync(ByteBuffer frame, Executor executor) {
+        Pending pending = new Pending(frame);
+        queue.add(pending);
+        if(draining.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drain);
+            } catch(RejectedExecutionException e) {
+                draining.set(false);
+                failQueued(new IOException("Client terminated"));
+            }
+        }
+        return pending.future;
+    }
+
+    /**
+     * Write queued frames until the queue is empty.
+     */
+    private void drain() {
+        do {
+            List<Pending> batch;
+            while(!(batch = nextBatch()).isEmpty()) {
+                try {
+                    if(batch.size() == 1) send(batch.get(0).frame);
+                    else {
+                        List<ByteBuffer> frames = new ArrayList<>(batch.size());
+                        for(Pending pending: batch) frames.add(pending.frame);
+                        send(Frames.batch(frames));
+                    }
+                    for(Pending pending: batch) pending.future.complete(null);
+                } catch(IOException e) {
+                    for(Pending pending: batch) pending.future.completeExceptionally(e);
+                }
+            }
+            draining.set(false);
+        } while(!queue.isEmpty() && draining.compareAndSet(false, true)); // Frame queued after the last poll
+    }
+
+    /**
+     * Take the next frames to be written together.
+     *
+     * @return Frames in the order they were queued, empty if there is nothing to send
+     */
+    private List<Pending> nextBatch() {
+        List<Pending> batch = new ArrayList<>();
+        int bytes = 0;
+        boolean waited = false;
+        while(batch.size() < BATCH_MAX_FRAMES) {
+            Pending pending = queue.peek();
+            if(pending == null) {
+                // Under pressure more frames are likely to come, give them a chance to join this batch
+                if(waited || !underPressure || batch.isEmpty() || BATCH_WINDOW <= 0) break;
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(BATCH_WINDOW));
+                waited = true;
+                continue;
+            }
+            if(!batch.isEmpty() && bytes + pending.frame.remaining() > BATCH_MAX_BYTES) break;
+            queue.poll();
+            if(pending.future.isDone()) continue; // Timed out while waiting in the queue
+            batch.add(pending);
+            bytes += pending.frame.remaining();
+        }
+        underPressure = batch.size() > 1;
+        return batch;
+    }
+
+    private void failQueued(IOException e) {
+        Pending pending;
+        while((pending = queue.poll()) != null) pending.future.completeExceptionally(e);
+    }
+
+    /**
+     * Open the connection, unless an open and healthy connection is already available.
+     *
+     * @throws IOException
+     */
+    private void connect() throws IOException {
+        if(channel != null && !isClosedByPeer()) return;
+        close();
+        SocketChannel ch = SocketChannel.open();
+        try {
+            ch.socket().setTcpNoDelay(true); // Frames are small, don't wait to fill a packet
+            ch.socket().connect(new InetSocketAddress(member.getAddress(), member.getPort()), CONNECT_TIMEOUT);
+        } catch(IOException | RuntimeException e) {
+            ch.close();
+            throw e instanceof IOException? (IOException)e : new IOException(e);
+        }
+        channel = ch;
+        announced = null;
+    }
+
+    /**
+     * Check if the other member closed the connection.
+     * Members never write on this connection, so anything readable means the connection is gone.
+     *
+     * @return True if the connection can no longer be used.
+     */
+    private boolean isClosedByPeer() {
+        try {
+            channel.configureBlocking(false);
+            int read = channel.read(probe);
+            probe.clear();
+            channel.configureBlocking(true);
+            return read != 0;
+        } catch(IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Write a frame, compressed if possible.
+     * On a new connection, the current dictionary is announced first.
+     */
+    private void writeFrame(ByteBuffer frame) throws IOException {
+        if(compressor != null) {
+            if(announced == null) {
+                Dictionary dictionary = compressor.getDictionary();
+                write(Frames.encode(dictionary));
+                announced = dictionary;
+            }
+            frame = compressor.compress(frame, announced);
+        }
+        write(frame.duplicate());
+    }
+
+    private void write(ByteBuffer frame) throws IOException {
+        while(frame.hasRemaining()) channel.write(frame);
+    }
+
+    /**
+     * Close the connection without waiting for the frame being written, e.g. when it is taking too long.
+     * The write fails without being tried again, and the connection will be opened again when something else is sent.
+     */
+    public void abort() {
+        SocketChannel ch = channel;
+        if(ch == null) return;
+        aborted = ch;
+        try {
+            ch.close();
+        } catch(IOException e) {}
+    }
+
+    /**
+     * Close the connection. It will be opened again when something else is sent.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            if(channel == null) return;
+            try {
+                channel.close();
+            } catch(IOException e) {}
+            channel = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Close the connection for good, e.g. when the member leaves. Queued frames are not sent.
+     */
+    public void terminate() {
+        terminated = true;
+        failQueued(new IOException("Connection closed"));
+        abort(); // Don't wait for a slow write to finish
+        close();
+    }
+
+    /**
+     * A frame waiting to be sent.
+     */
+    private static class Pending {
+        private final ByteBuffer frame;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private Pending(ByteBuffer frame) {
+            this.frame = frame;
+        }
+    }
+}
@@ -0,0 +1,454 @@
+package ChatRoom;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Delivers the frames sent to each member at least once, even if a connection breaks while they
+ * are on their way.
+ *
+ * A frame written to a connection used to count as delivered, but a connection can break after
+ * the write and lose everything the member did not read yet. Now every frame sent to a member is
+ * wrapped in a Sequenced, numbered for that member, and kept until the member acknowledges it:
+ *      - the member hands the frames to its Dispatcher in order and once each, and sends back a
+ *        Delivered with the next number it expects (a cumulative ack). Connections only carry
+ *        frames one way, so the ack goes over the member's own connection to this member. It is
+ *        delayed by ACK_DELAY so a burst is acknowledged at once, and sent straight away when a
+ *        frame is missing or arrives twice.
+ *      - frames not acknowledged within the retransmission timeout (RTO) are sent again. The RTO
+ *        follows the round trip times measured from the acks (RFC 6298), starts from the RTT of
+ *        the heartbeats when known, and doubles after each timeout, up to MAX_RTO. Frames sent
+ *        more than once are not measured (Karn). An ack repeated while frames are missing sends
+ *        the oldest again without waiting for the timeout.
+ *      - at most WINDOW frames wait for an ack at once. The next ones wait to be sent, up to BUFFER
+ *        frames per member, and any more are failed straight away.
+ *
+ * MessagingThread still decides when a member is reported as unreachable, from how long it takes to
+ * acknowledge. Frames are sent again until the member acknowledges them or leaves, or until the
+ * caller gives up on them: the next frames then tell the member to skip them. Messages keep their
+ * ID (see SeenSet), so a message sent again is still shown once.
+ *
+ * @author Abdullah
+ */
+class ReliableDelivery {
+
+    protected static final int WINDOW = Integer.getInteger("chatroom.reliable.window", 256); // Frames waiting for an ack, per member
+    protected static final int BUFFER = Integer.getInteger("chatroom.reliable.buffer", 1024); // Frames kept, per member
+    protected static final long ACK_DELAY = Long.getLong("chatroom.reliable.ackdelay", 5); // ms
+    protected static final long INITIAL_RTO = 1000; // ms, until the RTT is known
+    protected static final long MIN_RTO = 200; // ms
+    protected static final long MAX_RTO = 2000; // ms
+
+    private final Client c;
+    private final Map<Integer, Peer> peers = new ConcurrentHashMap<>(); // Frames sent, by receiver
+    private final Map<Integer, Inbound> inbound = new ConcurrentHashMap<>(); // Frames received, by sender
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong retransmitted = new AtomicLong();
+    private final AtomicLong fastRetransmitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong abandoned = new AtomicLong();
+    private final AtomicLong acksSent = new AtomicLong();
+    private final AtomicLong acksReceived = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong outOfOrder = new AtomicLong();
+
+    public ReliableDelivery(Client c) {
+        this.c = c;
+    }
+
+    /**
+     * Send a frame to a member, and keep it until the member acknowledges it.
+     *
+     * @param member Member to send to
+     * @param frame Encoded frame, ready to be read. The same frame can be sent to many members.
+     * @return Completed once the member acknowledged the frame, or failed if too many are waiting for it
+     */
+    public CompletableFuture<Void> send(Member member, ByteBuffer frame) {
+        Peer peer = peers.computeIfAbsent(member.getID(), id -> new Peer(member));
+        Outgoing out = new Outgoing(frame);
+        synchronized(peer) {
+            if(peer.inFlight.size() + peer.waiting.size() >= BUFFER) {
+                rejected.incrementAndGet();
+                out.future.completeExceptionally(new IOException(BUFFER + " frames already waiting for " + member));
+                return out.future;
+            }
+            peer.member = member;
+            if(peer.inFlight.size() < WINDOW) {
+                out.seq = peer.nextSeq++;
+                peer.inFlight.add(out);
+                transmit(peer, out);
+                arm(peer);
+            } else peer.waiting.add(out);
+        }
+        out.future.whenComplete((v, e) -> {
+            if(e != null) abandon(peer, out); // E.g. MessagingThread gave up on the member
+        });
+        return out.future;
+    }
+
+    /**
+     * Stop sending a frame nobody waits for anymore. The next frames tell the member to skip it.
+     */
+    private void abandon(Peer peer, Outgoing out) {
+        synchronized(peer) {
+            if(peer.waiting.remove(out)) abandoned.incrementAndGet();
+            else if(peer.inFlight.remove(out)) {
+                abandoned.incrementAndGet();
+                fill(peer);
+                if(peer.inFlight.isEmpty()) disarm(peer);
+            }
+        }
+    }
+
+    /**
+     * Send the frames waiting for room in the window. Must hold the lock of the peer.
+     */
+    private void fill(Peer peer) {
+        while(!peer.waiting.isEmpty() && peer.inFlight.size() < WINDOW) {
+            Outgoing out = peer.waiting.poll();
+            out.seq = peer.nextSeq++;
+            peer.inFlight.add(out);
+            transmit(peer, out);
+        }
+    }
+
+    /**
+     * Take an acknowledgement from a member: drop the frames it received, and send the next ones.
+     *
+     * @param ack Acknowledgement received
+     */
+    public void acknowledged(Delivered ack) {
+        acksReceived.incrementAndGet();
+        Peer peer = peers.get(ack.getReceiver());
+        if(peer == null) return;
+        List<Outgoing> done = new ArrayList<>();
+        synchronized(peer) {
+            long next = Math.min(ack.getNext(), peer.nextSeq);
+            long now = System.nanoTime();
+            while(!peer.inFlight.isEmpty() && peer.inFlight.peek().seq < next) {
+                Outgoing out = peer.inFlight.poll();
+                if(out.transmissions == 1) peer.sample(now - out.sentAt);
+                done.add(out);
+            }
+            if(done.isEmpty()) {
+                // Nothing new, the member is missing the oldest frame
+                Outgoing oldest = peer.inFlight.peek();
+                if(oldest != null && !oldest.fastRetransmitted && next == oldest.seq) {
+                    oldest.fastRetransmitted = true;
+                    fastRetransmitted.incrementAndGet();
+                    transmit(peer, oldest);
+                }
+            } else {
+                peer.backoff = 1;
+                fill(peer);
+                disarm(peer);
+                arm(peer);
+            }
+        }
+        for(Outgoing out: done) out.future.complete(null);
+    }
+
+    /**
+     * Take a frame sent reliably by a member, and acknowledge it.
+     *
+     * @param sequenced Frame received
+     * @param deliver Called with each object the member sent, in order and once each. Objects received by
+     *                another thread meanwhile are handed over by whichever thread was handing over already.
+     */
+    public void receive(Sequenced sequenced, Consumer<Object> deliver) {
+        received.incrementAndGet();
+        Inbound in = inbound.computeIfAbsent(sequenced.getSender(), id -> new Inbound());
+        boolean now;
+        long next;
+        boolean delivering;
+        synchronized(in) {
+            // The frame counts as delivered before it is handled, so a handler failing can't hold up the next ones
+            List<Object> ready = new ArrayList<>();
+            // Anything below the base was acknowledged or given up, e.g. this member forgot the sender and got it back
+            if(in.next < sequenced.getBase()) {
+                ready.addAll(in.early.headMap(sequenced.getBase()).values());
+                in.early.headMap(sequenced.getBase()).clear();
+                in.next = sequenced.getBase();
+                for(Object o; (o = in.early.remove(in.next)) != null; in.next++) ready.add(o);
+            }
+            long seq = sequenced.getSeq();
+            if(seq < in.next || in.early.containsKey(seq)) {
+                duplicates.incrementAndGet();
+                now = true;
+            } else if(seq > in.next) {
+                outOfOrder.incrementAndGet();
+                if(in.early.size() < BUFFER) in.early.put(seq, sequenced.getPayload());
+                now = true;
+            } else {
+                ready.add(sequenced.getPayload());
+                in.next++;
+                for(Object o; (o = in.early.remove(in.next)) != null; in.next++) ready.add(o);
+                now = !in.early.isEmpty() || ACK_DELAY <= 0;
+            }
+            next = in.next;
+            if(!now && in.ack == null) {
+                try {
+                    in.ack = c.getTimer().schedule(() -> {
+                        long n;
+                        synchronized(in) {
+                            in.ack = null;
+                            n = in.next;
+                        }
+                        ack(sequenced.getSender(), n);
+                    }, ACK_DELAY, TimeUnit.MILLISECONDS);
+                } catch(RejectedExecutionException e) {} // Client terminated
+            }
+            for(Object o: ready) in.ready.add(() -> {
+                try {
+                    deliver.accept(o);
+                } catch(RuntimeException e) {
+                    System.out.println("Could not handle " + o + " from member " + sequenced.getSender() + ": " + e);
+                }
+            });
+            delivering = !in.delivering && !in.ready.isEmpty();
+            if(delivering) in.delivering = true;
+        }
+        if(now) ack(sequenced.getSender(), next);
+        if(delivering) deliver(in);
+    }
+
+    /**
+     * Hand over the frames ready to be handled, in order, without holding the lock of the member:
+     * a slow handler doesn't hold up the frames received meanwhile, nor their acks. Frames made
+     * ready while handling are handed over by the same thread, so they are still handled in order.
+     */
+    private void deliver(Inbound in) {
+        while(true) {
+            Runnable handle;
+            synchronized(in) {
+                handle = in.ready.poll();
+                if(handle == null) {
+                    in.delivering = false;
+                    return;
+                }
+            }
+            handle.run();
+        }
+    }
+
+    /**
+     * Forget a member who left: fail the frames kept for it, and drop what was received from it.
+     * Sequence numbers go on from where they were, in case the member comes back.
+     *
+     * @param id ID of the member
+     */
+    public void forget(int id) {
+        Inbound in = inbound.remove(id);
+        if(in != null) {
+            synchronized(in) {
+                if(in.ack != null) in.ack.cancel(false);
+            }
+        }
+        Peer peer = peers.get(id);
+        if(peer == null) return;
+        List<Outgoing> dropped = new ArrayList<>();
+        synchronized(peer) {
+            dropped.addAll(peer.inFlight);
+            dropped.addAll(peer.waiting);
+            peer.inFlight.clear();
+            peer.waiting.clear();
+            disarm(peer);
+        }
+        for(Outgoing out: dropped) out.future.completeExceptionally(new IOException("Member " + id + " left"));
+    }
+
+    /**
+     * Get the frames sent and received so far, e.g. to check how often frames are sent again.
+     *
+     * @return Frames sent (first time only), sent again after a timeout or a repeated ack, failed
+     *         because too many were kept, given up by the caller, acks sent and received, frames
+     *         received, received twice and received before a missing one, and the retransmissions
+     *         per 1000 frames sent
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new TreeMap<>();
+        stats.put("sent", sent.get());
+        stats.put("retransmitted", retransmitted.get());
+        stats.put("fastRetransmitted", fastRetransmitted.get());
+        stats.put("rejected", rejected.get());
+        stats.put("abandoned", abandoned.get());
+        stats.put("acksSent", acksSent.get());
+        stats.put("acksReceived", acksReceived.get());
+        stats.put("received", received.get());
+        stats.put("duplicates", duplicates.get());
+        stats.put("outOfOrder", outOfOrder.get());
+        stats.put("retransmitPerMille", sent.get() == 0? 0 : 1000 * (retransmitted.get() + fastRetransmitted.get()) / sent.get());
+        return stats;
+    }
+
+    /**
+     * Get the retransmission timeout used for each member, e.g. to show it.
+     *
+     * @return Timeout in ms, by member ID
+     */
+    public Map<Integer, Long> getRtos() {
+        Map<Integer, Long> result = new TreeMap<>();
+        for(Map.Entry<Integer, Peer> e: peers.entrySet()) {
+            synchronized(e.getValue()) {
+                result.put(e.getKey(), e.getValue().rto());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Write a frame to a member, with the number it was given. Write failures are left to the timeout.
+     * Must hold the lock of the peer.
+     */
+    private void transmit(Peer peer, Outgoing out) {
+        if(out.transmissions++ == 0) sent.incrementAndGet();
+        out.sentAt = System.nanoTime();
+        long base = peer.inFlight.isEmpty()? out.seq : peer.inFlight.peek().seq;
+        ByteBuffer frame = out.frame.duplicate();
+        if(c.getSwim() != null) frame = c.getSwim().piggyback(frame); // Suspicions travel with the normal traffic too
+        write(peer.member, Frames.sequence(c.me.getID(), out.seq, base, frame));
+    }
+
+    /**
+     * Write a numbered frame to a member, without waiting. Tests override it to lose frames.
+     *
+     * @param member Member to write to
+     * @param frame Frame wrapped in a Sequenced
+     */
+    protected void write(Member member, ByteBuffer frame) {
+        c.getConnections().sendAsync(member, frame, c.getSender());
+    }
+
+    /**
+     * Start the retransmission timer of a member, unless it is running or nothing waits for an ack.
+     * Must hold the lock of the peer.
+     */
+    private void arm(Peer peer) {
+        if(peer.timer != null || peer.inFlight.isEmpty()) return;
+        try {
+            peer.timer = c.getTimer().schedule(() -> timeout(peer), peer.timeout(), TimeUnit.MILLISECONDS);
+        } catch(RejectedExecutionException e) {} // Client terminated
+    }
+
+    private void disarm(Peer peer) {
+        if(peer.timer != null) peer.timer.cancel(false);
+        peer.timer = null;
+    }
+
+    /**
+     * Send again every frame not acknowledged within the timeout, and wait twice as long next time.
+     */
+    private void timeout(Peer peer) {
+        synchronized(peer) {
+            peer.timer = null;
+            if(peer.inFlight.isEmpty()) return;
+            long expired = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(peer.timeout());
+            for(Outgoing out: peer.inFlight) {
+                if(out.sentAt - expired > 0) continue; // Sent again recently, e.g. after a repeated ack
+                retransmitted.incrementAndGet();
+                transmit(peer, out);
+            }
+            peer.backoff = Math.min(peer.backoff * 2, 64);
+            arm(peer);
+        }
+    }
+
+    /**
+     * Tell a member which of its frames were received.
+     */
+    private void ack(int sender, long next) {
+        Member member = c.getMembers().byId(sender);
+        if(member == null) return; // Not known yet, it sends the frames again
+        try {
+            c.getConnections().sendAsync(member, Frames.encode(new Delivered(c.me.getID(), next)), c.getSender());
+            acksSent.incrementAndGet();
+        } catch(IOException | RejectedExecutionException e) {} // Sent again with the next frame
+    }
+
+    /**
+     * Frames sent to one member. Guarded by its own lock.
+     */
+    private final class Peer {
+        private Member member; // Latest address of the member
+        private long nextSeq = 0;
+        private final ArrayDeque<Outgoing> inFlight = new ArrayDeque<>(); // Waiting for an ack, by sequence number
+        private final ArrayDeque<Outgoing> waiting = new ArrayDeque<>(); // Not sent yet, the window is full
+        private double srtt = -1; // ms, smoothed round trip time
+        private double rttvar = 0; // ms, its variation
+        private int backoff = 1; // Multiplies the RTO after timeouts
+        private ScheduledFuture<?> timer;
+
+        private Peer(Member member) {
+            this.member = member;
+        }
+
+        private void sample(long nanos) {
+            double ms = nanos / (double)TimeUnit.MILLISECONDS.toNanos(1);
+            if(srtt < 0) {
+                srtt = ms;
+                rttvar = ms / 2;
+            } else {
+                rttvar = 0.75 * rttvar + 0.25 * Math.abs(srtt - ms);
+                srtt = 0.875 * srtt + 0.125 * ms;
+            }
+        }
+
+        private long rto() {
+            double rtt = srtt;
+            double var = rttvar;
+            if(rtt < 0) {
+                HeartbeatChannel heartbeats = c.getHeartbeats();
+                double heartbeat = heartbeats == null? -1 : heartbeats.getRtt(member.getID());
+                if(heartbeat < 0) return INITIAL_RTO;
+                rtt = heartbeat + ACK_DELAY; // Heartbeats are acknowledged without delay
+                var = rtt / 2;
+            }
+            return Math.max(MIN_RTO, Math.min(MAX_RTO, (long)Math.ceil(rtt + 4 * var)));
+        }
+
+        private long timeout() {
+            return Math.min(MAX_RTO, rto() * backoff);
+        }
+    }
+
+    /**
+     * A frame sent to one member.
+     */
+    private static final class Outgoing {
+        private final ByteBuffer frame;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private long seq = -1; // Given once it is sent
+        private long sentAt; // ns, last time it was written
+        private int transmissions = 0;
+        private boolean fastRetransmitted = false;
+
+        private Outgoing(ByteBuffer frame) {
+            this.frame = frame;
+        }
+    }
+
+    /**
+     * Frames received from one member. Guarded by its own lock.
+     */
+    private static final class Inbound {
+        private long next = 0; // Every sequence number below it was delivered
+        private final TreeMap<Long, Object> early = new TreeMap<>(); // Received before a missing one
+        private ScheduledFuture<?> ack; // Delayed ack, if one is due
+        private final ArrayDeque<Runnable> ready = new ArrayDeque<>(); // Frames delivered, waiting to be handled
+        private boolean delivering = false; // Set while a thread hands over the ready frames
+    }
+}
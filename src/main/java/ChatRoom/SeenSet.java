@@ -0,0 +1,105 @@
+package ChatRoom;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers which messages were already received, using little memory.
+ *
+ * Messages are identified by the ID of their origin and a sequence number counted by the origin.
+ * For each origin only two things are kept:
+ *      - a base: every sequence number below it was seen
+ *      - a bitmap of the WINDOW sequence numbers from the base onwards
+ * When contiguous numbers are seen the base moves forward. A number too far ahead moves the
+ * window forward as well, and the numbers left behind are treated as seen: they are so old
+ * that receiving them now is most likely a duplicate.
+ *
+ * Numbers below the start of the window, where it was when the first message of the origin
+ * arrived, were never left behind: e.g. messages sent before this member joined, received with
+ * the history of the chat (see StateTransfer). They are kept in another window, created only if
+ * such messages arrive.
+ *
+ * @author Abdullah
+ */
+class SeenSet {
+
+    protected static final int WINDOW = 1024; // Sequence numbers per origin that can arrive out of order
+
+    private final Map<Integer, Window> origins = new HashMap<>();
+
+    /**
+     * Mark a message as seen.
+     *
+     * @param origin ID of the member who sent the message first
+     * @param seq Sequence number of the message
+     * @return True if the message was not seen before
+     */
+    public synchronized boolean add(int origin, long seq) {
+        if(seq < 0) return false; // Never sent, dropped like a duplicate
+        Window window = origins.get(origin);
+        if(window == null) origins.put(origin, window = new Window(seq));
+        return window.add(seq);
+    }
+
+    /**
+     * Check if a message was seen, without marking it.
+     *
+     * @param origin ID of the member who sent the message first
+     * @param seq Sequence number of the message
+     * @return True if the message was seen before
+     */
+    public synchronized boolean contains(int origin, long seq) {
+        Window window = origins.get(origin);
+        return seq < 0 || (window != null && window.contains(seq));
+    }
+
+    /**
+     * Forget everything about an origin, e.g. when the member leaves.
+     *
+     * @param origin ID of the member
+     */
+    public synchronized void forget(int origin) {
+        origins.remove(origin);
+    }
+
+    private static class Window {
+        private final long start; // Nothing below it was left behind
+        private long base;
+        private final long[] bits = new long[WINDOW / 64]; // Bit (seq % WINDOW) is set if seq was seen
+        private Window older; // Numbers below start, null until one arrives
+
+        private Window(long first) {
+            start = base = Math.max(0, first - WINDOW + 1);
+        }
+
+        private boolean contains(long seq) {
+            if(seq < start) return older != null && older.contains(seq);
+            return seq < base || (seq < base + WINDOW && get(seq));
+        }
+
+        private boolean add(long seq) {
+            if(seq < start) {
+                if(older == null) older = new Window(seq);
+                return older.add(seq);
+            }
+            if(contains(seq)) return false;
+            if(seq >= base + WINDOW) { // Too far ahead, move the window
+                long newBase = seq - WINDOW + 1;
+                if(newBase - base >= WINDOW) Arrays.fill(bits, 0);
+                else for(long s = base; s < newBase; s++) clear(s);
+                base = newBase;
+            }
+            set(seq);
+            while(get(base)) { // Everything up to here was seen, no need to keep the bits
+                clear(base);
+                base++;
+            }
+            return true;
+        }
+
+        private boolean get(long seq) { int i = (int)Math.floorMod(seq, (long)WINDOW); return (bits[i >>> 6] & (1L << i)) != 0; }
+        private void set(long seq) { int i = (int)Math.floorMod(seq, (long)WINDOW); bits[i >>> 6] |= 1L << i; }
+        private void clear(long seq) { int i = (int)Math.floorMod(seq, (long)WINDOW); bits[i >>> 6] &= ~(1L << i); }
+    }
+}
@@ -0,0 +1,34 @@
+package ChatRoom;
+
+import java.io.Serializable;
+
+/**
+ * An object sent reliably to one member, with a sequence number counted for that member
+ * (see ReliableDelivery). The member acknowledges it with a Delivered.
+ *
+ * @author Abdullah
+ */
+class Sequenced implements Serializable {
+
+    private final int sender; // ID of the member who sent it
+    private final long seq; // Counted by the sender for this receiver, from 0
+    private final long base; // Every sequence number below it was acknowledged, even if the receiver forgot it
+    private final Object payload;
+
+    public Sequenced(int sender, long seq, long base, Object payload) {
+        this.sender = sender;
+        this.seq = seq;
+        this.base = base;
+        this.payload = payload;
+    }
+
+    public int getSender() { return sender; }
+    public long getSeq() { return seq; }
+    public long getBase() { return base; }
+    public Object getPayload() { return payload; }
+
+    @Override
+    public String toString() {
+        return "Sequenced{sender: " + sender + ", seq: " + seq + ", base: " + base + ", payload: " + payload + "}";
+    }
+}
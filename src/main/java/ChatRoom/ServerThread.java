@@ -1,27 +1,66 @@
 package ChatRoom;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * Server component for a client.
  * 
  * Allows a member to receive messages from others.
+ * 
+ * The server can run in two modes:
+ *      - BLOCKING: every connection is handled by its own thread from a pool (platform or
+ *                  virtual threads, depending on the client's ExecutionStrategy).
+ *      - SELECTOR: connections are shared between a few event loops using non-blocking reads.
+ *
+ * Heartbeats don't use connections: they are datagrams received on the same port in UDP (see
+ * HeartbeatChannel), so checking that members are there takes no accept or handler thread.
  *
  * @author Abdullah
  */
 public class ServerThread extends Thread {
     
+    /**
+     * Ways the server can read from its connections.
+     */
+    public enum Mode {
+        BLOCKING,
+        SELECTOR;
+        
+        /**
+         * Get the mode set by the "chatroom.server" system property (blocking by default).
+         * 
+         * @return Selected mode
+         */
+        public static Mode fromProperty() {
+            return Mode.valueOf(System.getProperty("chatroom.server", BLOCKING.name()).toUpperCase());
+        }
+    }
+    
     private volatile boolean run = true;
     
     private final Client client;
+    private final Mode mode;
+    private final ServerSocketChannel serverChannel; // SELECTOR mode only
     private final ServerSocket server;
-    private final ExecutorService pool = Executors.newFixedThreadPool(500);;
+    private final Dispatcher dispatcher;
+    private final ExecutorService pool; // BLOCKING mode only
+    private final EventLoop[] loops; // SELECTOR mode only
+    private final HeartbeatChannel heartbeats;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet(); // Open connections, closed when server stops
+    private int nextLoop = 0;
     
     /**
      * Initialise a server thread for a given client.
@@ -30,23 +69,92 @@ public class ServerThread extends Thread {
      * @throws ChatRoom.PortNotAvailbleException
      */
     public ServerThread(Client c) throws PortNotAvailbleException {
+        this(c, Mode.fromProperty());
+    }
+    
+    /**
+     * Initialise a server thread for a given client.
+     * 
+     * @param c Client this server should be bound to
+     * @param mode How connections should be read
+     * @throws ChatRoom.PortNotAvailbleException
+     */
+    public ServerThread(Client c, Mode mode) throws PortNotAvailbleException {
         client = c;
+        this.mode = mode;
+        dispatcher = new Dispatcher(c);
         try {
             // Create a server
-            server = new ServerSocket(client.me.getPort());
+            if(mode == Mode.SELECTOR) {
+                serverChannel = ServerSocketChannel.open();
+                server = serverChannel.socket();
+                try {
+                    server.bind(new InetSocketAddress(client.me.getPort()));
+                } catch(IOException e) {
+                    serverChannel.close();
+                    throw e;
+                }
+            } else {
+                serverChannel = null;
+                server = new ServerSocket(client.me.getPort());
+            }
+            try {
+                heartbeats = new HeartbeatChannel(client);
+            } catch(IOException e) {
+                server.close();
+                throw e;
+            }
             client.postMessage(new Message(client.me.getUsername(), "Share your ADDRESS:PORT with other members: " + c.me.getAddress() + ":" + c.me.getPort(), MessageType.SYSTEM));
         } catch (IOException e) {
             throw new PortNotAvailbleException("Port not available, try another port.");
         }
+        
+        if(mode == Mode.SELECTOR) {
+            pool = null;
+            loops = new EventLoop[Integer.getInteger("chatroom.server.loops", 2)];
+            try {
+                for(int i = 0; i < loops.length; i++) {
+                    loops[i] = new EventLoop(dispatcher, "EventLoop-" + c.me.getPort() + "-" + i);
+                    loops[i].start();
+                }
+            } catch(IOException e) {
+                stopThread();
+                throw new PortNotAvailbleException("Could not open selector: " + e);
+            }
+        } else {
+            pool = c.getExecution().newExecutor("Handler-" + c.me.getPort(), 500);
+            loops = null;
+        }
     }
     
+    /**
+     * Get the mode this server is running in.
+     * 
+     * @return Mode of this server
+     */
+    public Mode getMode() { return mode; }
+    
+    /**
+     * Get the UDP endpoint receiving heartbeats on the port of this server.
+     * 
+     * @return Heartbeat channel of this server
+     */
+    public HeartbeatChannel getHeartbeats() { return heartbeats; }
+    
     @Override
     public void run() {            
-        // Create a pool of threads, to enable multiple members to communicate
-        // at the same time
+        // BLOCKING: create a pool of threads, to enable multiple members to communicate at the same time
+        // SELECTOR: hand connections to the event loops in turn
         while(run) {
             try {
-                pool.execute(new Handler(client, server.accept()));
+                if(mode == Mode.SELECTOR) {
+                    SocketChannel conn = serverChannel.accept();
+                    loops[nextLoop++ % loops.length].register(conn);
+                } else {
+                    Socket conn = server.accept();
+                    connections.add(conn);
+                    pool.execute(new Handler(dispatcher, conn, connections));
+                }
             } catch (IOException e) {
                 // Connection went wrong.
             }
@@ -58,25 +166,39 @@ public class ServerThread extends Thread {
      */
     protected void stopThread() {
         run = false;
-        pool.shutdown();
+        if(pool != null) pool.shutdown();
+        if(loops != null) for(EventLoop loop: loops) if(loop != null) loop.stopLoop();
+        heartbeats.close();
         try {
             server.close();
         } catch(IOException e) {}
+        
+        // Connections are kept open by other members, close them so they know this member left.
+        for(Socket conn: connections) {
+            try {
+                conn.close();
+            } catch(IOException e) {}
+        }
     }
 }
 
 /**
  * This handler creates a new thread every time a connection request is received.
  * Allows multiple parallel connections.
+ * 
+ * Members keep their connection open, so the handler keeps reading messages
+ * until the other member closes the connection.
  */
 class Handler implements Runnable {
     
-    private final Client client;
+    private final Dispatcher dispatcher;
     private final Socket conn;
+    private final Set<Socket> connections;
     
-    public Handler(Client c, Socket conn) {
-        this.client = c;
+    public Handler(Dispatcher dispatcher, Socket conn, Set<Socket> connections) {
+        this.dispatcher = dispatcher;
         this.conn = conn;
+        this.connections = connections;
     }
 
     /**
@@ -86,118 +208,37 @@ class Handler implements Runnable {
      */
     @Override
     public void run() {
+        Decompressor decompressor = new Decompressor();
         try {
-            // Receive object from other member
-            ObjectInputStream in = new ObjectInputStream(conn.getInputStream());
-            Object obj = in.readObject();
-
-            // If string, it could be a normal message or command.
-            if(obj instanceof Message) {
-                
-                Message message = (Message)obj;
-                
-                if(message.getMessageType() == MessageType.COMMAND) {
-                    String command = message.getContent().split(":")[0];
-                    String param = message.getContent().split(":", 2)[1];
-                    
-                    switch(command) {
-                        case "newMember": // New member joined the network, add them to the list. FORMAT => newMember:username:id:address:port
-                            newMember(param);
-                            break;
-                        case "removeMember": // Someone left the group, remove them from the list
-                            removeMember(Integer.parseInt(param));
-                            break;
-                        case "newCoordinator": // Coordinator changed, update the list.
-                            newCoordinator(Integer.parseInt(param));
-                            break;
-                        case "unreachable": // Unreachable member
-                            unreachableMember(Integer.parseInt(param));
-                            break;
-                        default:
-                            System.out.println("Unknown command: " + command);
-                    }
-                } else {
-                    client.postMessage(message); // Normal chat message
+            DataInputStream in = new DataInputStream(new BufferedInputStream(conn.getInputStream()));
+            while(true) {
+                // Receive objects from other member
+                Object obj = Frames.read(in, decompressor);
+                if(obj instanceof Dictionary) { // Used to compress the next frames on this connection
+                    decompressor.setDictionary((Dictionary)obj);
+                    continue;
+                }
+                Object reply = dispatcher.dispatch(obj);
+                if(reply instanceof CompletableFuture) reply = ((CompletableFuture<?>)reply).join(); // Worked out on another thread, only this connection waits
+                if(reply != null) {
+                    Frames.write(conn.getOutputStream(), reply);
+                    break; // Connection is closed once the request is answered
                 }
-                
-                client.updateMembersList();
             }
-            // If Member, someone is trying to join the network
-            else if(obj instanceof Member) client.incomingRequest((Member)obj, conn);
-            
-            else System.out.println("unexpected object " + obj.getClass().getSimpleName() + " " + obj);
-            
-            conn.close();
         } catch(EOFException e) {
-            // Someone is pinging, no file received.
+            // Connection closed by the other member, or someone is pinging.
         } catch (IOException e) {
             // Connection went wrong.
         } catch (ClassNotFoundException e) {
             System.out.println("!ClassNotFound: " + e);
-        }
-    }
-    
-    /**
-     * Method to add a new member to the list of members.
-     * 
-     * @param newMemberString Details of member in the format newMember:username:id:address:port
-     */
-    private void newMember(String newMemberString) {
-        String[] newMemberArr = newMemberString.split(":"); // Remove "newMember:", FORMAT => username:id:address:port
-        String userName = newMemberArr[0];
-        int id = Integer.parseInt(newMemberArr[1]);
-        String address = newMemberArr[2];
-        int port = Integer.parseInt(newMemberArr[3]);
-        
-        // Because of multiple threads, it's possible that when a member joins the chat, the
-        // same member receives a request to add himself to the chat.
-        if(id != client.me.getID()) {
-            client.postMessage(new Message(client.me.getUsername(), "New member \"" + newMemberArr[0] + "\" joined the chat!", MessageType.SYSTEM));
+        } catch (CompletionException e) {
+            System.out.println("Could not answer request: " + e.getCause());
+        } finally {
+            decompressor.close();
+            connections.remove(conn);
             try {
-                client.getMembers().add(new Member(userName, id, address, port));
-            } catch(InvalidUsernameException e) {}  // Should never reach this catch, since this new member's client will NOT reach the
-                                                    // code for sending a request UNLESS the username is formatted right from the beginning.
-        }
-    }
-    
-    /**
-     * Method to remove a member.
-     * 
-     * @param id ID of the member to be removed.
-     */
-    private void removeMember(int id) {        
-        // Find and remove member
-        for(Member m: client.getMembers()) {
-            if(m.getID() == id) {
-                client.getMembers().remove(m);
-                client.postMessage(new Message(client.me.getUsername(), "Member " + m.getUsername() + " left.", MessageType.SYSTEM));
-                client.updateMembersList();
-                break;
-            }
+                conn.close();
+            } catch(IOException e) {}
         }
     }
-    
-    /**
-     * Method to set a new coordinator.
-     * 
-     * @param id ID of the new coordinator.
-     */
-    private void newCoordinator(int id) {
-        for(Member m: client.getMembers()) {
-            if(m.getID() == id) {
-                m.setCoordinator();
-                client.postMessage(new Message(client.me.getUsername(), m.getUsername() + " is the new coordinator!", MessageType.SYSTEM));
-                break;
-            }
-        }
-    }
-    
-    /**
-     * Method to get the details of an unreachable member.
-     * 
-     * @param id ID of the unreachable member.
-     */
-    private void unreachableMember(int id) {
-        for(Member m: client.getMembers()) if(m.getID() == id) { client.getUnreachableMembers().add(m); break; }
-    }
 }
@@ -0,0 +1,201 @@
+package ChatRoom;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the messages of the chat to new members, so they don't start with an empty chat.
+ *
+ * New members used to get only the members, and none of the messages sent before they joined.
+ * Now the member accepting a join also keeps the last messages of its history, as many as set by
+ * "chatroom.join.history" or as old as set by "chatroom.join.minutes", when it sends the members
+ * back: the new member gets the members (with their epoch) in the join response, and the
+ * messages from this snapshot. Both are read when the client is created, and are off by default.
+ * All members of a chat should use the same settings.
+ *
+ * The messages are not sent with the join response. The new member goes online straight away,
+ * so it can read and send messages, then asks for the messages kept for it, CHUNK at a time
+ * (see HistoryRequest and HistoryChunk). The snapshot is a view of the history, so a long history
+ * is never copied at once: only the messages of the chunk being sent are read. The messages are
+ * added to the chat as they arrive, after the ones received since joining, and dropped if they
+ * were received since joining as well (see Client.firstReceived()).
+ *
+ * Snapshots not fetched within KEEP are dropped. System messages (e.g. "X joined the chat!") are
+ * not sent: every member adds its own.
+ *
+ * @author Abdullah
+ */
+class StateTransfer {
+
+    protected static final int CHUNK = Integer.getInteger("chatroom.join.chunk", 64); // Messages sent at once
+    protected static final long KEEP = 30_000; // ms a snapshot waits for its new member
+
+    private final Client client;
+    private final int messages; // Most recent messages sent to new members, 0 for no limit
+    private final int minutes; // Age of the oldest message sent to new members, 0 for no limit
+    private final Map<Integer, List<Message>> snapshots = new ConcurrentHashMap<>(); // By ID of the new member
+    private final CountDownLatch fetched = new CountDownLatch(1); // Released once this member got the messages sent before it joined
+
+    private final AtomicLong offered = new AtomicLong();
+    private final AtomicLong chunksSent = new AtomicLong();
+    private volatile long chunksReceived = 0;
+    private volatile long messagesReceived = 0;
+    private volatile long firstChunk = -1; // ns from going online to the first chunk
+    private volatile long lastChunk = -1; // ns from going online to the last chunk
+
+    /**
+     * Create the state transfer of a client, with the limits set by the system properties.
+     *
+     * @param client Client sending and receiving the messages
+     */
+    public StateTransfer(Client client) {
+        this(client, Integer.getInteger("chatroom.join.history", 0), Integer.getInteger("chatroom.join.minutes", 0));
+    }
+
+    /**
+     * Create the state transfer of a client.
+     *
+     * @param client Client sending and receiving the messages
+     * @param messages Most recent messages sent to new members, 0 for no limit
+     * @param minutes Age of the oldest message sent to new members, 0 for no limit
+     */
+    public StateTransfer(Client client, int messages, int minutes) {
+        this.client = client;
+        this.messages = messages;
+        this.minutes = minutes;
+    }
+
+    /**
+     * Check if new members are sent the messages sent before they joined.
+     *
+     * @return True if there is a limit on the number or age of the messages sent
+     */
+    public boolean isEnabled() {
+        return messages > 0 || minutes > 0;
+    }
+
+    /**
+     * Keep the latest messages for a member who just joined through this member.
+     *
+     * @param newMember Member who joined, with its ID
+     */
+    public void offer(Member newMember) {
+        if(!isEnabled()) return;
+        List<Message> history = client.getHistory().snapshot();
+        LocalDateTime oldest = minutes > 0? LocalDateTime.now().minusMinutes(minutes) : LocalDateTime.MIN;
+        int from = history.size();
+        int kept = 0; // Chat messages from "from", system messages are not counted
+        while(from > 0 && (messages <= 0 || kept < messages)) {
+            Message m = history.get(from - 1);
+            if(m.getTimestamp().isBefore(oldest)) break;
+            if(m.getMessageType() == MessageType.MESSAGE) kept++;
+            from--;
+        }
+        int id = newMember.getID();
+        List<Message> snapshot = history.subList(from, history.size());
+        snapshots.put(id, snapshot);
+        offered.incrementAndGet();
+        try {
+            client.getTimer().schedule(() -> snapshots.remove(id, snapshot), KEEP, TimeUnit.MILLISECONDS);
+        } catch(RejectedExecutionException e) {} // Client terminated
+    }
+
+    /**
+     * Send the next messages kept for a new member.
+     *
+     * @param request Request from the new member
+     * @return The next chunk, empty if nothing is kept for this member
+     */
+    public HistoryChunk chunk(HistoryRequest request) {
+        List<Message> snapshot = snapshots.get(request.getRequester());
+        if(snapshot == null) return new HistoryChunk(0, 0, new ArrayList<>());
+        int from = Math.max(0, Math.min(request.getOffset(), snapshot.size()));
+        int to = Math.min(snapshot.size(), from + CHUNK);
+        List<Message> chunk = new ArrayList<>(to - from);
+        for(Message m: snapshot.subList(from, to)) if(m.getMessageType() == MessageType.MESSAGE) chunk.add(m);
+        if(to == snapshot.size()) snapshots.remove(request.getRequester(), snapshot);
+        chunksSent.incrementAndGet();
+        return new HistoryChunk(to, snapshot.size(), chunk);
+    }
+
+    /**
+     * Get the messages kept for this member by the member it joined through, in the background.
+     *
+     * @param address Host of the member this member joined through, empty if it started the chat
+     * @param port Port of that member
+     */
+    public void fetch(String address, int port) {
+        if(!isEnabled() || address.isEmpty()) {
+            fetched.countDown();
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            client.getControl().execute(() -> {
+                try {
+                    int offset = 0;
+                    while(true) {
+                        HistoryChunk chunk;
+                        try (Socket conn = new Socket(address, port)) {
+                            Frames.write(conn.getOutputStream(), new HistoryRequest(client.me.getID(), offset));
+                            chunk = (HistoryChunk)Frames.read(new DataInputStream(conn.getInputStream()));
+                        }
+                        if(chunksReceived++ == 0) firstChunk = System.nanoTime() - start;
+                        for(Message m: chunk.getMessages()) if(client.firstReceived(m)) client.postMessage(m); // Also received since joining
+                        messagesReceived += chunk.getMessages().size();
+                        if(chunk.isLast() || chunk.getNext() <= offset) break;
+                        offset = chunk.getNext();
+                    }
+                    lastChunk = System.nanoTime() - start;
+                } catch(IOException | ClassNotFoundException | ClassCastException e) {
+                    System.out.println("Could not get the messages sent before joining: " + e);
+                } finally {
+                    fetched.countDown();
+                }
+            });
+        } catch(RejectedExecutionException e) {
+            fetched.countDown(); // Client terminated
+        }
+    }
+
+    /**
+     * Wait until this member got the messages sent before it joined.
+     *
+     * @param timeout Longest time to wait
+     * @param unit Unit of the timeout
+     * @return False if the messages are still on their way
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return fetched.await(timeout, unit);
+    }
+
+    /**
+     * Get the messages sent to new members and received when joining, e.g. to check how long
+     * a new member waits for them.
+     *
+     * @return Snapshots kept and chunks sent for new members, chunks and messages received when
+     *         joining, and the ms from going online to the first and last chunk (-1 if none)
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("offered", offered.get());
+        stats.put("chunksSent", chunksSent.get());
+        stats.put("chunksReceived", chunksReceived);
+        stats.put("messagesReceived", messagesReceived);
+        stats.put("firstChunkMs", firstChunk < 0? -1 : TimeUnit.NANOSECONDS.toMillis(firstChunk));
+        stats.put("lastChunkMs", lastChunk < 0? -1 : TimeUnit.NANOSECONDS.toMillis(lastChunk));
+        return stats;
+    }
+}
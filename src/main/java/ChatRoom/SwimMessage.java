@@ -0,0 +1,73 @@
+package ChatRoom;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Message of the SWIM protocol (see SwimProtocol), carrying recent updates about members.
+ *
+ * @author Abdullah
+ */
+class SwimMessage implements Serializable {
+
+    public enum Kind {
+        PING, // Are you there?
+        ACK, // Yes, or a member probed for someone else answered
+        PING_REQ, // Please ping the target for me
+        GOSSIP // Only carries updates, sent along with another frame
+    }
+
+    private final Kind kind;
+    private final int from; // ID of the member sending it
+    private final int target; // Member to ping for PING_REQ, member who answered for ACK
+    private final long seq; // Matches an ACK with its PING
+    private final List<Update> updates; // Piggybacked news about members
+
+    public SwimMessage(Kind kind, int from, int target, long seq, List<Update> updates) {
+        this.kind = kind;
+        this.from = from;
+        this.target = target;
+        this.seq = seq;
+        this.updates = Collections.unmodifiableList(updates);
+    }
+
+    public Kind getKind() { return kind; }
+    public int getFrom() { return from; }
+    public int getTarget() { return target; }
+    public long getSeq() { return seq; }
+    public List<Update> getUpdates() { return updates; }
+
+    @Override
+    public String toString() {
+        return "SwimMessage{" + kind + ", from=" + from + ", target=" + target + ", seq=" + seq + ", updates=" + updates + "}";
+    }
+
+    /**
+     * What a member believes about another member.
+     * A higher incarnation wins; only the member itself increases its incarnation, to refute a suspicion.
+     */
+    public static final class Update implements Serializable {
+
+        public enum Status { ALIVE, SUSPECT }
+
+        private final Status status;
+        private final int id;
+        private final int incarnation;
+
+        public Update(Status status, int id, int incarnation) {
+            this.status = status;
+            this.id = id;
+            this.incarnation = incarnation;
+        }
+
+        public Status getStatus() { return status; }
+        public int getID() { return id; }
+        public int getIncarnation() { return incarnation; }
+
+        @Override
+        public String toString() {
+            return status + "(" + id + "@" + incarnation + ")";
+        }
+    }
+}
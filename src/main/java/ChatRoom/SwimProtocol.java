@@ -0,0 +1,341 @@
+package ChatRoom;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SWIM-like failure detection, enabled with -Dchatroom.liveness=SWIM.
+ *
+ * With heartbeats, the coordinator watches every member on its own, and decides alone who is gone.
+ * With SWIM, every member does a little of the work, the same amount whatever the size of the room:
+ *      - Every PERIOD, a member pings one other member, going through the members in a random order.
+ *      - Without an ACK within a third of the period, INDIRECT other members are asked to ping it
+ *        (PING_REQ) and pass the ACK on, in case only the link between the two members is broken.
+ *      - Without any ACK by the end of the period, the member is suspected. Once suspected for
+ *        SUSPICION_PERIODS periods, it is removed from the chat like a member who left.
+ *      - A member who hears it is suspected refutes it by increasing its incarnation number.
+ *
+ * Suspicions and refutations are not sent to everyone: they are piggybacked on the next pings and
+ * acks, and on the frames sent reliably to members such as chat messages (see ReliableDelivery), each
+ * a few times (a multiple of the log of the number of members), so they spread like gossip without
+ * extra messages. Removals are sent to everyone as membership changes (see Membership).
+ *
+ * @author Abdullah
+ */
+class SwimProtocol {
+
+    protected static final long PERIOD = Long.getLong("chatroom.swim.period", 1000); // ms
+    protected static final int INDIRECT = Integer.getInteger("chatroom.swim.indirect", 3); // Members asked to ping a silent member
+    protected static final int SUSPICION_PERIODS = Integer.getInteger("chatroom.swim.suspicion", 5); // Periods before a suspect is removed
+    protected static final int MAX_PIGGYBACK = 6; // Updates sent with each message
+    protected static final int RETRANSMIT_MULTIPLIER = 3; // Each update is sent this many times the log of the number of members
+
+    private final Client client;
+    private final Random random = new Random();
+    private ScheduledFuture<?> task = null;
+
+    // Only used while holding the lock
+    private long seq = 0;
+    private final Map<Long, Probe> probes = new HashMap<>(); // Pings waiting for an ACK, by sequence number
+    private final List<Member> order = new ArrayList<>(); // Members left to ping this round
+    private final Map<Integer, Long> suspects = new HashMap<>(); // ID -> when the suspicion started (ns)
+    private final Map<Integer, Integer> incarnations = new HashMap<>(); // Latest incarnation heard of, by ID
+    private final Map<SwimMessage.Update, Integer> updates = new LinkedHashMap<>(); // Update -> times left to send it
+    private int incarnation = 0; // This member's
+    private long pings = 0;
+    private long indirectPings = 0;
+    private long suspicions = 0;
+    private long removals = 0;
+    private long sent = 0;
+    private long piggybacked = 0;
+
+    public SwimProtocol(Client client) {
+        this.client = client;
+    }
+
+    /**
+     * Start probing members, every PERIOD.
+     */
+    public synchronized void start() {
+        task = client.getTimer().scheduleWithFixedDelay(this::tick, PERIOD, PERIOD, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Ping the next member, and remove the members suspected for too long.
+     */
+    private void tick() {
+        List<Member> removed = new ArrayList<>();
+        Member target;
+        long probe;
+        synchronized(this) {
+            long now = System.nanoTime();
+            for(Iterator<Map.Entry<Integer, Long>> it = suspects.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<Integer, Long> suspect = it.next();
+                if(now - suspect.getValue() < TimeUnit.MILLISECONDS.toNanos(PERIOD * SUSPICION_PERIODS)) continue;
+                it.remove();
+                Member m = client.getMembers().byId(suspect.getKey());
+                if(m != null) removed.add(m);
+            }
+
+            target = nextTarget();
+            if(target == null) probe = -1;
+            else {
+                probe = ++seq;
+                probes.put(probe, new Probe(target, -1, -1));
+                pings++;
+            }
+        }
+        for(Member m: removed) {
+            System.out.println("SWIM: " + m + " suspected for too long, removing member");
+            synchronized(this) { removals++; }
+            client.globalRemoveMember(m.getID(), m.getUsername());
+        }
+        if(target == null) return;
+
+        send(target, SwimMessage.Kind.PING, target.getID(), probe);
+        try {
+            client.getTimer().schedule(() -> pingIndirectly(probe), PERIOD / 3, TimeUnit.MILLISECONDS);
+            client.getTimer().schedule(() -> expire(probe), PERIOD, TimeUnit.MILLISECONDS);
+        } catch(RejectedExecutionException e) {} // Client terminated
+    }
+
+    /**
+     * Get the next member to ping. Members are pinged in a random order, each once per round.
+     */
+    private Member nextTarget() {
+        while(true) {
+            if(order.isEmpty()) {
+                order.addAll(client.getMembers().snapshot());
+                if(order.isEmpty()) return null;
+                Collections.shuffle(order, random);
+            }
+            Member m = order.remove(order.size() - 1);
+            if(client.getMembers().byId(m.getID()) != null) return m; // Still a member
+        }
+    }
+
+    /**
+     * Ask other members to ping a member that didn't answer in time.
+     */
+    private void pingIndirectly(long probe) {
+        Probe p;
+        List<Member> helpers = new ArrayList<>();
+        synchronized(this) {
+            p = probes.get(probe);
+            if(p == null) return; // Answered
+            for(Member m: client.getMembers().snapshot()) if(m.getID() != p.target.getID()) helpers.add(m);
+            Collections.shuffle(helpers, random);
+            if(helpers.size() > INDIRECT) helpers = helpers.subList(0, INDIRECT);
+            indirectPings += helpers.size();
+        }
+        for(Member helper: helpers) send(helper, SwimMessage.Kind.PING_REQ, p.target.getID(), probe);
+    }
+
+    /**
+     * Give up on a ping: suspect the member if it was pinged for this member, or forget it.
+     */
+    private void expire(long probe) {
+        synchronized(this) {
+            Probe p = probes.remove(probe);
+            if(p == null || p.requester >= 0) return; // Answered, or pinged for another member
+            int id = p.target.getID();
+            if(suspects.containsKey(id)) return;
+            System.out.println("SWIM: no answer from " + p.target + ", suspected");
+            suspect(id, incarnations.getOrDefault(id, 0));
+        }
+    }
+
+    /**
+     * Handle a SWIM message received from another member.
+     *
+     * @param message Message received
+     */
+    public void receive(SwimMessage message) {
+        for(SwimMessage.Update update: message.getUpdates()) apply(update);
+        switch(message.getKind()) {
+            case PING:
+                Member from = client.getMembers().byId(message.getFrom());
+                if(from != null) send(from, SwimMessage.Kind.ACK, client.me.getID(), message.getSeq());
+                break;
+            case PING_REQ:
+                Member target = client.getMembers().byId(message.getTarget());
+                if(target == null) return;
+                long probe;
+                synchronized(this) {
+                    probe = ++seq;
+                    probes.put(probe, new Probe(target, message.getFrom(), message.getSeq()));
+                }
+                send(target, SwimMessage.Kind.PING, target.getID(), probe);
+                try {
+                    client.getTimer().schedule(() -> expire(probe), PERIOD, TimeUnit.MILLISECONDS);
+                } catch(RejectedExecutionException e) {} // Client terminated
+                break;
+            case GOSSIP:
+                break; // Only the updates
+            case ACK:
+                Probe p;
+                synchronized(this) {
+                    p = probes.remove(message.getSeq());
+                }
+                if(p == null || p.requester < 0) return; // Late, or the answer to this member's own ping
+                Member requester = client.getMembers().byId(p.requester);
+                if(requester != null) send(requester, SwimMessage.Kind.ACK, message.getTarget(), p.requesterSeq);
+                break;
+        }
+    }
+
+    /**
+     * Apply news about a member, and pass it on if it is new.
+     */
+    private synchronized void apply(SwimMessage.Update update) {
+        int id = update.getID();
+        if(id == client.me.getID()) {
+            if(update.getStatus() == SwimMessage.Update.Status.SUSPECT && update.getIncarnation() >= incarnation) {
+                // Refute: nobody can suspect this member at the new incarnation
+                incarnation = update.getIncarnation() + 1;
+                System.out.println("SWIM: suspected by others, refuting with incarnation " + incarnation);
+                spread(new SwimMessage.Update(SwimMessage.Update.Status.ALIVE, id, incarnation));
+            }
+            return;
+        }
+        int known = incarnations.getOrDefault(id, 0);
+        switch(update.getStatus()) {
+            case SUSPECT:
+                if(update.getIncarnation() < known || suspects.containsKey(id) && update.getIncarnation() == known) return;
+                suspect(id, update.getIncarnation());
+                break;
+            case ALIVE:
+                if(update.getIncarnation() <= known) return;
+                incarnations.put(id, update.getIncarnation());
+                suspects.remove(id);
+                spread(update);
+                break;
+        }
+    }
+
+    private void suspect(int id, int suspectedIncarnation) {
+        if(client.getMembers().byId(id) == null) return;
+        incarnations.put(id, suspectedIncarnation);
+        suspects.put(id, System.nanoTime());
+        suspicions++;
+        spread(new SwimMessage.Update(SwimMessage.Update.Status.SUSPECT, id, suspectedIncarnation));
+    }
+
+    /**
+     * Queue an update to be piggybacked, replacing older news about the same member.
+     */
+    private void spread(SwimMessage.Update update) {
+        updates.keySet().removeIf(u -> u.getID() == update.getID());
+        int members = client.getMembers().size() + 1;
+        updates.put(update, RETRANSMIT_MULTIPLIER * (32 - Integer.numberOfLeadingZeros(members)));
+    }
+
+    /**
+     * Take the updates to send with the next message, the ones sent the least first.
+     */
+    private synchronized List<SwimMessage.Update> takeUpdates() {
+        List<SwimMessage.Update> chosen = new ArrayList<>();
+        List<Map.Entry<SwimMessage.Update, Integer>> entries = new ArrayList<>(updates.entrySet());
+        entries.sort((a, b) -> b.getValue() - a.getValue());
+        for(Map.Entry<SwimMessage.Update, Integer> entry: entries) {
+            if(chosen.size() == MAX_PIGGYBACK) break;
+            chosen.add(entry.getKey());
+            if(entry.getValue() <= 1) updates.remove(entry.getKey());
+            else updates.put(entry.getKey(), entry.getValue() - 1);
+        }
+        return chosen;
+    }
+
+    /**
+     * Attach the updates waiting to be spread to a frame sent to a member, e.g. a chat message.
+     *
+     * @param frame Encoded frame, ready to be read
+     * @return The frame and a GOSSIP message as one batch, or the same frame if there is nothing to spread
+     */
+    public ByteBuffer piggyback(ByteBuffer frame) {
+        List<SwimMessage.Update> chosen;
+        synchronized(this) {
+            if(updates.isEmpty()) return frame;
+            chosen = takeUpdates();
+            piggybacked++;
+        }
+        try {
+            ByteBuffer gossip = Frames.encode(new SwimMessage(SwimMessage.Kind.GOSSIP, client.me.getID(), -1, 0, chosen));
+            return Frames.batch(Arrays.asList(frame, gossip));
+        } catch(IOException e) {
+            return frame;
+        }
+    }
+
+    private void send(Member to, SwimMessage.Kind kind, int target, long probe) {
+        try {
+            List<SwimMessage.Update> chosen;
+            synchronized(this) {
+                chosen = takeUpdates();
+                sent++;
+            }
+            ByteBuffer frame = Frames.encode(new SwimMessage(kind, client.me.getID(), target, probe, chosen));
+            client.getConnections().sendAsync(to, frame, client.getControl()); // No answer is what SWIM looks for, failures are ignored
+        } catch(IOException | RejectedExecutionException e) {
+            System.out.println("SWIM: could not send to " + to + ": " + e);
+        }
+    }
+
+    /**
+     * Check if a member is currently suspected.
+     *
+     * @param id ID of the member
+     * @return True if suspected
+     */
+    public synchronized boolean isSuspected(int id) { return suspects.containsKey(id); }
+
+    /**
+     * Get the work done so far, e.g. to check it doesn't grow with the number of members.
+     *
+     * @return Pings, indirect pings, suspicions, removals, messages sent and other frames carrying updates
+     */
+    public synchronized Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("pings", pings);
+        stats.put("indirectPings", indirectPings);
+        stats.put("suspicions", suspicions);
+        stats.put("removals", removals);
+        stats.put("sent", sent);
+        stats.put("piggybacked", piggybacked);
+        return stats;
+    }
+
+    /**
+     * Stop probing members, when the client terminates.
+     */
+    public synchronized void stop() {
+        if(task != null) task.cancel(false);
+    }
+
+    /**
+     * A ping waiting for its ACK.
+     */
+    private static final class Probe {
+        private final Member target;
+        private final int requester; // Member who asked for this ping with a PING_REQ, -1 for this member's own
+        private final long requesterSeq; // Sequence number of the PING_REQ, to answer it
+
+        private Probe(Member target, int requester, long requesterSeq) {
+            this.target = target;
+            this.requester = requester;
+            this.requesterSeq = requesterSeq;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package ChatRoom;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Messages travel down a tree of members: the author sends a message to a few children,
+ * who each send it to a few children of their own, and so on.
+ *
+ * The tree is worked out from the list of members, ordered by ID like the coordinator keeps it,
+ * starting from the author. The member at position r in that order has the members at positions
+ * CHILDREN*r+1 to CHILDREN*r+CHILDREN as children. Every member builds the same tree on its own,
+ * so nothing else has to be exchanged, and since it is built again from the current list for each
+ * message, the tree follows removeMember and newCoordinator commands as soon as they arrive.
+ *
+ * No member sends more than CHILDREN copies of a message, however big the chat is.
+ * When a child can't be reached, the message is sent to that child's children instead,
+ * so the rest of the branch still receives it.
+ *
+ * Commands are still sent by the author to every member.
+ *
+ * @author Abdullah
+ */
+class TreeDissemination implements Dissemination {
+
+    protected static final int CHILDREN = Integer.getInteger("chatroom.tree.children", 4);
+
+    private final Client c;
+    private final MeshDissemination mesh;
+    private final AtomicLong nextSeq = new AtomicLong();
+
+    public TreeDissemination(Client c) {
+        this.c = c;
+        this.mesh = new MeshDissemination(c);
+    }
+
+    @Override
+    public Broadcast send(Message message) {
+        if(message.getMessageType() == MessageType.COMMAND) return mesh.send(message);
+
+        Envelope envelope = new Envelope(c.me.getID(), nextSeq.getAndIncrement(), 0, message); // Hops are not used by the tree
+        return forward(envelope, tree(envelope.getOrigin()), 0);
+    }
+
+    @Override
+    public Message receive(Envelope envelope) {
+        if(c.receivedBefore(envelope.getMessage())) return null; // Already received, e.g. while the tree was changing
+        List<Member> tree = tree(envelope.getOrigin());
+        forward(envelope, tree, rank(tree, c.me.getID()));
+        return envelope.getMessage();
+    }
+
+    /**
+     * Send a message to the children of a member in the tree.
+     *
+     * @param envelope Message to be sent
+     * @param tree Members in tree order
+     * @param rank Position of the member in the tree
+     * @return Handle to check which children received the message
+     */
+    private Broadcast forward(Envelope envelope, List<Member> tree, int rank) {
+        List<Member> children = new ArrayList<>();
+        for(int child: children(rank, tree.size(), CHILDREN)) children.add(tree.get(child));
+        Broadcast broadcast = new MessagingThread(c, envelope.getMessage()).send(envelope, children);
+        broadcast.whenDone().thenAccept(done -> {
+            // A child that didn't receive the message can't pass it on, do it in its place
+            for(Member failed: done.getFailures().keySet()) forward(envelope, tree, rank(tree, failed.getID()));
+        });
+        return broadcast;
+    }
+
+    /**
+     * Get every member, this one included, in tree order for messages from an author.
+     *
+     * @param origin ID of the author
+     * @return Members ordered by ID, starting from the author and wrapping around.
+     *         If the author already left, the first position is null.
+     */
+    private List<Member> tree(int origin) {
+        List<Member> tree = new ArrayList<>(c.getMembers().snapshot());
+        tree.add(c.me);
+        tree.sort((m1, m2) -> Integer.compare(m1.getID(), m2.getID()));
+
+        int start = 0;
+        while(start < tree.size() && tree.get(start).getID() < origin) start++;
+        Collections.rotate(tree, -start);
+        if(tree.get(0).getID() != origin) tree.add(0, null); // Keep the same positions as members who still know the author
+        return tree;
+    }
+
+    /**
+     * Get the position of a member in the tree, by ID.
+     *
+     * @param tree Members in tree order, starting with null if the author left
+     * @param id ID of the member
+     * @return Position of the member, or -1 if it is not in the tree
+     */
+    private static int rank(List<Member> tree, int id) {
+        for(int i = 0; i < tree.size(); i++) {
+            Member m = tree.get(i);
+            if(m != null && m.getID() == id) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Get the positions of the children of a member in the tree.
+     *
+     * @param rank Position of the member
+     * @param size Number of members in the tree
+     * @param arity Maximum number of children of each member
+     * @return Positions of the children
+     */
+    protected static int[] children(int rank, int size, int arity) {
+        if(rank < 0) return new int[0];
+        long first = (long)arity * rank + 1;
+        int count = (int)Math.max(0, Math.min(arity, size - first));
+        int[] children = new int[count];
+        for(int i = 0; i < count; i++) children[i] = (int)first + i;
+        return children;
+    }
+}
@@ -0,0 +1,28 @@
+package ChatRoom;
+
+import java.io.Serializable;
+
+/**
+ * Report sent to the coordinator by a member who could not send to another member.
+ * The coordinator checks the member and removes it if it is really gone (see CoordinatorThread).
+ *
+ * @author Abdullah
+ */
+class Unreachable implements Serializable {
+
+    private final int reporter; // ID of the member who could not send
+    private final int id; // ID of the member who could not be reached
+
+    public Unreachable(int reporter, int id) {
+        this.reporter = reporter;
+        this.id = id;
+    }
+
+    public int getReporter() { return reporter; }
+    public int getID() { return id; }
+
+    @Override
+    public String toString() {
+        return "Unreachable{reporter=" + reporter + ", id=" + id + "}";
+    }
+}
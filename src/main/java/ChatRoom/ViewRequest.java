@@ -0,0 +1,30 @@
+package ChatRoom;
+
+import java.io.Serializable;
+
+/**
+ * Request sent by a member that missed membership changes, asking another member for
+ * the changes made since the last epoch it knows about (see Membership).
+ *
+ * @author Abdullah
+ */
+class ViewRequest implements Serializable {
+
+    protected static final long FULL = -1; // Epoch asking for every member, e.g. when the views of two members differ
+
+    private final int requester; // ID of the member behind
+    private final long epoch; // Every change up to this epoch is known by the requester
+
+    public ViewRequest(int requester, long epoch) {
+        this.requester = requester;
+        this.epoch = epoch;
+    }
+
+    public int getRequester() { return requester; }
+    public long getEpoch() { return epoch; }
+
+    @Override
+    public String toString() {
+        return "ViewRequest{requester=" + requester + ", epoch=" + epoch + "}";
+    }
+}
@@ -0,0 +1,526 @@
+package ChatRoom;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact binary encoding of the objects sent between members.
+ *
+ * Java serialization writes class descriptors and whole object graphs, which is a lot of
+ * bytes next to a short chat message. This codec writes only the fields:
+ *      - numbers as varints (7 bits per byte)
+ *      - strings as a varint length followed by UTF-8 bytes
+ *      - timestamps as epoch milliseconds
+ *
+ * Every payload starts with a format byte, so Java serialization can still be used for
+ * objects this codec doesn't know, or by members that disabled it (see Frames).
+ *
+ * @author Abdullah
+ */
+final class WireCodec {
+
+    // Format of the payload (first byte)
+    protected static final byte JAVA = 0; // Java serialization
+    protected static final byte BINARY_V1 = 1; // This codec, version 1
+    protected static final byte DEFLATE = 2; // Another payload, compressed (see Compressor)
+
+    // Type of object (second byte)
+    private static final byte MESSAGE = 1;
+    private static final byte MEMBER = 2;
+    private static final byte MEMBER_LIST = 3;
+    private static final byte BATCH = 4; // Many frames sent together
+    private static final byte ENVELOPE = 5;
+    private static final byte NACK = 6;
+    private static final byte DICTIONARY = 7;
+    private static final byte MEMBERSHIP_DELTA = 8;
+    private static final byte VIEW_REQUEST = 9;
+    private static final byte MEMBERSHIP_VIEW = 10;
+    private static final byte UNREACHABLE = 11;
+    // 12 was Heartbeat, now a datagram (see HeartbeatChannel)
+    private static final byte SWIM = 13;
+    private static final byte ID_REQUEST = 14;
+    private static final byte ID_RANGE = 15;
+    private static final byte HISTORY_REQUEST = 16;
+    private static final byte HISTORY_CHUNK = 17;
+    private static final byte SEQUENCED = 18; // Another frame, sent reliably to one member
+    private static final byte DELIVERED = 19;
+
+    private static final int MESSAGE_ID = 0x80; // Set on the type of a message followed by its ID, so messages logged without one can still be read
+
+    private static final MessageType[] MESSAGE_TYPES = MessageType.values(); // New types must be added at the end of the enum
+    private static final MembershipDelta.Type[] DELTA_TYPES = MembershipDelta.Type.values(); // Same
+    private static final SwimMessage.Kind[] SWIM_KINDS = SwimMessage.Kind.values(); // Same
+    private static final SwimMessage.Update.Status[] SWIM_STATUSES = SwimMessage.Update.Status.values(); // Same
+    private static final IdRange.Status[] ID_STATUSES = IdRange.Status.values(); // Same
+
+    private WireCodec() {}
+
+    /**
+     * Check if an object can be encoded by this codec.
+     *
+     * @param obj Object to be sent
+     * @return True if the object is supported
+     */
+    protected static boolean supports(Object obj) {
+        if(obj instanceof Message || obj instanceof Member || obj instanceof Envelope || obj instanceof Nack || obj instanceof Dictionary
+                || obj instanceof MembershipDelta || obj instanceof ViewRequest || obj instanceof MembershipView || obj instanceof Unreachable
+                || obj instanceof SwimMessage || obj instanceof IdRequest || obj instanceof IdRange || obj instanceof HistoryRequest
+                || obj instanceof HistoryChunk || obj instanceof Delivered) return true;
+        if(obj instanceof Sequenced) return supports(((Sequenced)obj).getPayload());
+        if(obj instanceof List) {
+            for(Object o: (List<?>)obj) if(!(o instanceof Member)) return false;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Encode a supported object, including the format byte.
+     *
+     * @param obj Object to be sent
+     * @param out Where to write the bytes
+     */
+    protected static void encode(Object obj, Output out) {
+        out.write(BINARY_V1);
+        if(obj instanceof Message) {
+            out.write(MESSAGE);
+            writeMessage((Message)obj, out);
+        } else if(obj instanceof Member) {
+            out.write(MEMBER);
+            writeMember((Member)obj, out);
+        } else if(obj instanceof Envelope) {
+            Envelope envelope = (Envelope)obj;
+            out.write(ENVELOPE);
+            out.writeVarint(zigzag(envelope.getOrigin()));
+            out.writeVarint(envelope.getSeq());
+            out.writeVarint(envelope.getHops());
+            writeMessage(envelope.getMessage(), out);
+        } else if(obj instanceof Nack) {
+            Nack nack = (Nack)obj;
+            out.write(NACK);
+            out.writeVarint(zigzag(nack.getRequester()));
+            out.writeVarint(zigzag(nack.getOrigin()));
+            out.writeVarint(nack.getFrom());
+            out.writeVarint(nack.getTo());
+        } else if(obj instanceof Dictionary) {
+            byte[] bytes = ((Dictionary)obj).getBytes();
+            out.write(DICTIONARY);
+            out.writeVarint(((Dictionary)obj).getID() & 0xFFFFFFFFL);
+            out.writeVarint(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        } else if(obj instanceof MembershipDelta) {
+            out.write(MEMBERSHIP_DELTA);
+            writeDelta((MembershipDelta)obj, out);
+        } else if(obj instanceof ViewRequest) {
+            out.write(VIEW_REQUEST);
+            out.writeVarint(zigzag(((ViewRequest)obj).getRequester()));
+            out.writeVarint(((ViewRequest)obj).getEpoch());
+        } else if(obj instanceof MembershipView) {
+            MembershipView view = (MembershipView)obj;
+            out.write(MEMBERSHIP_VIEW);
+            out.writeVarint(view.getEpoch());
+            out.write(view.isFull()? 1 : 0);
+            if(view.isFull()) {
+                out.writeVarint(view.getMembers().size());
+                for(Member m: view.getMembers()) writeMember(m, out);
+                out.writeVarint(view.getAllocated());
+                out.writeVarint(view.getLeft().size());
+                for(int id: view.getLeft()) out.writeVarint(zigzag(id));
+            } else {
+                out.writeVarint(view.getDeltas().size());
+                for(MembershipDelta d: view.getDeltas()) writeDelta(d, out);
+            }
+        } else if(obj instanceof Unreachable) {
+            out.write(UNREACHABLE);
+            out.writeVarint(zigzag(((Unreachable)obj).getReporter()));
+            out.writeVarint(zigzag(((Unreachable)obj).getID()));
+        } else if(obj instanceof SwimMessage) {
+            SwimMessage swim = (SwimMessage)obj;
+            out.write(SWIM);
+            out.write(swim.getKind().ordinal());
+            out.writeVarint(zigzag(swim.getFrom()));
+            out.writeVarint(zigzag(swim.getTarget()));
+            out.writeVarint(swim.getSeq());
+            out.writeVarint(swim.getUpdates().size());
+            for(SwimMessage.Update u: swim.getUpdates()) {
+                out.write(u.getStatus().ordinal());
+                out.writeVarint(zigzag(u.getID()));
+                out.writeVarint(u.getIncarnation() & 0xFFFFFFFFL);
+            }
+        } else if(obj instanceof IdRequest) {
+            out.write(ID_REQUEST);
+            out.writeVarint(zigzag(((IdRequest)obj).getRequester()));
+            out.writeVarint(zigzag(((IdRequest)obj).getCount()));
+            out.writeString(((IdRequest)obj).getUsername());
+        } else if(obj instanceof IdRange) {
+            out.write(ID_RANGE);
+            out.write(((IdRange)obj).getStatus().ordinal());
+            out.writeVarint(zigzag(((IdRange)obj).getStart()));
+            out.writeVarint(zigzag(((IdRange)obj).getEnd()));
+        } else if(obj instanceof HistoryRequest) {
+            out.write(HISTORY_REQUEST);
+            out.writeVarint(zigzag(((HistoryRequest)obj).getRequester()));
+            out.writeVarint(((HistoryRequest)obj).getOffset());
+        } else if(obj instanceof HistoryChunk) {
+            HistoryChunk chunk = (HistoryChunk)obj;
+            out.write(HISTORY_CHUNK);
+            out.writeVarint(chunk.getNext());
+            out.writeVarint(chunk.getTotal());
+            out.writeVarint(chunk.getMessages().size());
+            for(Message m: chunk.getMessages()) writeMessage(m, out);
+        } else if(obj instanceof Sequenced) {
+            Sequenced sequenced = (Sequenced)obj;
+            out.write(SEQUENCED);
+            out.writeVarint(zigzag(sequenced.getSender()));
+            out.writeVarint(sequenced.getSeq());
+            out.writeVarint(sequenced.getBase());
+            encode(sequenced.getPayload(), out);
+        } else if(obj instanceof Delivered) {
+            out.write(DELIVERED);
+            out.writeVarint(zigzag(((Delivered)obj).getReceiver()));
+            out.writeVarint(((Delivered)obj).getNext());
+        } else {
+            List<?> members = (List<?>)obj;
+            out.write(MEMBER_LIST);
+            out.writeVarint(members.size());
+            for(Object m: members) writeMember((Member)m, out);
+        }
+    }
+
+    /**
+     * Decode an object encoded by this codec.
+     *
+     * @param in Payload, positioned just after the format byte
+     * @return The object that was sent
+     * @throws IOException If the payload is invalid
+     * @throws ClassNotFoundException If a batch contains an unknown Java object
+     */
+    protected static Object decode(ByteBuffer in) throws IOException, ClassNotFoundException {
+        try {
+            byte type = in.get();
+            switch(type) {
+                case MESSAGE:
+                    return readMessage(in);
+                case MEMBER:
+                    return readMember(in);
+                case MEMBER_LIST:
+                    int size = readCount(in, "member list size");
+                    ArrayList<Member> members = new ArrayList<>(size);
+                    for(int i = 0; i < size; i++) members.add(readMember(in));
+                    return members;
+                case BATCH:
+                    return readBatch(in);
+                case ENVELOPE:
+                    int origin = unzigzag(readVarint(in));
+                    long seq = readVarint(in);
+                    if(seq < 0) throw new IOException("Invalid message sequence number: " + seq);
+                    int hops = (int)readVarint(in);
+                    return new Envelope(origin, seq, hops, readMessage(in));
+                case NACK:
+                    return new Nack(unzigzag(readVarint(in)), unzigzag(readVarint(in)), readVarint(in), readVarint(in));
+                case DICTIONARY:
+                    int id = (int)readVarint(in);
+                    int length = readCount(in, "dictionary length");
+                    byte[] bytes = new byte[length];
+                    in.get(bytes);
+                    return new Dictionary(id, bytes);
+                case MEMBERSHIP_DELTA:
+                    return readDelta(in);
+                case VIEW_REQUEST:
+                    return new ViewRequest(unzigzag(readVarint(in)), readVarint(in));
+                case MEMBERSHIP_VIEW:
+                    long epoch = readVarint(in);
+                    boolean full = in.get() != 0;
+                    int count = readCount(in, "view size");
+                    if(full) {
+                        ArrayList<Member> everyone = new ArrayList<>(count);
+                        for(int i = 0; i < count; i++) everyone.add(readMember(in));
+                        int handedOut = (int)readVarint(in);
+                        int gone = readCount(in, "number of members who left");
+                        ArrayList<Integer> left = new ArrayList<>(gone);
+                        for(int i = 0; i < gone; i++) left.add(unzigzag(readVarint(in)));
+                        return MembershipView.full(epoch, everyone, handedOut, left);
+                    }
+                    ArrayList<MembershipDelta> deltas = new ArrayList<>(count);
+                    for(int i = 0; i < count; i++) deltas.add(readDelta(in));
+                    return MembershipView.deltas(epoch, deltas);
+                case UNREACHABLE:
+                    return new Unreachable(unzigzag(readVarint(in)), unzigzag(readVarint(in)));
+                case SWIM:
+                    return readSwim(in);
+                case ID_REQUEST:
+                    return new IdRequest(unzigzag(readVarint(in)), unzigzag(readVarint(in)), readString(in));
+                case ID_RANGE:
+                    int status = in.get();
+                    if(status < 0 || status >= ID_STATUSES.length) throw new IOException("Unknown ID range status: " + status);
+                    return new IdRange(unzigzag(readVarint(in)), unzigzag(readVarint(in)), ID_STATUSES[status]);
+                case HISTORY_REQUEST:
+                    return new HistoryRequest(unzigzag(readVarint(in)), (int)readVarint(in));
+                case HISTORY_CHUNK:
+                    int next = (int)readVarint(in);
+                    int total = (int)readVarint(in);
+                    int messages = readCount(in, "chunk size");
+                    ArrayList<Message> chunk = new ArrayList<>(messages);
+                    for(int i = 0; i < messages; i++) chunk.add(readMessage(in));
+                    return new HistoryChunk(next, total, chunk);
+                case SEQUENCED:
+                    int sender = unzigzag(readVarint(in));
+                    long number = readVarint(in);
+                    long base = readVarint(in);
+                    return new Sequenced(sender, number, base, Frames.decode(in.slice())); // The rest is the frame sent
+                case DELIVERED:
+                    return new Delivered(unzigzag(readVarint(in)), readVarint(in));
+                default:
+                    throw new IOException("Unknown object type: " + type);
+            }
+        } catch(BufferUnderflowException e) {
+            throw new IOException("Payload too short");
+        }
+    }
+
+    /**
+     * Encode frames already encoded by Frames into a single batch, including the format byte.
+     * Each frame is written as a varint length followed by its payload, without the header.
+     *
+     * @param frames Encoded frames, ready to be read
+     * @param out Where to write the bytes
+     */
+    protected static void encodeBatch(List<ByteBuffer> frames, Output out) {
+        out.write(BINARY_V1);
+        out.write(BATCH);
+        out.writeVarint(frames.size());
+        for(ByteBuffer frame: frames) {
+            int length = frame.remaining() - Frames.HEADER_SIZE;
+            out.writeVarint(length);
+            out.write(frame.array(), frame.arrayOffset() + frame.position() + Frames.HEADER_SIZE, length);
+        }
+    }
+
+    /**
+     * Encode a frame already encoded by Frames with the sequence number it is sent with, including
+     * the format byte. The payload of the frame is written as is, after the sequence number.
+     *
+     * @param sender ID of the member sending it
+     * @param seq Sequence number for the member it is sent to
+     * @param base Every sequence number below it was acknowledged by that member
+     * @param frame Encoded frame, ready to be read
+     * @param out Where to write the bytes
+     */
+    protected static void encodeSequenced(int sender, long seq, long base, ByteBuffer frame, Output out) {
+        out.write(BINARY_V1);
+        out.write(SEQUENCED);
+        out.writeVarint(zigzag(sender));
+        out.writeVarint(seq);
+        out.writeVarint(base);
+        out.write(frame.array(), frame.arrayOffset() + frame.position() + Frames.HEADER_SIZE, frame.remaining() - Frames.HEADER_SIZE);
+    }
+
+    private static Frames.Batch readBatch(ByteBuffer in) throws IOException, ClassNotFoundException {
+        int size = readCount(in, "batch size");
+        List<Object> objects = new ArrayList<>(size);
+        for(int i = 0; i < size; i++) {
+            int length = readCount(in, "frame length in batch");
+            ByteBuffer payload = in.slice();
+            payload.limit(length);
+            objects.add(Frames.decode(payload));
+            in.position(in.position() + length);
+        }
+        return new Frames.Batch(objects);
+    }
+
+    private static void writeMessage(Message message, Output out) {
+        out.write(message.getMessageType().ordinal() | (message.hasId()? MESSAGE_ID : 0));
+        out.writeVarint(message.getTime());
+        out.writeString(message.getUsername());
+        out.writeString(message.getContent());
+        if(message.hasId()) {
+            out.writeVarint(zigzag(message.getOrigin()));
+            out.writeVarint(message.getSeq());
+        }
+    }
+
+    private static Message readMessage(ByteBuffer in) throws IOException {
+        int flags = in.get() & 0xFF;
+        int type = flags & ~MESSAGE_ID;
+        if(type >= MESSAGE_TYPES.length) throw new IOException("Unknown message type: " + type);
+        long time = readVarint(in);
+        String userName = readString(in);
+        String content = readString(in);
+        if((flags & MESSAGE_ID) == 0) return new Message(userName, content, MESSAGE_TYPES[type], time);
+        int origin = unzigzag(readVarint(in));
+        long seq = readVarint(in);
+        if(origin < 0 || seq < 0) throw new IOException("Invalid message ID: " + origin + ", " + seq);
+        return new Message(userName, content, MESSAGE_TYPES[type], time, origin, seq);
+    }
+
+    private static void writeDelta(MembershipDelta delta, Output out) {
+        out.writeVarint(delta.getEpoch());
+        out.writeVarint(zigzag(delta.getOrigin()));
+        out.writeVarint(delta.getPrevious());
+        out.write(delta.getType().ordinal());
+        out.writeVarint(zigzag(delta.getID()));
+        out.write(delta.getMember() != null? 1 : 0);
+        if(delta.getMember() != null) writeMember(delta.getMember(), out);
+    }
+
+    private static MembershipDelta readDelta(ByteBuffer in) throws IOException {
+        long epoch = readVarint(in);
+        int origin = unzigzag(readVarint(in));
+        long previous = readVarint(in);
+        int type = in.get();
+        if(type < 0 || type >= DELTA_TYPES.length) throw new IOException("Unknown membership change: " + type);
+        int id = unzigzag(readVarint(in));
+        Member member = in.get() != 0? readMember(in) : null;
+        return new MembershipDelta(epoch, origin, previous, DELTA_TYPES[type], id, member);
+    }
+
+    private static SwimMessage readSwim(ByteBuffer in) throws IOException {
+        int kind = in.get();
+        if(kind < 0 || kind >= SWIM_KINDS.length) throw new IOException("Unknown SWIM message: " + kind);
+        int from = unzigzag(readVarint(in));
+        int target = unzigzag(readVarint(in));
+        long seq = readVarint(in);
+        int count = readCount(in, "update count");
+        ArrayList<SwimMessage.Update> updates = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            int status = in.get();
+            if(status < 0 || status >= SWIM_STATUSES.length) throw new IOException("Unknown member status: " + status);
+            updates.add(new SwimMessage.Update(SWIM_STATUSES[status], unzigzag(readVarint(in)), (int)readVarint(in)));
+        }
+        return new SwimMessage(SWIM_KINDS[kind], from, target, seq, updates);
+    }
+
+    private static void writeMember(Member member, Output out) {
+        out.writeVarint(zigzag(member.getID())); // ID can be -1
+        out.writeString(member.getUsername());
+        out.writeString(member.getAddress());
+        out.writeVarint(member.getPort());
+        out.write(member.isCoordinator()? 1 : 0);
+    }
+
+    private static Member readMember(ByteBuffer in) throws IOException {
+        int id = unzigzag(readVarint(in));
+        String userName = readString(in);
+        String address = readString(in);
+        int port = (int)readVarint(in);
+        boolean coordinator = in.get() != 0;
+        try {
+            Member member = new Member(userName, id, address, port);
+            if(coordinator) member.setCoordinator();
+            return member;
+        } catch(InvalidUsernameException e) {
+            throw new IOException("Invalid member: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Read a varint.
+     *
+     * @param in Buffer to read from
+     * @return The number
+     * @throws IOException If the varint is too long
+     */
+    protected static long readVarint(ByteBuffer in) throws IOException {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long)(b & 0x7F) << shift;
+            if((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Varint too long");
+    }
+
+    /**
+     * Read a number of items or bytes, checked against the bytes left before anything is allocated for them:
+     * every item takes at least one byte.
+     *
+     * @param in Buffer to read from
+     * @param what What is counted, for the error message
+     * @return The number
+     * @throws IOException If the number is negative or more than the bytes left
+     */
+    protected static int readCount(ByteBuffer in, String what) throws IOException {
+        long count = readVarint(in);
+        if(count < 0 || count > in.remaining()) throw new IOException("Invalid " + what + ": " + count);
+        return (int)count;
+    }
+
+    /**
+     * Read a string written with Output.writeString().
+     *
+     * @param in Buffer to read from
+     * @return The string
+     * @throws IOException If the length is invalid
+     */
+    protected static String readString(ByteBuffer in) throws IOException {
+        int length = readCount(in, "string length");
+        if(!in.hasArray()) { // e.g. memory-mapped buffers
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        String s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+
+    private static long zigzag(int n) { return ((n << 1) ^ (n >> 31)) & 0xFFFFFFFFL; }
+    private static int unzigzag(long n) { return (int)(n >>> 1) ^ -(int)(n & 1); }
+
+    /**
+     * Growable byte array with helpers to write varints and strings.
+     * Unlike ByteArrayOutputStream, writes are not synchronized.
+     */
+    protected static class Output extends OutputStream {
+
+        private byte[] buf = new byte[64];
+        private int count = 0;
+
+        @Override
+        public void write(int b) {
+            if(count == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+            buf[count++] = (byte)b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if(count + len > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + len));
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        public void writeVarint(long value) {
+            while((value & ~0x7FL) != 0) {
+                write((int)((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int)value);
+        }
+
+        public void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        /**
+         * Get the number of bytes written so far.
+         *
+         * @return Number of bytes
+         */
+        public int size() { return count; }
+
+        /**
+         * Get the bytes written so far, without copying them.
+         *
+         * @return Buffer wrapping the internal array
+         */
+        public ByteBuffer toByteBuffer() { return ByteBuffer.wrap(buf, 0, count); }
+    }
+}
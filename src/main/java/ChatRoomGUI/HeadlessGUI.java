@@ -0,0 +1,52 @@
+package ChatRoomGUI;
+
+import ChatRoom.ClientGUI;
+import ChatRoom.Member;
+import ChatRoom.Message;
+import javax.swing.AbstractButton;
+import javax.swing.JButton;
+import javax.swing.JTextArea;
+import javax.swing.text.JTextComponent;
+
+/**
+ * User Interface used when no display is available (e.g. servers, CI machines).
+ *
+ * Nothing is drawn on screen, but the components are still available so the client
+ * can be driven exactly as if the normal interface was hidden.
+ *
+ * @author Abdullah
+ */
+public class HeadlessGUI implements ClientGUI {
+
+    private final JButton sendButton = new JButton("Send");
+    private final JTextArea messageInput = new JTextArea();
+
+    private final String PLACEHOLDER_TEXT = "Type your message here...";
+
+    @Override
+    public AbstractButton getSendButton() { return sendButton; }
+
+    @Override
+    public JTextComponent getMessageInput() { return messageInput; }
+
+    @Override
+    public String getPlaceholderText() { return PLACEHOLDER_TEXT; }
+
+    @Override
+    public void addMember(Member newMember) {}
+
+    @Override
+    public void clearMembersList() {}
+
+    @Override
+    public void refreshMembersList() {}
+
+    @Override
+    public void addMessage(Message message, boolean myMessage) {}
+
+    @Override
+    public void setVisibility(boolean visible) {}
+
+    @Override
+    public void terminate() {}
+}
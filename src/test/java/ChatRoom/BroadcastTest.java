@@ -0,0 +1,112 @@
+package ChatRoom;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test sending a message to every member at once.
+ *
+ * @author iAbdu
+ */
+public class BroadcastTest {
+
+    /**
+     * Test if a member that cannot be reached doesn't prevent others from receiving a message,
+     * and if the broadcast reports the result for each member.
+     */
+    @Test
+    public void testDeadMemberReported() throws Exception {
+        System.out.println("testDeadMemberReported()");
+
+        TestClient dmr_c1 = TestClient.buildTestClient("m1", TestClient.EMPTY_MEMBER);
+        TestClient dmr_c2 = TestClient.buildTestClient("m2", dmr_c1.me);
+
+        // Member that left without telling anyone: nothing is listening on its port
+        int freePort;
+        try (ServerSocket s = new ServerSocket(0)) {
+            freePort = s.getLocalPort();
+        }
+        Member dead = new Member("dead", 99, "localhost", freePort);
+        dmr_c2.getMembers().add(dead);
+
+        Broadcast broadcast = dmr_c2.sendMessage(new Message("m2", "Is anyone there?", MessageType.MESSAGE));
+        assertTrue(broadcast.await(MessagingThread.SEND_TIMEOUT * 2, TimeUnit.MILLISECONDS));
+
+        assertEquals(2, broadcast.getMembers().size());
+        assertEquals(1, broadcast.getDelivered().size());
+        assertEquals(dmr_c1.me.getID(), broadcast.getDelivered().get(0).getID());
+
+        Map<Member, Throwable> failures = broadcast.getFailures();
+        assertEquals(1, failures.size());
+        assertTrue(failures.containsKey(dead));
+        assertTrue(broadcast.getLatency(TimeUnit.NANOSECONDS) > 0);
+
+        Thread.sleep(1000);
+        assertEquals("Is anyone there?", dmr_c1.getAllMessages().get(dmr_c1.getAllMessages().size() - 1).getContent());
+
+        dmr_c2.quit();
+        dmr_c1.quit();
+    }
+
+    /**
+     * Test if members slow to connect to don't hold up sending to the others, even with every one of them being written to.
+     */
+    @Test
+    public void testSlowMembersDontHoldUpOthers() throws Exception {
+        System.out.println("testSlowMembersDontHoldUpOthers()");
+
+        TestClient smdhuo_c1 = TestClient.buildTestClient("m1", TestClient.EMPTY_MEMBER);
+        TestClient smdhuo_c2 = TestClient.buildTestClient("m2", smdhuo_c1.me);
+
+        // Members that never accept connections: once their backlog is full, connecting hangs until the timeout
+        List<ServerSocket> servers = new ArrayList<>();
+        List<Socket> queued = new ArrayList<>();
+        for(int i = 0; i < 8; i++) {
+            ServerSocket server = new ServerSocket(0, 1);
+            servers.add(server);
+            for(int j = 0; j < 2; j++) {
+                Socket s = new Socket();
+                s.connect(new InetSocketAddress("localhost", server.getLocalPort()), 100);
+                queued.add(s);
+            }
+            smdhuo_c2.getMembers().add(new Member("slow" + i, 100 + i, "localhost", server.getLocalPort()));
+        }
+
+        smdhuo_c2.sendMessage(new Message("m2", "Anyone?", MessageType.MESSAGE)); // Keeps connecting to the slow members
+        long start = System.nanoTime();
+        smdhuo_c2.sendMessage(new Message("m2", "Still there?", MessageType.MESSAGE));
+        while(!smdhuo_c1.getAllMessages().get(smdhuo_c1.getAllMessages().size() - 1).getContent().equals("Still there?")) {
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(PeerConnection.CONNECT_TIMEOUT));
+            Thread.sleep(10);
+        }
+
+        for(Socket s: queued) s.close();
+        for(ServerSocket server: servers) server.close();
+        smdhuo_c2.quit();
+        smdhuo_c1.quit();
+    }
+
+    /**
+     * Test if a broadcast without other members is done straight away.
+     */
+    @Test
+    public void testNoMembers() throws Exception {
+        System.out.println("testNoMembers()");
+
+        TestClient nm_c1 = TestClient.buildTestClient("m1", TestClient.EMPTY_MEMBER);
+        Broadcast broadcast = nm_c1.sendMessage(new Message("m1", "Hello?", MessageType.MESSAGE));
+        assertTrue(broadcast.isDone());
+        assertTrue(broadcast.getMembers().isEmpty());
+        assertTrue(broadcast.getFailures().isEmpty());
+
+        nm_c1.quit();
+    }
+}
@@ -0,0 +1,85 @@
+package ChatRoom;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures how many members can join per second, when they join at the same time through
+ * different members, and checks that no ID is given twice.
+ *
+ * IDs are taken from ranges handed out by the coordinator (see IdAllocator). Run again with
+ * -Dchatroom.ids.range=16 to ask the coordinator once every 16 joins:
+ *      java -cp target/classes:target/test-classes ChatRoom.ChurnBenchmark [entry members] [joiners]
+ *
+ * @author iAbdu
+ */
+public class ChurnBenchmark {
+
+    private static final AtomicInteger port = new AtomicInteger(22000);
+
+    public static void main(String[] args) throws Exception {
+        int entries = args.length > 0? Integer.parseInt(args[0]) : 4;
+        int joiners = args.length > 1? Integer.parseInt(args[1]) : 40;
+        System.setProperty("java.awt.headless", "true");
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(new OutputStream() { @Override public void write(int b) {} })); // Clients are very chatty
+
+        List<Client> clients = new ArrayList<>();
+        clients.add(join("e0", null));
+        for(int i = 1; i < entries; i++) clients.add(join("e" + i, clients.get(0)));
+        Thread.sleep(1000);
+
+        // Everyone joins at once, spread over the entry members
+        ExecutorService joining = Executors.newFixedThreadPool(joiners);
+        List<Future<Client>> joins = new ArrayList<>();
+        long start = System.nanoTime();
+        for(int i = 0; i < joiners; i++) {
+            Client through = clients.get(i % entries);
+            String username = "j" + i;
+            joins.add(joining.submit(() -> join(username, through)));
+        }
+        int failed = 0;
+        for(Future<Client> join: joins) {
+            try {
+                clients.add(join.get());
+            } catch(Exception e) {
+                failed++;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        joining.shutdown();
+
+        Set<Integer> ids = new HashSet<>();
+        long ranges = 0;
+        for(Client c: clients) {
+            ids.add(c.me.getID());
+            ranges += c.getIds().getStats().get("ranges");
+        }
+        for(Client c: clients) c.quit();
+
+        System.setOut(console);
+        System.out.println("entry members=" + entries + " joiners=" + joiners + " range=" + IdAllocator.RANGE);
+        System.out.println(String.format("joined: %d in %.2fs (%.1f joins/s), failed: %d", joiners - failed, seconds, (joiners - failed) / seconds, failed));
+        System.out.println("ranges asked to the coordinator: " + ranges + ", IDs given twice: " + (clients.size() - ids.size()));
+        System.exit(0);
+    }
+
+    private static Client join(String username, Client through) throws Exception {
+        while(true) {
+            Member m = new Member(username, -1, "localhost", port.getAndIncrement());
+            try {
+                if(through == null) return new Client(m, false, "", 0);
+                return new Client(m, false, through.me.getAddress(), through.me.getPort());
+            } catch(PortNotAvailbleException e) {}
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package ChatRoom;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares Java serialization and the binary codec: bytes per frame and encode/decode time.
+ *
+ *      java -cp target/classes:target/test-classes ChatRoom.CodecBenchmark
+ *
+ * @author iAbdu
+ */
+public class CodecBenchmark {
+
+    private static final int WARMUP = 50_000;
+    private static final int ITERATIONS = 200_000;
+
+    public static void main(String[] args) throws Exception {
+        List<Member> members = new ArrayList<>();
+        for(int i = 0; i < 20; i++) members.add(new Member("member" + i, i, "192.168.1." + (10 + i), 5000 + i));
+
+        run("chat message", new Message("alice", "Are we still on for lunch?", MessageType.MESSAGE));
+        run("command", new MembershipDelta(42, 0, MembershipDelta.Type.JOIN, 12, new Member("bob", 12, "192.168.1.22", 5012)));
+        run("member", members.get(3));
+        run("member list (20)", members);
+    }
+
+    private static void run(String name, Object obj) throws Exception {
+        System.out.println(name + ":");
+        for(boolean binary: new boolean[] {false, true}) {
+            ByteBuffer frame = Frames.encode(obj, binary);
+            int length = frame.limit() - Frames.HEADER_SIZE;
+
+            long sink = 0;
+            for(int i = 0; i < WARMUP; i++) sink += Frames.encode(obj, binary).limit();
+            long start = System.nanoTime();
+            for(int i = 0; i < ITERATIONS; i++) sink += Frames.encode(obj, binary).limit();
+            long encode = (System.nanoTime() - start) / ITERATIONS;
+
+            for(int i = 0; i < WARMUP; i++) sink += Frames.decode(frame.array(), Frames.HEADER_SIZE, length).hashCode();
+            start = System.nanoTime();
+            for(int i = 0; i < ITERATIONS; i++) sink += Frames.decode(frame.array(), Frames.HEADER_SIZE, length).hashCode();
+            long decode = (System.nanoTime() - start) / ITERATIONS;
+
+            System.out.println(String.format("  %-6s %6d bytes/frame  encode %6d ns/op  decode %6d ns/op  (%d)", binary? "binary" : "java", frame.limit(), encode, decode, sink & 1));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package ChatRoom;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compares the old text commands ("newMember:username:id:address:port", split on ":") and the
+ * typed commands: bytes per frame and time to build and to parse one command.
+ *
+ *      java -cp target/classes:target/test-classes ChatRoom.CommandBenchmark
+ *
+ * @author iAbdu
+ */
+public class CommandBenchmark {
+
+    private static final int WARMUP = 100_000;
+    private static final int ITERATIONS = 1_000_000;
+
+    private static volatile Object last; // Keeps the commands built from being optimised away
+
+    public static void main(String[] args) throws Exception {
+        Member m = new Member("bob", 12, "192.168.1.22", 5012);
+
+        System.out.println("newMember:");
+        runText(() -> "newMember:" + m.getUsername() + ":" + m.getID() + ":" + m.getAddress() + ":" + m.getPort());
+        runTyped(() -> new MembershipDelta(42, 0, MembershipDelta.Type.JOIN, m.getID(), m));
+
+        System.out.println("removeMember:");
+        runText(() -> "removeMember:" + m.getID());
+        runTyped(() -> new MembershipDelta(43, 0, MembershipDelta.Type.LEAVE, m.getID(), null));
+
+        System.out.println("unreachable:");
+        runText(() -> "unreachable:" + m.getID());
+        runTyped(() -> new Unreachable(3, m.getID()));
+    }
+
+    private interface Builder {
+        public Object build() throws Exception;
+    }
+
+    /**
+     * Build the command as a COMMAND message and parse it the way the Dispatcher used to.
+     */
+    private static void runText(Builder builder) throws Exception {
+        Message message = new Message("alice", (String)builder.build(), MessageType.COMMAND);
+        ByteBuffer frame = Frames.encode(message);
+        int length = frame.limit() - Frames.HEADER_SIZE;
+
+        long sink = 0;
+        for(int i = 0; i < WARMUP; i++) {
+            last = builder.build();
+            sink += parseText((Message)Frames.decode(frame.array(), Frames.HEADER_SIZE, length));
+        }
+        long start = System.nanoTime();
+        for(int i = 0; i < ITERATIONS; i++) last = builder.build();
+        long build = (System.nanoTime() - start) / (ITERATIONS / 1000);
+        start = System.nanoTime();
+        for(int i = 0; i < ITERATIONS; i++) sink += parseText((Message)Frames.decode(frame.array(), Frames.HEADER_SIZE, length));
+        long parse = (System.nanoTime() - start) / (ITERATIONS / 1000);
+        print("text", frame.limit(), build, parse, sink);
+    }
+
+    private static int parseText(Message message) {
+        String command = message.getContent().split(":")[0];
+        String param = message.getContent().split(":", 2)[1];
+        if(command.equals("newMember")) {
+            String[] fields = param.split(":");
+            return fields[0].length() + Integer.parseInt(fields[1]) + fields[2].length() + Integer.parseInt(fields[3]);
+        }
+        return Integer.parseInt(param);
+    }
+
+    /**
+     * Build the typed command and decode it, including the lookup of its handler.
+     */
+    private static void runTyped(Builder builder) throws Exception {
+        ByteBuffer frame = Frames.encode(builder.build());
+        int length = frame.limit() - Frames.HEADER_SIZE;
+        Map<Class<?>, Integer> handlers = new HashMap<>(); // Same lookup as the Dispatcher
+        handlers.put(Message.class, 1);
+        handlers.put(MembershipDelta.class, 2);
+        handlers.put(Unreachable.class, 3);
+
+        long sink = 0;
+        for(int i = 0; i < WARMUP; i++) {
+            last = builder.build();
+            sink += handlers.get(Frames.decode(frame.array(), Frames.HEADER_SIZE, length).getClass());
+        }
+        long start = System.nanoTime();
+        for(int i = 0; i < ITERATIONS; i++) last = builder.build();
+        long build = (System.nanoTime() - start) / (ITERATIONS / 1000);
+        start = System.nanoTime();
+        for(int i = 0; i < ITERATIONS; i++) sink += handlers.get(Frames.decode(frame.array(), Frames.HEADER_SIZE, length).getClass());
+        long parse = (System.nanoTime() - start) / (ITERATIONS / 1000);
+        print("typed", frame.limit(), build, parse, sink);
+    }
+
+    private static void print(String name, int bytes, long build, long parse, long sink) {
+        System.out.println(String.format("  %-6s %4d bytes/frame  build %7.1f ns/op  parse %7.1f ns/op  (%d)", name, bytes, build / 1000.0, parse / 1000.0, sink & 1));
+    }
+}
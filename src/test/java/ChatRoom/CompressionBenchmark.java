@@ -0,0 +1,107 @@
+package ChatRoom;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compression ratio and CPU cost of frame compression on synthetic chat traffic,
+ * with no dictionary, the primer alone, and the primer with the members of the room.
+ *
+ *      java -cp target/classes:target/test-classes ChatRoom.CompressionBenchmark
+ *
+ * @author iAbdu
+ */
+public class CompressionBenchmark {
+
+    private static final int MEMBERS = 50;
+    private static final int FRAMES = 2_000;
+    private static final int ROUNDS = 20;
+
+    private static final String[] WORDS = ("the you and that have for not with this but what how are was just can will all " +
+            "know think good yes no ok okay thanks please sorry sure maybe now today tomorrow hello hi hey everyone " +
+            "lunch meeting later code build test deploy coffee weekend game movie lol :) ? !").split(" ");
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(42);
+        List<Member> members = new ArrayList<>();
+        for(int i = 0; i < MEMBERS; i++) members.add(new Member("user" + random.nextInt(10_000), i, "192.168.1." + (10 + i), 5000 + i));
+
+        // Chat messages of 3 to 20 words, mentioning a member now and then
+        List<ByteBuffer> chat = new ArrayList<>();
+        for(int i = 0; i < FRAMES; i++) {
+            StringBuilder content = new StringBuilder();
+            int words = 3 + random.nextInt(18);
+            for(int w = 0; w < words; w++) {
+                if(w > 0) content.append(' ');
+                content.append(random.nextInt(8) == 0? members.get(random.nextInt(MEMBERS)).getUsername() : WORDS[random.nextInt(WORDS.length)]);
+            }
+            chat.add(Frames.encode(new Message(members.get(random.nextInt(MEMBERS)).getUsername(), content.toString(), MessageType.MESSAGE)));
+        }
+
+        // Commands sent by the coordinator as members join and leave
+        List<ByteBuffer> commands = new ArrayList<>();
+        for(int i = 0; i < FRAMES; i++) {
+            Member m = members.get(random.nextInt(MEMBERS));
+            Object command;
+            switch(random.nextInt(3)) {
+                case 0: command = new MembershipDelta(i, 0, MembershipDelta.Type.JOIN, m.getID(), m); break;
+                case 1: command = new MembershipDelta(i, 0, MembershipDelta.Type.LEAVE, m.getID(), null); break;
+                default: command = new Unreachable(members.get(1).getID(), m.getID());
+            }
+            commands.add(Frames.encode(command));
+        }
+
+        // Chat messages piled up and sent as batches of 16
+        List<ByteBuffer> batches = new ArrayList<>();
+        for(int i = 0; i + 16 <= chat.size(); i += 16) batches.add(Frames.batch(chat.subList(i, i + 16)));
+
+        Dictionary none = new Dictionary(0, new byte[0]);
+        Dictionary primer = Compressor.build(Arrays.asList());
+        Dictionary room = Compressor.build(members);
+        System.out.println("Dictionary: primer " + primer.getBytes().length + " bytes, with " + MEMBERS + " members " + room.getBytes().length + " bytes");
+
+        for(String corpus: new String[] {"chat messages", "commands", "batches of 16"}) {
+            List<ByteBuffer> frames = corpus.equals("chat messages")? chat : corpus.equals("commands")? commands : batches;
+            System.out.println(corpus + ":");
+            run("none", frames, none);
+            run("primer", frames, primer);
+            run("room", frames, room);
+        }
+    }
+
+    private static void run(String name, List<ByteBuffer> frames, Dictionary dictionary) throws Exception {
+        Compressor compressor = new Compressor();
+        Decompressor decompressor = new Decompressor();
+        decompressor.setDictionary(dictionary);
+
+        long original = 0, compressed = 0, skipped = 0, compressTime = 0, inflateTime = 0, sink = 0;
+        for(int round = 0; round < ROUNDS; round++) {
+            boolean measure = round >= ROUNDS / 2; // First rounds are warm-up
+            List<ByteBuffer> results = new ArrayList<>(frames.size());
+            long start = System.nanoTime();
+            for(ByteBuffer frame: frames) results.add(compressor.compress(frame, dictionary));
+            if(measure) compressTime += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for(ByteBuffer result: results) sink += Frames.decode(result.array(), Frames.HEADER_SIZE, result.limit() - Frames.HEADER_SIZE, decompressor).hashCode();
+            if(measure) inflateTime += System.nanoTime() - start;
+
+            if(round == 0) {
+                for(int i = 0; i < frames.size(); i++) {
+                    original += frames.get(i).limit();
+                    compressed += results.get(i).limit();
+                    if(results.get(i) == frames.get(i)) skipped++;
+                }
+            }
+        }
+        decompressor.close();
+
+        long ops = (long)frames.size() * (ROUNDS - ROUNDS / 2);
+        System.out.println(String.format("  %-7s %7.1f -> %6.1f bytes/frame  ratio %5.2f  sent as is %3d%%  compress %6d ns/op  decode %6d ns/op  (%d)",
+                name, (double)original / frames.size(), (double)compressed / frames.size(), (double)original / compressed,
+                100 * skipped / frames.size(), compressTime / ops, inflateTime / ops, sink & 1));
+    }
+}
@@ -0,0 +1,161 @@
+package ChatRoom;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test the compression of frames with a dictionary.
+ *
+ * @author iAbdu
+ */
+public class CompressionTest {
+
+    private static List<Member> room() throws Exception {
+        List<Member> members = new ArrayList<>();
+        for(int i = 0; i < 10; i++) members.add(new Member("member" + i, i, "192.168.1." + (10 + i), 5000 + i));
+        return members;
+    }
+
+    /**
+     * Decode a full frame received on a connection.
+     */
+    private static Object decode(ByteBuffer frame, Decompressor decompressor) throws Exception {
+        assertEquals(frame.limit() - Frames.HEADER_SIZE, frame.getInt(0));
+        return Frames.decode(frame.array(), Frames.HEADER_SIZE, frame.limit() - Frames.HEADER_SIZE, decompressor);
+    }
+
+    /**
+     * Test if a compressed command is restored, and is smaller than the original.
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        Compressor compressor = new Compressor();
+        compressor.train(room());
+        Dictionary dictionary = compressor.getDictionary();
+
+        MembershipDelta m = new MembershipDelta(12, 3, MembershipDelta.Type.JOIN, 9, room().get(9));
+        ByteBuffer frame = Frames.encode(m);
+        ByteBuffer compressed = compressor.compress(frame, dictionary);
+        assertEquals(WireCodec.DEFLATE, compressed.get(Frames.HEADER_SIZE));
+        assertTrue(compressed.limit() < frame.limit()); // Already binary, the member's details come from the dictionary
+
+        Decompressor decompressor = new Decompressor();
+        decompressor.setDictionary((Dictionary)decode(Frames.encode(dictionary), null));
+        MembershipDelta decoded = (MembershipDelta)decode(compressed, decompressor);
+        assertEquals(m, decoded);
+        assertEquals(m.getMember(), decoded.getMember());
+        decompressor.close();
+    }
+
+    /**
+     * Test if small frames are sent as they are.
+     */
+    @Test
+    public void testThreshold() throws Exception {
+        Compressor compressor = new Compressor();
+        ByteBuffer small = Frames.encode(new Message("m1", "hi", MessageType.MESSAGE));
+        assertTrue(small.limit() - Frames.HEADER_SIZE < Compressor.MIN_SIZE);
+        assertSame(small, compressor.compress(small, compressor.getDictionary()));
+    }
+
+    /**
+     * Test if frames compressed by many connections at the same time are all restored.
+     */
+    @Test
+    public void testConcurrentCompression() throws Exception {
+        Compressor compressor = new Compressor();
+        compressor.train(room());
+        Dictionary dictionary = compressor.getDictionary();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> results = new ArrayList<>();
+        for(int t = 0; t < 8; t++) {
+            int thread = t;
+            results.add(pool.submit(() -> {
+                Decompressor decompressor = new Decompressor();
+                decompressor.setDictionary(dictionary);
+                for(int i = 0; i < 500; i++) {
+                    Message message = new Message("member" + thread, "message " + i + " from member" + thread + ", thanks everyone", MessageType.MESSAGE);
+                    assertEquals(message, decode(compressor.compress(Frames.encode(message), dictionary), decompressor));
+                }
+                decompressor.close();
+                return null;
+            }));
+        }
+        for(Future<?> result: results) result.get();
+        pool.shutdown();
+    }
+
+    /**
+     * Test if a compressed frame is refused without the dictionary it was compressed with.
+     */
+    @Test
+    public void testUnknownDictionary() throws Exception {
+        Compressor compressor = new Compressor();
+        ByteBuffer compressed = compressor.compress(Frames.encode(new Message("m1", "hello everyone, thanks for having me in this chat", MessageType.MESSAGE)), compressor.getDictionary());
+        try {
+            decode(compressed, null);
+            fail("Compressed frame decoded without a decompressor");
+        } catch(IOException e) {}
+        try {
+            decode(compressed, new Decompressor());
+            fail("Compressed frame decoded without a dictionary");
+        } catch(IOException e) {}
+    }
+
+    /**
+     * Test if a connection announces the dictionary before using it, and keeps using it once it changes.
+     * The new dictionary is only announced on the next connection.
+     */
+    @Test
+    public void testDictionaryAnnounced() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            Compressor compressor = new Compressor();
+            PeerConnection conn = new PeerConnection(new Member("receiver", 1, "localhost", server.getLocalPort()), compressor);
+            Message first = new Message("sender", "hello everyone, thanks for having me in this chat", MessageType.MESSAGE);
+            Message second = new Message("sender", "member9 is that you? thanks for joining the chat", MessageType.MESSAGE);
+
+            conn.send(first);
+            try (Socket s = server.accept()) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                Decompressor decompressor = new Decompressor();
+                Object obj = Frames.read(in, decompressor);
+                assertEquals(compressor.getDictionary(), obj);
+                decompressor.setDictionary((Dictionary)obj);
+                assertEquals(first, Frames.read(in, decompressor));
+
+                compressor.train(room());
+                conn.send(second);
+                assertEquals(second, Frames.read(in, decompressor)); // Not announced again
+                decompressor.close();
+            }
+
+            conn.close();
+            conn.send(first);
+            try (Socket s = server.accept()) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                Decompressor decompressor = new Decompressor();
+                Object obj = Frames.read(in, decompressor);
+                assertEquals(compressor.getDictionary(), obj);
+                decompressor.setDictionary((Dictionary)obj);
+                assertEquals(first, Frames.read(in, decompressor));
+                decompressor.close();
+            } finally {
+                conn.terminate();
+            }
+        }
+    }
+}
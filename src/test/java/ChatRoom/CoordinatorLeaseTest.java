@@ -0,0 +1,55 @@
+package ChatRoom;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the lease of the coordinator and the chain of successors.
+ *
+ * @author iAbdu
+ */
+public class CoordinatorLeaseTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Test if each successor takes over one step after the one before it.
+     */
+    @Test
+    public void testSuccessorsWaitTheirTurn() throws Exception {
+        CoordinatorLease lease = new CoordinatorLease(2000, 1000);
+        lease.renew(0);
+
+        assertFalse(lease.isExpired(0, 1999 * MS));
+        assertTrue(lease.isExpired(0, 2001 * MS));
+        assertFalse(lease.isExpired(1, 2999 * MS));
+        assertTrue(lease.isExpired(1, 3001 * MS));
+        assertTrue(lease.isExpired(2, 4001 * MS));
+
+        lease.renew(3500 * MS); // A new coordinator
+        assertFalse(lease.isExpired(2, 4001 * MS));
+    }
+
+    /**
+     * Test if the successors are the first members by ID after the coordinator.
+     */
+    @Test
+    public void testRank() throws Exception {
+        MemberTable members = new MemberTable();
+        Member coordinator = new Member("m0", 0, "localhost", 5000);
+        coordinator.setCoordinator();
+        members.add(coordinator);
+        for(int i = 1; i <= 5; i++) members.add(new Member("m" + i, i, "localhost", 5000 + i));
+
+        for(int i = 1; i <= CoordinatorLease.SUCCESSORS; i++) {
+            MemberTable others = new MemberTable();
+            for(Member m: members) if(m.getID() != i) others.add(m);
+            assertEquals(i - 1, CoordinatorLease.rank(i, others.snapshot()));
+        }
+        members.removeById(5);
+        assertEquals(-1, CoordinatorLease.rank(5, members.snapshot())); // Too far in the chain
+    }
+}
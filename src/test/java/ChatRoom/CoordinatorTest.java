@@ -1,6 +1,11 @@
 package ChatRoom;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashSet;
+import java.util.Set;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
 /**
@@ -47,4 +52,72 @@ public class CoordinatorTest {
         
         assertEquals(c3.getAllMessages().get(c3.getAllMessages().size() - 1), c2.getAllMessages().get(c2.getAllMessages().size() - 1));
     }
+    
+    /**
+     * Test if the second successor takes over when the coordinator and the first successor leave together.
+     */
+    @Test
+    public void testSuccessorChain() throws Exception {
+        System.out.println("testSuccessorChain()");
+        
+        TestClient sc_c1 = TestClient.buildTestClient("m1", TestClient.EMPTY_MEMBER);
+        TestClient sc_c2 = TestClient.buildTestClient("m2", sc_c1.me);
+        TestClient sc_c3 = TestClient.buildTestClient("m3", sc_c1.me);
+        TestClient sc_c4 = TestClient.buildTestClient("m4", sc_c1.me);
+        
+        // Coordinator and next coordinator leave
+        sc_c2.quit();
+        sc_c1.quit();
+        
+        Thread.sleep(CoordinatorLease.LEASE + CoordinatorLease.STEP + 2000);
+        
+        assertTrue(sc_c3.me.isCoordinator());
+        assertEquals(1, sc_c4.getMembers().size());
+        assertTrue(sc_c4.getMembers().get(0).isCoordinator());
+        
+        sc_c4.quit();
+        sc_c3.quit();
+    }
+    
+    /**
+     * Test if the coordinator and the next coordinator barely use the CPU when nothing happens.
+     */
+    @Test
+    public void testIdleCoordinatorCpu() throws Exception {
+        System.out.println("testIdleCoordinatorCpu()");
+        
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Set<Long> existing = new HashSet<>();
+        for(long id: threads.getAllThreadIds()) existing.add(id);
+        
+        TestClient icc_c1 = TestClient.buildTestClient("m1", TestClient.EMPTY_MEMBER);
+        TestClient icc_c2 = TestClient.buildTestClient("m2", icc_c1.me);
+        
+        // Every thread started by the members, not only the coordinator threads, e.g. the probe executor
+        long before = cpuTime(threads, existing);
+        Thread.sleep(3000);
+        long used = cpuTime(threads, existing) - before;
+        
+        System.out.println("Member threads used " + used / 1_000_000 + "ms of CPU in 3s");
+        assertTrue(used < 50_000_000L); // Under 50ms, it used to be a full core
+        assertTrue(icc_c1.getCoordinatorThread().isAlive()); // Still waiting for work, not finished
+        assertTrue(icc_c2.getCoordinatorThread().isAlive());
+        assertTrue(icc_c1.me.isCoordinator());
+        
+        icc_c2.quit();
+        icc_c1.quit();
+    }
+    
+    /**
+     * Get the CPU time used by the live threads, apart from some.
+     */
+    private static long cpuTime(ThreadMXBean threads, Set<Long> excluded) {
+        long total = 0;
+        for(long id: threads.getAllThreadIds()) {
+            if(excluded.contains(id)) continue;
+            long time = threads.getThreadCpuTime(id);
+            if(time > 0) total += time; // -1 once the thread has finished
+        }
+        return total;
+    }
 }
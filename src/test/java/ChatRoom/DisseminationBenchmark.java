@@ -0,0 +1,134 @@
+package ChatRoom;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Compares MESH, GOSSIP and TREE dissemination for chats of 10 to 1000 members.
+ *
+ * Running a thousand members on one machine would measure the machine, not the dissemination,
+ * so the network is simulated: every member has an upload bandwidth, each copy of a message
+ * takes its frame size over that bandwidth plus a fixed cost, and arrives after a link latency.
+ * The members picked by gossip, the fan-out and the hops are the ones used by GossipDissemination,
+ * the children in the tree those of TreeDissemination, and frame sizes are those of real encoded messages.
+ *
+ *      java -cp target/classes:target/test-classes ChatRoom.DisseminationBenchmark
+ *
+ * @author iAbdu
+ */
+public class DisseminationBenchmark {
+
+    private static final double UPLOAD = 10e6 / 8; // bytes per second (10 Mbit/s)
+    private static final double SEND_COST = 50e-6; // s per copy (system call, TCP/IP headers)
+    private static final double LATENCY = 1e-3; // s, one way
+    private static final int MESSAGES = 50; // Messages simulated per chat size, from random authors
+    private static final int[] SIZES = {10, 30, 100, 300, 1000};
+
+    public static void main(String[] args) throws Exception {
+        Message message = new Message("member42", "Are we still on for lunch? Let's meet at the usual place.", MessageType.MESSAGE);
+        int meshFrame = Frames.encode(message).limit();
+        int gossipFrame = Frames.encode(new Envelope(42, 1000, 4, message)).limit();
+        System.out.println("frame: mesh " + meshFrame + " bytes, gossip " + gossipFrame + " bytes");
+        System.out.println(String.format("%-7s %5s %8s %8s %9s %9s %10s %10s %8s", "mode", "N", "fanout", "hops", "p50 ms", "max ms", "KB total", "KB member", "missed"));
+
+        Random random = new Random(1);
+        for(int n: SIZES) {
+            List<Member> members = new ArrayList<>();
+            for(int i = 0; i < n; i++) members.add(new Member("member" + i, i, "10.0." + (i / 256) + "." + (i % 256), 5000));
+            print("mesh", n, "-", "1", simulate(members, meshFrame, Dissemination.Mode.MESH, random));
+            print("gossip", n, "" + GossipDissemination.fanout(n), "" + GossipDissemination.hops(n), simulate(members, gossipFrame, Dissemination.Mode.GOSSIP, random));
+            print("tree", n, "" + TreeDissemination.CHILDREN, "" + depth(n), simulate(members, gossipFrame, Dissemination.Mode.TREE, random));
+        }
+    }
+
+    private static int depth(int n) {
+        int depth = 0;
+        for(int last = 0; last < n - 1; last = last * TreeDissemination.CHILDREN + TreeDissemination.CHILDREN) depth++;
+        return depth;
+    }
+
+    private static void print(String mode, int n, String fanout, String hops, double[] r) {
+        System.out.println(String.format("%-7s %5d %8s %8s %9.2f %9.2f %10.1f %10.1f %8.4f%%", mode, n, fanout, hops, r[0] * 1e3, r[1] * 1e3, r[2] / 1024, r[3] / 1024, r[4] * 100));
+    }
+
+    /**
+     * Children of a member in the tree of an author. Members are ordered by ID, their ID is their position.
+     */
+    private static List<Member> treeChildren(List<Member> members, int author, int member) {
+        int n = members.size();
+        List<Member> children = new ArrayList<>();
+        for(int rank: TreeDissemination.children((member - author + n) % n, n, TreeDissemination.CHILDREN)) children.add(members.get((rank + author) % n));
+        return children;
+    }
+
+    /**
+     * Simulate MESSAGES messages, one at a time.
+     *
+     * @return p50 delivery latency, max delivery latency, bytes per message, most bytes sent by one member per message, fraction of members missed
+     */
+    private static double[] simulate(List<Member> members, int frame, Dissemination.Mode mode, Random random) {
+        int n = members.size();
+        List<Double> latencies = new ArrayList<>();
+        double maxLatency = 0, bytes = 0, memberBytes = 0, missed = 0;
+
+        for(int m = 0; m < MESSAGES; m++) {
+            int author = random.nextInt(n);
+            double[] uplinkFree = new double[n]; // When each member's upload is free again
+            double[] received = new double[n];
+            Arrays.fill(received, -1);
+            received[author] = 0;
+            PriorityQueue<double[]> arrivals = new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0])); // {time, member, hops}
+            long copies = 0;
+            int[] sent = new int[n]; // Copies sent by each member
+
+            List<Member> others = new ArrayList<>(members);
+            others.remove(author);
+            List<Member> targets = others;
+            if(mode == Dissemination.Mode.GOSSIP) targets = GossipDissemination.pickTargets(others, GossipDissemination.fanout(n), -1, random);
+            if(mode == Dissemination.Mode.TREE) targets = treeChildren(members, author, author);
+            for(Member t: targets) {
+                uplinkFree[author] += frame / UPLOAD + SEND_COST;
+                arrivals.add(new double[] {uplinkFree[author] + LATENCY, t.getID(), GossipDissemination.hops(n) - 1});
+                copies++;
+                sent[author]++;
+            }
+
+            while(!arrivals.isEmpty()) {
+                double[] a = arrivals.poll();
+                int member = (int)a[1];
+                if(received[member] >= 0) continue; // Duplicate, dropped by the SeenSet
+                received[member] = a[0];
+                if(mode == Dissemination.Mode.MESH || (mode == Dissemination.Mode.GOSSIP && a[2] < 1)) continue;
+
+                if(mode == Dissemination.Mode.GOSSIP) {
+                    others = new ArrayList<>(members);
+                    others.remove(member);
+                    targets = GossipDissemination.pickTargets(others, GossipDissemination.fanout(n), author, random);
+                } else targets = treeChildren(members, author, member);
+                uplinkFree[member] = Math.max(uplinkFree[member], a[0]);
+                for(Member t: targets) {
+                    uplinkFree[member] += frame / UPLOAD + SEND_COST;
+                    arrivals.add(new double[] {uplinkFree[member] + LATENCY, t.getID(), a[2] - 1});
+                    copies++;
+                    sent[member]++;
+                }
+            }
+
+            for(int i = 0; i < n; i++) {
+                if(i == author) continue;
+                if(received[i] < 0) missed++;
+                else {
+                    latencies.add(received[i]);
+                    maxLatency = Math.max(maxLatency, received[i]);
+                }
+            }
+            bytes += copies * (frame + 40); // TCP/IP headers
+            memberBytes += Arrays.stream(sent).max().getAsInt() * (frame + 40);
+        }
+        latencies.sort(null);
+        return new double[] {latencies.get(latencies.size() / 2), maxLatency, bytes / MESSAGES, memberBytes / MESSAGES, missed / ((double)MESSAGES * (n - 1))};
+    }
+}
@@ -0,0 +1,97 @@
+package ChatRoom;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures how long a chat goes without a coordinator when the coordinator, and possibly its
+ * first successors, are killed at the same time.
+ *
+ * The time is taken from the kill until every remaining member sees the same new coordinator,
+ * and none of the killed members. It is bounded by the lease plus one step per dead successor
+ * (see CoordinatorLease), counted from the last heartbeat of the coordinator.
+ *
+ *      java -cp target/classes:target/test-classes ChatRoom.FailoverBenchmark [members] [runs]
+ *
+ * @author iAbdu
+ */
+public class FailoverBenchmark {
+
+    private static final long TIMEOUT = 30_000_000_000L; // ns to wait for the new coordinator before giving up
+
+    private static int port = 21000;
+
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0? Integer.parseInt(args[0]) : 6;
+        int runs = args.length > 1? Integer.parseInt(args[1]) : 3;
+        System.setProperty("java.awt.headless", "true");
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(new OutputStream() { @Override public void write(int b) {} })); // Clients are very chatty
+
+        console.println("members=" + size + " lease=" + CoordinatorLease.LEASE + "ms step=" + CoordinatorLease.STEP + "ms successors=" + CoordinatorLease.SUCCESSORS);
+        console.println(String.format("%-28s %8s %8s %8s %8s", "killed", "bound ms", "min ms", "avg ms", "max ms"));
+        for(int dead = 0; dead < CoordinatorLease.SUCCESSORS && dead < size - 1; dead++) {
+            long min = Long.MAX_VALUE, max = 0, total = 0;
+            for(int run = 0; run < runs; run++) {
+                long time = failover(size, dead);
+                min = Math.min(min, time);
+                max = Math.max(max, time);
+                total += time;
+            }
+            String killed = "coordinator" + (dead > 0? " + " + dead + " successor" + (dead > 1? "s" : "") : "");
+            long bound = CoordinatorLease.LEASE + dead * CoordinatorLease.STEP;
+            console.println(String.format("%-28s %8d %8d %8d %8d", killed, bound, min, total / runs, max));
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Build a chat, kill the coordinator and its first successors, and wait for a new coordinator.
+     *
+     * @return Time in ms from the kill until every remaining member agrees on the new coordinator
+     */
+    private static long failover(int size, int deadSuccessors) throws Exception {
+        List<Client> clients = new ArrayList<>();
+        while(clients.size() < size) {
+            Member m = new Member("f" + clients.size(), -1, "localhost", port++);
+            try {
+                if(clients.isEmpty()) clients.add(new Client(m, false, "", 0));
+                else clients.add(new Client(m, false, clients.get(0).me.getAddress(), clients.get(0).me.getPort()));
+            } catch(PortNotAvailbleException e) {}
+        }
+        Thread.sleep(2000); // Heartbeats and leases settle
+
+        List<Client> killed = new ArrayList<>(clients.subList(0, deadSuccessors + 1)); // Coordinator and successors, by ID
+        List<Client> survivors = new ArrayList<>(clients.subList(deadSuccessors + 1, size));
+        long start = System.nanoTime();
+        for(Client c: killed) c.quit();
+
+        Client expected = survivors.get(0);
+        while(!agree(survivors, expected, killed)) {
+            if(System.nanoTime() - start > TIMEOUT) {
+                StringBuilder views = new StringBuilder();
+                for(Client c: survivors) views.append("\n").append(c.me).append(" sees ").append(c.getMembers());
+                throw new IllegalStateException("No new coordinator after " + TIMEOUT / 1_000_000 + "ms:" + views);
+            }
+            Thread.sleep(10);
+        }
+        long time = (System.nanoTime() - start) / 1_000_000;
+
+        for(Client c: survivors) c.quit();
+        return time;
+    }
+
+    private static boolean agree(List<Client> survivors, Client coordinator, List<Client> killed) {
+        if(!coordinator.me.isCoordinator()) return false;
+        for(Client c: survivors) {
+            if(c == coordinator) continue;
+            Member first = c.getMembers().byId(coordinator.me.getID());
+            if(first == null || !first.isCoordinator()) return false;
+            for(Client k: killed) if(c.getMembers().byId(k.me.getID()) != null) return false;
+        }
+        return true;
+    }
+}
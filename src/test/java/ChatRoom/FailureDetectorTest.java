@@ -0,0 +1,84 @@
+package ChatRoom;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the phi accrual failure detector.
+ *
+ * @author iAbdu
+ */
+public class FailureDetectorTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Test if suspicion grows the longer a member stays silent.
+     */
+    @Test
+    public void testPhiGrows() throws Exception {
+        FailureDetector detector = new FailureDetector(8, 500);
+        long now = 0;
+        for(int i = 0; i < 20; i++) detector.heartbeat(1, now += 500 * MS);
+
+        double onTime = detector.phi(1, now + 500 * MS);
+        double late = detector.phi(1, now + 1500 * MS);
+        double gone = detector.phi(1, now + 5000 * MS);
+        assertTrue(onTime < 1);
+        assertTrue(onTime < late && late < gone);
+        assertTrue(gone > 8);
+    }
+
+    /**
+     * Test if suspicion still grows when the clock reads negative times, as System.nanoTime() can.
+     */
+    @Test
+    public void testNegativeClock() throws Exception {
+        FailureDetector detector = new FailureDetector(8, 500);
+        long now = Long.MIN_VALUE / 2;
+        for(int i = 0; i < 20; i++) detector.heartbeat(1, now += 500 * MS);
+
+        assertTrue(detector.phi(1, now + 500 * MS) < 1);
+        assertTrue(detector.phi(1, now + 5000 * MS) > 8);
+    }
+
+    /**
+     * Test if members sending heartbeats irregularly are given more time.
+     */
+    @Test
+    public void testIrregularHeartbeats() throws Exception {
+        FailureDetector detector = new FailureDetector(8, 500);
+        Random random = new Random(42);
+        long regular = 0;
+        long irregular = 0;
+        for(int i = 0; i < 100; i++) {
+            detector.heartbeat(1, regular += 500 * MS);
+            detector.heartbeat(2, irregular += (100 + random.nextInt(1500)) * MS);
+        }
+        assertTrue(detector.phi(2, irregular + 2000 * MS) < detector.phi(1, regular + 2000 * MS));
+    }
+
+    /**
+     * Test if only the members heartbeats are expected from are suspected.
+     */
+    @Test
+    public void testExpectAndRemove() throws Exception {
+        FailureDetector detector = new FailureDetector(8, 500);
+        assertEquals(0, detector.phi(1), 0);
+        assertFalse(detector.isMonitored(1));
+
+        detector.expect(1);
+        assertTrue(detector.isMonitored(1));
+        assertFalse(detector.isSuspected(1));
+        assertTrue(detector.phi(1, System.nanoTime() + 10_000 * MS) > 8); // No heartbeat ever came
+        assertEquals(1, detector.getPhis().size());
+
+        detector.remove(1);
+        assertFalse(detector.isMonitored(1));
+        assertTrue(detector.getPhis().isEmpty());
+    }
+}
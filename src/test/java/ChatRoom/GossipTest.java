@@ -0,0 +1,47 @@
+package ChatRoom;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test a chat where messages are passed on from member to member.
+ *
+ * @author iAbdu
+ */
+public class GossipTest {
+
+    /**
+     * Test if every member receives every message exactly once.
+     */
+    @Test
+    public void testEveryoneReceivesOnce() throws Exception {
+        System.out.println("testEveryoneReceivesOnce()");
+
+        System.setProperty("chatroom.dissemination", "GOSSIP");
+        List<TestClient> clients = new ArrayList<>();
+        try {
+            clients.add(TestClient.buildTestClient("m1", TestClient.EMPTY_MEMBER));
+            for(int i = 2; i <= 6; i++) clients.add(TestClient.buildTestClient("m" + i, clients.get(0).me));
+        } finally {
+            System.clearProperty("chatroom.dissemination");
+        }
+
+        for(TestClient c: clients) c.sendMessage("Hello from " + c.me.getUsername());
+        Thread.sleep(1000);
+
+        Object[] expected = null;
+        for(TestClient c: clients) {
+            assertEquals(GossipDissemination.class, c.getDissemination().getClass());
+            List<String> received = new ArrayList<>();
+            for(Message m: c.getAllMessages()) if(m.getMessageType() == MessageType.MESSAGE) received.add(m.getUsername() + ": " + m.getContent());
+            assertEquals(clients.size(), received.size());
+            if(expected == null) expected = received.toArray();
+            else assertArrayEquals(expected, received.toArray());
+        }
+
+        for(int i = clients.size() - 1; i >= 0; i--) clients.get(i).quit();
+    }
+}
@@ -1,6 +1,15 @@
 package ChatRoom;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertArrayEquals;
@@ -70,14 +79,14 @@ public class GroupFormationTest {
         
         Thread.sleep(5000);
         
-        // Check if all members know each other.
-        assertArrayEquals(Arrays.stream(mmckc_allMembers).filter(m -> !m.equals(mmckc_c1.me)).toArray(), mmckc_c1.getMembers().toArray());
-        assertArrayEquals(Arrays.stream(mmckc_allMembers).filter(m -> !m.equals(mmckc_c2.me)).toArray(), mmckc_c2.getMembers().toArray());
-        assertArrayEquals(Arrays.stream(mmckc_allMembers).filter(m -> !m.equals(mmckc_c3.me)).toArray(), mmckc_c3.getMembers().toArray());
-        assertArrayEquals(Arrays.stream(mmckc_allMembers).filter(m -> !m.equals(mmckc_c4.me)).toArray(), mmckc_c4.getMembers().toArray());
-        assertArrayEquals(Arrays.stream(mmckc_allMembers).filter(m -> !m.equals(mmckc_c5.me)).toArray(), mmckc_c5.getMembers().toArray());
-        assertArrayEquals(Arrays.stream(mmckc_allMembers).filter(m -> !m.equals(mmckc_c6.me)).toArray(), mmckc_c6.getMembers().toArray());
-        assertArrayEquals(Arrays.stream(mmckc_allMembers).filter(m -> !m.equals(mmckc_c7.me)).toArray(), mmckc_c7.getMembers().toArray());
+        // Check if all members know each other, ordered by ID.
+        assertArrayEquals(Arrays.stream(mmckc_allMembers).filter(m -> !m.equals(mmckc_c1.me)).sorted(Comparator.comparingInt(Member::getID)).toArray(), mmckc_c1.getMembers().toArray());
+        assertArrayEquals(Arrays.stream(mmckc_allMembers).filter(m -> !m.equals(mmckc_c2.me)).sorted(Comparator.comparingInt(Member::getID)).toArray(), mmckc_c2.getMembers().toArray());
+        assertArrayEquals(Arrays.stream(mmckc_allMembers).filter(m -> !m.equals(mmckc_c3.me)).sorted(Comparator.comparingInt(Member::getID)).toArray(), mmckc_c3.getMembers().toArray());
+        assertArrayEquals(Arrays.stream(mmckc_allMembers).filter(m -> !m.equals(mmckc_c4.me)).sorted(Comparator.comparingInt(Member::getID)).toArray(), mmckc_c4.getMembers().toArray());
+        assertArrayEquals(Arrays.stream(mmckc_allMembers).filter(m -> !m.equals(mmckc_c5.me)).sorted(Comparator.comparingInt(Member::getID)).toArray(), mmckc_c5.getMembers().toArray());
+        assertArrayEquals(Arrays.stream(mmckc_allMembers).filter(m -> !m.equals(mmckc_c6.me)).sorted(Comparator.comparingInt(Member::getID)).toArray(), mmckc_c6.getMembers().toArray());
+        assertArrayEquals(Arrays.stream(mmckc_allMembers).filter(m -> !m.equals(mmckc_c7.me)).sorted(Comparator.comparingInt(Member::getID)).toArray(), mmckc_c7.getMembers().toArray());
         
         mmckc_c7.quit();
         mmckc_c6.quit();
@@ -124,14 +133,14 @@ public class GroupFormationTest {
         
         Thread.sleep(5000);
         
-        // Check if all members know each other.
-        assertArrayEquals(Arrays.stream(mmckaem_allMembers).filter(m -> !m.equals(mmckaem_c1.me)).toArray(), mmckaem_c1.getMembers().toArray());
-        assertArrayEquals(Arrays.stream(mmckaem_allMembers).filter(m -> !m.equals(mmckaem_c2.me)).toArray(), mmckaem_c2.getMembers().toArray());
-        assertArrayEquals(Arrays.stream(mmckaem_allMembers).filter(m -> !m.equals(mmckaem_c3.me)).toArray(), mmckaem_c3.getMembers().toArray());
-        assertArrayEquals(Arrays.stream(mmckaem_allMembers).filter(m -> !m.equals(mmckaem_c4.me)).toArray(), mmckaem_c4.getMembers().toArray());
-        assertArrayEquals(Arrays.stream(mmckaem_allMembers).filter(m -> !m.equals(mmckaem_c5.me)).toArray(), mmckaem_c5.getMembers().toArray());
-        assertArrayEquals(Arrays.stream(mmckaem_allMembers).filter(m -> !m.equals(mmckaem_c6.me)).toArray(), mmckaem_c6.getMembers().toArray());
-        assertArrayEquals(Arrays.stream(mmckaem_allMembers).filter(m -> !m.equals(mmckaem_c7.me)).toArray(), mmckaem_c7.getMembers().toArray());
+        // Check if all members know each other, ordered by ID.
+        assertArrayEquals(Arrays.stream(mmckaem_allMembers).filter(m -> !m.equals(mmckaem_c1.me)).sorted(Comparator.comparingInt(Member::getID)).toArray(), mmckaem_c1.getMembers().toArray());
+        assertArrayEquals(Arrays.stream(mmckaem_allMembers).filter(m -> !m.equals(mmckaem_c2.me)).sorted(Comparator.comparingInt(Member::getID)).toArray(), mmckaem_c2.getMembers().toArray());
+        assertArrayEquals(Arrays.stream(mmckaem_allMembers).filter(m -> !m.equals(mmckaem_c3.me)).sorted(Comparator.comparingInt(Member::getID)).toArray(), mmckaem_c3.getMembers().toArray());
+        assertArrayEquals(Arrays.stream(mmckaem_allMembers).filter(m -> !m.equals(mmckaem_c4.me)).sorted(Comparator.comparingInt(Member::getID)).toArray(), mmckaem_c4.getMembers().toArray());
+        assertArrayEquals(Arrays.stream(mmckaem_allMembers).filter(m -> !m.equals(mmckaem_c5.me)).sorted(Comparator.comparingInt(Member::getID)).toArray(), mmckaem_c5.getMembers().toArray());
+        assertArrayEquals(Arrays.stream(mmckaem_allMembers).filter(m -> !m.equals(mmckaem_c6.me)).sorted(Comparator.comparingInt(Member::getID)).toArray(), mmckaem_c6.getMembers().toArray());
+        assertArrayEquals(Arrays.stream(mmckaem_allMembers).filter(m -> !m.equals(mmckaem_c7.me)).sorted(Comparator.comparingInt(Member::getID)).toArray(), mmckaem_c7.getMembers().toArray());
         
         mmckaem_c7.quit();
         mmckaem_c6.quit();
@@ -207,4 +216,124 @@ public class GroupFormationTest {
         oml_c2.quit();
         oml_c1.quit();
     }
+    
+    /**
+     * Test if members joining at the same time through different members all get different IDs.
+     */
+    @Test
+    public void testConcurrentJoins() throws Exception {
+        System.out.println("testConcurrentJoins()");
+        TestClient cj_c1 = TestClient.buildTestClient("m1", TestClient.EMPTY_MEMBER);
+        TestClient cj_c2 = TestClient.buildTestClient("m2", cj_c1.me);
+        TestClient cj_c3 = TestClient.buildTestClient("m3", cj_c1.me);
+        
+        ExecutorService joining = Executors.newFixedThreadPool(6);
+        List<Future<TestClient>> joins = new ArrayList<>();
+        for(int i = 4; i <= 9; i++) {
+            String username = "m" + i;
+            Member through = i % 2 == 0? cj_c2.me : cj_c3.me;
+            joins.add(joining.submit(() -> TestClient.buildTestClient(username, through)));
+        }
+        List<TestClient> clients = new ArrayList<>(Arrays.asList(cj_c1, cj_c2, cj_c3));
+        for(Future<TestClient> join: joins) clients.add(join.get());
+        joining.shutdown();
+        Thread.sleep(4000); // Members who missed a join get it by comparing digests with the coordinator
+        
+        Set<Integer> ids = new HashSet<>();
+        for(TestClient c: clients) ids.add(c.me.getID());
+        assertEquals(clients.size(), ids.size()); // No ID given twice
+        for(TestClient c: clients) assertEquals(clients.size() - 1, c.getMembers().size());
+        
+        for(int i = clients.size() - 1; i >= 0; i--) clients.get(i).quit();
+    }
+    
+    /**
+     * Test if only one of two members joining at the same time with the same username through different members gets in.
+     */
+    @Test
+    public void testSameUsernameThroughDifferentMembers() throws Exception {
+        System.out.println("testSameUsernameThroughDifferentMembers()");
+        TestClient su_c1 = TestClient.buildTestClient("m1", TestClient.EMPTY_MEMBER);
+        TestClient su_c2 = TestClient.buildTestClient("m2", su_c1.me);
+        TestClient su_c3 = TestClient.buildTestClient("m3", su_c1.me);
+
+        ExecutorService joining = Executors.newFixedThreadPool(2);
+        List<TestClient> clients = new ArrayList<>(Arrays.asList(su_c1, su_c2, su_c3));
+        for(int round = 0; round < 3; round++) {
+            String username = "dup" + round;
+            List<Future<TestClient>> joins = new ArrayList<>();
+            for(TestClient through: Arrays.asList(su_c2, su_c3)) joins.add(joining.submit(() -> TestClient.buildTestClient(username, through.me)));
+            int joined = 0;
+            for(Future<TestClient> join: joins) {
+                try {
+                    clients.add(join.get());
+                    joined++;
+                } catch(ExecutionException e) {
+                    assertTrue(e.getCause() instanceof InvalidUsernameException);
+                }
+            }
+            assertEquals(1, joined);
+        }
+        joining.shutdown();
+        Thread.sleep(2000);
+
+        for(TestClient c: clients) assertEquals(clients.size() - 1, c.getMembers().size());
+        for(int i = clients.size() - 1; i >= 0; i--) clients.get(i).quit();
+    }
+
+    /**
+     * Test if a member still reads other connections while a join through it waits for an ID,
+     * e.g. from a slow coordinator, even when all connections share one event loop.
+     */
+    @Test
+    public void testSlowJoinDoesNotStallServer() throws Exception {
+        System.out.println("testSlowJoinDoesNotStallServer()");
+        TestClient sj_c1 = TestClient.buildTestClient("m1", TestClient.EMPTY_MEMBER);
+        System.setProperty("chatroom.server", "SELECTOR");
+        System.setProperty("chatroom.server.loops", "1");
+        TestClient sj_c2;
+        try {
+            sj_c2 = buildSlowClient("m2", sj_c1.me, 3000);
+        } finally {
+            System.clearProperty("chatroom.server");
+            System.clearProperty("chatroom.server.loops");
+        }
+        
+        ExecutorService joining = Executors.newSingleThreadExecutor();
+        Future<TestClient> join = joining.submit(() -> TestClient.buildTestClient("m3", sj_c2.me));
+        Thread.sleep(500);
+        
+        // The join is still waiting, but messages to m2 are read straight away
+        sj_c1.sendMessage(new Message("m1", "Anyone joining?", MessageType.MESSAGE));
+        Thread.sleep(500);
+        assertTrue(TestClient.chatMessages(sj_c2).stream().anyMatch(m -> m.getContent().equals("Anyone joining?")));
+        
+        TestClient sj_c3 = join.get();
+        joining.shutdown();
+        assertEquals(2, sj_c3.getMembers().size());
+        
+        sj_c3.quit();
+        sj_c2.quit();
+        sj_c1.quit();
+    }
+    
+    /**
+     * Builds a test client taking a while to accept each join through it.
+     */
+    private static TestClient buildSlowClient(String username, Member other, long delay) throws Exception {
+        Member thisMember = new Member(username, -1, "localhost", 1);
+        while(true) {
+            try {
+                return new TestClient(thisMember, other) {
+                    @Override
+                    protected MembershipView incomingRequest(Member newMember) {
+                        try { Thread.sleep(delay); } catch(InterruptedException e) {}
+                        return super.incomingRequest(newMember);
+                    }
+                };
+            } catch(PortNotAvailbleException e) {
+                thisMember = new Member(thisMember.getUsername(), -1, "localhost", thisMember.getPort() + 1);
+            }
+        }
+    }
 }
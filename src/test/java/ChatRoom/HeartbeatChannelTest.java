@@ -0,0 +1,64 @@
+package ChatRoom;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test heartbeats sent as datagrams.
+ *
+ * @author iAbdu
+ */
+public class HeartbeatChannelTest {
+
+    /**
+     * Test if heartbeats are acked, giving round trip times, and keep members from being suspected.
+     */
+    @Test
+    public void testRttMeasured() throws Exception {
+        System.out.println("testRttMeasured()");
+        TestClient rtt_c1 = TestClient.buildTestClient("rtt_c1", TestClient.EMPTY_MEMBER);
+        TestClient rtt_c2 = TestClient.buildTestClient("rtt_c2", rtt_c1.me);
+        Thread.sleep(2000);
+
+        for(TestClient[] pair: new TestClient[][] {{rtt_c1, rtt_c2}, {rtt_c2, rtt_c1}}) {
+            HeartbeatChannel heartbeats = pair[0].getHeartbeats();
+            assertTrue(heartbeats.getStats().get("pingsSent") > 0);
+            assertTrue(heartbeats.getStats().get("acksReceived") > 0);
+            double rtt = heartbeats.getRtt(pair[1].me.getID());
+            assertTrue("RTT: " + rtt, rtt >= 0 && rtt < 100);
+            assertTrue(pair[0].getFailureDetector().isMonitored(pair[1].me.getID()));
+        }
+        assertEquals(1, rtt_c1.getMembers().size()); // Nobody suspected
+
+        rtt_c2.quit();
+        rtt_c1.quit();
+    }
+
+    /**
+     * Test if datagrams from outside the chat are ignored.
+     */
+    @Test
+    public void testInvalidDatagramIgnored() throws Exception {
+        System.out.println("testInvalidDatagramIgnored()");
+        TestClient idi_c1 = TestClient.buildTestClient("idi_c1", TestClient.EMPTY_MEMBER);
+        HeartbeatChannel heartbeats = idi_c1.getHeartbeats();
+        long before = heartbeats.getStats().get("invalid");
+
+        try(DatagramChannel stranger = DatagramChannel.open()) {
+            InetSocketAddress server = new InetSocketAddress("localhost", idi_c1.me.getPort());
+            stranger.send(ByteBuffer.wrap("hello".getBytes()), server); // Wrong size
+            ByteBuffer unknown = ByteBuffer.allocate(HeartbeatChannel.SIZE);
+            unknown.put((byte)1).putInt(42).putInt(1).putLong(0).putLong(0); // PING from an unknown member
+            unknown.flip();
+            stranger.send(unknown, server);
+        }
+        Thread.sleep(500);
+        assertEquals(before + 2, (long)heartbeats.getStats().get("invalid"));
+
+        idi_c1.quit();
+    }
+}
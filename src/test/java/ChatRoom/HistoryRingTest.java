@@ -0,0 +1,115 @@
+package ChatRoom;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the bounded history and its eviction policies.
+ *
+ * @author iAbdu
+ */
+public class HistoryRingTest {
+
+    private static Message message(String user, int i) {
+        return new Message(user, "message " + i, MessageType.MESSAGE, i);
+    }
+
+    /**
+     * Test if only the most recent messages are kept, and snapshots don't change afterwards.
+     */
+    @Test
+    public void testOldest() throws Exception {
+        HistoryRing history = new HistoryRing(100, Long.MAX_VALUE, HistoryRing.Eviction.OLDEST);
+        List<Message> expected = new ArrayList<>();
+        for(int i = 0; i < 250; i++) {
+            history.append(message("m1", i));
+            expected.add(message("m1", i));
+        }
+        List<Message> snapshot = history.snapshot();
+        assertEquals(expected.subList(150, 250), new ArrayList<>(snapshot));
+        assertEquals(expected.get(150), snapshot.get(0));
+        assertEquals(expected.get(249), snapshot.get(99));
+
+        for(int i = 250; i < 300; i++) history.append(message("m1", i));
+        assertEquals(expected.subList(150, 250), new ArrayList<>(snapshot));
+        assertEquals(message("m1", 200), history.snapshot().get(0));
+
+        History.Stats stats = history.getStats();
+        assertEquals(100, stats.getMessages());
+        assertEquals(300, stats.getAppended());
+        assertEquals(200, stats.getEvicted(MessageType.MESSAGE));
+    }
+
+    /**
+     * Test if the bytes kept stay within the budget.
+     */
+    @Test
+    public void testByteBudget() throws Exception {
+        long budget = 20 * HistoryRing.footprint(message("m1", 100));
+        HistoryRing history = new HistoryRing(1000, budget, HistoryRing.Eviction.OLDEST);
+        for(int i = 100; i < 200; i++) history.append(message("m1", i));
+        assertEquals(20, history.snapshot().size());
+        assertTrue(history.getStats().getBytes() <= budget);
+        assertEquals(80 * HistoryRing.footprint(message("m1", 100)), history.getStats().getEvictedBytes());
+    }
+
+    /**
+     * Test if a chatty member can't push the messages of others out of the history.
+     */
+    @Test
+    public void testPerUser() throws Exception {
+        HistoryRing history = new HistoryRing(100, Long.MAX_VALUE, HistoryRing.Eviction.PER_USER);
+        for(int i = 0; i < 10; i++) history.append(message("quiet", i));
+        for(int i = 0; i < 500; i++) history.append(message("chatty", i));
+
+        int quiet = 0;
+        for(Message m: history.snapshot()) if(m.getUsername().equals("quiet")) quiet++;
+        assertEquals(10, quiet);
+        assertEquals(100, history.snapshot().size());
+        assertEquals(message("chatty", 499), history.snapshot().get(99));
+    }
+
+    /**
+     * Test if SYSTEM messages are evicted before chat messages.
+     */
+    @Test
+    public void testSystemFirst() throws Exception {
+        HistoryRing history = new HistoryRing(100, Long.MAX_VALUE, HistoryRing.Eviction.SYSTEM_FIRST);
+        for(int i = 0; i < 100; i++) history.append(i % 2 == 0? message("m1", i) : new Message("m1", "joined " + i, MessageType.SYSTEM, i));
+        for(int i = 100; i < 150; i++) history.append(message("m1", i));
+
+        for(Message m: history.snapshot()) assertEquals(MessageType.MESSAGE, m.getMessageType());
+        assertEquals(message("m1", 0), history.snapshot().get(0));
+        assertEquals(50, history.getStats().getEvicted(MessageType.SYSTEM));
+
+        history.append(message("m1", 150)); // No SYSTEM message left, the oldest goes
+        assertEquals(message("m1", 2), history.snapshot().get(0));
+    }
+
+    /**
+     * Test if the chunks left smaller by evictions in the middle of the history are merged, and snapshots stay in order.
+     */
+    @Test
+    public void testChunksMerged() throws Exception {
+        Random random = new Random(42);
+        HistoryRing history = new HistoryRing(1000, Long.MAX_VALUE, h -> random.nextInt(h.getStats().getMessages()));
+        List<Message> snapshot = null;
+        for(int i = 0; i < 10_000; i++) {
+            history.append(message("m1", i));
+            if(i == 5000) snapshot = history.snapshot();
+        }
+        assertTrue(history.chunkCount() <= 2 * 1000 / HistoryRing.CHUNK_SIZE + 1);
+
+        List<Message> kept = history.snapshot();
+        assertEquals(1000, kept.size());
+        for(int i = 1; i < kept.size(); i++) assertTrue(kept.get(i - 1).getTime() < kept.get(i).getTime());
+        assertEquals(message("m1", 9999), kept.get(999));
+        assertEquals(1000, snapshot.size());
+        assertEquals(message("m1", 5000), snapshot.get(999)); // Unchanged by later evictions
+        for(int i = 1; i < snapshot.size(); i++) assertTrue(snapshot.get(i - 1).getTime() < snapshot.get(i).getTime());
+    }
+}
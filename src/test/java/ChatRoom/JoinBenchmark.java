@@ -0,0 +1,98 @@
+package ChatRoom;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures how long members joining a busy chat wait before they can chat, and before they have
+ * the messages sent before they joined (see StateTransfer).
+ *
+ * A chat with a long history keeps getting new messages while members join one after the other,
+ * first without asking for the history, then asking for the last [backlog] messages:
+ *      java -cp target/classes:target/test-classes ChatRoom.JoinBenchmark [members] [backlog] [joiners]
+ *
+ * @author iAbdu
+ */
+public class JoinBenchmark {
+
+    private static final AtomicInteger port = new AtomicInteger(23000);
+
+    public static void main(String[] args) throws Exception {
+        int members = args.length > 0? Integer.parseInt(args[0]) : 4;
+        int backlog = args.length > 1? Integer.parseInt(args[1]) : 2000;
+        int joiners = args.length > 2? Integer.parseInt(args[2]) : 10;
+        System.setProperty("java.awt.headless", "true");
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(new OutputStream() { @Override public void write(int b) {} })); // Clients are very chatty
+
+        // Members of the chat keep the history for new members
+        System.setProperty("chatroom.join.history", Integer.toString(backlog));
+        List<Client> clients = new ArrayList<>();
+        clients.add(join("e0", null));
+        for(int i = 1; i < members; i++) clients.add(join("e" + i, clients.get(0)));
+        for(int i = 0; i < backlog; i++) clients.get(i % members).sendMessage(new Message("e" + (i % members), "Message " + i, MessageType.MESSAGE));
+        Thread.sleep(1000);
+
+        // Someone keeps chatting while members join
+        Client busy = clients.get(members - 1);
+        Thread chatting = new Thread(() -> {
+            for(int i = 0; !Thread.currentThread().isInterrupted(); i++) {
+                busy.sendMessage(new Message(busy.me.getUsername(), "Busy " + i, MessageType.MESSAGE));
+                try {
+                    Thread.sleep(10);
+                } catch(InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        chatting.start();
+
+        String[] lines = new String[2];
+        for(int run = 0; run < 2; run++) {
+            boolean history = run == 1;
+            if(history) System.setProperty("chatroom.join.history", Integer.toString(backlog));
+            else System.clearProperty("chatroom.join.history");
+            long interactive = 0, maxInteractive = 0, first = 0, last = 0, received = 0;
+            for(int i = 0; i < joiners; i++) {
+                long start = System.nanoTime();
+                Client c = join((history? "h" : "n") + i, clients.get(i % members));
+                long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                interactive += ms;
+                maxInteractive = Math.max(maxInteractive, ms);
+                if(!c.getTransfer().await(30, TimeUnit.SECONDS)) throw new IllegalStateException("History still on its way to " + c.me);
+                first += c.getTransfer().getStats().get("firstChunkMs");
+                last += c.getTransfer().getStats().get("lastChunkMs");
+                received += c.getTransfer().getStats().get("messagesReceived");
+                c.quit();
+            }
+            lines[run] = history
+                    ? String.format("history:    interactive after %.1fms (max %dms), first chunk %.1fms later, last chunk %.1fms later, %d messages each",
+                            (double)interactive / joiners, maxInteractive, (double)first / joiners, (double)last / joiners, received / joiners)
+                    : String.format("no history: interactive after %.1fms (max %dms)", (double)interactive / joiners, maxInteractive);
+        }
+        System.clearProperty("chatroom.join.history");
+        chatting.interrupt();
+        chatting.join();
+        for(Client c: clients) c.quit();
+
+        System.setOut(console);
+        System.out.println("members=" + members + " backlog=" + backlog + " joiners=" + joiners + " chunk=" + StateTransfer.CHUNK);
+        for(String line: lines) System.out.println(line);
+        System.exit(0);
+    }
+
+    private static Client join(String username, Client through) throws Exception {
+        while(true) {
+            Member m = new Member(username, -1, "localhost", port.getAndIncrement());
+            try {
+                if(through == null) return new Client(m, false, "", 0);
+                return new Client(m, false, through.me.getAddress(), through.me.getPort());
+            } catch(PortNotAvailbleException e) {}
+        }
+    }
+}
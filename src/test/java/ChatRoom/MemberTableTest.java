@@ -0,0 +1,107 @@
+package ChatRoom;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the table of members.
+ *
+ * @author iAbdu
+ */
+public class MemberTableTest {
+
+    /**
+     * Test if members are found by ID and username, and kept ordered by ID.
+     */
+    @Test
+    public void testLookups() throws Exception {
+        MemberTable table = new MemberTable();
+        List<Member> members = new ArrayList<>();
+        for(int i = 0; i < 100; i++) members.add(new Member("m" + i, i * 3, "localhost", 1000 + i));
+        for(int i = members.size() - 1; i >= 0; i--) table.add(members.get(i)); // Added out of order
+
+        assertEquals(members, new ArrayList<>(table));
+        for(Member m: members) {
+            assertSame(m, table.byId(m.getID()));
+            assertSame(m, table.byUsername(m.getUsername()));
+            assertTrue(table.contains(m));
+        }
+        assertNull(table.byId(1));
+        assertNull(table.byUsername("nobody"));
+
+        assertSame(members.get(10), table.removeById(30));
+        assertNull(table.byId(30));
+        assertNull(table.byUsername("m10"));
+        assertFalse(table.contains(members.get(10)));
+        assertNull(table.removeById(30));
+        assertEquals(99, table.size());
+    }
+
+    /**
+     * Test if a snapshot doesn't change when members join or leave, so it can be iterated while removing.
+     */
+    @Test
+    public void testSnapshot() throws Exception {
+        MemberTable table = new MemberTable();
+        for(int i = 0; i < 10; i++) table.add(new Member("m" + i, i, "localhost", 1000 + i));
+
+        MemberTable.Snapshot snapshot = table.snapshot();
+        for(Member m: table) table.remove(m); // Iterates the snapshot taken when the loop started
+        table.add(new Member("late", 42, "localhost", 2000));
+
+        assertEquals(10, snapshot.size());
+        assertEquals(1, table.size());
+        assertEquals(42, table.get(0).getID());
+        assertEquals(snapshot.getVersion() + 11, table.snapshot().getVersion());
+    }
+
+    /**
+     * Test if usernames are unique ignoring case, and reserved while a member joins with it.
+     */
+    @Test
+    public void testUsernames() throws Exception {
+        MemberTable table = new MemberTable();
+        Member alice = new Member("Alice", 1, "localhost", 1001);
+        table.add(alice);
+
+        assertSame(alice, table.byUsername("alice"));
+        assertFalse(table.reserve("ALICE"));
+
+        assertTrue(table.reserve("Bob")); // Joining
+        assertFalse(table.reserve("bob")); // Joining at the same time
+        table.add(new Member("Bob", 2, "localhost", 1002));
+        table.release("Bob");
+        assertFalse(table.reserve("bob"));
+
+        table.removeById(2);
+        assertNull(table.byUsername("bob"));
+        assertTrue(table.reserve("bob")); // Free again once the member left
+        table.release("bob");
+        table.reset(Collections.singletonList(new Member("carol", 3, "localhost", 1003)));
+        assertNull(table.byUsername("alice"));
+        assertTrue(table.reserve("Alice"));
+    }
+
+    /**
+     * Test if a username reserved for some time, as the coordinator does, is free again once the time is up.
+     */
+    @Test
+    public void testReservationExpires() throws Exception {
+        MemberTable table = new MemberTable();
+        assertTrue(table.reserve("Dave", 200));
+        assertFalse(table.reserve("dave", 200));
+        Thread.sleep(300); // The join failed without the coordinator being told
+        assertTrue(table.reserve("dave", 200));
+
+        table.add(new Member("Dave", 4, "localhost", 1004)); // Joined: no longer reserved, but taken
+        table.removeById(4);
+        assertTrue(table.reserve("DAVE")); // Free again once the member left
+    }
+}
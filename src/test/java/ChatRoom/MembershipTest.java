@@ -0,0 +1,295 @@
+package ChatRoom;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the versioned view of the members.
+ *
+ * @author iAbdu
+ */
+public class MembershipTest {
+
+    private static MembershipDelta join(long epoch, int id) throws Exception {
+        return new MembershipDelta(epoch, 0, MembershipDelta.Type.JOIN, id, new Member("m" + id, id, "localhost", 1000 + id));
+    }
+
+    private static Membership membership(int id, int maxDeltas) throws Exception {
+        return new Membership(new Member("m" + id, id, "localhost", 1000 + id), new MemberTable(), maxDeltas);
+    }
+
+    /**
+     * Test if changes received out of order are all applied, and the epoch only moves once none are missing.
+     */
+    @Test
+    public void testGap() throws Exception {
+        Membership view = membership(0, 256);
+        assertEquals(Membership.Outcome.APPLIED, view.apply(join(1, 1)));
+        assertEquals(Membership.Outcome.BEHIND, view.apply(join(3, 3)));
+        assertEquals(1, view.getEpoch());
+        assertEquals(Membership.Outcome.IGNORED, view.apply(join(3, 3))); // Received twice
+
+        assertEquals(Membership.Outcome.APPLIED, view.apply(join(2, 2)));
+        assertEquals(3, view.getEpoch());
+        assertEquals(4, view.full().getMembers().size());
+        assertEquals(1, view.getStats().getGaps());
+    }
+
+    /**
+     * Test if a change missed because another change had the same epoch is noticed with the next change of its author.
+     */
+    @Test
+    public void testSameEpoch() throws Exception {
+        Membership a = membership(0, 256);
+        Membership b = membership(1, 256);
+        Membership c = membership(2, 256);
+        MembershipDelta first = a.change(MembershipDelta.Type.JOIN, 1, new Member("m1", 1, "localhost", 1001));
+        b.apply(first);
+        c.apply(first);
+        MembershipDelta second = b.change(MembershipDelta.Type.JOIN, 5, new Member("m5", 5, "localhost", 1005));
+        a.apply(second);
+        c.apply(second);
+
+        // Made at the same time: both have epoch 3, c only gets the change of a
+        MembershipDelta fromA = a.change(MembershipDelta.Type.JOIN, 6, new Member("m6", 6, "localhost", 1006));
+        MembershipDelta fromB = b.change(MembershipDelta.Type.JOIN, 7, new Member("m7", 7, "localhost", 1007));
+        assertEquals(fromA.getEpoch(), fromB.getEpoch());
+        assertEquals(Membership.Outcome.APPLIED, c.apply(fromA));
+        assertEquals(3, c.getEpoch());
+        assertEquals(c.getEpoch(), c.getCatchUpEpoch());
+
+        b.apply(fromA);
+        MembershipDelta next = b.change(MembershipDelta.Type.LEAVE, 5, null);
+        assertEquals(fromB.getEpoch(), next.getPrevious());
+        assertEquals(Membership.Outcome.BEHIND, c.apply(next));
+        assertEquals(2, c.getCatchUpEpoch()); // Last change of b that c applied
+
+        MembershipView missed = b.since(c.getCatchUpEpoch());
+        assertTrue(missed.getDeltas().contains(fromB));
+        for(MembershipDelta d: missed.getDeltas()) c.apply(d);
+        c.caughtUp(missed.getEpoch());
+        assertEquals(c.getEpoch(), c.getCatchUpEpoch());
+        List<Integer> ids = new ArrayList<>();
+        for(Member m: c.full().getMembers()) ids.add(m.getID());
+        assertEquals(Arrays.asList(1, 2, 6, 7), ids);
+    }
+
+    /**
+     * Test if a member who left is not brought back by a JOIN received late.
+     */
+    @Test
+    public void testLateJoin() throws Exception {
+        Membership view = membership(0, 256);
+        view.apply(new MembershipDelta(2, 1, MembershipDelta.Type.LEAVE, 5, null));
+        view.apply(join(1, 5));
+        assertEquals(2, view.getEpoch());
+        assertEquals(1, view.full().getMembers().size());
+    }
+
+    /**
+     * Test if IDs handed out are known to every member, including new members, so they are never handed out twice.
+     */
+    @Test
+    public void testLease() throws Exception {
+        Membership leader = membership(0, 256);
+        Membership follower = membership(1, 256);
+        follower.apply(join(1, 0));
+        leader.apply(join(1, 1));
+        assertEquals(2, leader.getAllocated());
+
+        MembershipDelta lease = leader.lease(16);
+        assertEquals(18, lease.getID());
+        assertEquals(18, leader.getAllocated());
+        follower.apply(lease);
+        assertEquals(18, follower.getAllocated());
+
+        Membership joiner = membership(2, 256);
+        joiner.load(leader.full());
+        assertEquals(18, joiner.getAllocated());
+        assertEquals(34, joiner.lease(16).getID()); // As a later coordinator
+    }
+
+    /**
+     * Test if a join missed by a member is added from the view of another member, but not a member never handed an ID.
+     */
+    @Test
+    public void testMerge() throws Exception {
+        Membership leader = membership(0, 256);
+        MemberTable missedMembers = new MemberTable();
+        MemberTable otherMembers = new MemberTable();
+        Membership missed = new Membership(new Member("m1", 1, "localhost", 1001), missedMembers, 256);
+        Membership other = new Membership(new Member("m2", 2, "localhost", 1002), otherMembers, 256);
+        MembershipDelta lease = leader.lease(3);
+        missed.apply(lease);
+        other.apply(lease);
+        other.apply(join(2, 1));
+        other.apply(join(3, 3));
+        missed.apply(join(2, 2));
+        otherMembers.add(new Member("m99", 99, "localhost", 1099)); // Never handed out
+
+        List<Member> added = missed.merge(other.full());
+        assertEquals(1, added.size());
+        assertEquals(3, added.get(0).getID());
+        assertEquals(2, missedMembers.size());
+        assertNull(missedMembers.byId(99));
+        assertEquals(1, missed.getStats().getMerged());
+        assertTrue(missed.merge(other.full()).isEmpty());
+    }
+
+    /**
+     * Test if a LEAVE missed by a member is caught up from the view of another member, so their digests match again.
+     */
+    @Test
+    public void testMissedLeave() throws Exception {
+        Membership leader = membership(0, 256);
+        MemberTable missedMembers = new MemberTable();
+        Membership missed = new Membership(new Member("m1", 1, "localhost", 1001), missedMembers, 256);
+        leader.change(MembershipDelta.Type.JOIN, 1, new Member("m1", 1, "localhost", 1001));
+        leader.change(MembershipDelta.Type.JOIN, 2, new Member("m2", 2, "localhost", 1002));
+        missed.load(leader.full());
+        leader.change(MembershipDelta.Type.LEAVE, 2, null); // Never reaches the other member
+        assertFalse(leader.getDigest() == missed.getDigest());
+        MembershipView stale = missed.full();
+
+        MembershipView everyone = leader.full();
+        assertTrue(missed.merge(everyone).isEmpty());
+        List<Member> removed = missed.prune(everyone);
+        assertEquals(1, removed.size());
+        assertEquals(2, removed.get(0).getID());
+        assertNull(missedMembers.byId(2));
+        assertEquals(leader.getDigest(), missed.getDigest());
+        assertEquals(1, missed.getStats().getPruned());
+
+        // Not brought back by a member who missed the same LEAVE
+        assertTrue(missed.merge(stale).isEmpty());
+        assertNull(missedMembers.byId(2));
+    }
+
+    /**
+     * Test if a member becoming the coordinator is replaced, so snapshots taken before don't change.
+     */
+    @Test
+    public void testCoordinatorReplaced() throws Exception {
+        MemberTable members = new MemberTable();
+        Membership view = new Membership(new Member("m0", 0, "localhost", 1000), members, 256);
+        view.apply(join(1, 1));
+        Member before = members.byId(1);
+        MemberTable.Snapshot snapshot = members.snapshot();
+
+        view.apply(new MembershipDelta(2, 1, MembershipDelta.Type.COORDINATOR, 1, null));
+        assertTrue(members.byId(1).isCoordinator());
+        assertFalse(before.isCoordinator());
+        assertFalse(snapshot.byId(1).isCoordinator());
+        assertTrue(members.snapshot().getVersion() > snapshot.getVersion());
+    }
+
+    /**
+     * Test if members who left are forgotten once as many changes as are kept were made since.
+     */
+    @Test
+    public void testLeftForgotten() throws Exception {
+        Membership view = membership(0, 10);
+        for(int i = 1; i <= 5; i++) view.change(MembershipDelta.Type.JOIN, i, new Member("m" + i, i, "localhost", 1000 + i));
+        for(int i = 1; i <= 5; i++) view.change(MembershipDelta.Type.LEAVE, i, null);
+        assertEquals(5, view.full().getLeft().size());
+
+        for(int i = 6; i <= 13; i++) view.change(MembershipDelta.Type.JOIN, i, new Member("m" + i, i, "localhost", 1000 + i));
+        assertEquals(Arrays.asList(4, 5), view.full().getLeft()); // Left at epochs 9 and 10, now at 18
+        assertEquals(14, view.getAllocated());
+        view.change(MembershipDelta.Type.LEAVE, 13, null);
+        assertEquals(Arrays.asList(5, 13), view.full().getLeft());
+        assertEquals(14, view.getAllocated()); // Still never handed out again
+    }
+
+    /**
+     * Test if a member behind gets only the changes it missed, or every member when they are no longer kept.
+     */
+    @Test
+    public void testSince() throws Exception {
+        Membership view = membership(0, 10);
+        for(int i = 1; i <= 30; i++) view.change(MembershipDelta.Type.JOIN, i, new Member("m" + i, i, "localhost", 1000 + i));
+        assertEquals(30, view.getEpoch());
+
+        MembershipView recent = view.since(25);
+        assertFalse(recent.isFull());
+        assertEquals(30, recent.getEpoch());
+        assertEquals(5, recent.getDeltas().size());
+        assertEquals(26, recent.getDeltas().get(0).getEpoch());
+        assertTrue(view.since(30).getDeltas().isEmpty());
+
+        MembershipView old = view.since(5);
+        assertTrue(old.isFull());
+        assertEquals(31, old.getMembers().size());
+        assertEquals(5, view.getStats().getDeltasSent());
+        assertEquals(1, view.getStats().getFullViewsSent());
+    }
+
+    /**
+     * Test if a member behind ends up with the same view, whether it gets changes or every member.
+     */
+    @Test
+    public void testCatchUp() throws Exception {
+        Membership leader = membership(0, 10);
+        Membership partial = membership(1, 10);
+        Membership full = membership(2, 10);
+        partial.load(leader.full()); // As when joining the leader
+        full.load(leader.full());
+        List<MembershipDelta> deltas = new ArrayList<>();
+        for(int i = 1; i <= 20; i++) deltas.add(leader.change(MembershipDelta.Type.JOIN, i, new Member("m" + i, i, "localhost", 1000 + i)));
+        for(int i = 3; i <= 20; i += 3) deltas.add(leader.change(MembershipDelta.Type.LEAVE, i, null));
+        deltas.add(leader.change(MembershipDelta.Type.COORDINATOR, 1, null));
+
+        // Missed the last few changes
+        for(MembershipDelta d: deltas.subList(0, deltas.size() - 5)) partial.apply(d);
+        MembershipView changes = leader.since(partial.getEpoch());
+        assertFalse(changes.isFull());
+        assertEquals(5, changes.getDeltas().size());
+        for(MembershipDelta d: changes.getDeltas()) partial.apply(d);
+        partial.caughtUp(changes.getEpoch());
+
+        // Missed more changes than the leader keeps
+        for(MembershipDelta d: deltas.subList(0, 5)) full.apply(d);
+        MembershipView everyone = leader.since(full.getEpoch());
+        assertTrue(everyone.isFull());
+        full.load(everyone);
+
+        for(Membership m: Arrays.asList(partial, full)) {
+            assertEquals(leader.getEpoch(), m.getEpoch());
+            assertEquals(leader.getDigest(), m.getDigest());
+            assertEquals(leader.full().getMembers(), m.full().getMembers());
+        }
+    }
+
+    /**
+     * Test if every member of a chat reaches the same epoch and view.
+     */
+    @Test
+    public void testConvergence() throws Exception {
+        System.out.println("testConvergence()");
+
+        TestClient c_c1 = TestClient.buildTestClient("m1", TestClient.EMPTY_MEMBER);
+        TestClient c_c2 = TestClient.buildTestClient("m2", c_c1.me);
+        TestClient c_c3 = TestClient.buildTestClient("m3", c_c2.me);
+        TestClient c_c4 = TestClient.buildTestClient("m4", c_c1.me);
+
+        c_c3.quit(); // Removed by the coordinator when the others can't reach it
+        c_c4.sendMessage("Anyone there?");
+        Thread.sleep(5000);
+
+        for(TestClient c: Arrays.asList(c_c2, c_c4)) {
+            assertEquals(c_c1.getMembership().getEpoch(), c.getMembership().getEpoch());
+            assertEquals(c_c1.getMembership().getDigest(), c.getMembership().getDigest());
+            assertNull(c.getMembers().byId(c_c3.me.getID()));
+        }
+
+        c_c4.quit();
+        c_c2.quit();
+        c_c1.quit();
+    }
+}
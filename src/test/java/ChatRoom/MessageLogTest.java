@@ -0,0 +1,93 @@
+package ChatRoom;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the memory-mapped message log.
+ *
+ * @author iAbdu
+ */
+public class MessageLogTest {
+
+    private static List<Message> messages(int count, int contentLength) {
+        char[] filler = new char[contentLength];
+        Arrays.fill(filler, 'x');
+        List<Message> messages = new ArrayList<>();
+        for(int i = 0; i < count; i++) messages.add(new Message("m" + (i % 5), i + " " + new String(filler) + " é", MessageType.values()[i % MessageType.values().length], 1000L * i));
+        return messages;
+    }
+
+    /**
+     * Test if messages are read back in order, by index and by iterator, across many segments.
+     */
+    @Test
+    public void testAppendAndRead() throws Exception {
+        MessageLog log = new MessageLog(Files.createTempDirectory("chatroom-test-").toFile(), true);
+        List<Message> messages = messages(3000, 1000); // About 3 segments
+        for(Message m: messages) log.append(m);
+
+        assertEquals(messages.size(), log.size());
+        assertEquals(messages.get(0), log.get(0));
+        assertEquals(messages.get(messages.size() - 1), log.get(log.size() - 1));
+        assertEquals(messages, new ArrayList<>(log)); // Uses the iterator
+        log.close();
+    }
+
+    /**
+     * Test if the history is read back when the log is opened again, and new messages are added after it.
+     */
+    @Test
+    public void testReopen() throws Exception {
+        File dir = Files.createTempDirectory("chatroom-test-").toFile();
+        List<Message> messages = messages(2500, 1000);
+
+        MessageLog log = new MessageLog(dir, false);
+        for(Message m: messages.subList(0, 2000)) log.append(m);
+        log.close();
+        assertTrue(dir.listFiles().length > 1);
+
+        log = new MessageLog(dir, true);
+        assertEquals(messages.subList(0, 2000), new ArrayList<>(log));
+        for(Message m: messages.subList(2000, 2500)) log.append(m);
+        assertEquals(messages, new ArrayList<>(log));
+        log.close();
+    }
+
+    /**
+     * Test if a record whose length was never written, e.g. because of a crash, is ignored.
+     */
+    @Test
+    public void testIncompleteRecord() throws Exception {
+        File dir = Files.createTempDirectory("chatroom-test-").toFile();
+        List<Message> messages = messages(3, 10);
+
+        MessageLog log = new MessageLog(dir, false);
+        for(Message m: messages) log.append(m);
+        log.close();
+
+        // Wipe the length of the last record, as if the client stopped while writing it
+        int lastStart = 0;
+        try (RandomAccessFile file = new RandomAccessFile(new File(dir, String.format("%010d.log", 0)), "rw")) {
+            for(int i = 0; i < 2; i++) {
+                file.seek(lastStart);
+                lastStart += MessageLog.RECORD_HEADER + file.readInt();
+            }
+            file.seek(lastStart);
+            file.writeInt(0);
+        }
+
+        log = new MessageLog(dir, true);
+        assertEquals(messages.subList(0, 2), new ArrayList<>(log));
+        log.append(messages.get(2));
+        assertEquals(messages, new ArrayList<>(log));
+        log.close();
+    }
+}
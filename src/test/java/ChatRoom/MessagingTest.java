@@ -1,8 +1,21 @@
 package ChatRoom;
 
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import org.junit.Test;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Testing group communication.
@@ -257,4 +270,96 @@ public class MessagingTest {
         mmcrj_c2.quit();
         mmcrj_c1.quit();
     }
+    
+    /**
+     * Test if a burst of messages, sent without waiting, is received in order.
+     * Most of these messages are sent to the other member in batches.
+     */
+    @Test
+    public void testBurstReceivedInOrder() throws Exception {
+        System.out.println("testBurstReceivedInOrder()");
+        
+        TestClient brio_c1 = TestClient.buildTestClient("m1", TestClient.EMPTY_MEMBER);
+        TestClient brio_c2 = TestClient.buildTestClient("m2", brio_c1.me);
+        
+        ArrayList<Broadcast> broadcasts = new ArrayList<>();
+        for(int i = 0; i < 500; i++) broadcasts.add(brio_c1.sendMessage(new Message("m1", "Line " + i + " of a pasted log", MessageType.MESSAGE)));
+        for(Broadcast b: broadcasts) assertTrue(b.await(10, TimeUnit.SECONDS));
+        Thread.sleep(1000);
+        
+        ArrayList<Message> brio_c1_messages = new ArrayList<>();
+        ArrayList<Message> brio_c2_messages = new ArrayList<>();
+        for(Message m: brio_c1.getAllMessages()) if(m.getMessageType() == MessageType.MESSAGE) brio_c1_messages.add(m);
+        for(Message m: brio_c2.getAllMessages()) if(m.getMessageType() == MessageType.MESSAGE) brio_c2_messages.add(m);
+        
+        assertEquals(500, brio_c2_messages.size());
+        assertArrayEquals(brio_c1_messages.toArray(), brio_c2_messages.toArray());
+        
+        brio_c2.quit();
+        brio_c1.quit();
+    }
+    
+    /**
+     * Test if a message received twice, e.g. sent again after a lost connection, is only shown once.
+     */
+    @Test
+    public void testDuplicateShownOnce() throws Exception {
+        System.out.println("testDuplicateShownOnce()");
+        
+        TestClient dso_c1 = TestClient.buildTestClient("m1", TestClient.EMPTY_MEMBER);
+        TestClient dso_c2 = TestClient.buildTestClient("m2", dso_c1.me);
+        
+        Message once = new Message("m1", "Only once please", MessageType.MESSAGE).withId(dso_c1.me.getID(), 1000);
+        assertTrue(dso_c1.sendMessage(once).await(5, TimeUnit.SECONDS));
+        assertTrue(dso_c1.sendMessage(once).await(5, TimeUnit.SECONDS)); // Same ID
+        dso_c1.sendMessage("Something else");
+        
+        int received = 0;
+        for(Message m: dso_c2.getAllMessages()) if(m.equals(once)) received++;
+        assertEquals(1, received);
+        assertEquals(1, dso_c2.getDuplicates());
+        assertEquals("Something else", dso_c2.getAllMessages().get(dso_c2.getAllMessages().size() - 1).getContent());
+        
+        dso_c2.quit();
+        dso_c1.quit();
+    }
+    
+    /**
+     * Test if a write aborted because it takes too long fails, instead of being sent again on a new connection.
+     */
+    @Test
+    public void testAbortedWriteNotSentAgain() throws Exception {
+        System.out.println("testAbortedWriteNotSentAgain()");
+        
+        try (ServerSocket server = new ServerSocket(0)) {
+            PeerConnection conn = new PeerConnection(new Member("slow", 1, "localhost", server.getLocalPort()));
+            char[] content = new char[4 * 1024 * 1024];
+            Arrays.fill(content, 'x');
+            ByteBuffer frame = Frames.encode(new Message("m1", new String(content), MessageType.MESSAGE));
+            CompletableFuture<Void> sent = CompletableFuture.runAsync(() -> {
+                try {
+                    conn.send(frame);
+                } catch(IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            try (Socket s = server.accept()) { // Never read: the write blocks once the buffers are full
+                Thread.sleep(500);
+                assertFalse(sent.isDone());
+                conn.abort();
+                try {
+                    sent.get(5, TimeUnit.SECONDS);
+                    fail("Aborted write reported as sent");
+                } catch(ExecutionException e) {}
+                
+                server.setSoTimeout(1000);
+                try {
+                    server.accept().close();
+                    fail("Aborted write sent again on a new connection");
+                } catch(SocketTimeoutException e) {}
+            } finally {
+                conn.terminate();
+            }
+        }
+    }
 }
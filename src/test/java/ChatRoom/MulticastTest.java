@@ -0,0 +1,87 @@
+package ChatRoom;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test a chat where messages are sent to a multicast group, on the loopback interface.
+ *
+ * @author iAbdu
+ */
+public class MulticastTest {
+
+    @BeforeClass
+    public static void useLoopback() {
+        System.setProperty("chatroom.multicast.interface", "lo");
+    }
+
+    @AfterClass
+    public static void clearLoopback() {
+        System.clearProperty("chatroom.multicast.interface");
+    }
+
+    private static List<TestClient> buildChat(int size) throws Exception {
+        System.setProperty("chatroom.dissemination", "MULTICAST");
+        List<TestClient> clients = new ArrayList<>();
+        try {
+            clients.add(TestClient.buildTestClient("m1", TestClient.EMPTY_MEMBER));
+            for(int i = 2; i <= size; i++) clients.add(TestClient.buildTestClient("m" + i, clients.get(0).me));
+        } finally {
+            System.clearProperty("chatroom.dissemination");
+        }
+        for(TestClient c: clients) assertTrue(c.getDissemination() instanceof MulticastDissemination); // Not sending over TCP instead
+        return clients;
+    }
+
+    private static List<String> received(TestClient c) {
+        List<String> received = new ArrayList<>();
+        for(Message m: c.getAllMessages()) if(m.getMessageType() == MessageType.MESSAGE) received.add(m.getUsername() + ": " + m.getContent());
+        return received;
+    }
+
+    /**
+     * Test if every member receives every message exactly once.
+     */
+    @Test
+    public void testEveryoneReceivesOnce() throws Exception {
+        System.out.println("testEveryoneReceivesOnce()");
+        List<TestClient> clients = buildChat(4);
+
+        for(TestClient c: clients) c.sendMessage("Hello from " + c.me.getUsername());
+        Thread.sleep(500);
+
+        Object[] expected = received(clients.get(0)).toArray();
+        assertEquals(clients.size(), expected.length);
+        for(TestClient c: clients) assertArrayEquals(expected, received(c).toArray());
+
+        for(int i = clients.size() - 1; i >= 0; i--) clients.get(i).quit();
+    }
+
+    /**
+     * Test if a lost message is sent again over TCP, and messages are still received in order.
+     */
+    @Test
+    public void testLostMessageRepaired() throws Exception {
+        System.out.println("testLostMessageRepaired()");
+        List<TestClient> clients = buildChat(3);
+        TestClient lmr_c1 = clients.get(0);
+        TestClient lmr_c2 = clients.get(1);
+
+        lmr_c1.sendMessage("First");
+        lmr_c2.dropDatagrams(2); // "Second", and the same message sent again when quiet
+        lmr_c1.sendMessage("Second");
+        lmr_c1.sendMessage("Third");
+        Thread.sleep(500);
+
+        Object[] expected = {"m1: First", "m1: Second", "m1: Third"};
+        for(TestClient c: clients) assertArrayEquals(expected, received(c).toArray());
+
+        for(int i = clients.size() - 1; i >= 0; i--) clients.get(i).quit();
+    }
+}
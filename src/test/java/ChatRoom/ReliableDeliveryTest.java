@@ -0,0 +1,196 @@
+package ChatRoom;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test sending frames to each member until they are acknowledged.
+ *
+ * @author iAbdu
+ */
+public class ReliableDeliveryTest {
+
+    /**
+     * Test if frames lost on the way are sent again, and the messages shown once, in order.
+     */
+    @Test
+    public void testLostFramesSentAgain() throws Exception {
+        System.out.println("testLostFramesSentAgain()");
+
+        TestClient l_c1 = TestClient.buildTestClient("m1", TestClient.EMPTY_MEMBER);
+        TestClient l_c2 = TestClient.buildTestClient("m2", l_c1.me);
+
+        l_c1.dropFrames(3); // The first 3 messages never reach m2
+        List<Broadcast> broadcasts = new ArrayList<>();
+        for(int i = 0; i < 5; i++) broadcasts.add(l_c1.sendMessage(new Message("m1", "Message " + i, MessageType.MESSAGE)));
+        for(Broadcast b: broadcasts) {
+            assertTrue(b.await(MessagingThread.SEND_TIMEOUT, TimeUnit.MILLISECONDS));
+            assertEquals(1, b.getDelivered().size()); // Acknowledged by m2
+        }
+        Thread.sleep(500);
+
+        assertEquals(TestClient.chatMessages(l_c1), TestClient.chatMessages(l_c2));
+        assertEquals(5, TestClient.chatMessages(l_c2).size());
+        long retransmits = l_c1.getReliable().getStats().get("retransmitted") + l_c1.getReliable().getStats().get("fastRetransmitted");
+        assertTrue(retransmits >= 3);
+        assertTrue(l_c2.getReliable().getStats().get("acksSent") > 0);
+
+        long rto = l_c1.getReliable().getRtos().get(l_c2.me.getID());
+        assertTrue(rto >= ReliableDelivery.MIN_RTO && rto <= ReliableDelivery.MAX_RTO);
+
+        l_c2.quit();
+        l_c1.quit();
+    }
+
+    /**
+     * Test if frames received twice or out of order are handed over once each, in order.
+     */
+    @Test
+    public void testDuplicatesDropped() throws Exception {
+        System.out.println("testDuplicatesDropped()");
+
+        TestClient d_c1 = TestClient.buildTestClient("m1", TestClient.EMPTY_MEMBER);
+        ReliableDelivery reliable = d_c1.getReliable();
+        List<Object> delivered = new ArrayList<>();
+
+        reliable.receive(new Sequenced(99, 0, 0, "a"), delivered::add);
+        reliable.receive(new Sequenced(99, 2, 0, "c"), delivered::add); // "b" is missing
+        reliable.receive(new Sequenced(99, 0, 0, "a"), delivered::add);
+        assertEquals(Arrays.asList("a"), delivered);
+
+        reliable.receive(new Sequenced(99, 1, 0, "b"), delivered::add);
+        reliable.receive(new Sequenced(99, 2, 0, "c"), delivered::add);
+        assertEquals(Arrays.asList("a", "b", "c"), delivered);
+
+        // Sender still knows frames this member forgot about, e.g. after it was removed by mistake
+        reliable.forget(99);
+        reliable.receive(new Sequenced(99, 10, 10, "k"), delivered::add);
+        assertEquals(Arrays.asList("a", "b", "c", "k"), delivered);
+
+        assertEquals(2, (long)reliable.getStats().get("duplicates"));
+        assertEquals(1, (long)reliable.getStats().get("outOfOrder"));
+
+        d_c1.quit();
+    }
+
+    /**
+     * Test if a frame whose handler fails still counts as delivered, so the next ones are not held up.
+     */
+    @Test
+    public void testHandlerFailure() throws Exception {
+        System.out.println("testHandlerFailure()");
+
+        TestClient h_c1 = TestClient.buildTestClient("m1", TestClient.EMPTY_MEMBER);
+        ReliableDelivery reliable = h_c1.getReliable();
+        List<Object> delivered = new ArrayList<>();
+        Consumer<Object> handler = o -> {
+            if(o.equals("b")) throw new IllegalStateException("Cannot handle " + o);
+            delivered.add(o);
+        };
+
+        reliable.receive(new Sequenced(99, 0, 0, "a"), handler);
+        reliable.receive(new Sequenced(99, 1, 0, "b"), handler);
+        reliable.receive(new Sequenced(99, 1, 0, "b"), handler); // Sent again: already delivered
+        reliable.receive(new Sequenced(99, 2, 0, "c"), handler);
+        assertEquals(Arrays.asList("a", "c"), delivered);
+        assertEquals(1, (long)reliable.getStats().get("duplicates"));
+        assertEquals(0, (long)reliable.getStats().get("outOfOrder"));
+
+        h_c1.quit();
+    }
+
+    /**
+     * Test if a slow handler doesn't hold up the frames received meanwhile, which are still handed over in order.
+     */
+    @Test
+    public void testSlowHandler() throws Exception {
+        System.out.println("testSlowHandler()");
+
+        TestClient sh_c1 = TestClient.buildTestClient("m1", TestClient.EMPTY_MEMBER);
+        ReliableDelivery reliable = sh_c1.getReliable();
+        List<Object> delivered = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch handling = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Consumer<Object> handler = o -> {
+            if(o.equals("a")) {
+                handling.countDown();
+                try {
+                    release.await();
+                } catch(InterruptedException e) {}
+            }
+            delivered.add(o);
+        };
+
+        Thread slow = new Thread(() -> reliable.receive(new Sequenced(99, 0, 0, "a"), handler));
+        slow.start();
+        assertTrue(handling.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Void> next = CompletableFuture.runAsync(() -> reliable.receive(new Sequenced(99, 1, 0, "b"), handler));
+        next.get(1, TimeUnit.SECONDS); // Returns while "a" is being handled
+        assertTrue(delivered.isEmpty());
+
+        release.countDown();
+        slow.join(5000);
+        assertEquals(Arrays.asList("a", "b"), delivered);
+
+        sh_c1.quit();
+    }
+
+    /**
+     * Test if a frame given up by the caller, e.g. after the send timeout, is no longer sent again.
+     */
+    @Test
+    public void testAbandonedNotSentAgain() throws Exception {
+        System.out.println("testAbandonedNotSentAgain()");
+
+        TestClient a_c1 = TestClient.buildTestClient("m1", TestClient.EMPTY_MEMBER);
+        ReliableDelivery reliable = a_c1.getReliable();
+
+        // Member that never answers: nothing is listening on its port
+        int freePort;
+        try (ServerSocket s = new ServerSocket(0)) {
+            freePort = s.getLocalPort();
+        }
+        Member silent = new Member("silent", 99, "localhost", freePort);
+        CompletableFuture<Void> first = reliable.send(silent, Frames.encode(new Message("m1", "Hello?", MessageType.MESSAGE)));
+        Thread.sleep(ReliableDelivery.INITIAL_RTO + 500);
+        assertTrue(reliable.getStats().get("retransmitted") > 0);
+
+        first.completeExceptionally(new TimeoutException("Given up")); // Like MessagingThread does
+        assertEquals(1, (long)reliable.getStats().get("abandoned"));
+        long retransmitted = reliable.getStats().get("retransmitted");
+        Thread.sleep(ReliableDelivery.MAX_RTO * 2);
+        assertEquals(retransmitted, (long)reliable.getStats().get("retransmitted"));
+
+        a_c1.quit();
+    }
+
+    /**
+     * Test if a member skips frames given up by the sender, and still hands over those it received after them.
+     */
+    @Test
+    public void testSkipAbandoned() throws Exception {
+        System.out.println("testSkipAbandoned()");
+
+        TestClient s_c1 = TestClient.buildTestClient("m1", TestClient.EMPTY_MEMBER);
+        ReliableDelivery reliable = s_c1.getReliable();
+        List<Object> delivered = new ArrayList<>();
+
+        reliable.receive(new Sequenced(99, 0, 0, "a"), delivered::add);
+        reliable.receive(new Sequenced(99, 2, 0, "c"), delivered::add); // "b" never arrives
+        reliable.receive(new Sequenced(99, 3, 2, "d"), delivered::add); // The sender gave up on "b"
+        assertEquals(Arrays.asList("a", "c", "d"), delivered);
+
+        s_c1.quit();
+    }
+}
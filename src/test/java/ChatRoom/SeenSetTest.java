@@ -0,0 +1,63 @@
+package ChatRoom;
+
+import org.junit.Test;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the detection of messages received more than once.
+ *
+ * @author iAbdu
+ */
+public class SeenSetTest {
+
+    /**
+     * Test if duplicates are recognised, including messages received out of order.
+     */
+    @Test
+    public void testDuplicates() {
+        SeenSet seen = new SeenSet();
+        assertTrue(seen.add(1, 0));
+        assertFalse(seen.add(1, 0));
+        assertTrue(seen.add(1, 5));
+        assertTrue(seen.add(1, 3));
+        assertFalse(seen.add(1, 5));
+        assertTrue(seen.add(2, 0)); // Different origin
+        for(long seq = 1; seq < 5; seq++) if(seq != 3) assertTrue(seen.add(1, seq));
+        for(long seq = 0; seq <= 5; seq++) assertTrue(seen.contains(1, seq));
+        assertFalse(seen.contains(1, 6));
+    }
+
+    /**
+     * Test if a message far ahead moves the window, and older messages count as seen.
+     */
+    @Test
+    public void testWindowMoves() {
+        SeenSet seen = new SeenSet();
+        assertTrue(seen.add(1, 0));
+        assertTrue(seen.add(1, 10));
+        assertTrue(seen.add(1, 10 + SeenSet.WINDOW * 3));
+        assertFalse(seen.add(1, 5)); // Left behind
+        assertFalse(seen.add(1, 10 + SeenSet.WINDOW * 3));
+        assertTrue(seen.add(1, 10 + SeenSet.WINDOW * 3 - 1)); // Still in the window
+        assertTrue(seen.add(1, 10 + SeenSet.WINDOW * 3 + 1));
+
+        seen.forget(1);
+        assertTrue(seen.add(1, 0));
+    }
+
+    /**
+     * Test if messages older than the first one received from an origin, e.g. sent before this member joined, are not taken for duplicates.
+     */
+    @Test
+    public void testOlderThanFirst() {
+        SeenSet seen = new SeenSet();
+        long first = SeenSet.WINDOW * 3;
+        assertTrue(seen.add(1, first)); // Received since joining
+        for(long seq = 0; seq < first; seq++) assertTrue(seen.add(1, seq)); // Received with the history of the chat
+        for(long seq = 0; seq <= first; seq++) assertFalse(seen.add(1, seq));
+        assertTrue(seen.add(1, first + 1));
+        assertFalse(seen.add(1, -1)); // Never sent
+        assertFalse(seen.add(2, Long.MIN_VALUE));
+    }
+}
@@ -0,0 +1,66 @@
+package ChatRoom;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the threads and memory used by many members running in the same JVM.
+ *
+ * Run once per server mode and compare the results:
+ *      java -cp target/classes:target/test-classes ChatRoom.ServerFootprintBenchmark BLOCKING 50
+ *      java -cp target/classes:target/test-classes ChatRoom.ServerFootprintBenchmark SELECTOR 50
+ *
+ * @author iAbdu
+ */
+public class ServerFootprintBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0? args[0] : "BLOCKING";
+        int size = args.length > 1? Integer.parseInt(args[1]) : 50;
+        System.setProperty("java.awt.headless", "true");
+        System.setProperty("chatroom.server", mode);
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(new OutputStream() { @Override public void write(int b) {} })); // Clients are very chatty
+
+        long threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+        long heapBefore = usedHeap();
+
+        List<Client> clients = new ArrayList<>();
+        int port = 20000;
+        while(clients.size() < size) {
+            Member m = new Member("f" + clients.size(), -1, "localhost", port++);
+            try {
+                if(clients.isEmpty()) clients.add(new Client(m, false, "", 0));
+                else clients.add(new Client(m, false, clients.get(0).me.getAddress(), clients.get(0).me.getPort()));
+            } catch(PortNotAvailbleException e) {}
+        }
+        Thread.sleep(2000);
+
+        // Everyone sends one message, so every member has a connection open with everyone else
+        for(Client c: clients) c.sendMessage("Hello from " + c.me.getUsername());
+        Thread.sleep(5000);
+
+        long threadsAfter = ManagementFactory.getThreadMXBean().getThreadCount();
+        long heapAfter = usedHeap();
+
+        for(Client c: clients) c.quit();
+
+        System.setOut(console);
+        System.out.println("mode=" + mode + " members=" + size);
+        System.out.println("threads: " + threadsAfter + " (" + (threadsAfter - threadsBefore) + " added, " + String.format("%.1f", (threadsAfter - threadsBefore) / (double)size) + " per member)");
+        System.out.println("heap: " + (heapAfter - heapBefore) / 1024 + " KB added (" + (heapAfter - heapBefore) / 1024 / size + " KB per member)");
+        System.exit(0);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for(int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+}
@@ -0,0 +1,98 @@
+package ChatRoom;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test sending the messages of the chat to new members.
+ *
+ * @author iAbdu
+ */
+public class StateTransferTest {
+
+    /**
+     * Test if a new member gets the last messages, in chunks, and can chat while they arrive.
+     */
+    @Test
+    public void testBacklogFetched() throws Exception {
+        System.out.println("testBacklogFetched()");
+
+        System.setProperty("chatroom.join.history", "100");
+        TestClient bf_c1 = null, bf_c2 = null;
+        try {
+            bf_c1 = TestClient.buildTestClient("m1", TestClient.EMPTY_MEMBER);
+            for(int i = 0; i < 150; i++) bf_c1.sendMessage(new Message("m1", "Message " + i, MessageType.MESSAGE));
+            bf_c2 = TestClient.buildTestClient("m2", bf_c1.me);
+        } finally {
+            System.clearProperty("chatroom.join.history");
+        }
+        bf_c2.sendMessage(new Message("m2", "Hello, what did I miss?", MessageType.MESSAGE)); // Online without waiting for them
+
+        assertTrue(bf_c2.getTransfer().await(5, TimeUnit.SECONDS));
+        Thread.sleep(1000);
+
+        List<Message> sent = TestClient.chatMessages(bf_c1);
+        List<Message> received = TestClient.chatMessages(bf_c2);
+        assertEquals(101, received.size());
+        assertTrue(received.contains(sent.get(150)));
+        received.remove(sent.get(150));
+        assertEquals(sent.subList(50, 150), received); // In the order they were sent
+
+        int chunks = (100 + StateTransfer.CHUNK - 1) / StateTransfer.CHUNK;
+        assertEquals(chunks, (long)bf_c2.getTransfer().getStats().get("chunksReceived"));
+        assertEquals(100, (long)bf_c2.getTransfer().getStats().get("messagesReceived"));
+        assertEquals(chunks, (long)bf_c1.getTransfer().getStats().get("chunksSent"));
+
+        bf_c2.quit();
+        bf_c1.quit();
+    }
+
+    /**
+     * Test if a message received both with the messages sent before joining and since joining is shown once.
+     */
+    @Test
+    public void testNoDuplicates() throws Exception {
+        System.out.println("testNoDuplicates()");
+
+        System.setProperty("chatroom.join.history", "10");
+        TestClient nd_c1 = null, nd_c2 = null;
+        try {
+            nd_c1 = TestClient.buildTestClient("m1", TestClient.EMPTY_MEMBER);
+            for(int i = 0; i < 10; i++) nd_c1.sendMessage(new Message("m1", "Message " + i, MessageType.MESSAGE));
+            nd_c2 = TestClient.buildTestClient("m2", nd_c1.me);
+        } finally {
+            System.clearProperty("chatroom.join.history");
+        }
+        assertTrue(nd_c2.getTransfer().await(5, TimeUnit.SECONDS));
+
+        Message late = TestClient.chatMessages(nd_c1).get(9); // e.g. sent to m2 once it was known, after the snapshot was taken
+        new Dispatcher(nd_c2).dispatch(late);
+        assertEquals(TestClient.chatMessages(nd_c1), TestClient.chatMessages(nd_c2));
+        assertEquals(1, nd_c2.getDuplicates());
+
+        nd_c2.quit();
+        nd_c1.quit();
+    }
+
+    /**
+     * Test if new members get no messages sent before they joined, unless it is enabled.
+     */
+    @Test
+    public void testDisabled() throws Exception {
+        System.out.println("testDisabled()");
+
+        TestClient d_c1 = TestClient.buildTestClient("m1", TestClient.EMPTY_MEMBER);
+        d_c1.sendMessage("Nobody will see this");
+        TestClient d_c2 = TestClient.buildTestClient("m2", d_c1.me);
+
+        assertTrue(d_c2.getTransfer().await(0, TimeUnit.SECONDS));
+        assertTrue(TestClient.chatMessages(d_c2).isEmpty());
+        assertEquals(0, (long)d_c1.getTransfer().getStats().get("offered"));
+
+        d_c2.quit();
+        d_c1.quit();
+    }
+}
@@ -0,0 +1,138 @@
+package ChatRoom;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test members finding gone members with the SWIM protocol instead of heartbeats.
+ *
+ * @author iAbdu
+ */
+public class SwimTest {
+
+    @BeforeClass
+    public static void shortPeriods() {
+        // Read when SwimProtocol is first used, so the tests don't take minutes
+        System.setProperty("chatroom.swim.period", "200");
+    }
+
+    @AfterClass
+    public static void clearPeriods() {
+        System.clearProperty("chatroom.swim.period");
+    }
+
+    private static List<TestClient> buildChat(int size) throws Exception {
+        System.setProperty("chatroom.liveness", "SWIM");
+        List<TestClient> clients = new ArrayList<>();
+        try {
+            clients.add(TestClient.buildTestClient("s1", TestClient.EMPTY_MEMBER));
+            for(int i = 2; i <= size; i++) clients.add(TestClient.buildTestClient("s" + i, clients.get(0).me));
+        } finally {
+            System.clearProperty("chatroom.liveness");
+        }
+        for(TestClient c: clients) assertNotNull(c.getSwim());
+        return clients;
+    }
+
+    private static long periods(int n) { return SwimProtocol.PERIOD * n; }
+
+    /**
+     * Test if a member who crashed is removed by every other member.
+     */
+    @Test
+    public void testCrashedMemberRemoved() throws Exception {
+        System.out.println("testCrashedMemberRemoved()");
+        List<TestClient> clients = buildChat(4);
+        TestClient crashed = clients.remove(2);
+        crashed.quit(); // Leaves without telling anyone
+
+        Thread.sleep(periods(SwimProtocol.SUSPICION_PERIODS + 10));
+        for(TestClient c: clients) {
+            assertNull(c.me.getUsername() + " still has the crashed member", c.getMembers().byId(crashed.me.getID()));
+            assertEquals(clients.size() - 1, c.getMembers().size());
+        }
+
+        Collections.reverse(clients);
+        for(TestClient c: clients) c.quit();
+    }
+
+    /**
+     * Test if members who are still there are kept, and the work done by each does not depend on the size of the room.
+     */
+    @Test
+    public void testIdleMembersStay() throws Exception {
+        System.out.println("testIdleMembersStay()");
+        List<TestClient> clients = buildChat(4);
+        long before = clients.get(0).getSwim().getStats().get("pings");
+
+        Thread.sleep(periods(10));
+        for(TestClient c: clients) {
+            assertEquals(clients.size() - 1, c.getMembers().size());
+            assertEquals(0L, (long)c.getSwim().getStats().get("removals"));
+        }
+        long pings = clients.get(0).getSwim().getStats().get("pings") - before;
+        assertTrue("Pinged " + pings + " times in 10 periods", pings >= 8 && pings <= 11); // One member per period
+
+        Collections.reverse(clients);
+        for(TestClient c: clients) c.quit();
+    }
+
+    /**
+     * Test if suspicions are sent along with chat messages, not only with pings.
+     */
+    @Test
+    public void testUpdatesSentWithMessages() throws Exception {
+        System.out.println("testUpdatesSentWithMessages()");
+        List<TestClient> clients = buildChat(3);
+        TestClient accuser = clients.get(1);
+        TestClient accused = clients.get(2);
+
+        SwimMessage.Update suspect = new SwimMessage.Update(SwimMessage.Update.Status.SUSPECT, accused.me.getID(), 0);
+        accuser.getSwim().receive(new SwimMessage(SwimMessage.Kind.GOSSIP, clients.get(0).me.getID(), -1, 0, Collections.singletonList(suspect)));
+        assertTrue(accuser.getSwim().isSuspected(accused.me.getID()));
+        assertEquals(0L, (long)accuser.getSwim().getStats().get("piggybacked"));
+
+        accuser.sendMessage(new Message(accuser.me.getUsername(), "Anyone seen s3?", MessageType.MESSAGE));
+        assertTrue(accuser.getSwim().getStats().get("piggybacked") > 0);
+        Thread.sleep(500);
+        assertEquals("Anyone seen s3?", TestClient.chatMessages(clients.get(0)).get(TestClient.chatMessages(clients.get(0)).size() - 1).getContent());
+
+        Collections.reverse(clients);
+        for(TestClient c: clients) c.quit();
+    }
+
+    /**
+     * Test if a member wrongly suspected refutes the suspicion before being removed.
+     */
+    @Test
+    public void testSuspicionRefuted() throws Exception {
+        System.out.println("testSuspicionRefuted()");
+        List<TestClient> clients = buildChat(3);
+        TestClient accuser = clients.get(1);
+        TestClient accused = clients.get(2);
+
+        // Someone says the accused is suspected
+        SwimMessage.Update suspect = new SwimMessage.Update(SwimMessage.Update.Status.SUSPECT, accused.me.getID(), 0);
+        accuser.getSwim().receive(new SwimMessage(SwimMessage.Kind.ACK, clients.get(0).me.getID(), clients.get(0).me.getID(), -1, Collections.singletonList(suspect)));
+        assertTrue(accuser.getSwim().isSuspected(accused.me.getID()));
+
+        Thread.sleep(periods(SwimProtocol.SUSPICION_PERIODS + 10));
+        for(TestClient c: clients) {
+            if(c == accused) continue;
+            assertNotNull(c.me.getUsername() + " removed the accused", c.getMembers().byId(accused.me.getID()));
+            assertFalse(c.getSwim().isSuspected(accused.me.getID()));
+        }
+
+        Collections.reverse(clients);
+        for(TestClient c: clients) c.quit();
+    }
+}
@@ -1,5 +1,10 @@
 package ChatRoom;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * A Client version used for tests.
  * 
@@ -36,6 +41,39 @@ public class TestClient extends Client {
         try{ Thread.sleep(1000); } catch(InterruptedException e) {}
     }
 
+    @Override
+    protected ReliableDelivery newReliableDelivery() {
+        return new LossyReliableDelivery(this);
+    }
+    
+    @Override
+    protected Dissemination newDissemination() {
+        if(Dissemination.Mode.fromProperty() != Dissemination.Mode.MULTICAST) return super.newDissemination();
+        try {
+            return new LossyMulticast(this);
+        } catch(IOException e) {
+            return super.newDissemination(); // Falls back to sending over TCP
+        }
+    }
+    
+    /**
+     * Loses the next frames sent reliably to any member, as a broken connection would.
+     * 
+     * @param count Frames to lose
+     */
+    public void dropFrames(int count) {
+        ((LossyReliableDelivery)getReliable()).drop(count);
+    }
+    
+    /**
+     * Loses the next datagrams received from the multicast group.
+     * 
+     * @param count Datagrams to lose
+     */
+    public void dropDatagrams(int count) {
+        ((LossyMulticast)getDissemination()).drop(count);
+    }
+    
     @Override
     protected void sendMessage(String message) {
         super.sendMessage(message);
@@ -67,4 +105,70 @@ public class TestClient extends Client {
             }
         }
     }
+    
+    /**
+     * Gets the chat messages shown by a client, without system messages (e.g. "X joined the chat!").
+     * 
+     * @param c Client to read from
+     * @return Chat messages, in the order they are shown
+     */
+    public static List<Message> chatMessages(Client c) {
+        List<Message> messages = new ArrayList<>();
+        for(Message m: c.getAllMessages()) if(m.getMessageType() == MessageType.MESSAGE) messages.add(m);
+        return messages;
+    }
+    
+    /**
+     * Reliable delivery losing frames on demand.
+     * The count has no initializer, since frames can be written before the constructor returns.
+     */
+    private static class LossyReliableDelivery extends ReliableDelivery {
+        private int dropNext; // Guarded by this
+        
+        LossyReliableDelivery(Client c) {
+            super(c);
+        }
+        
+        synchronized void drop(int count) {
+            dropNext = count;
+        }
+        
+        private synchronized boolean lose() {
+            if(dropNext == 0) return false;
+            dropNext--;
+            return true;
+        }
+        
+        @Override
+        protected void write(Member member, ByteBuffer frame) {
+            if(!lose()) super.write(member, frame);
+        }
+    }
+    
+    /**
+     * Multicast losing datagrams on demand.
+     * The count has no initializer, since datagrams can be received before the constructor returns.
+     */
+    private static class LossyMulticast extends MulticastDissemination {
+        private int dropNext; // Guarded by this
+        
+        LossyMulticast(Client c) throws IOException {
+            super(c);
+        }
+        
+        synchronized void drop(int count) {
+            dropNext = count;
+        }
+        
+        private synchronized boolean lose() {
+            if(dropNext == 0) return false;
+            dropNext--;
+            return true;
+        }
+        
+        @Override
+        protected void received(ByteBuffer datagram) throws IOException, ClassNotFoundException {
+            if(!lose()) super.received(datagram);
+        }
+    }
 }
@@ -0,0 +1,102 @@
+package ChatRoom;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test a chat where messages travel down a tree of members.
+ *
+ * With 7 members and up to 4 children each, messages from m1 go to m2, m3, m4 and m5,
+ * and m2 passes them on to m6 and m7.
+ *
+ * @author iAbdu
+ */
+public class TreeTest {
+
+    private static List<TestClient> buildChat(int size) throws Exception {
+        System.setProperty("chatroom.dissemination", "TREE");
+        List<TestClient> clients = new ArrayList<>();
+        try {
+            clients.add(TestClient.buildTestClient("m1", TestClient.EMPTY_MEMBER));
+            for(int i = 2; i <= size; i++) clients.add(TestClient.buildTestClient("m" + i, clients.get(0).me));
+        } finally {
+            System.clearProperty("chatroom.dissemination");
+        }
+        return clients;
+    }
+
+    private static List<String> received(TestClient c) {
+        List<String> received = new ArrayList<>();
+        for(Message m: c.getAllMessages()) if(m.getMessageType() == MessageType.MESSAGE) received.add(m.getUsername() + ": " + m.getContent());
+        return received;
+    }
+
+    /**
+     * Test if every member receives every message exactly once.
+     */
+    @Test
+    public void testEveryoneReceivesOnce() throws Exception {
+        System.out.println("testEveryoneReceivesOnce()");
+        List<TestClient> clients = buildChat(7);
+
+        for(TestClient c: clients) c.sendMessage("Hello from " + c.me.getUsername());
+        Thread.sleep(1000);
+
+        Object[] expected = received(clients.get(0)).toArray();
+        assertEquals(clients.size(), expected.length);
+        for(TestClient c: clients) {
+            assertEquals(TreeDissemination.class, c.getDissemination().getClass());
+            assertArrayEquals(expected, received(c).toArray());
+        }
+
+        for(int i = clients.size() - 1; i >= 0; i--) clients.get(i).quit();
+    }
+
+    /**
+     * Test if the children of a member that left without telling anyone still receive messages.
+     */
+    @Test
+    public void testBranchRepaired() throws Exception {
+        System.out.println("testBranchRepaired()");
+        List<TestClient> clients = buildChat(7);
+
+        clients.get(1).quit(); // m2, parent of m6 and m7
+        clients.get(0).sendMessage("Is everyone still there?");
+        Thread.sleep(MessagingThread.SEND_TIMEOUT);
+
+        for(int i = 2; i < clients.size(); i++) {
+            List<String> received = received(clients.get(i));
+            assertEquals("m1: Is everyone still there?", received.get(received.size() - 1));
+            assertEquals(1, received.stream().filter(m -> m.equals("m1: Is everyone still there?")).count());
+        }
+
+        for(int i = clients.size() - 1; i >= 0; i--) if(i != 1) clients.get(i).quit();
+    }
+
+    /**
+     * Test if a message is still passed on once its author left, e.g. when the author quits
+     * while the message is on its way down the tree.
+     */
+    @Test
+    public void testAuthorLeft() throws Exception {
+        System.out.println("testAuthorLeft()");
+        List<TestClient> clients = buildChat(7);
+
+        // m2 sent a message, and everyone heard that m2 left before it arrived
+        TestClient author = clients.get(1);
+        Envelope envelope = new Envelope(author.me.getID(), 0, 0, new Message("m2", "Goodbye", MessageType.MESSAGE));
+        for(TestClient c: clients) if(c != author) c.getMembers().removeById(author.me.getID());
+
+        // From m2, the tree is m2 (gone), m3, m4, m5, m6, m7, m1: m3 passes it on to m7 and m1
+        assertEquals(envelope.getMessage(), clients.get(2).getDissemination().receive(envelope));
+        Thread.sleep(1000);
+
+        assertEquals("m2: Goodbye", received(clients.get(6)).get(received(clients.get(6)).size() - 1));
+        assertEquals("m2: Goodbye", received(clients.get(0)).get(received(clients.get(0)).size() - 1));
+
+        for(int i = clients.size() - 1; i >= 0; i--) clients.get(i).quit();
+    }
+}
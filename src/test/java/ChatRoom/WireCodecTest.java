@@ -0,0 +1,259 @@
+package ChatRoom;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the binary encoding of objects sent between members.
+ *
+ * @author iAbdu
+ */
+public class WireCodecTest {
+
+    /**
+     * Encode and decode an object through a full frame.
+     */
+    private static Object roundTrip(Object obj, boolean binary) throws Exception {
+        return roundTrip(Frames.encode(obj, binary));
+    }
+
+    /**
+     * Decode a full frame.
+     */
+    private static Object roundTrip(ByteBuffer frame) throws Exception {
+        assertEquals(frame.limit() - Frames.HEADER_SIZE, frame.getInt(0));
+        return Frames.decode(frame.array(), Frames.HEADER_SIZE, frame.limit() - Frames.HEADER_SIZE);
+    }
+
+    /**
+     * Test if every type of message survives encoding, including non-ASCII content.
+     */
+    @Test
+    public void testMessageRoundTrip() throws Exception {
+        for(MessageType type: MessageType.values()) {
+            Message m = new Message("m1", "Hello é世界 :) " + type, type);
+            Message decoded = (Message)roundTrip(m, true);
+            assertEquals(m, decoded);
+            assertEquals(m.getTime(), decoded.getTime());
+            assertEquals(m.getMessageType(), decoded.getMessageType());
+            assertFalse(decoded.hasId());
+
+            Message sent = m.withId(300, 1L << 40);
+            decoded = (Message)roundTrip(sent, true);
+            assertEquals(sent, decoded);
+            assertEquals(300, decoded.getOrigin());
+            assertEquals(1L << 40, decoded.getSeq());
+            assertEquals(m.getContent(), decoded.getContent());
+            assertEquals(m.getMessageType(), decoded.getMessageType());
+        }
+
+        // Messages with the same ID are the same message, others are compared field by field
+        Message m = new Message("m1", "Hello", MessageType.MESSAGE);
+        assertEquals(m.withId(1, 5), new Message("m1", "Hello again", MessageType.MESSAGE).withId(1, 5));
+        assertEquals(m.withId(1, 5).hashCode(), new Message("m1", "Hello again", MessageType.MESSAGE).withId(1, 5).hashCode());
+        assertFalse(m.withId(1, 5).equals(m.withId(1, 6)));
+        assertFalse(m.withId(1, 5).equals(m));
+
+        assertEquals(Integer.MAX_VALUE, ((Message)roundTrip(m.withId(Integer.MAX_VALUE, 5), true)).getOrigin());
+    }
+
+    /**
+     * Test if a list claiming more members than the bytes left is rejected before anything is allocated for them.
+     */
+    @Test(expected = IOException.class)
+    public void testCountTooLarge() throws Exception {
+        WireCodec.Output out = new WireCodec.Output();
+        out.write(WireCodec.BINARY_V1);
+        out.write(3); // List of members
+        out.writeVarint(Integer.MAX_VALUE);
+        ByteBuffer payload = out.toByteBuffer();
+        Frames.decode(payload.array(), 0, payload.limit());
+    }
+
+    /**
+     * Test if a message with a negative sequence number is rejected, as nothing sends one.
+     */
+    @Test(expected = IOException.class)
+    public void testNegativeSeq() throws Exception {
+        roundTrip(new Message("m1", "Hello", MessageType.MESSAGE).withId(1, -1), true);
+    }
+
+    /**
+     * Test if members, including their coordinator status and unassigned IDs, survive encoding.
+     */
+    @Test
+    public void testMemberRoundTrip() throws Exception {
+        Member m = new Member("m1", -1, "192.168.1.10", 65535);
+        assertEquals(m, roundTrip(m, true));
+
+        Member coordinator = new Member("m2", 123456, "::1", 8080);
+        coordinator.setCoordinator();
+        Member decoded = (Member)roundTrip(coordinator, true);
+        assertEquals(coordinator, decoded);
+        assertTrue(decoded.isCoordinator());
+    }
+
+    /**
+     * Test if the list of members sent to new members survives encoding, empty or not.
+     */
+    @Test
+    public void testMemberListRoundTrip() throws Exception {
+        List<Member> members = new ArrayList<>();
+        assertEquals(members, roundTrip(members, true));
+
+        for(int i = 0; i < 10; i++) members.add(new Member("m" + i, i, "localhost", 1000 + i));
+        assertEquals(members, roundTrip(members, true));
+    }
+
+    /**
+     * Test if membership changes and views, full or not, survive encoding.
+     */
+    @Test
+    public void testMembershipRoundTrip() throws Exception {
+        Member m = new Member("m3", 3, "localhost", 1003);
+        MembershipDelta join = new MembershipDelta(7, 0, MembershipDelta.Type.JOIN, 3, m);
+        MembershipDelta decoded = (MembershipDelta)roundTrip(join, true);
+        assertEquals(join, decoded);
+        assertEquals(m, decoded.getMember());
+
+        List<MembershipDelta> deltas = new ArrayList<>();
+        deltas.add(join);
+        deltas.add(new MembershipDelta(8, 1, MembershipDelta.Type.LEAVE, 0, null));
+        deltas.add(new MembershipDelta(9, 1, MembershipDelta.Type.COORDINATOR, 1, null));
+        MembershipView partial = (MembershipView)roundTrip(MembershipView.deltas(9, deltas), true);
+        assertEquals(9, partial.getEpoch());
+        assertEquals(deltas, partial.getDeltas());
+
+        List<Member> members = new ArrayList<>();
+        for(int i = 0; i < 5; i++) members.add(new Member("m" + i, i, "localhost", 1000 + i));
+        MembershipView full = (MembershipView)roundTrip(MembershipView.full(12, members, 20, Arrays.asList(5, 7)), true);
+        assertTrue(full.isFull());
+        assertEquals(members, full.getMembers());
+        assertEquals(20, full.getAllocated());
+        assertEquals(Arrays.asList(5, 7), full.getLeft());
+
+        IdRequest ids = (IdRequest)roundTrip(new IdRequest(4, 16, "m9"), true);
+        assertEquals(4, ids.getRequester());
+        assertEquals(16, ids.getCount());
+        assertEquals("m9", ids.getUsername());
+        IdRange range = (IdRange)roundTrip(new IdRange(20, 36), true);
+        assertEquals(20, range.getStart());
+        assertEquals(36, range.getEnd());
+        assertEquals(IdRange.Status.GRANTED, range.getStatus());
+        assertEquals(IdRange.Status.TAKEN, ((IdRange)roundTrip(IdRange.refused(IdRange.Status.TAKEN), true)).getStatus());
+
+        HistoryRequest history = (HistoryRequest)roundTrip(new HistoryRequest(4, 64), true);
+        assertEquals(4, history.getRequester());
+        assertEquals(64, history.getOffset());
+        List<Message> messages = new ArrayList<>();
+        for(int i = 0; i < 3; i++) messages.add(new Message("m" + i, "Message " + i, MessageType.MESSAGE));
+        HistoryChunk chunk = (HistoryChunk)roundTrip(new HistoryChunk(128, 150, messages), true);
+        assertEquals(128, chunk.getNext());
+        assertEquals(150, chunk.getTotal());
+        assertEquals(messages, chunk.getMessages());
+        assertFalse(chunk.isLast());
+
+        ViewRequest request = (ViewRequest)roundTrip(new ViewRequest(4, 11), true);
+        assertEquals(4, request.getRequester());
+        assertEquals(11, request.getEpoch());
+    }
+
+    /**
+     * Test if commands survive encoding, including members with IPv6 addresses.
+     */
+    @Test
+    public void testCommandRoundTrip() throws Exception {
+        Member m = new Member("m6", 6, "fe80::1%eth0", 5006);
+        MembershipDelta join = (MembershipDelta)roundTrip(new MembershipDelta(1, 0, MembershipDelta.Type.JOIN, 6, m), true);
+        assertEquals("fe80::1%eth0", join.getMember().getAddress());
+        assertEquals(5006, join.getMember().getPort());
+
+        Unreachable report = (Unreachable)roundTrip(new Unreachable(2, 6), true);
+        assertEquals(2, report.getReporter());
+        assertEquals(6, report.getID());
+
+        SwimMessage.Update suspect = new SwimMessage.Update(SwimMessage.Update.Status.SUSPECT, 6, 3);
+        SwimMessage pingReq = (SwimMessage)roundTrip(new SwimMessage(SwimMessage.Kind.PING_REQ, 2, 6, 41, Arrays.asList(suspect)), true);
+        assertEquals(SwimMessage.Kind.PING_REQ, pingReq.getKind());
+        assertEquals(2, pingReq.getFrom());
+        assertEquals(6, pingReq.getTarget());
+        assertEquals(41, pingReq.getSeq());
+        assertEquals(SwimMessage.Update.Status.SUSPECT, pingReq.getUpdates().get(0).getStatus());
+        assertEquals(6, pingReq.getUpdates().get(0).getID());
+        assertEquals(3, pingReq.getUpdates().get(0).getIncarnation());
+    }
+
+    /**
+     * Test if Java serialization can still be used and is always understood.
+     */
+    @Test
+    public void testJavaFallback() throws Exception {
+        Message m = new Message("m1", "Hello", MessageType.MESSAGE);
+        ByteBuffer frame = Frames.encode(m, false);
+        assertEquals(WireCodec.JAVA, frame.get(Frames.HEADER_SIZE));
+        assertEquals(m, roundTrip(m, false));
+
+        // Objects unknown to the codec use Java serialization even when binary is preferred
+        assertEquals(WireCodec.JAVA, Frames.encode("not supported", true).get(Frames.HEADER_SIZE));
+        assertEquals("not supported", roundTrip("not supported", true));
+    }
+
+    /**
+     * Test if frames sent together in a batch are received in order, whatever their format.
+     */
+    @Test
+    public void testBatchRoundTrip() throws Exception {
+        List<Object> objects = new ArrayList<>();
+        List<ByteBuffer> frames = new ArrayList<>();
+        for(int i = 0; i < 10; i++) {
+            Message m = new Message("m1", "Message " + i, MessageType.MESSAGE);
+            objects.add(m);
+            frames.add(Frames.encode(m, i % 2 == 0));
+        }
+        objects.add("not supported");
+        frames.add(Frames.encode("not supported", true));
+
+        Frames.Batch batch = (Frames.Batch)roundTrip(Frames.batch(frames));
+        assertEquals(objects, batch.getObjects());
+    }
+
+    /**
+     * Test if a frame sent reliably keeps its sequence number and payload, whatever its format,
+     * and if the ack survives encoding.
+     */
+    @Test
+    public void testSequencedRoundTrip() throws Exception {
+        Message m = new Message("m1", "Hello", MessageType.MESSAGE).withId(3, 7);
+        for(boolean binary: new boolean[] {true, false}) {
+            Sequenced sequenced = (Sequenced)roundTrip(Frames.sequence(3, 300, 42, Frames.encode(m, binary)));
+            assertEquals(3, sequenced.getSender());
+            assertEquals(300, sequenced.getSeq());
+            assertEquals(42, sequenced.getBase());
+            assertEquals(m, sequenced.getPayload());
+        }
+
+        Sequenced encoded = (Sequenced)roundTrip(new Sequenced(5, 1, 0, m), true);
+        assertEquals(5, encoded.getSender());
+        assertEquals(m, encoded.getPayload());
+
+        Delivered ack = (Delivered)roundTrip(new Delivered(4, 1L << 40), true);
+        assertEquals(4, ack.getReceiver());
+        assertEquals(1L << 40, ack.getNext());
+    }
+
+    /**
+     * Test if the binary format is smaller than Java serialization.
+     */
+    @Test
+    public void testBinaryIsSmaller() throws Exception {
+        Message m = new Message("m1", "Hello from m1", MessageType.MESSAGE);
+        assertTrue(Frames.encode(m, true).limit() * 5 < Frames.encode(m, false).limit());
+    }
+}